@@ -0,0 +1,100 @@
+package com.marklogic.hub.cli.client;
+
+import com.beust.jcommander.DynamicParameter;
+import com.beust.jcommander.Parameter;
+import com.marklogic.hub.DatabaseKind;
+import com.marklogic.hub.impl.HubConfigImpl;
+import com.marklogic.mgmt.util.SimplePropertySource;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Defines the parameters for connecting to the Data Hub app servers, which every JCommander Command class that talks
+ * to a MarkLogic server includes via a ParametersDelegate annotation.
+ */
+public class HubConnectionParameters {
+
+    @Parameter(names = "-host", required = true, description = "The MarkLogic host to connect to")
+    private String host;
+
+    @Parameter(names = "-username", description = "The username of the MarkLogic user to connect as")
+    private String username;
+
+    @Parameter(names = "-password", password = true, description = "The password for the MarkLogic user specified by '-username'")
+    private String password;
+
+    @Parameter(names = "-ssl", description = "If included, a secure connection will be made to each Data Hub app server (no parameter value allowed)")
+    private Boolean ssl = false;
+
+    @Parameter(names = "-auth", description = "The authentication method to use when connecting to each Data Hub app server; valid values are basic, digest, and none")
+    private String auth;
+
+    @DynamicParameter(
+        names = "-P",
+        description = "Override any Data Hub property; e.g. -PmlStagingPort=8410 -PmlFinalPort=8411. See https://docs.marklogic.com/datahub/tools/gradle/gradle-properties.html for a full list."
+    )
+    private Map<String, String> params = new HashMap<>();
+
+    public HubConfigImpl buildHubConfig() {
+        HubConfigImpl hubConfig = new HubConfigImpl(host, username, password);
+
+        if (ssl != null && ssl) {
+            Stream.of(DatabaseKind.STAGING, DatabaseKind.FINAL, DatabaseKind.JOB).forEach(kind -> hubConfig.setSimpleSsl(kind, true));
+        }
+
+        if (StringUtils.isNotEmpty(auth)) {
+            Stream.of(DatabaseKind.STAGING, DatabaseKind.FINAL, DatabaseKind.JOB).forEach(kind -> hubConfig.setAuthMethod(kind, auth));
+        }
+
+        if (params != null && !params.isEmpty()) {
+            hubConfig.applyProperties(params::get);
+        } else {
+            hubConfig.applyProperties(new SimplePropertySource());
+        }
+
+        return hubConfig;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public void setParams(Map<String, String> params) {
+        this.params = params;
+    }
+
+    public void setSsl(Boolean ssl) {
+        this.ssl = ssl;
+    }
+
+    public void setAuth(String auth) {
+        this.auth = auth;
+    }
+}
@@ -12,6 +12,7 @@ public class Main {
         JCommander commander = JCommander
             .newBuilder()
             .addCommand("runFlow", new RunFlowCommand())
+            .addCommand("purgeJobs", new PurgeJobsCommand())
             .build();
         commander.setProgramName("java -jar <name of jar>");
 
@@ -0,0 +1,57 @@
+package com.marklogic.hub.cli.client;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.hub.job.JobPurgeResponse;
+import com.marklogic.hub.job.JobPurger;
+
+@Parameters(commandDescription = "Delete the jobs that are no longer to be retained from a MarkLogic server, along with their batches " +
+    "and traces. A job is retained if it ended within the last '-retainDays' days, if it is one of the latest '-retainJobsPerFlow' " +
+    "jobs of its flow, or if it has not ended. Parameter names and values are space-delimited - e.g. -host myHost -retainDays 30."
+)
+public class PurgeJobsCommand implements Runnable {
+
+    @ParametersDelegate
+    private HubConnectionParameters connectionParameters = new HubConnectionParameters();
+
+    @Parameter(names = "-retainDays", description = "The number of days to retain a job for after it ended")
+    private Integer retainDays;
+
+    @Parameter(names = "-retainJobsPerFlow", description = "The number of the latest jobs of each flow to retain, however long ago they ended")
+    private Integer retainJobsPerFlow;
+
+    @Parameter(names = "-batchSize", description = "The number of documents to delete in each batch")
+    private Integer batchSize = JobPurger.DEFAULT_BATCH_SIZE;
+
+    @Parameter(names = "-threadCount", description = "The number of threads to delete batches with")
+    private Integer threadCount = JobPurger.DEFAULT_THREAD_COUNT;
+
+    @Override
+    public void run() {
+        if (retainDays == null && retainJobsPerFlow == null) {
+            System.err.println("Either -retainDays or -retainJobsPerFlow must be specified");
+            return;
+        }
+        if ((retainDays != null && retainDays < 0) || (retainJobsPerFlow != null && retainJobsPerFlow < 0)) {
+            System.err.println("-retainDays and -retainJobsPerFlow must not be negative");
+            return;
+        }
+
+        DatabaseClient jobClient = connectionParameters.buildHubConfig().newJobDbClient();
+        try {
+            JobPurgeResponse response = new JobPurger(jobClient)
+                .withRetainDays(retainDays)
+                .withJobsToKeepPerFlow(retainJobsPerFlow)
+                .withBatchSize(batchSize)
+                .withThreadCount(threadCount)
+                .onProgress((documentType, deletedCount) -> System.out.println("Deleted " + deletedCount + " " + documentType))
+                .purge();
+            System.out.println("\nOutput:");
+            System.out.println(response);
+        } finally {
+            jobClient.release();
+        }
+    }
+}
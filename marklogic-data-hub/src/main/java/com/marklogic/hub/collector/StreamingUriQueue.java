@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.collector;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded producer/consumer buffer of URIs. Unlike {@link DiskQueue}, which is filled completely before it is read,
+ * this queue is read while a collector is still writing to it; the producer blocks when the buffer is full, so memory
+ * stays bounded and nothing is spilled to disk.
+ *
+ * The iterator returned by {@link #iterator()} blocks until either a URI is available or the producer has called
+ * {@link #complete()} or {@link #fail(Throwable)}. Only a single consumer is supported, which matches how a
+ * QueryBatcher reads from an Iterator, so every call to {@link #iterator()} returns the same iterator; a URI that one
+ * caller has waited for with hasNext() is then still returned to the next caller.
+ */
+public class StreamingUriQueue implements Iterable<String> {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<String> queue;
+    private final AtomicLong addedCount = new AtomicLong(0);
+    private final AtomicLong estimatedCount = new AtomicLong(-1);
+    private final Itr iterator = new Itr();
+
+    private volatile boolean completed = false;
+    private volatile boolean closed = false;
+    private volatile Throwable failure;
+
+    /**
+     * @param capacity Maximum number of URIs held in memory before the producer blocks.
+     */
+    public StreamingUriQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(StreamingUriQueue.class.getSimpleName() + " capacity must be at least one");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Adds a URI, blocking while the buffer is full.
+     *
+     * @param uri the URI to add
+     * @return false if the queue was closed by the consumer, in which case the producer should stop
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    public boolean put(String uri) throws InterruptedException {
+        while (!closed) {
+            if (queue.offer(uri, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                addedCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Signals that the producer has added every URI.
+     */
+    public void complete() {
+        this.completed = true;
+    }
+
+    /**
+     * Signals that the producer failed; consumers will see no further URIs once the buffer is drained.
+     *
+     * @param t the cause of the failure
+     */
+    public void fail(Throwable t) {
+        this.failure = t;
+        this.completed = true;
+    }
+
+    /**
+     * Called by the consumer to stop the producer, e.g. when a step is stopped.
+     */
+    public void close() {
+        this.closed = true;
+        this.completed = true;
+        queue.clear();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the number of URIs the producer has added so far; once {@link #isCompleted()} returns true, this is the
+     * total number of URIs collected
+     */
+    public long getAddedCount() {
+        return addedCount.get();
+    }
+
+    /**
+     * @return the server-side estimate of the number of URIs that will be collected, or -1 if no estimate is known
+     */
+    public long getEstimatedCount() {
+        return estimatedCount.get();
+    }
+
+    public void setEstimatedCount(long estimatedCount) {
+        this.estimatedCount.set(estimatedCount);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return iterator;
+    }
+
+    private class Itr implements Iterator<String> {
+
+        private String next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            try {
+                while (next == null) {
+                    // Read the flag before polling, so that a URI added just before completion is not missed
+                    boolean done = completed;
+                    next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null && done) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String uri = next;
+            next = null;
+            return uri;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.marklogic.client.MarkLogicIOException;
 import com.marklogic.hub.HubConfig;
 import com.marklogic.hub.collector.DiskQueue;
 import com.marklogic.hub.collector.Collector;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.impl.HubConfigImpl;
 import com.marklogic.rest.util.MgmtResponseErrorHandler;
 import org.apache.http.auth.AuthScope;
@@ -54,11 +55,21 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 public class CollectorImpl implements Collector {
 
+    /**
+     * Same header that the MarkLogic REST API uses for search estimates; the collector endpoint sets it when the
+     * source query can be estimated.
+     */
+    public static final String RESULT_ESTIMATE_HEADER = "vnd.marklogic.result-estimate";
+
     private DatabaseClient client;
     private HubConfig hubConfig;
+    private String resumeCursor;
+    private long resumePosition;
 
     public CollectorImpl() {
     }
@@ -87,52 +98,26 @@ public class CollectorImpl implements Collector {
     }
 
 
+    /**
+     * Makes the collector skip the URIs that a step processed before it was stopped. For the default source query,
+     * the URIs after the cursor are returned; a custom cts.uris or cts.values source query skips the first position
+     * values instead, as its order is not known.
+     *
+     * @param cursor   the last URI that was processed; null to collect every URI
+     * @param position the number of URIs up to and including the cursor
+     * @return this collector
+     */
+    public CollectorImpl withResumePoint(String cursor, long position) {
+        this.resumeCursor = cursor;
+        this.resumePosition = position;
+        return this;
+    }
+
     @Override
     public DiskQueue<String> run(String flow, String step, Map<String, Object> options) {
         try {
             DiskQueue<String> results = new DiskQueue<>(5000);
-
-            // Important design info:
-            // The collector is invoked with a regular http client due to streaming limitations in OkHttp.
-            // https://github.com/marklogic/marklogic-data-hub/issues/632
-            // https://github.com/marklogic/marklogic-data-hub/issues/633
-            //
-
-            RestTemplate template = newRestTemplate(  ((HubConfigImpl) hubConfig).getMlUsername(), ( (HubConfigImpl) hubConfig).getMlPassword());
-            String uriString = String.format(
-                "%s://%s:%d%s?flow-name=%s&database=%s&step=%s",
-                client.getSecurityContext().getSSLContext() != null ? "https" : "http",
-                client.getHost(),
-                client.getPort(),
-                "/v1/internal/hubcollector5",
-
-                URLEncoder.encode(flow, "UTF-8"),
-                URLEncoder.encode(client.getDatabase(), "UTF-8"),
-                URLEncoder.encode(step, "UTF-8")
-            );
-            if (options != null) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                uriString += "&options=" + URLEncoder.encode(objectMapper.writeValueAsString(options), "UTF-8");
-            }
-
-            URI uri = new URI(uriString);
-
-            RequestCallback requestCallback = request -> request.getHeaders()
-                .setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
-
-            // Streams the response instead of loading it all in memory
-            ResponseExtractor<Void> responseExtractor = response -> {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getBody(), "UTF-8"));
-                String line;
-                while((line = bufferedReader.readLine()) != null) {
-                    results.add(line);
-                }
-                bufferedReader.close();
-                return null;
-            };
-
-            template.execute(uri, HttpMethod.GET, requestCallback, responseExtractor);
-
+            collect(flow, step, options, results::add, null);
             return results;
         }
         catch(Exception e) {
@@ -141,6 +126,97 @@ public class CollectorImpl implements Collector {
         }
     }
 
+    /**
+     * Streams the collected URIs into the given queue as they are read from the response, instead of waiting for the
+     * whole response to be read. The server-side estimate of the number of URIs is set on the queue before the first
+     * URI is added. The queue is always marked as completed or failed when this method returns.
+     *
+     * @param flow - name of which flow
+     * @param step - step of the flow
+     * @param options - options Map for running the step
+     * @param queue - bounded queue that a consumer reads from while this method is running
+     */
+    public void run(String flow, String step, Map<String, Object> options, StreamingUriQueue queue) {
+        try {
+            collect(flow, step, options, uri -> {
+                try {
+                    return queue.put(uri);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }, queue::setEstimatedCount);
+            queue.complete();
+        }
+        catch(Exception e) {
+            queue.fail(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param uriConsumer receives each URI; reading stops if it returns false
+     * @param estimateConsumer optional; receives the value of the result estimate header if the server sent one
+     */
+    private void collect(String flow, String step, Map<String, Object> options, Function<String, Boolean> uriConsumer,
+                         LongConsumer estimateConsumer) throws Exception {
+        // Important design info:
+        // The collector is invoked with a regular http client due to streaming limitations in OkHttp.
+        // https://github.com/marklogic/marklogic-data-hub/issues/632
+        // https://github.com/marklogic/marklogic-data-hub/issues/633
+        //
+
+        RestTemplate template = newRestTemplate(  ((HubConfigImpl) hubConfig).getMlUsername(), ( (HubConfigImpl) hubConfig).getMlPassword());
+        String uriString = String.format(
+            "%s://%s:%d%s?flow-name=%s&database=%s&step=%s",
+            client.getSecurityContext().getSSLContext() != null ? "https" : "http",
+            client.getHost(),
+            client.getPort(),
+            "/v1/internal/hubcollector5",
+
+            URLEncoder.encode(flow, "UTF-8"),
+            URLEncoder.encode(client.getDatabase(), "UTF-8"),
+            URLEncoder.encode(step, "UTF-8")
+        );
+        if (options != null) {
+            ObjectMapper objectMapper = new ObjectMapper();
+            uriString += "&options=" + URLEncoder.encode(objectMapper.writeValueAsString(options), "UTF-8");
+        }
+        if (resumeCursor != null) {
+            uriString += "&cursor=" + URLEncoder.encode(resumeCursor, "UTF-8") + "&position=" + resumePosition;
+        }
+
+        URI uri = new URI(uriString);
+
+        RequestCallback requestCallback = request -> request.getHeaders()
+            .setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
+
+        // Streams the response instead of loading it all in memory
+        ResponseExtractor<Void> responseExtractor = response -> {
+            if (estimateConsumer != null) {
+                String estimate = response.getHeaders().getFirst(RESULT_ESTIMATE_HEADER);
+                if (estimate != null) {
+                    try {
+                        estimateConsumer.accept(Long.parseLong(estimate.trim()));
+                    } catch (NumberFormatException ex) {
+                        // The estimate is only used for reporting progress, so an unexpected value is ignored
+                    }
+                }
+            }
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getBody(), "UTF-8"));
+            String line;
+            while((line = bufferedReader.readLine()) != null) {
+                if (!uriConsumer.apply(line)) {
+                    break;
+                }
+            }
+            bufferedReader.close();
+            return null;
+        };
+
+        template.execute(uri, HttpMethod.GET, requestCallback, responseExtractor);
+    }
+
     private RestTemplate newRestTemplate(String username, String password) {
         DatabaseClientFactory.SecurityContext securityContext = client.getSecurityContext();
 
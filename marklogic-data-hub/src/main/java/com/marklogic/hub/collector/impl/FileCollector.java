@@ -1,13 +1,21 @@
 package com.marklogic.hub.collector.impl;
 
 import com.marklogic.hub.collector.DiskQueue;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class FileCollector {
@@ -18,6 +26,7 @@ public class FileCollector {
     private Set<String> csvExts = new HashSet<>(Arrays.asList("txt", "csv", "tsv", "psv"));
     private Set<String> xmlExts = new HashSet<>(Arrays.asList("xml", "xhtml", "html"));
     private Map<String, Set<String>> fileFormats;
+    private int parallelism = 1;
 
     public FileCollector(String inputFormat) {
         this.inputFormat = inputFormat.toLowerCase();
@@ -29,15 +38,36 @@ public class FileCollector {
         fileFormats.put("xml", xmlExts);
     }
 
+    /**
+     * @param parallelism the number of threads used to walk the directory tree; with a value greater than one, each
+     *                    subdirectory is listed by its own fork/join task, which helps on file systems where listing a
+     *                    directory is slow, such as NFS mounts. The order of the collected files is then not defined.
+     * @return this collector
+     */
+    public FileCollector withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("File collector parallelism must be at least one");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
     public DiskQueue<String> run(Path dirPath) {
-        if (!(Files.exists(dirPath)) || !(Files.isDirectory(dirPath))) {
-            throw new RuntimeException("The path doesn't exist or is not a directory");
+        verifyDirectory(dirPath);
+
+        DiskQueue<String> results = new DiskQueue<>(10000);
+        if (parallelism > 1) {
+            walkInParallel(dirPath, path -> {
+                // DiskQueue is not thread-safe
+                synchronized (results) {
+                    results.add(path);
+                }
+                return true;
+            });
+            return results;
         }
 
-        DiskQueue<String> results;
         try {
-            results = new DiskQueue<>(10000);
-
             try (Stream<Path> files = Files.find(dirPath,
                 Integer.MAX_VALUE,
                 (filePath, fileAttr) -> fileAttr.isRegularFile())) {
@@ -54,6 +84,55 @@ public class FileCollector {
         return results;
     }
 
+    /**
+     * Collects files into the given queue, so that they can be ingested while the directory tree is still being walked.
+     * The queue is completed when the walk finishes, or failed if the walk throws an error. The walk stops early if the
+     * consumer closes the queue.
+     *
+     * @param dirPath the directory to collect files from
+     * @param uris    the queue to add the absolute paths of the collected files to
+     */
+    public void run(Path dirPath, StreamingUriQueue uris) {
+        try {
+            verifyDirectory(dirPath);
+            Predicate<String> consumer = path -> {
+                try {
+                    return uris.put(path);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            };
+            if (parallelism > 1) {
+                walkInParallel(dirPath, consumer);
+            } else {
+                new DirectoryWalker(dirPath, consumer).compute();
+            }
+            uris.complete();
+        } catch (Throwable t) {
+            uris.fail(t);
+        }
+    }
+
+    /**
+     * @param dirPath the directory that files will be collected from
+     * @throws RuntimeException if the path does not exist or is not a directory
+     */
+    public void verifyDirectory(Path dirPath) {
+        if (!(Files.exists(dirPath)) || !(Files.isDirectory(dirPath))) {
+            throw new RuntimeException("The path doesn't exist or is not a directory");
+        }
+    }
+
+    private void walkInParallel(Path dirPath, Predicate<String> consumer) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryWalker(dirPath, consumer));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     protected boolean acceptFile(String filename) {
         if (filename == null) {
             return false;
@@ -74,4 +153,44 @@ public class FileCollector {
             && !jsonExts.contains(fileExtension)
             && !xmlExts.contains(fileExtension);
     }
+
+    /**
+     * Lists a single directory, passing each accepted regular file to the consumer and forking a task for each
+     * subdirectory. As with Files.find, symbolic links are not followed. The consumer returns false to stop the walk.
+     */
+    private class DirectoryWalker extends RecursiveAction {
+
+        private final Path dir;
+        private final Predicate<String> consumer;
+
+        DirectoryWalker(Path dir, Predicate<String> consumer) {
+            this.dir = dir;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryWalker> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(new DirectoryWalker(entry, consumer));
+                    } else if (attributes.isRegularFile()) {
+                        File file = entry.toFile();
+                        if (acceptFile(file.getName()) && !consumer.test(file.getAbsolutePath())) {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (getPool() != null && subdirectories.size() > 1) {
+                invokeAll(subdirectories);
+            } else {
+                subdirectories.forEach(DirectoryWalker::compute);
+            }
+        }
+    }
 }
@@ -45,6 +45,19 @@ public interface StepDefinitionService {
                 );
             }
 
+            @Override
+            public com.fasterxml.jackson.databind.JsonNode getStepDefinitions(com.fasterxml.jackson.databind.JsonNode stepDefinitions) {
+              return BaseProxy.JsonDocumentType.toJsonNode(
+                baseProxy
+                .request("getStepDefinitions.sjs", BaseProxy.ParameterValuesKind.SINGLE_NODE)
+                .withSession()
+                .withParams(
+                    BaseProxy.documentParam("stepDefinitions", false, BaseProxy.JsonDocumentType.fromJsonNode(stepDefinitions)))
+                .withMethod("POST")
+                .responseSingle(false, Format.JSON)
+                );
+            }
+
         }
 
         return new StepDefinitionServiceImpl(db);
@@ -59,4 +72,12 @@ public interface StepDefinitionService {
    */
     com.fasterxml.jackson.databind.JsonNode getStepDefinition(String name, String type);
 
+  /**
+   * Invokes the getStepDefinitions operation on the database server
+   *
+   * @param stepDefinitions	provides input
+   * @return	as output
+   */
+    com.fasterxml.jackson.databind.JsonNode getStepDefinitions(com.fasterxml.jackson.databind.JsonNode stepDefinitions);
+
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.deploy;
+
+import com.marklogic.appdeployer.command.Command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order in which a set of commands has to be executed. By default, a command depends on every command that sorts
+ * before it, so the commands run one at a time in sort order, as they do in ml-app-deployer. A command that has
+ * declared dependencies only depends on the commands that sort before it and are instances of one of those classes,
+ * so it can run at the same time as any other command that doesn't depend on it.
+ */
+class CommandGraph {
+
+    private final List<Command> commands;
+    private final Map<Command, List<Command>> dependencies = new IdentityHashMap<>();
+
+    /**
+     * @param commands             the commands to execute, in any order
+     * @param declaredDependencies the classes of the commands that each class of command depends on; a command uses
+     *                             the dependencies declared for the closest of its classes, if there are any
+     */
+    CommandGraph(List<Command> commands, Map<Class<?>, List<Class<?>>> declaredDependencies) {
+        this.commands = new ArrayList<>(commands);
+        // A stable sort, so that commands with the same sort order keep the order they were added in
+        this.commands.sort(Comparator.comparing(Command::getExecuteSortOrder, Comparator.nullsLast(Comparator.naturalOrder())));
+
+        for (int i = 0; i < this.commands.size(); i++) {
+            Command command = this.commands.get(i);
+            List<Class<?>> declared = findDeclaredDependencies(command.getClass(), declaredDependencies);
+            List<Command> commandDependencies = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                Command earlier = this.commands.get(j);
+                if (declared == null || declared.stream().anyMatch(type -> type.isInstance(earlier))) {
+                    commandDependencies.add(earlier);
+                }
+            }
+            dependencies.put(command, commandDependencies);
+        }
+    }
+
+    /**
+     * @return the commands in sort order
+     */
+    List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    boolean contains(Command command) {
+        return dependencies.containsKey(command);
+    }
+
+    List<Command> getDependencies(Command command) {
+        return Collections.unmodifiableList(dependencies.get(command));
+    }
+
+    /**
+     * @param durations the time taken by each command
+     * @return the chain of dependent commands that took the longest in total, which is the shortest time in which the
+     * commands could have been executed however many threads were available
+     */
+    List<Command> getCriticalPath(Map<Command, Long> durations) {
+        Map<Command, Long> finishTimes = new IdentityHashMap<>();
+        Map<Command, Command> previous = new IdentityHashMap<>();
+        Command last = null;
+        for (Command command : commands) {
+            Command slowest = null;
+            for (Command dependency : dependencies.get(command)) {
+                // Prefer the later command on a tie, so that commands that took no time are still included
+                if (slowest == null || finishTimes.get(dependency) >= finishTimes.get(slowest)) {
+                    slowest = dependency;
+                }
+            }
+            long start = 0;
+            if (slowest != null) {
+                start = finishTimes.get(slowest);
+                previous.put(command, slowest);
+            }
+            long finish = start + durations.getOrDefault(command, 0L);
+            finishTimes.put(command, finish);
+            if (last == null || finish >= finishTimes.get(last)) {
+                last = command;
+            }
+        }
+        List<Command> path = new ArrayList<>();
+        for (Command command = last; command != null; command = previous.get(command)) {
+            path.add(0, command);
+        }
+        return path;
+    }
+
+    private static List<Class<?>> findDeclaredDependencies(Class<?> type, Map<Class<?>, List<Class<?>>> declaredDependencies) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            if (declaredDependencies.containsKey(current)) {
+                return declaredDependencies.get(current);
+            }
+        }
+        return null;
+    }
+}
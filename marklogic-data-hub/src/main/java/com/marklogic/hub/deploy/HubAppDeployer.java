@@ -27,8 +27,28 @@ import com.marklogic.hub.deploy.util.HubDeployStatusListener;
 import com.marklogic.mgmt.ManageClient;
 import com.marklogic.mgmt.admin.AdminManager;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * Extends ml-app-deployer's SimpleAppDeployer to provide progress reporting.
+ * Extends ml-app-deployer's SimpleAppDeployer to provide progress reporting, and to execute commands that don't depend
+ * on each other at the same time.
+ *
+ * By default, each command depends on every command that sorts before it, so commands are executed one at a time in
+ * sort order. {@link #addDependencies(Class, Class[])} declares the only commands that a class of command depends on,
+ * which lets it run alongside the other commands once those are done; see {@link CommandGraph}. Up to the thread count
+ * of commands are executed at once. The time taken by each command, and the chain of commands that determined how long
+ * the deployment took, are reported to the listener and logged.
  */
 public class HubAppDeployer extends SimpleAppDeployer {
 
@@ -40,7 +60,17 @@ public class HubAppDeployer extends SimpleAppDeployer {
 
     private String mlVersion = null;
     // Keeps track of completion percentage
-    private int completed = 0;
+    private AtomicInteger completed = new AtomicInteger();
+    private AtomicInteger started = new AtomicInteger();
+
+    private int threadCount = 1;
+    private Map<Class<?>, List<Class<?>>> declaredDependencies = new HashMap<>();
+
+    // The state of the deployment that is in progress
+    private CommandGraph commandGraph;
+    private ExecutorService executor;
+    private Map<Command, CompletableFuture<Void>> commandFutures;
+    private Map<Command, Long> commandDurations;
 
     public HubAppDeployer(ManageClient manageClient, AdminManager adminManager, HubDeployStatusListener listener, DatabaseClient databaseClient) {
         super(manageClient, adminManager);
@@ -50,11 +80,43 @@ public class HubAppDeployer extends SimpleAppDeployer {
         this.listener = listener;
     }
 
+    /**
+     * @param threadCount the maximum number of commands to execute at once
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Declares that commands of the given class, or of a subclass that doesn't declare its own dependencies, only
+     * depend on the commands that are instances of the given classes and sort before them.
+     */
+    public void addDependencies(Class<? extends Command> commandClass, Class<?>... dependencies) {
+        declaredDependencies.put(commandClass, Arrays.asList(dependencies));
+    }
+
     @Override
     public void deploy(AppConfig appConfig) {
-        this.completed = 0;
+        this.completed.set(0);
+        this.started.set(0);
         onStatusChange(0, "Installing...");
-        super.deploy(appConfig);
+        long startTime = System.currentTimeMillis();
+        commandGraph = new CommandGraph(getCommands(), declaredDependencies);
+        commandFutures = new IdentityHashMap<>();
+        commandDurations = new ConcurrentHashMap<>();
+        executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            super.deploy(appConfig);
+            awaitCommands();
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+        }
+        reportCriticalPath(System.currentTimeMillis() - startTime);
+        commandGraph = null;
         onStatusChange(100, "Installation Complete");
 
         if (databaseClient != null) {
@@ -71,16 +133,29 @@ public class HubAppDeployer extends SimpleAppDeployer {
         }
     }
 
+    /**
+     * Schedules the command to be executed once the commands it depends on have finished; the deploy method waits for
+     * every scheduled command before it returns. A command that depends on a failed command is not executed.
+     */
     @Override
     protected void executeCommand(Command command, CommandContext context) {
-        reportStatus(command);
-        super.executeCommand(command, context);
-        completed++;
+        if (commandGraph == null || !commandGraph.contains(command)
+            || !commandFutures.keySet().containsAll(commandGraph.getDependencies(command))) {
+            // Not part of the graph, so it's executed once everything scheduled so far has finished
+            awaitCommands();
+            timeCommand(command, context);
+            return;
+        }
+        CompletableFuture<?>[] dependencies = commandGraph.getDependencies(command).stream()
+            .map(commandFutures::get).toArray(CompletableFuture[]::new);
+        commandFutures.put(command, CompletableFuture.allOf(dependencies)
+            .thenRunAsync(() -> timeCommand(command, context), executor));
     }
 
     @Override
     public void undeploy(AppConfig appConfig) {
-        this.completed = 0;
+        this.completed.set(0);
+        this.started.set(0);
         onStatusChange(0, "Uninstalling...");
         super.undeploy(appConfig);
         onStatusChange(100, "Installation Complete");
@@ -90,19 +165,76 @@ public class HubAppDeployer extends SimpleAppDeployer {
     protected void undoCommand(UndoableCommand command, CommandContext context) {
         reportStatus(command);
         super.undoCommand(command, context);
-        completed++;
+        completed.incrementAndGet();
     }
 
     protected void reportStatus(Command command) {
         int count = getCommands().size();
-        float percent = ((float) completed / (float) count) * 100;
+        float percent = ((float) completed.get() / (float) count) * 100;
         String name = command.getClass().getName();
-        onStatusChange((int) percent, format("[Step %d of %d]  %s", completed + 1, count, name));
+        onStatusChange((int) percent, format("[Step %d of %d]  %s", started.incrementAndGet(), count, name));
+    }
+
+    private void timeCommand(Command command, CommandContext context) {
+        reportStatus(command);
+        long start = System.currentTimeMillis();
+        super.executeCommand(command, context);
+        long duration = System.currentTimeMillis() - start;
+        completed.incrementAndGet();
+        if (commandDurations != null) {
+            commandDurations.put(command, duration);
+        }
+        String name = command.getClass().getName();
+        if (logger.isInfoEnabled()) {
+            logger.info(format("Command %s took %d ms", name, duration));
+        }
+        if (this.listener != null) {
+            this.listener.onCommandFinished(name, duration);
+        }
+    }
+
+    /**
+     * Waits for every scheduled command, including those still running when another one fails, and then rethrows the
+     * first failure.
+     */
+    private void awaitCommands() {
+        RuntimeException failure = null;
+        for (CompletableFuture<Void> future : new ArrayList<>(commandFutures.values())) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof RuntimeException ? (RuntimeException) cause : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void reportCriticalPath(long totalMillis) {
+        List<Command> path = commandGraph.getCriticalPath(commandDurations);
+        List<String> names = new ArrayList<>();
+        long pathMillis = 0;
+        for (Command command : path) {
+            names.add(command.getClass().getName());
+            pathMillis += commandDurations.getOrDefault(command, 0L);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info(format("Deployment took %d ms; critical path of %d ms: %s", totalMillis, pathMillis, names));
+        }
+        if (this.listener != null) {
+            this.listener.onCriticalPath(names, pathMillis);
+        }
     }
 
     private void onStatusChange(int percentComplete, String message) {
         if (this.listener != null) {
-            this.listener.onStatusChange(percentComplete, message);
+            synchronized (this.listener) {
+                this.listener.onStatusChange(percentComplete, message);
+            }
         }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.deploy.commands;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes a fingerprint of the modules that are loaded by LoadHubModulesCommand. It is a SHA-256 hash over the path
+ * and content of every resource under the hub module paths on the classpath, and over the inputs that the modules are
+ * processed with before they are loaded - the custom tokens and the module permissions. Resources are identified by
+ * their path under a module path, so the same jar at a different location has the same fingerprint.
+ */
+class HubModulesFingerprint {
+
+    static final String[] MODULE_PATHS = {"ml-modules", "ml-modules-staging", "ml-modules-traces", "ml-modules-jobs"};
+
+    private HubModulesFingerprint() {
+    }
+
+    /**
+     * @param resolver          finds the resources under the module paths
+     * @param customTokens      the tokens that are replaced in the modules; may be null
+     * @param modulePermissions the permissions that the modules are loaded with; may be null
+     * @return the hex-encoded fingerprint
+     * @throws IOException if a resource can't be found or read
+     */
+    static String compute(ResourcePatternResolver resolver, Map<String, String> customTokens, String modulePermissions) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        for (String modulePath : MODULE_PATHS) {
+            for (ModuleResource moduleResource : findResources(resolver, modulePath)) {
+                update(digest, moduleResource.path);
+                try (InputStream in = moduleResource.resource.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                digest.update((byte) 0);
+            }
+        }
+
+        if (customTokens != null) {
+            for (Map.Entry<String, String> token : new TreeMap<>(customTokens).entrySet()) {
+                update(digest, token.getKey() + "=" + token.getValue());
+            }
+        }
+        update(digest, "permissions=" + modulePermissions);
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return the files under the module path, sorted by their path under it; files with the same path in different
+     * jars are sorted by their URL
+     */
+    private static List<ModuleResource> findResources(ResourcePatternResolver resolver, String modulePath) throws IOException {
+        final String separator = "/" + modulePath + "/";
+        List<ModuleResource> moduleResources = new ArrayList<>();
+        for (Resource resource : resolver.getResources("classpath*:/" + modulePath + "/**")) {
+            String url = resource.getURL().toString();
+            int index = url.lastIndexOf(separator);
+            // Directories in a jar are entries of their own, and directories on the file system aren't readable
+            if (index < 0 || url.endsWith("/") || !resource.isReadable()) {
+                continue;
+            }
+            moduleResources.add(new ModuleResource(url.substring(index + separator.length()), url, resource));
+        }
+        moduleResources.sort(Comparator.comparing((ModuleResource r) -> r.path).thenComparing(r -> r.url));
+        return moduleResources;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static class ModuleResource {
+        final String path;
+        final String url;
+        final Resource resource;
+
+        ModuleResource(String path, String url, Resource resource) {
+            this.path = path;
+            this.url = url;
+            this.resource = resource;
+        }
+    }
+}
@@ -21,12 +21,13 @@ import com.marklogic.appdeployer.command.SortOrderConstants;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.document.DocumentWriteSet;
 import com.marklogic.client.document.JSONDocumentManager;
-import com.marklogic.client.ext.modulesloader.impl.PropertiesModuleManager;
 import com.marklogic.client.ext.util.DefaultDocumentPermissionsParser;
 import com.marklogic.client.ext.util.DocumentPermissionsParser;
 import com.marklogic.client.io.DocumentMetadataHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.impl.HubConfigImpl;
+import com.marklogic.hub.util.HubModuleManager;
 import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
@@ -79,9 +80,9 @@ public class LoadHubArtifactsCommand extends AbstractCommand {
         this.forceLoad = forceLoad;
     }
 
-    private PropertiesModuleManager getModulesManager() {
+    private HubModuleManager getModulesManager() {
         String timestampFile = hubConfig.getHubProject().getHubModulesDeployTimestampFile();
-        PropertiesModuleManager pmm = new PropertiesModuleManager(timestampFile);
+        HubModuleManager pmm = new HubModuleManager(timestampFile);
 
         if (forceLoad) {
             pmm.deletePropertiesFile();
@@ -103,7 +104,7 @@ public class LoadHubArtifactsCommand extends AbstractCommand {
         DocumentWriteSet stagingFlowDocumentWriteSet = stagingDocMgr.newWriteSet();
 
 
-        PropertiesModuleManager propertiesModuleManager = getModulesManager();
+        HubModuleManager propertiesModuleManager = getModulesManager();
         ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(getClass().getClassLoader());
         Resource[] resources = null;
 
@@ -154,7 +155,11 @@ public class LoadHubArtifactsCommand extends AbstractCommand {
             stagingDocMgr.write(stagingFlowDocumentWriteSet);
             finalDocMgr.write(stagingFlowDocumentWriteSet);
         }
+        propertiesModuleManager.saveProperties();
 
+        if (hubConfig instanceof HubConfigImpl) {
+            ((HubConfigImpl) hubConfig).invalidateStepDefinitionCache();
+        }
     }
 
     /**
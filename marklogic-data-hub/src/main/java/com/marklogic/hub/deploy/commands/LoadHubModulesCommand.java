@@ -15,33 +15,64 @@
  */
 package com.marklogic.hub.deploy.commands;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.marklogic.appdeployer.AppConfig;
 import com.marklogic.appdeployer.command.AbstractCommand;
 import com.marklogic.appdeployer.command.CommandContext;
 import com.marklogic.appdeployer.command.SortOrderConstants;
 import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.ResourceNotFoundException;
 import com.marklogic.client.ext.file.*;
 import com.marklogic.client.ext.modulesloader.impl.*;
 import com.marklogic.client.ext.tokenreplacer.DefaultTokenReplacer;
 import com.marklogic.client.ext.tokenreplacer.TokenReplacer;
+import com.marklogic.client.ext.util.DefaultDocumentPermissionsParser;
+import com.marklogic.client.ext.util.DocumentPermissionsParser;
+import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.io.JacksonHandle;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.util.HubModuleManager;
+import com.marklogic.mgmt.util.ObjectMapperFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Handles loading modules that are contained within the DHF jar.
+ *
+ * A fingerprint of the modules and of the inputs that they are processed with is recorded in the modules database
+ * once they are all loaded, and the modules are only loaded again when their fingerprint has changed.
  */
 @Component
 public class LoadHubModulesCommand extends AbstractCommand {
 
 
+    /**
+     * URI of the document in the modules database that records the fingerprint of the hub modules that were last loaded.
+     */
+    public static final String FINGERPRINT_URI = "/com.marklogic.hub/hub-modules-fingerprint.json";
+
     @Autowired
     private HubConfig hubConfig;
 
-    private Throwable caughtException;
+    private DocumentPermissionsParser documentPermissionsParser = new DefaultDocumentPermissionsParser();
+
+    private boolean forceLoad = false;
+
+    private final AtomicReference<Throwable> caughtException = new AtomicReference<>();
 
     public LoadHubModulesCommand() {
         /**
@@ -64,40 +95,111 @@ public class LoadHubModulesCommand extends AbstractCommand {
 
     @Override
     public void execute(CommandContext context) {
+        // LoadHubArtifactsCommand shares this timestamps file and expects it to be cleared on every deploy
         String timestampFile = hubConfig.getHubProject().getHubModulesDeployTimestampFile();
-        PropertiesModuleManager propsManager = new PropertiesModuleManager(timestampFile);
+        HubModuleManager propsManager = new HubModuleManager(timestampFile);
         propsManager.deletePropertiesFile();
 
         DatabaseClient modulesClient = hubConfig.newModulesDbClient();
+        AppConfig appConfig = context.getAppConfig();
 
-        AssetFileLoader assetFileLoader = new AssetFileLoader(modulesClient);
-        prepareAssetFileLoader(assetFileLoader, context);
+        String fingerprint = null;
+        try {
+            fingerprint = HubModulesFingerprint.compute(new PathMatchingResourcePatternResolver(getClass().getClassLoader()),
+                appConfig.getCustomTokens(), appConfig.getModulePermissions());
+        } catch (IOException e) {
+            logger.warn("Unable to compute fingerprint of hub modules, so they will be loaded; cause: " + e.getMessage());
+        }
 
-        DefaultModulesLoader modulesLoader = new DefaultModulesLoader(assetFileLoader);
-        modulesLoader.addFailureListener((throwable, client) -> {
-            // ensure we throw the first exception
-            if (caughtException == null) {
-                caughtException = throwable;
+        if (!forceLoad && fingerprint != null && fingerprint.equals(readFingerprint(modulesClient))) {
+            logger.info("Hub modules have not changed since they were last loaded, so they will not be loaded again");
+            return;
+        }
+
+        caughtException.set(null);
+        newModulesLoader(modulesClient, context, propsManager)
+            .loadModules("classpath*:/ml-modules", new DefaultModulesFinder(), modulesClient);
+
+        // The search options are loaded via the REST rewriter in the modules loaded above, and are independent of each other
+        if (caughtException.get() == null) {
+            List<Runnable> optionsLoads = Arrays.asList(
+                () -> newModulesLoader(modulesClient, context, propsManager)
+                    .loadModules("classpath*:/ml-modules-staging", new SearchOptionsFinder(), hubConfig.newStagingClient()),
+                () -> newModulesLoader(modulesClient, context, propsManager)
+                    .loadModules("classpath*:/ml-modules-traces", new SearchOptionsFinder(), hubConfig.newJobDbClient()),
+                () -> newModulesLoader(modulesClient, context, propsManager)
+                    .loadModules("classpath*:/ml-modules-jobs", new SearchOptionsFinder(), hubConfig.newJobDbClient())
+            );
+            ExecutorService executor = Executors.newFixedThreadPool(optionsLoads.size());
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Runnable optionsLoad : optionsLoads) {
+                    futures.add(executor.submit(optionsLoad));
+                }
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        caughtException.compareAndSet(null, e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                caughtException.compareAndSet(null, e);
+            } finally {
+                executor.shutdownNow();
             }
-        });
-        modulesLoader.setModulesManager(propsManager);
-        if (caughtException == null) {
-            modulesLoader.loadModules("classpath*:/ml-modules", new DefaultModulesFinder(), modulesClient);
-            modulesLoader.loadModules("classpath*:/ml-modules-staging", new SearchOptionsFinder(), hubConfig.newStagingClient());
         }
-        if (caughtException == null) {
-            modulesLoader.loadModules("classpath*:/ml-modules-traces", new SearchOptionsFinder(), hubConfig.newJobDbClient());
+        propsManager.saveProperties();
+
+        if (caughtException.get() != null) {
+            throw new RuntimeException(caughtException.get());
         }
-        if (caughtException == null) {
-            modulesLoader.loadModules("classpath*:/ml-modules-jobs", new SearchOptionsFinder(), hubConfig.newJobDbClient());
+
+        // Only recorded once everything was loaded, so that a failed load is repeated by the next deploy
+        if (fingerprint != null) {
+            writeFingerprint(modulesClient, fingerprint, appConfig.getModulePermissions());
         }
+    }
 
+    private DefaultModulesLoader newModulesLoader(DatabaseClient modulesClient, CommandContext context, HubModuleManager propsManager) {
+        AssetFileLoader assetFileLoader = new AssetFileLoader(modulesClient);
+        prepareAssetFileLoader(assetFileLoader, context);
+
+        DefaultModulesLoader modulesLoader = new DefaultModulesLoader(assetFileLoader);
+        // ensure we throw the first exception
+        modulesLoader.addFailureListener((throwable, client) -> caughtException.compareAndSet(null, throwable));
+        modulesLoader.setModulesManager(propsManager);
+        return modulesLoader;
+    }
 
-        if (caughtException != null) {
-            throw new RuntimeException(caughtException);
+    /**
+     * @return the fingerprint of the hub modules that were last loaded into the modules database, or null if none was
+     * recorded, e.g. because the modules were cleared
+     */
+    protected String readFingerprint(DatabaseClient modulesClient) {
+        try {
+            JsonNode doc = modulesClient.newJSONDocumentManager().read(FINGERPRINT_URI, new JacksonHandle()).get();
+            return doc.path("fingerprint").asText(null);
+        } catch (ResourceNotFoundException e) {
+            return null;
         }
     }
 
+    /**
+     * The fingerprint is in the hub-core-module collection, so that it is removed along with the hub modules.
+     */
+    protected void writeFingerprint(DatabaseClient modulesClient, String fingerprint, String modulePermissions) {
+        DocumentMetadataHandle meta = new DocumentMetadataHandle();
+        meta.getCollections().add("hub-core-module");
+        documentPermissionsParser.parsePermissions(modulePermissions, meta.getPermissions());
+
+        ObjectNode doc = ObjectMapperFactory.getObjectMapper().createObjectNode();
+        doc.put("fingerprint", fingerprint);
+        doc.put("hubVersion", hubConfig.getJarVersion());
+        modulesClient.newJSONDocumentManager().write(FINGERPRINT_URI, meta, new JacksonHandle(doc));
+    }
+
     protected void prepareAssetFileLoader(AssetFileLoader loader, CommandContext context) {
         AppConfig appConfig = context.getAppConfig();
 
@@ -128,6 +230,14 @@ public class LoadHubModulesCommand extends AbstractCommand {
         return r;
     }
 
+    /**
+     * @param forceLoad if true, the hub modules are loaded even if their fingerprint matches the one that was recorded
+     *                  the last time they were loaded
+     */
+    public void setForceLoad(boolean forceLoad) {
+        this.forceLoad = forceLoad;
+    }
+
     public void setHubConfig(HubConfig hubConfig) {
         this.hubConfig = hubConfig;
     }
@@ -22,8 +22,9 @@ import com.marklogic.appdeployer.command.AbstractCommand;
 import com.marklogic.appdeployer.command.CommandContext;
 import com.marklogic.appdeployer.command.SortOrderConstants;
 import com.marklogic.client.DatabaseClient;
-import com.marklogic.client.document.DocumentWriteSet;
-import com.marklogic.client.document.JSONDocumentManager;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.WriteBatcher;
+import com.marklogic.client.datamovement.WriteEvent;
 import com.marklogic.client.ext.modulesloader.Modules;
 import com.marklogic.client.ext.modulesloader.ModulesFinder;
 import com.marklogic.client.ext.modulesloader.impl.*;
@@ -32,11 +33,15 @@ import com.marklogic.client.ext.util.DocumentPermissionsParser;
 import com.marklogic.client.io.DocumentMetadataHandle;
 import com.marklogic.client.io.JacksonHandle;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.impl.HubConfigImpl;
+import com.marklogic.hub.util.ContentHashModuleManager;
+import com.marklogic.hub.util.HubModuleManager;
 import com.marklogic.mgmt.util.ObjectMapperFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.FileVisitResult;
@@ -44,9 +49,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Loads user artifacts like mappings and entities. This will be deployed after triggers
@@ -66,6 +77,10 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
 
     private boolean forceLoad = false;
 
+    // Artifacts are parsed on this many threads, and written to each database in batches of this size on this many threads
+    private int parseThreadCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int writeBatchSize = 100;
+    private int writeThreadCount = 4;
 
     public LoadUserArtifactsCommand() {
         super();
@@ -90,9 +105,9 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
         return dirStr.matches(regex);
     }
 
-    private PropertiesModuleManager getModulesManager() {
+    private HubModuleManager getModulesManager() {
         String timestampFile = hubConfig.getHubProject().getUserModulesDeployTimestampFile();
-        PropertiesModuleManager pmm = new PropertiesModuleManager(timestampFile);
+        HubModuleManager pmm = new ContentHashModuleManager(timestampFile);
 
         if (forceLoad) {
             pmm.deletePropertiesFile();
@@ -110,18 +125,7 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
         Path stepDefPath = hubConfig.getStepDefinitionsDir();
         Path flowPath = hubConfig.getFlowsDir();
 
-        JSONDocumentManager finalDocMgr = finalClient.newJSONDocumentManager();
-        JSONDocumentManager stagingDocMgr = stagingClient.newJSONDocumentManager();
-
-        DocumentWriteSet finalEntityDocumentWriteSet = finalDocMgr.newWriteSet();
-        DocumentWriteSet stagingEntityDocumentWriteSet = stagingDocMgr.newWriteSet();
-        DocumentWriteSet stagingMappingDocumentWriteSet = stagingDocMgr.newWriteSet();
-        DocumentWriteSet finalMappingDocumentWriteSet = finalDocMgr.newWriteSet();
-        DocumentWriteSet stagingStepDefDocumentWriteSet = stagingDocMgr.newWriteSet();
-        DocumentWriteSet finalStepDefDocumentWriteSet = finalDocMgr.newWriteSet();
-        DocumentWriteSet stagingFlowDocumentWriteSet = stagingDocMgr.newWriteSet();
-        DocumentWriteSet finalFlowDocumentWriteSet = finalDocMgr.newWriteSet();
-        PropertiesModuleManager propertiesModuleManager = getModulesManager();
+        HubModuleManager propertiesModuleManager = getModulesManager();
         ResourceToURI entityResourceToURI = new ResourceToURI(){
             public String toURI(Resource r) {
                 return "/entities/" + r.getFilename();
@@ -142,133 +146,152 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
                 return "/step-definitions/" + r.getFile().getParentFile().getParentFile().getName() + "/" + r.getFile().getParentFile().getName() + "/" + r.getFilename();
             }
         };
-        EntityDefModulesFinder entityDefModulesFinder = new EntityDefModulesFinder();
-        MappingDefModulesFinder mappingDefModulesFinder = new MappingDefModulesFinder();
-        StepDefModulesFinder stepDefModulesFinder = new StepDefModulesFinder();
-        FlowDefModulesFinder flowDefModulesFinder = new FlowDefModulesFinder();
+
+        ExecutorService parseExecutor = Executors.newFixedThreadPool(parseThreadCount);
         try {
             //first let's do the entities paths
-            if (entitiesPath.toFile().exists()) {
-                Files.walkFileTree(entitiesPath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        executeWalk(
-                            dir,
-                            entityDefModulesFinder,
-                            propertiesModuleManager,
-                            entityResourceToURI,
-                            buildMetadata(hubConfig.getEntityModelPermissions(), "http://marklogic.com/entity-services/models"),
-                            stagingEntityDocumentWriteSet,
-                            finalEntityDocumentWriteSet
-                        );
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            }
+            deployArtifacts("entities",
+                findArtifacts(entitiesPath, dir -> true, new EntityDefModulesFinder(), entityResourceToURI),
+                buildMetadata(hubConfig.getEntityModelPermissions(), "http://marklogic.com/entity-services/models"),
+                propertiesModuleManager, parseExecutor, stagingClient, finalClient);
+
             //now let's do the mappings paths
-            if (mappingsPath.toFile().exists()) {
-                Files.walkFileTree(mappingsPath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        if (isArtifactDir(dir, mappingsPath.toAbsolutePath())) {
-                            executeWalk(
-                                dir,
-                                mappingDefModulesFinder,
-                                propertiesModuleManager,
-                                mappingResourceToURI,
-                                buildMetadata(hubConfig.getMappingPermissions(), "http://marklogic.com/data-hub/mappings"),
-                                stagingMappingDocumentWriteSet,
-                                finalMappingDocumentWriteSet
-                            );
-                            return FileVisitResult.CONTINUE;
-                        }
-                        else {
-                            return FileVisitResult.CONTINUE;
-                        }
-                    }
-                });
-            }
+            deployArtifacts("mappings",
+                findArtifacts(mappingsPath, dir -> isArtifactDir(dir, mappingsPath.toAbsolutePath()), new MappingDefModulesFinder(), mappingResourceToURI),
+                buildMetadata(hubConfig.getMappingPermissions(), "http://marklogic.com/data-hub/mappings"),
+                propertiesModuleManager, parseExecutor, stagingClient, finalClient);
 
             // let's do step-definitions
-            if (stepDefPath.toFile().exists()) {
-                Files.walkFileTree(stepDefPath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        executeWalk(
-                            dir,
-                            stepDefModulesFinder,
-                            propertiesModuleManager,
-                            stepResourceToURI,
-                            buildMetadata(hubConfig.getStepDefinitionPermissions(), "http://marklogic.com/data-hub/step-definition"),
-                            stagingStepDefDocumentWriteSet,
-                            finalStepDefDocumentWriteSet
-                        );
-                        return FileVisitResult.CONTINUE;
+            deployArtifacts("step definitions",
+                findArtifacts(stepDefPath, dir -> true, new StepDefModulesFinder(), stepResourceToURI),
+                buildMetadata(hubConfig.getStepDefinitionPermissions(), "http://marklogic.com/data-hub/step-definition"),
+                propertiesModuleManager, parseExecutor, stagingClient, finalClient);
+
+            // let's do flows
+            deployArtifacts("flows",
+                findArtifacts(flowPath, dir -> true, new FlowDefModulesFinder(), flowResourceToURI),
+                buildMetadata(hubConfig.getFlowPermissions(), "http://marklogic.com/data-hub/flow"),
+                propertiesModuleManager, parseExecutor, stagingClient, finalClient);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            //throw new RuntimeException(e);
+        }
+        finally {
+            parseExecutor.shutdownNow();
+            // Also saves the timestamps of files that were skipped because their content hasn't changed
+            propertiesModuleManager.saveProperties();
+        }
+
+        // So that flows run from this JVM use the step definitions that were just deployed
+        if (hubConfig instanceof HubConfigImpl) {
+            ((HubConfigImpl) hubConfig).invalidateStepDefinitionCache();
+        }
+    }
+
+    /**
+     * @param artifactsPath the directory to walk
+     * @param isArtifactDir selects the directories that the modules finder should look in
+     * @return the artifact files found, with the URI that each is loaded at
+     */
+    private List<ArtifactFile> findArtifacts(Path artifactsPath, Predicate<Path> isArtifactDir, ModulesFinder modulesFinder,
+                                             ResourceToURI resourceToURI) throws IOException {
+        List<ArtifactFile> artifacts = new ArrayList<>();
+        if (artifactsPath.toFile().exists()) {
+            Files.walkFileTree(artifactsPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (isArtifactDir.test(dir)) {
+                        Modules modules = modulesFinder.findModules(dir.toString());
+                        for (Resource r : modules.getAssets()) {
+                            artifacts.add(new ArtifactFile(r, resourceToURI.toURI(r)));
+                        }
                     }
-                });
-            }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return artifacts;
+    }
 
+    /**
+     * Parses the artifacts that have been modified on a pool of threads, and writes each one to every database through
+     * a WriteBatcher, so the databases are written to concurrently and only a bounded number of parsed artifacts is
+     * held in memory at once. Timestamps are only saved for artifacts that were written successfully.
+     */
+    private void deployArtifacts(String artifactType, List<ArtifactFile> artifacts, DocumentMetadataHandle metadata,
+                                 HubModuleManager propertiesModuleManager, ExecutorService parseExecutor,
+                                 DatabaseClient... clients) {
+        long start = System.currentTimeMillis();
+        List<ArtifactFile> modifiedArtifacts = artifacts.parallelStream()
+            .filter(artifact -> forceLoad || propertiesModuleManager.hasFileBeenModifiedSinceLastLoaded(artifact.file))
+            .collect(Collectors.toList());
+        if (modifiedArtifacts.isEmpty()) {
+            if (!artifacts.isEmpty() && logger.isInfoEnabled()) {
+                logger.info(String.format("None of the %d %s have been modified, so none were loaded", artifacts.size(), artifactType));
+            }
+            return;
+        }
 
-            // let's do flows
-            if (flowPath.toFile().exists()) {
-                Files.walkFileTree(flowPath, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                        executeWalk(
-                            dir,
-                            flowDefModulesFinder,
-                            propertiesModuleManager,
-                            flowResourceToURI,
-                            buildMetadata(hubConfig.getFlowPermissions(), "http://marklogic.com/data-hub/flow"),
-                            stagingFlowDocumentWriteSet,
-                            finalFlowDocumentWriteSet
-                        );
-                        return FileVisitResult.CONTINUE;
+        Set<String> failedUris = ConcurrentHashMap.newKeySet();
+        List<Throwable> writeFailures = Collections.synchronizedList(new ArrayList<>());
+        List<DataMovementManager> dataMovementManagers = new ArrayList<>();
+        List<WriteBatcher> writeBatchers = new ArrayList<>();
+        for (DatabaseClient client : clients) {
+            DataMovementManager dataMovementManager = client.newDataMovementManager();
+            WriteBatcher writeBatcher = dataMovementManager.newWriteBatcher()
+                .withBatchSize(writeBatchSize)
+                .withThreadCount(writeThreadCount)
+                .onBatchFailure((batch, failure) -> {
+                    writeFailures.add(failure);
+                    for (WriteEvent event : batch.getItems()) {
+                        failedUris.add(event.getTargetUri());
                     }
                 });
-            }
+            dataMovementManager.startJob(writeBatcher);
+            dataMovementManagers.add(dataMovementManager);
+            writeBatchers.add(writeBatcher);
+        }
 
-            if (stagingEntityDocumentWriteSet.size() > 0) {
-                finalDocMgr.write(finalEntityDocumentWriteSet);
-                stagingDocMgr.write(stagingEntityDocumentWriteSet);
-            }
-            if (stagingMappingDocumentWriteSet.size() > 0) {
-                stagingDocMgr.write(stagingMappingDocumentWriteSet);
-                finalDocMgr.write(finalMappingDocumentWriteSet);
-            }
-            if (stagingStepDefDocumentWriteSet.size() > 0) {
-                stagingDocMgr.write(stagingStepDefDocumentWriteSet);
-                finalDocMgr.write(finalStepDefDocumentWriteSet);
-            }
-            if (stagingFlowDocumentWriteSet.size() > 0) {
-                stagingDocMgr.write(stagingFlowDocumentWriteSet);
-                finalDocMgr.write(finalFlowDocumentWriteSet);
+        List<Future<?>> parseResults = new ArrayList<>();
+        for (ArtifactFile artifact : modifiedArtifacts) {
+            parseResults.add(parseExecutor.submit(() -> {
+                JsonNode json = readArtifact(artifact.resource);
+                for (WriteBatcher writeBatcher : writeBatchers) {
+                    writeBatcher.add(artifact.uri, metadata, new JacksonHandle(json));
+                }
+                return null;
+            }));
+        }
+        for (int i = 0; i < parseResults.size(); i++) {
+            try {
+                parseResults.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading " + artifactType, e);
+            } catch (ExecutionException e) {
+                ArtifactFile artifact = modifiedArtifacts.get(i);
+                failedUris.add(artifact.uri);
+                logger.error("Unable to load artifact file: " + artifact.file.getAbsolutePath() + "; cause: " + e.getCause().getMessage(), e.getCause());
             }
-
         }
-        catch (IOException e) {
-            e.printStackTrace();
-            //throw new RuntimeException(e);
+        for (int i = 0; i < writeBatchers.size(); i++) {
+            writeBatchers.get(i).flushAndWait();
+            dataMovementManagers.get(i).stopJob(writeBatchers.get(i));
         }
-    }
 
-    private void executeWalk(
-        Path dir,
-        ModulesFinder modulesFinder,
-        PropertiesModuleManager propertiesModuleManager,
-        ResourceToURI resourceToURI,
-        DocumentMetadataHandle metadata,
-        DocumentWriteSet... writeSets
-    ) throws IOException {
-        Modules modules = modulesFinder.findModules(dir.toString());
-        for (Resource r : modules.getAssets()) {
-            addResourceToWriteSets(
-                r,
-                propertiesModuleManager,
-                resourceToURI.toURI(r),
-                metadata,
-                writeSets
-            );
+        List<File> loadedFiles = modifiedArtifacts.stream()
+            .filter(artifact -> !failedUris.contains(artifact.uri))
+            .map(artifact -> artifact.file)
+            .collect(Collectors.toList());
+        propertiesModuleManager.saveLastLoadedTimestamps(loadedFiles, new Date());
+
+        if (logger.isInfoEnabled()) {
+            logger.info(String.format("Loaded %d of %d modified %s in %dms", loadedFiles.size(), modifiedArtifacts.size(),
+                artifactType, System.currentTimeMillis() - start));
+        }
+        if (!writeFailures.isEmpty()) {
+            throw new RuntimeException("Unable to write " + artifactType + "; cause: " + writeFailures.get(0).getMessage(), writeFailures.get(0));
         }
     }
 
@@ -287,38 +310,22 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
         return meta;
     }
 
-    private void addResourceToWriteSets(
-        Resource r,
-        PropertiesModuleManager propertiesModuleManager,
-        String docId,
-        DocumentMetadataHandle meta,
-        DocumentWriteSet... writeSets
-    ) throws IOException {
-        if (forceLoad || propertiesModuleManager.hasFileBeenModifiedSinceLastLoaded(r.getFile())) {
-            InputStream inputStream = r.getInputStream();
-
-            JsonNode json;
-            try {
-                json = objectMapper.readTree(inputStream);
-            } finally {
-                inputStream.close();
-            }
-
-            if (json instanceof ObjectNode && json.has("language")) {
-                json = replaceLanguageWithLang((ObjectNode)json);
-                try {
-                    objectMapper.writeValue(r.getFile(), json);
-                } catch (Exception ex) {
-                    logger.warn("Unable to replace 'language' with 'lang' in artifact file: " + r.getFile().getAbsolutePath()
-                        + ". You should replace 'language' with 'lang' yourself in this file. Error cause: " + ex.getMessage(), ex);
-                }
-            }
+    private JsonNode readArtifact(Resource r) throws IOException {
+        JsonNode json;
+        try (InputStream inputStream = r.getInputStream()) {
+            json = objectMapper.readTree(inputStream);
+        }
 
-            for (DocumentWriteSet writeSet : writeSets) {
-                writeSet.add(docId, meta, new JacksonHandle(json));
+        if (json instanceof ObjectNode && json.has("language")) {
+            json = replaceLanguageWithLang((ObjectNode)json);
+            try {
+                objectMapper.writeValue(r.getFile(), json);
+            } catch (Exception ex) {
+                logger.warn("Unable to replace 'language' with 'lang' in artifact file: " + r.getFile().getAbsolutePath()
+                    + ". You should replace 'language' with 'lang' yourself in this file. Error cause: " + ex.getMessage(), ex);
             }
-            propertiesModuleManager.saveLastLoadedTimestamp(r.getFile(), new Date());
         }
+        return json;
     }
 
     /**
@@ -350,7 +357,31 @@ public class LoadUserArtifactsCommand extends AbstractCommand {
         this.objectMapper = objectMapper;
     }
 
+    public void setParseThreadCount(int parseThreadCount) {
+        this.parseThreadCount = parseThreadCount;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public void setWriteThreadCount(int writeThreadCount) {
+        this.writeThreadCount = writeThreadCount;
+    }
+
     abstract class ResourceToURI {
         public abstract String toURI(Resource r) throws IOException;
     }
+
+    private static class ArtifactFile {
+        private final Resource resource;
+        private final File file;
+        private final String uri;
+
+        ArtifactFile(Resource resource, String uri) throws IOException {
+            this.resource = resource;
+            this.file = resource.getFile();
+            this.uri = uri;
+        }
+    }
 }
@@ -37,6 +37,8 @@ import com.marklogic.hub.impl.EntityManagerImpl;
 import com.marklogic.hub.legacy.LegacyFlowManager;
 import com.marklogic.hub.legacy.flow.LegacyFlow;
 import com.marklogic.hub.legacy.impl.LegacyFlowManagerImpl;
+import com.marklogic.hub.util.ContentHashModuleManager;
+import com.marklogic.hub.util.HubModuleManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
@@ -95,9 +97,9 @@ public class LoadUserModulesCommand extends LoadModulesCommand {
         this.legacyFlowManager = new LegacyFlowManagerImpl(hubConfig);
     }
 
-    private PropertiesModuleManager getModulesManager() {
+    private HubModuleManager getModulesManager() {
         String timestampFile = hubConfig.getHubProject().getUserModulesDeployTimestampFile();
-        PropertiesModuleManager pmm = new PropertiesModuleManager(timestampFile);
+        HubModuleManager pmm = new ContentHashModuleManager(timestampFile);
 
         if (forceLoad) {
             pmm.deletePropertiesFile();
@@ -116,7 +118,7 @@ public class LoadUserModulesCommand extends LoadModulesCommand {
         return pmm;
     }
 
-    private AssetFileLoader getAssetFileLoader(AppConfig config, PropertiesModuleManager moduleManager) {
+    private AssetFileLoader getAssetFileLoader(AppConfig config, HubModuleManager moduleManager) {
         AssetFileLoader assetFileLoader = new AssetFileLoader(hubConfig.newModulesDbClient(), moduleManager);
         assetFileLoader.addDocumentFileProcessor(new CacheBusterDocumentFileProcessor());
         //Add file extensions to HubFileFilter.accept() to prevent mappings, entities  files being loaded to Modules db
@@ -133,7 +135,7 @@ public class LoadUserModulesCommand extends LoadModulesCommand {
         this.threadPoolTaskExecutor.setWaitForTasksToCompleteOnShutdown(true);
         this.threadPoolTaskExecutor.afterPropertiesSet();
 
-        PropertiesModuleManager moduleManager = getModulesManager();
+        HubModuleManager moduleManager = getModulesManager();
         AssetFileLoader assetFileLoader = getAssetFileLoader(config, moduleManager);
 
         DefaultModulesLoader modulesLoader = new DefaultModulesLoader(assetFileLoader);
@@ -191,7 +193,7 @@ public class LoadUserModulesCommand extends LoadModulesCommand {
         // load any user files under plugins/* int the modules database.
         // this will ignore REST folders under entities
         DefaultModulesLoader modulesLoader = getStagingModulesLoader(config);
-        // Load modules from standard ml-gradle location after 'PropertiesModuleManager' is initialized. This will ensure
+        // Load modules from standard ml-gradle location after 'HubModuleManager' is initialized. This will ensure
         // that in case of 'forceLoad', the ml-javaclient-utils timestamp file is deleted first.
         if (loadAllModules) {
             loadModulesFromStandardMlGradleLocations(context);
@@ -266,6 +268,12 @@ public class LoadUserModulesCommand extends LoadModulesCommand {
             e.printStackTrace();
             //throw new RuntimeException(e);
         }
+
+        // The timestamps of the loaded modules were journaled as they were loaded; write them out once at the end
+        ModulesManager loadedModulesManager = modulesLoader.getModulesManager();
+        if (loadedModulesManager instanceof HubModuleManager) {
+            ((HubModuleManager) loadedModulesManager).saveProperties();
+        }
     }
 
     public void setHubConfig(HubConfig hubConfig) {
@@ -15,6 +15,8 @@
  */
 package com.marklogic.hub.deploy.util;
 
+import java.util.List;
+
 public interface HubDeployStatusListener {
     /**
      * Sets the status change with a message
@@ -27,4 +29,23 @@ public interface HubDeployStatusListener {
      * Method to execute when the listener throws an error
      */
     void onError();
+
+    /**
+     * Called when a command has finished executing. Commands that don't depend on each other may be executed at the
+     * same time, so this may be called from several threads.
+     * @param commandName - the class name of the command
+     * @param durationMillis - the time taken by the command
+     */
+    default void onCommandFinished(String commandName, long durationMillis) {
+    }
+
+    /**
+     * Called when every command has finished executing, with the chain of dependent commands that took the longest.
+     * This is the shortest time in which the deployment could have finished, so speeding up any other command won't
+     * make it finish sooner.
+     * @param commandNames - the class names of the commands on the critical path, in the order they were executed
+     * @param durationMillis - the total time taken by those commands
+     */
+    default void onCriticalPath(List<String> commandNames, long durationMillis) {
+    }
 }
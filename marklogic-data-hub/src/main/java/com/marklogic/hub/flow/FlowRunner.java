@@ -106,6 +106,18 @@ public interface FlowRunner {
     @Deprecated
     RunFlowResponse runFlow(String flow);
 
+    /**
+     * Resumes a job that did not finish, starting with the given step and then running the steps after it in the
+     * flow. If the step saved a checkpoint before the job stopped, the items covered by the checkpoint are not
+     * processed again, and the step's counts include the items processed before it was resumed. The options and step
+     * config stored with the flow are used, as those passed to the original run are not recorded in the job document.
+     *
+     * @param jobId the id of the job to resume
+     * @param step the number of the step to resume from
+     * @return a response object
+     */
+    RunFlowResponse resume(String jobId, String step);
+
     /**
      * Runs the flow.
      *
@@ -9,10 +9,15 @@ import com.marklogic.hub.flow.*;
 import com.marklogic.hub.impl.HubConfigImpl;
 import com.marklogic.hub.job.JobDocManager;
 import com.marklogic.hub.job.JobStatus;
+import com.marklogic.hub.collector.StreamingUriQueue;
+import com.marklogic.hub.step.CachingStepDefinitionProvider;
 import com.marklogic.hub.step.MarkLogicStepDefinitionProvider;
 import com.marklogic.hub.step.RunStepResponse;
+import com.marklogic.hub.step.StepCheckpoint;
+import com.marklogic.hub.step.StepDefinition;
 import com.marklogic.hub.step.StepRunner;
 import com.marklogic.hub.step.StepRunnerFactory;
+import com.marklogic.hub.step.impl.QueryStepRunner;
 import com.marklogic.hub.step.impl.Step;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -26,6 +31,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Component
@@ -40,28 +46,30 @@ public class FlowRunnerImpl implements FlowRunner{
     @Autowired
     private StepRunnerFactory stepRunnerFactory;
 
-    private AtomicBoolean isRunning = new AtomicBoolean(false);
-    private AtomicBoolean isJobCancelled = new AtomicBoolean(false);
-    private AtomicBoolean isJobSuccess = new AtomicBoolean(true);
-    private AtomicBoolean jobStoppedOnError = new AtomicBoolean(false);
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private String runningJobId;
-    private Step runningStep;
-    private Flow runningFlow;
+    // Number of completed items buffered between two pipelined steps before the earlier step is made to wait
+    private static final int PIPELINE_BUFFER_SIZE = 10000;
 
-    private StepRunner stepRunner;
+    // A source query that returns URIs or values itself, rather than a cts query that the collector runs cts.uris with
+    private static final Pattern CUSTOM_SOURCE_QUERY = Pattern.compile("^\\s*cts\\.(uris|values)\\(.*\\)\\s*$", Pattern.DOTALL);
 
-    private final Map<String, Queue<String>> stepsMap = new ConcurrentHashMap<>();
-    private Map<String, Flow> flowMap = new ConcurrentHashMap<>();
-    private Map<String, RunFlowResponse> flowResp = new ConcurrentHashMap<>();
-    private Queue<String> jobQueue = new ConcurrentLinkedQueue<>();
+    // Every job that has been submitted and not yet finished, whether it is running or queued
+    private final Map<String, FlowJob> jobs = new ConcurrentHashMap<>();
+    // Jobs waiting for a free slot, in submission order
+    private final Queue<String> jobQueue = new ConcurrentLinkedQueue<>();
+    // Jobs currently running, in the order they were started
+    private final Queue<String> runningJobIds = new ConcurrentLinkedQueue<>();
 
-    private List<FlowStatusListener> flowStatusListeners = new ArrayList<>();
+    private List<FlowStatusListener> flowStatusListeners = new CopyOnWriteArrayList<>();
 
     private ThreadPoolExecutor threadPool;
     private JobDocManager jobDocManager;
-    private boolean disableJobOutput = false;
+
+    private CachingStepDefinitionProvider stepDefinitionCache;
+
+    private int maxConcurrentJobs = 1;
+    private int threadBudget = 0;
 
     public FlowRunnerImpl() {
     }
@@ -87,12 +95,20 @@ public class FlowRunnerImpl implements FlowRunner{
      * filesystem. It is expected that the "runFlow(FlowInputs)" method will then be used, which ensures that flow
      * artifacts are also retrieved from MarkLogic as opposed to from the filesystem.
      *
+     * Step definitions are cached by the HubConfig when it is a HubConfigImpl, so that FlowRunners constructed with the
+     * same HubConfig share them, and the ones used by a flow are retrieved all at once before its steps are run.
+     *
      * @param hubConfig
      */
     public FlowRunnerImpl(HubConfig hubConfig) {
         this.hubConfig = hubConfig;
         this.stepRunnerFactory = new StepRunnerFactory(this.hubConfig);
-        this.stepRunnerFactory.setStepDefinitionProvider(new MarkLogicStepDefinitionProvider(this.hubConfig.newStagingClient(null)));
+        if (hubConfig instanceof HubConfigImpl) {
+            this.stepDefinitionCache = ((HubConfigImpl) hubConfig).getStepDefinitionCache();
+            this.stepRunnerFactory.setStepDefinitionProvider(this.stepDefinitionCache);
+        } else {
+            this.stepRunnerFactory.setStepDefinitionProvider(new MarkLogicStepDefinitionProvider(this.hubConfig.newStagingClient(null)));
+        }
     }
 
     @Override
@@ -153,21 +169,78 @@ public class FlowRunnerImpl implements FlowRunner{
         if (StringUtils.isEmpty(flowName)) {
             throw new IllegalArgumentException("Cannot run flow; no flow name provided");
         }
-        Flow flow;
+        Flow flow = readFlow(flowName);
+        return runFlow(flow, flowInputs.getSteps(), flowInputs.getJobId(), flowInputs.getOptions(), flowInputs.getStepConfig());
+    }
+
+    /**
+     * Retrieves the flow of the job from the staging database, as runFlow(FlowInputs) does, and runs the flow from
+     * the given step onwards with the same job id. The checkpoint saved by that step, if any, is passed to its step
+     * runner.
+     */
+    @Override
+    public RunFlowResponse resume(String jobId, String step) {
+        if (StringUtils.isEmpty(jobId) || StringUtils.isEmpty(step)) {
+            throw new IllegalArgumentException("Cannot resume job; a job id and a step are required");
+        }
+        if (jobs.containsKey(jobId)) {
+            throw new RuntimeException("Cannot resume job " + jobId + "; it is already running");
+        }
+        JsonNode jobNode = new JobDocManager(hubConfig.newJobDbClient()).getJobDocument(jobId);
+        if (jobNode == null || !jobNode.has("job")) {
+            throw new RuntimeException("Cannot resume job " + jobId + "; its job document was not found");
+        }
+        RunFlowResponse jobDoc;
+        try {
+            jobDoc = new ObjectMapper().treeToValue(jobNode.get("job"), RunFlowResponse.class);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to read job document for job " + jobId + "; cause: " + e.getMessage(), e);
+        }
+
+        Flow flow = readFlow(jobDoc.getFlowName());
+        if (flow.getStep(step) == null) {
+            throw new RuntimeException("Step " + step + " not found in the flow");
+        }
+        List<String> stepNums = new ArrayList<>();
+        for (String stepNum : flow.getSteps().keySet()) {
+            if (stepNum.equals(step) || !stepNums.isEmpty()) {
+                stepNums.add(stepNum);
+            }
+        }
+
+        Map<String, StepCheckpoint> checkpoints = new HashMap<>();
+        RunStepResponse stepResponse = jobDoc.getStepResponses() != null ? jobDoc.getStepResponses().get(step) : null;
+        if (stepResponse != null && stepResponse.getCheckpoint() != null) {
+            checkpoints.put(step, stepResponse.getCheckpoint());
+        }
+        return runFlow(flow, stepNums, jobId, null, null, checkpoints);
+    }
+
+    private Flow readFlow(String flowName) {
         try {
             JsonNode jsonFlow = hubConfig.newStagingClient().newJSONDocumentManager().read("/flows/" + flowName + ".flow.json", new JacksonHandle()).get();
-            flow = new FlowImpl().deserialize(jsonFlow);
+            return new FlowImpl().deserialize(jsonFlow);
         } catch (Exception ex) {
-            throw new RuntimeException("Unable to retrieve flow with name: " + flowInputs.getFlowName() + ": cause: " + ex.getMessage());
+            throw new RuntimeException("Unable to retrieve flow with name: " + flowName + ": cause: " + ex.getMessage());
         }
-        return runFlow(flow, flowInputs.getSteps(), flowInputs.getJobId(), flowInputs.getOptions(), flowInputs.getStepConfig());
     }
 
     protected RunFlowResponse runFlow(Flow flow, List<String> stepNums, String jobId, Map<String, Object> options, Map<String, Object> stepConfig) {
+        return runFlow(flow, stepNums, jobId, options, stepConfig, new HashMap<>());
+    }
+
+    /**
+     * @param checkpoints the checkpoints to resume steps from, keyed by step number
+     */
+    private RunFlowResponse runFlow(Flow flow, List<String> stepNums, String jobId, Map<String, Object> options,
+                                    Map<String, Object> stepConfig, Map<String, StepCheckpoint> checkpoints) {
+        boolean disableJobOutput = false;
         if (options != null && options.containsKey("disableJobOutput")) {
             disableJobOutput = Boolean.parseBoolean(options.get("disableJobOutput").toString());
-        } else {
-            disableJobOutput = false;
+        }
+        boolean pipelineSteps = false;
+        if (options != null && options.containsKey("pipelineSteps")) {
+            pipelineSteps = Boolean.parseBoolean(options.get("pipelineSteps").toString());
         }
 
         if(stepNums == null) {
@@ -196,55 +269,67 @@ public class FlowRunnerImpl implements FlowRunner{
         }
         RunFlowResponse response = new RunFlowResponse(jobId);
 
-        //Put response, steps and flow in maps with jobId as key
-        flowResp.put(jobId, response);
-        stepsMap.put(jobId, stepsQueue);
-        flowMap.put(jobId, flow);
-
-        //add jobId to a queue
+        jobs.put(jobId, new FlowJob(jobId, flow, stepsQueue, response, disableJobOutput, pipelineSteps, checkpoints));
         jobQueue.add(jobId);
-        if(!isRunning.get()){
-            initializeFlow(jobId);
-        }
+        startQueuedJobs();
         return response;
     }
 
-    private void initializeFlow(String jobId) {
-        //Reset the states to initial values before starting a flow run
-        isRunning.set(true);
-        isJobSuccess.set(true);
-        isJobCancelled.set(false);
-        jobStoppedOnError.set(false);
-        runningJobId = jobId;
-        runningFlow = flowMap.get(runningJobId);
-        if(jobDocManager == null && !disableJobOutput) {
-            jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+    /**
+     * Starts queued jobs until the maximum number of concurrent jobs is reached.
+     */
+    private synchronized void startQueuedJobs() {
+        while (runningJobIds.size() < maxConcurrentJobs && !jobQueue.isEmpty()) {
+            FlowJob job = jobs.get(jobQueue.poll());
+            if (job == null) {
+                continue;
+            }
+            if(jobDocManager == null && !job.disableJobOutput) {
+                jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+            }
+            if(threadPool == null || threadPool.isShutdown()) {
+                int poolSize = newPoolSize();
+                threadPool = new CustomPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS
+                    , new LinkedBlockingQueue<Runnable>());
+            }
+            runningJobIds.add(job.jobId);
+            threadPool.execute(new FlowRunnerTask(job));
         }
-        if(threadPool == null || threadPool.isTerminated()) {
-            // thread pool size needs to be at least 2, so the current step thread can kick-off the next step thread
-            int maxPoolSize = Math.max(Runtime.getRuntime().availableProcessors()/2, 2);
-            threadPool = new CustomPoolExecutor(2, maxPoolSize, 0L, TimeUnit.MILLISECONDS
-                , new LinkedBlockingQueue<Runnable>());
+    }
+
+    private int newPoolSize() {
+        // Each running job needs its own thread, plus one spare so that a failed step thread can kick-off the next
+        // step thread
+        return Math.max(maxConcurrentJobs + 1, 2);
+    }
+
+    /**
+     * Removes a job that has finished running, starts the next queued job if there is one, and shuts the thread pool
+     * down when there are no more jobs.
+     */
+    private synchronized void finishJob(FlowJob job) {
+        runningJobIds.remove(job.jobId);
+        jobs.remove(job.jobId);
+        startQueuedJobs();
+        if (runningJobIds.isEmpty() && jobQueue.isEmpty()) {
+            threadPool.shutdownNow();
         }
-        threadPool.execute(new FlowRunnerTask(runningFlow, runningJobId));
     }
 
     public void stopJob(String jobId) {
-        synchronized (stepsMap) {
-            if(stepsMap.get(jobId) != null){
-                stepsMap.get(jobId).clear();
-                stepsMap.remove(jobId);
-                isJobCancelled.set(true);
-            }
-            else {
-                throw new RuntimeException("Job not running");
-            }
+        FlowJob job = jobs.get(jobId);
+        if (job == null || !job.isJobCancelled.compareAndSet(false, true)) {
+            throw new RuntimeException("Job not running");
         }
-        if (jobId.equals(runningJobId)) {
-            if(stepRunner != null){
-                stepRunner.stop();
+        job.stepQueue.clear();
+        if (jobQueue.remove(jobId)) {
+            // The job never started, so there is no FlowRunnerTask to report its status; just drop it
+            synchronized (this) {
+                jobs.remove(jobId);
             }
+            return;
         }
+        job.stepRunners.forEach(StepRunner::stop);
     }
 
     protected void copyJobDataToResponse(RunFlowResponse response, RunFlowResponse jobDocument) {
@@ -255,134 +340,118 @@ public class FlowRunnerImpl implements FlowRunner{
         response.setLastCompletedStep(jobDocument.getLastCompletedStep());
     }
 
-    private class FlowRunnerTask implements Runnable {
-        private String jobId;
-        private Flow flow;
-        private Queue<String> stepQueue;
-
-        public Queue<String> getStepQueue() {
-            return stepQueue;
+    /**
+     * Caps the thread count of a step so that the steps of all running jobs share the thread budget equally. The
+     * share is computed when a step starts, so a step that is already running keeps its threads when another job
+     * starts; the next step of that job gets the smaller share.
+     */
+    protected Map<String, Object> applyThreadBudget(StepRunner stepRunner, Map<String, Object> stepConfig) {
+        if (threadBudget <= 0) {
+            return stepConfig;
         }
-
-        FlowRunnerTask(Flow flow, String jobId) {
-            this.jobId = jobId;
-            this.flow = flow;
+        int share = Math.max(1, threadBudget / Math.max(1, runningJobIds.size()));
+        if (stepRunner.getThreadCount() > share) {
+            stepRunner.withThreadCount(share);
         }
+        if (stepConfig != null && stepConfig.get("threadCount") != null
+            && Integer.parseInt(stepConfig.get("threadCount").toString()) > share) {
+            stepConfig = new HashMap<>(stepConfig);
+            stepConfig.put("threadCount", share);
+        }
+        return stepConfig;
+    }
 
-        FlowRunnerTask(Flow flow, String jobId, Queue<String> stepQueue) {
+    /**
+     * Holds the state of a single job, so that jobs can run concurrently without sharing status flags.
+     */
+    private static class FlowJob {
+        private final String jobId;
+        private final Flow flow;
+        private final Queue<String> stepQueue;
+        private final RunFlowResponse response;
+        private final boolean disableJobOutput;
+
+        private final AtomicBoolean isJobCancelled = new AtomicBoolean(false);
+        private final AtomicBoolean isJobSuccess = new AtomicBoolean(true);
+        private final AtomicBoolean jobStoppedOnError = new AtomicBoolean(false);
+
+        // The steps that are running; more than one when steps are pipelined
+        private final Set<String> runningStepNums = ConcurrentHashMap.newKeySet();
+        // Every step runner started for this job; more than one runs at a time when steps are pipelined
+        private final List<StepRunner> stepRunners = new CopyOnWriteArrayList<>();
+        private final boolean pipelined;
+        private final Map<String, StepCheckpoint> checkpoints;
+
+        FlowJob(String jobId, Flow flow, Queue<String> stepQueue, RunFlowResponse response, boolean disableJobOutput, boolean pipelined,
+                Map<String, StepCheckpoint> checkpoints) {
             this.jobId = jobId;
             this.flow = flow;
             this.stepQueue = stepQueue;
+            this.response = response;
+            this.disableJobOutput = disableJobOutput;
+            this.pipelined = pipelined;
+            this.checkpoints = checkpoints;
         }
+    }
 
-        @Override
-        public void run() {
-            RunFlowResponse resp = flowResp.get(runningJobId);
-            resp.setFlowName(runningFlow.getName());
-            stepQueue = stepsMap.get(jobId);
-
-            Map<String, RunStepResponse> stepOutputs = new HashMap<>();
-            String stepNum = null;
-
-            final long[] currSuccessfulEvents = {0};
-            final long[] currFailedEvents = {0};
-            final int[] currPercentComplete = {0};
-            while (! stepQueue.isEmpty()) {
-                stepNum = stepQueue.poll();
-                runningStep = runningFlow.getSteps().get(stepNum);
-                Map<String, Object> optsMap ;
-                if(flow.getOverrideOptions() != null) {
-                    optsMap = new HashMap<>(flow.getOverrideOptions());
-                }
-                else {
-                    optsMap = new HashMap<>();
-                }
+    /**
+     * The latest progress reported by a step.
+     */
+    private static class StepProgress {
+        private volatile long successfulEvents;
+        private volatile long failedEvents;
+        private volatile int percentComplete;
+    }
 
-                AtomicLong errorCount = new AtomicLong();
-                AtomicLong successCount = new AtomicLong();
-                /*  If an exception occurs in step execution, we don't want the thread to die and affect other step execution.
-                    If an exception occurs, the exception message is written to job output
-                 */
-                RunStepResponse stepResp = null;
-                //Initializing stepBatchSize to default flow batch size
+    /**
+     * Retrieves the step definitions of the steps to be run in a single request, if they are cached. If that fails,
+     * each step retrieves its step definition when it is run, and reports the error if it still can't.
+     */
+    private void prefetchStepDefinitions(Flow flow, Collection<String> stepNums) {
+        if (stepDefinitionCache == null) {
+            return;
+        }
+        List<Step> steps = stepNums.stream().map(flow::getStep).filter(Objects::nonNull).collect(Collectors.toList());
+        try {
+            stepDefinitionCache.getStepDefinitions(steps);
+        } catch (Exception ex) {
+            logger.warn("Unable to retrieve the step definitions of flow " + flow.getName() + " at once; cause: " + ex.getMessage());
+        }
+    }
 
-                try {
-                    stepRunner = stepRunnerFactory.getStepRunner(runningFlow, stepNum)
-                        .withJobId(jobId)
-                        .withOptions(optsMap)
-                        .onItemComplete((jobID, itemID) -> {
-                            successCount.incrementAndGet();
-                        })
-                        .onItemFailed((jobId, itemId)-> {
-                            errorCount.incrementAndGet();
-                            if(flow.isStopOnError()){
-                                jobStoppedOnError.set(true);
-                                stopJob(jobId);
-                            }
-                        })
-                        .onStatusChanged((jobId, percentComplete, jobStatus, successfulEvents, failedEvents, message) ->{
-                            flowStatusListeners.forEach((FlowStatusListener listener) -> {
-                                currSuccessfulEvents[0] = successfulEvents;
-                                currFailedEvents[0] = failedEvents;
-                                currPercentComplete[0] = percentComplete;
-                                listener.onStatusChanged(jobId, runningStep, jobStatus, percentComplete, successfulEvents, failedEvents, runningStep.getName() + " : " + message);
-                            });
-                        });
+    private class FlowRunnerTask implements Runnable {
+        private FlowJob job;
 
-                    //If property values are overriden in UI, use those values over any other.
-                    if(flow.getOverrideStepConfig() != null) {
-                        stepRunner.withStepConfig(flow.getOverrideStepConfig());
-                    }
+        // The latest progress reported by each step, keyed by step number, as pipelined steps report at the same time
+        private final Map<String, StepProgress> stepProgress = new ConcurrentHashMap<>();
+        // The last step of the flow that this task has started
+        private volatile String lastStepNum;
 
-                    stepResp = stepRunner.run();
-                    stepRunner.awaitCompletion();
-                }
-                catch (Exception e) {
-                    stepResp = RunStepResponse.withFlow(flow).withStep(stepNum);
-                    stepResp.withJobId(runningJobId);
-                    if(stepRunner != null){
-                        stepResp.setCounts(successCount.get() + errorCount.get(), successCount.get(), errorCount.get(), (long) Math.ceil((double) successCount.get() / stepRunner.getBatchSize()), (long) Math.ceil((double) errorCount.get() / stepRunner.getBatchSize()));
-                    }
-                    else {
-                        stepResp.setCounts(0, 0, 0, 0, 0);
-                    }
+        public FlowJob getJob() {
+            return job;
+        }
 
-                    StringWriter errors = new StringWriter();
-                    e.printStackTrace(new PrintWriter(errors));
-                    stepResp.withStepOutput(errors.toString());
-                    stepResp.withSuccess(false);
-                    if(successCount.get() > 0) {
-                        stepResp.withStatus(JobStatus.COMPLETED_WITH_ERRORS_PREFIX + stepNum);
-                    }
-                    else{
-                        stepResp.withStatus(JobStatus.FAILED_PREFIX + stepNum);
-                    }
-                    if (!disableJobOutput) {
-                        try {
-                            jobDocManager.postJobs(jobId, JobStatus.FAILED_PREFIX + stepNum, stepNum, null, stepResp);
-                        } catch (Exception ex) {
-                            logger.error(ex.getMessage());
-                        }
-                    }
-                    RunStepResponse finalStepResp = stepResp;
-                    try {
-                        flowStatusListeners.forEach((FlowStatusListener listener) -> {
-                            listener.onStatusChanged(jobId, runningStep, JobStatus.FAILED.toString(), currPercentComplete[0], currSuccessfulEvents[0], currFailedEvents[0],
-                                runningStep.getName() + " " + Arrays.toString(finalStepResp.stepOutput.toArray()));
-                        });
-                    } catch (Exception ex) {
-                        logger.error(ex.getMessage());
-                    }
-                    if(runningFlow.isStopOnError()) {
-                        jobStoppedOnError.set(true);
-                        stopJob(runningJobId);
-                    }
-                }
-                finally {
-                    stepOutputs.put(stepNum, stepResp);
-                    if(stepResp != null && !stepResp.isSuccess()) {
-                        isJobSuccess.set(false);
-                    }
+        FlowRunnerTask(FlowJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            final String jobId = job.jobId;
+            final Flow flow = job.flow;
+            RunFlowResponse resp = job.response;
+            resp.setFlowName(flow.getName());
+            Queue<String> stepQueue = job.stepQueue;
+
+            Map<String, RunStepResponse> stepOutputs = Collections.synchronizedMap(new HashMap<>());
+
+            prefetchStepDefinitions(flow, stepQueue);
+            if (job.pipelined && canRunPipelined(flow, stepQueue)) {
+                runStepsPipelined(stepOutputs);
+            } else {
+                while (! stepQueue.isEmpty()) {
+                    lastStepNum = stepQueue.poll();
+                    runStep(lastStepNum, null, null, null, stepOutputs);
                 }
             }
 
@@ -390,15 +459,15 @@ public class FlowRunnerImpl implements FlowRunner{
 
             final JobStatus jobStatus;
             //Update status of job
-            if (isJobCancelled.get()) {
-                if(runningFlow.isStopOnError() && jobStoppedOnError.get()){
+            if (job.isJobCancelled.get()) {
+                if(flow.isStopOnError() && job.jobStoppedOnError.get()){
                     jobStatus = JobStatus.STOP_ON_ERROR;
                 }
                 else {
                     jobStatus = JobStatus.CANCELED;
                 }
             }
-            else if (!isJobSuccess.get()) {
+            else if (!job.isJobSuccess.get()) {
                     Collection<RunStepResponse> stepResps = stepOutputs.values();
                     long failedStepCount = stepResps.stream().filter((stepResp)-> stepResp.getStatus()
                         .contains(JobStatus.FAILED_PREFIX)).collect(Collectors.counting());
@@ -413,17 +482,18 @@ public class FlowRunnerImpl implements FlowRunner{
                 jobStatus = JobStatus.FINISHED;
             }
             resp.setJobStatus(jobStatus.toString());
+            JsonNode jobNode = null;
             try {
-                if (!disableJobOutput) {
-                    jobDocManager.updateJobStatus(jobId, jobStatus);
+                if (!job.disableJobOutput) {
+                    // Waits for any queued updates to the job, and returns the updated job document
+                    jobNode = jobDocManager.updateJobStatus(jobId, jobStatus);
                 }
             }
             catch (Exception e) {
                 logger.error(e.getMessage());
             }
             finally {
-                JsonNode jobNode = null;
-                if (!disableJobOutput) {
+                if (jobNode == null && !job.disableJobOutput) {
                     try {
                         jobNode = jobDocManager.getJobDocument(jobId);
                     } catch (Exception e) {
@@ -440,10 +510,12 @@ public class FlowRunnerImpl implements FlowRunner{
                     }
                 }
 
-                if (!isJobSuccess.get()) {
+                final Step lastStep = lastStepNum != null ? flow.getSteps().get(lastStepNum) : null;
+                final StepProgress lastProgress = lastStepNum != null ? stepProgress.getOrDefault(lastStepNum, new StepProgress()) : new StepProgress();
+                if (!job.isJobSuccess.get()) {
                     try {
                         flowStatusListeners.forEach((FlowStatusListener listener) -> {
-                            listener.onStatusChanged(jobId, runningStep, jobStatus.toString(), currPercentComplete[0], currSuccessfulEvents[0], currFailedEvents[0], JobStatus.FAILED.toString());
+                            listener.onStatusChanged(jobId, lastStep, jobStatus.toString(), lastProgress.percentComplete, lastProgress.successfulEvents, lastProgress.failedEvents, JobStatus.FAILED.toString());
                         });
                     } catch (Exception ex) {
                         logger.error(ex.getMessage());
@@ -451,23 +523,255 @@ public class FlowRunnerImpl implements FlowRunner{
                 } else {
                     try {
                         flowStatusListeners.forEach((FlowStatusListener listener) -> {
-                            listener.onStatusChanged(jobId, runningStep, jobStatus.toString(), currPercentComplete[0], currSuccessfulEvents[0], currFailedEvents[0], JobStatus.FINISHED.toString());
+                            listener.onStatusChanged(jobId, lastStep, jobStatus.toString(), lastProgress.percentComplete, lastProgress.successfulEvents, lastProgress.failedEvents, JobStatus.FINISHED.toString());
                         });
                     } catch (Exception ex) {
                         logger.error(ex.getMessage());
                     }
                 }
 
-                jobQueue.remove();
-                stepsMap.remove(jobId);
-                flowMap.remove(jobId);
-                flowResp.remove(runningJobId);
-                if (!jobQueue.isEmpty()) {
-                    initializeFlow((String) jobQueue.peek());
+                finishJob(job);
+            }
+        }
+
+        /**
+         * Steps can only be pipelined when each step after the first one can process the items completed by the
+         * previous step in place of those returned by its collector. Such a step only processes the items that also
+         * match its own source query, so it must read from the database that the previous step writes to.
+         */
+        private boolean canRunPipelined(Flow flow, Queue<String> stepQueue) {
+            if (stepQueue.size() < 2) {
+                return false;
+            }
+            if (stepRunnerFactory.getClass() != StepRunnerFactory.class) {
+                // A custom factory may return runners that can't read the items of the previous step
+                logger.warn("Running steps of flow " + flow.getName() + " one at a time, as its step runners come from a custom factory");
+                return false;
+            }
+            List<String> stepNums = new ArrayList<>(stepQueue);
+            for (int i = 1; i < stepNums.size(); i++) {
+                String reason = getReasonNotToPipeline(flow, stepNums.get(i - 1), stepNums.get(i));
+                if (reason != null) {
+                    logger.warn("Running steps of flow " + flow.getName() + " one at a time, as " + reason);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return why the given step can't process the items completed by the previous step, or null if it can
+         */
+        private String getReasonNotToPipeline(Flow flow, String previousStepNum, String stepNum) {
+            Step step = flow.getStep(stepNum);
+            StepDefinition.StepDefinitionType type = step.getStepDefinitionType();
+            if (StepDefinition.StepDefinitionType.INGESTION.equals(type)) {
+                return "ingestion step '" + step.getName() + "' can only be the first step of a pipelined flow";
+            }
+            if (StepDefinition.StepDefinitionType.MERGING.equals(type)) {
+                return "merging step '" + step.getName() + "' processes the URIs of its match summaries rather than those of the previous step";
+            }
+            String sourceQuery = stepRunnerFactory.getSourceQuery(flow, stepNum);
+            if (sourceQuery != null && CUSTOM_SOURCE_QUERY.matcher(sourceQuery).matches()) {
+                return "the source query of step '" + step.getName() + "' returns its URIs directly, so it can't be combined with the URIs of the previous step";
+            }
+            String sourceDatabase = stepRunnerFactory.getSourceDatabase(flow, stepNum);
+            String previousTargetDatabase = stepRunnerFactory.getTargetDatabase(flow, previousStepNum);
+            if (!Objects.equals(sourceDatabase, previousTargetDatabase)) {
+                return "step '" + step.getName() + "' reads from " + sourceDatabase + ", while the step before it writes to " + previousTargetDatabase;
+            }
+            return null;
+        }
+
+        /**
+         * Runs every step at the same time. Each step after the first one bypasses its collector and instead
+         * processes the items completed by the previous step as they are completed. The queue between two steps is
+         * bounded, so a step that falls behind slows down the step before it.
+         */
+        private void runStepsPipelined(Map<String, RunStepResponse> stepOutputs) {
+            List<String> stepNums = new ArrayList<>();
+            String stepNum;
+            while ((stepNum = job.stepQueue.poll()) != null) {
+                stepNums.add(stepNum);
+            }
+
+            List<StreamingUriQueue> queues = new ArrayList<>();
+            for (int i = 1; i < stepNums.size(); i++) {
+                queues.add(new StreamingUriQueue(PIPELINE_BUFFER_SIZE));
+            }
+
+            lastStepNum = stepNums.get(stepNums.size() - 1);
+            List<Thread> stepThreads = new ArrayList<>();
+            for (int i = 0; i < stepNums.size(); i++) {
+                final String num = stepNums.get(i);
+                final StreamingUriQueue input = i > 0 ? queues.get(i - 1) : null;
+                final StreamingUriQueue output = i < queues.size() ? queues.get(i) : null;
+                final Thread previousStepThread = i > 0 ? stepThreads.get(i - 1) : null;
+                Thread stepThread = new Thread(() -> runStep(num, input, output, previousStepThread, stepOutputs), "flow-" + job.jobId + "-step-" + num);
+                stepThreads.add(stepThread);
+                stepThread.start();
+            }
+
+            for (Thread stepThread : stepThreads) {
+                try {
+                    stepThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queues.forEach(StreamingUriQueue::close);
+                    job.stepRunners.forEach(StepRunner::stop);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @param stepNum the step to run
+         * @param input if not null, the step processes the URIs from this queue instead of running its collector
+         * @param output if not null, each item completed by the step is added to this queue, which is marked as
+         *               complete once the step has finished
+         * @param previousStepThread if not null, the thread running the step that adds to the input queue
+         */
+        private void runStep(String stepNum, StreamingUriQueue input, StreamingUriQueue output, Thread previousStepThread,
+                             Map<String, RunStepResponse> stepOutputs) {
+            final String jobId = job.jobId;
+            final Flow flow = job.flow;
+            final Step runningStep = flow.getSteps().get(stepNum);
+            final StepProgress progress = new StepProgress();
+            stepProgress.put(stepNum, progress);
+            job.runningStepNums.add(stepNum);
+            Map<String, Object> optsMap ;
+            if(flow.getOverrideOptions() != null) {
+                optsMap = new HashMap<>(flow.getOverrideOptions());
+            }
+            else {
+                optsMap = new HashMap<>();
+            }
+
+            AtomicLong errorCount = new AtomicLong();
+            AtomicLong successCount = new AtomicLong();
+            /*  If an exception occurs in step execution, we don't want the thread to die and affect other step execution.
+                If an exception occurs, the exception message is written to job output
+             */
+            RunStepResponse stepResp = null;
+            StepRunner stepRunner = null;
+            //Initializing stepBatchSize to default flow batch size
+
+            try {
+                // The step runner writes its updates through the same manager as this job, so they're written in order
+                stepRunner = stepRunnerFactory.getStepRunner(flow, stepNum)
+                    .withJobDocManager(job.disableJobOutput ? null : jobDocManager)
+                    .withJobId(jobId)
+                    .withOptions(optsMap)
+                    .onItemComplete((jobID, itemID) -> {
+                        successCount.incrementAndGet();
+                    })
+                    .onItemFailed((jobID, itemId)-> {
+                        errorCount.incrementAndGet();
+                        if(flow.isStopOnError()){
+                            job.jobStoppedOnError.set(true);
+                            stopJob(jobID);
+                        }
+                    })
+                    .onStatusChanged((jobID, percentComplete, jobStatus, successfulEvents, failedEvents, message) ->{
+                        progress.successfulEvents = successfulEvents;
+                        progress.failedEvents = failedEvents;
+                        progress.percentComplete = percentComplete;
+                        flowStatusListeners.forEach((FlowStatusListener listener) -> {
+                            listener.onStatusChanged(jobID, runningStep, jobStatus, percentComplete, successfulEvents, failedEvents, runningStep.getName() + " : " + message);
+                        });
+                    });
+                if (output != null) {
+                    stepRunner.onItemComplete((jobID, itemID) -> {
+                        try {
+                            output.put(itemID);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                }
+                job.stepRunners.add(stepRunner);
+
+                //If property values are overriden in UI, use those values over any other.
+                Map<String, Object> stepConfig = applyThreadBudget(stepRunner, flow.getOverrideStepConfig());
+                if(stepConfig != null) {
+                    stepRunner.withStepConfig(stepConfig);
+                }
+                StepCheckpoint checkpoint = job.checkpoints.get(stepNum);
+                if (checkpoint != null) {
+                    stepRunner.withCheckpoint(checkpoint);
+                }
+
+                if (input != null && stepRunner instanceof QueryStepRunner) {
+                    stepResp = ((QueryStepRunner) stepRunner).run(input);
                 } else {
-                    isRunning.set(false);
-                    threadPool.shutdownNow();
-                    runningFlow = null;
+                    if (input != null) {
+                        // Not expected, as canRunPipelined only allows runners that can read the previous step's
+                        // items; the runner runs its own collector instead, once the previous step has finished
+                        logger.warn("Step " + stepNum + " of flow " + flow.getName() + " can't be pipelined, so it will run once the previous step has finished");
+                        input.close();
+                        previousStepThread.join();
+                    }
+                    stepResp = stepRunner.run();
+                }
+                stepRunner.awaitCompletion();
+            }
+            catch (Exception e) {
+                stepResp = RunStepResponse.withFlow(flow).withStep(stepNum);
+                stepResp.withJobId(jobId);
+                if(stepRunner != null){
+                    stepResp.setCounts(successCount.get() + errorCount.get(), successCount.get(), errorCount.get(), (long) Math.ceil((double) successCount.get() / stepRunner.getBatchSize()), (long) Math.ceil((double) errorCount.get() / stepRunner.getBatchSize()));
+                }
+                else {
+                    stepResp.setCounts(0, 0, 0, 0, 0);
+                }
+
+                StringWriter errors = new StringWriter();
+                e.printStackTrace(new PrintWriter(errors));
+                stepResp.withStepOutput(errors.toString());
+                stepResp.withSuccess(false);
+                if(successCount.get() > 0) {
+                    stepResp.withStatus(JobStatus.COMPLETED_WITH_ERRORS_PREFIX + stepNum);
+                }
+                else{
+                    stepResp.withStatus(JobStatus.FAILED_PREFIX + stepNum);
+                }
+                if (!job.disableJobOutput) {
+                    try {
+                        jobDocManager.postJobsAsync(jobId, JobStatus.FAILED_PREFIX + stepNum, stepNum, null, stepResp);
+                    } catch (Exception ex) {
+                        logger.error(ex.getMessage());
+                    }
+                }
+                RunStepResponse finalStepResp = stepResp;
+                try {
+                    flowStatusListeners.forEach((FlowStatusListener listener) -> {
+                        listener.onStatusChanged(jobId, runningStep, JobStatus.FAILED.toString(), progress.percentComplete, progress.successfulEvents, progress.failedEvents,
+                            runningStep.getName() + " " + Arrays.toString(finalStepResp.stepOutput.toArray()));
+                    });
+                } catch (Exception ex) {
+                    logger.error(ex.getMessage());
+                }
+                if(flow.isStopOnError()) {
+                    job.jobStoppedOnError.set(true);
+                    try {
+                        stopJob(jobId);
+                    } catch (Exception ex) {
+                        logger.debug("Job already stopped: " + jobId);
+                    }
+                }
+            }
+            finally {
+                job.runningStepNums.remove(stepNum);
+                if (input != null) {
+                    // Unblocks the previous step if this one stopped before reading every item
+                    input.close();
+                }
+                if (output != null) {
+                    output.complete();
+                }
+                stepOutputs.put(stepNum, stepResp);
+                if(stepResp != null && !stepResp.isSuccess()) {
+                    job.isJobSuccess.set(false);
                 }
             }
         }
@@ -511,20 +815,15 @@ public class FlowRunnerImpl implements FlowRunner{
             }
             if (t != null) {
                 logger.error(t.getMessage());
-                //Run the next queued flow if stop-on-error is set or if the step queue is empty
-                if(((FlowRunnerTask)r).getStepQueue().isEmpty() || runningFlow.isStopOnError()) {
-                    jobQueue.remove();
-                    if (!jobQueue.isEmpty()) {
-                        initializeFlow((String) jobQueue.peek());
-                    } else {
-                        isRunning.set(false);
-                        threadPool.shutdownNow();
-                    }
+                FlowJob job = ((FlowRunnerTask) r).getJob();
+                //Finish the job if stop-on-error is set or if the step queue is empty
+                if(job.stepQueue.isEmpty() || job.flow.isStopOnError()) {
+                    finishJob(job);
                 }
                 //Run the next step
                 else {
                     if(!(threadPool != null && threadPool.isTerminating())) {
-                        threadPool.execute(new FlowRunnerTask(runningFlow, runningJobId,((FlowRunnerTask)r).getStepQueue()));
+                        threadPool.execute(new FlowRunnerTask(job));
                     }
                 }
             }
@@ -534,33 +833,112 @@ public class FlowRunnerImpl implements FlowRunner{
     //These methods are used by UI.
 
     public List<String> getQueuedJobIdsFromFlow(String flowName) {
-        return flowMap
+        return jobs
             .entrySet()
             .stream()
-            .filter(entry -> flowName.equals(entry.getValue().getName()))
+            .filter(entry -> flowName.equals(entry.getValue().flow.getName()))
             .map(Map.Entry::getKey)
             .collect(Collectors.toList());
     }
 
     public RunFlowResponse getJobResponseById(String jobId) {
-        return flowResp.get(jobId);
+        FlowJob job = jobs.get(jobId);
+        return job != null ? job.response : null;
     }
 
+    /**
+     * @return true if any job is running or queued
+     */
     public boolean isJobRunning() {
-        return isRunning.get();
+        return !jobs.isEmpty();
     }
 
+    /**
+     * @return the key of the running step of the job that was started first, or null if no job is running
+     */
     public String getRunningStepKey() {
-        return runningFlow.getSteps().entrySet()
-            .stream()
-            .filter(entry -> Objects.equals(entry.getValue(), runningStep))
-            .map(Map.Entry::getKey)
-            .collect(Collectors.joining());
+        String jobId = runningJobIds.peek();
+        return jobId != null ? getRunningStepKey(jobId) : null;
+    }
 
+    /**
+     * @param jobId the ID of a running job
+     * @return the key of the step that the given job is running, or null if the job is not running; when steps are
+     * pipelined, the key of the earliest step of the flow that is still running
+     */
+    public String getRunningStepKey(String jobId) {
+        FlowJob job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        return job.flow.getSteps().keySet()
+            .stream()
+            .filter(job.runningStepNums::contains)
+            .findFirst()
+            .orElse(null);
     }
 
+    /**
+     * @return the flow of the job that was started first, or null if no job is running
+     */
     public Flow getRunningFlow() {
-        return this.runningFlow;
+        String jobId = runningJobIds.peek();
+        FlowJob job = jobId != null ? jobs.get(jobId) : null;
+        return job != null ? job.flow : null;
+    }
+
+    /**
+     * @param flowName the name of a flow
+     * @return true if a job for the given flow is currently running
+     */
+    public boolean isFlowRunning(String flowName) {
+        return runningJobIds.stream()
+            .map(jobs::get)
+            .anyMatch(job -> job != null && job.flow.getName().equalsIgnoreCase(flowName));
+    }
+
+    /**
+     * Sets the maximum number of jobs that run at the same time; jobs beyond this are queued until a running job
+     * finishes. Defaults to 1, which runs jobs one after another.
+     *
+     * @param maxConcurrentJobs must be at least 1
+     */
+    public synchronized void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("The maximum number of concurrent jobs must be at least 1");
+        }
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        if (threadPool != null && !threadPool.isShutdown()) {
+            // The pool was sized for the previous maximum; the core size must never exceed the maximum size
+            int poolSize = newPoolSize();
+            if (poolSize > threadPool.getMaximumPoolSize()) {
+                threadPool.setMaximumPoolSize(poolSize);
+                threadPool.setCorePoolSize(poolSize);
+            } else {
+                threadPool.setCorePoolSize(poolSize);
+                threadPool.setMaximumPoolSize(poolSize);
+            }
+            startQueuedJobs();
+        }
+    }
+
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    /**
+     * Sets the total number of threads that the steps of all running jobs may use. When a step starts, its thread
+     * count is capped at an equal share of this budget across the running jobs. Defaults to 0, which means that each
+     * step uses its own configured thread count.
+     *
+     * @param threadBudget the total number of threads, or 0 for no limit
+     */
+    public void setThreadBudget(int threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+
+    public int getThreadBudget() {
+        return threadBudget;
     }
 
     public void setHubConfig(HubConfig hubConfig) {
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.impl;
+
+import com.marklogic.appdeployer.AppConfig;
+import com.marklogic.hub.DatabaseKind;
+import com.marklogic.hub.InstallInfo;
+import com.marklogic.hub.error.DataHubSecurityNotInstalledException;
+import com.marklogic.mgmt.resource.appservers.ServerManager;
+import com.marklogic.mgmt.resource.databases.DatabaseManager;
+import com.marklogic.rest.util.Fragment;
+import com.marklogic.rest.util.ResourcesFragment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a snapshot of the state of the cluster that the data hub is installed into - which of its servers and
+ * databases exist, the version of MarkLogic, and the version of the installed data hub - so that status checks, which
+ * QuickStart and the Gradle tasks make many times, don't each make the same calls to MarkLogic.
+ *
+ * Each part of the snapshot is fetched when it is first needed, and the Manage API calls of the install info are made
+ * in parallel. A status check usually needs all of it, so fetching the install info also fetches the versions. A
+ * snapshot expires after a short time, or as soon as the hub config points to other servers or databases or to
+ * another user, and it must be invalidated by anything that installs, uninstalls or updates the data hub. A part that
+ * failed to be fetched is fetched again the next time it is needed.
+ */
+@Component
+public class ClusterStateService {
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 30 * 1000L;
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterStateService.class);
+
+    @Autowired
+    private HubConfigImpl hubConfig;
+
+    private long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+
+    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    // The threads of a cached pool end once they have been idle for a minute, so the pool needs no shutdown
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-state-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Snapshot snapshot;
+
+    public ClusterStateService() {
+        super();
+    }
+
+    /**
+     * For use outside of a Spring container.
+     *
+     * @param hubConfig
+     */
+    public ClusterStateService(HubConfigImpl hubConfig) {
+        this();
+        this.hubConfig = hubConfig;
+    }
+
+    /**
+     * @return which of the servers and databases of the data hub exist; must not be modified
+     * @throws DataHubSecurityNotInstalledException if the Manage API doesn't accept the user
+     */
+    public InstallInfo getInstallInfo() {
+        Snapshot current = getSnapshot();
+        current.getMarkLogicVersion();
+        current.getHubVersion();
+        return join(current, current.getInstallInfo());
+    }
+
+    /**
+     * @return the version of MarkLogic, as returned by xdmp:version()
+     */
+    public String getMarkLogicVersion() {
+        Snapshot current = getSnapshot();
+        return join(current, current.getMarkLogicVersion());
+    }
+
+    /**
+     * @return the version of the data hub that is installed, or null if it can't be determined, e.g. because the data
+     * hub isn't installed
+     */
+    public String getHubVersion() {
+        Snapshot current = getSnapshot();
+        return join(current, current.getHubVersion());
+    }
+
+    /**
+     * Discards the snapshot, so that the state of the cluster is fetched again the next time it is needed.
+     */
+    public synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    public void setTimeToLiveMillis(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public void setHubConfig(HubConfigImpl hubConfig) {
+        this.hubConfig = hubConfig;
+        invalidate();
+    }
+
+    /**
+     * Need to account for the group name in case the user has overridden the name of the "Default" group.
+     *
+     * @param hubConfig hubConfig object
+     * @return constructed ServerManager object
+     */
+    static ServerManager constructServerManager(HubConfigImpl hubConfig) {
+        AppConfig appConfig = hubConfig.getAppConfig();
+        return appConfig != null ?
+            new ServerManager(hubConfig.getManageClient(), appConfig.getGroupName()) :
+            new ServerManager(hubConfig.getManageClient());
+    }
+
+    private synchronized Snapshot getSnapshot() {
+        String key = buildKey();
+        if (snapshot == null || !snapshot.key.equals(key) || System.currentTimeMillis() - snapshot.createdAt > timeToLiveMillis) {
+            snapshot = new Snapshot(key);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return what the snapshot depends on in the hub config; a snapshot of one cluster, project or user isn't used for
+     * another
+     */
+    private String buildKey() {
+        StringBuilder key = new StringBuilder(String.valueOf(hubConfig.getHost())).append('|').append(hubConfig.getMlUsername());
+        for (DatabaseKind kind : new DatabaseKind[]{DatabaseKind.STAGING, DatabaseKind.FINAL, DatabaseKind.JOB}) {
+            key.append('|').append(hubConfig.getHttpName(kind)).append('|').append(hubConfig.getPort(kind));
+        }
+        for (DatabaseKind kind : new DatabaseKind[]{DatabaseKind.STAGING, DatabaseKind.FINAL, DatabaseKind.JOB,
+            DatabaseKind.MODULES, DatabaseKind.STAGING_SCHEMAS, DatabaseKind.STAGING_TRIGGERS}) {
+            key.append('|').append(hubConfig.getDbName(kind));
+        }
+        return key.toString();
+    }
+
+    private <T> T join(Snapshot current, CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            current.discard(future);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private InstallInfo fetchInstallInfo() {
+        InstallInfo installInfo = InstallInfo.create();
+        DatabaseManager databaseManager = new DatabaseManager(hubConfig.getManageClient());
+
+        CompletableFuture<ResourcesFragment> servers = supply(() -> callManageApi(() -> constructServerManager(hubConfig).getAsXml()));
+        ResourcesFragment drf = callManageApi(databaseManager::getAsXml);
+        installInfo.setDbExistent(DatabaseKind.STAGING, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING)));
+        installInfo.setDbExistent(DatabaseKind.FINAL, drf.resourceExists(hubConfig.getDbName(DatabaseKind.FINAL)));
+        installInfo.setDbExistent(DatabaseKind.JOB, drf.resourceExists(hubConfig.getDbName(DatabaseKind.JOB)));
+
+        installInfo.setDbExistent(DatabaseKind.MODULES, drf.resourceExists(hubConfig.getDbName(DatabaseKind.MODULES)));
+        installInfo.setDbExistent(DatabaseKind.STAGING_SCHEMAS, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING_SCHEMAS)));
+        installInfo.setDbExistent(DatabaseKind.STAGING_TRIGGERS, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING_TRIGGERS)));
+
+        CompletableFuture<Fragment> stagingProperties = fetchPropertiesIfExistent(installInfo, databaseManager, DatabaseKind.STAGING);
+        CompletableFuture<Fragment> finalProperties = fetchPropertiesIfExistent(installInfo, databaseManager, DatabaseKind.FINAL);
+        CompletableFuture<Fragment> jobProperties = fetchPropertiesIfExistent(installInfo, databaseManager, DatabaseKind.JOB);
+
+        ResourcesFragment srf = servers.join();
+        installInfo.setAppServerExistent(DatabaseKind.STAGING, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.STAGING)));
+        installInfo.setAppServerExistent(DatabaseKind.FINAL, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.FINAL)));
+        installInfo.setAppServerExistent(DatabaseKind.JOB, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.JOB)));
+
+        Fragment f = stagingProperties.join();
+        if (f != null) {
+            installInfo.setTripleIndexOn(DatabaseKind.STAGING, Boolean.parseBoolean(f.getElementValue("//m:triple-index")));
+            installInfo.setCollectionLexiconOn(DatabaseKind.STAGING, Boolean.parseBoolean(f.getElementValue("//m:collection-lexicon")));
+            installInfo.setForestsExistent(DatabaseKind.STAGING, (f.getElements("//m:forest").size() > 0));
+        }
+
+        f = finalProperties.join();
+        if (f != null) {
+            installInfo.setTripleIndexOn(DatabaseKind.FINAL, Boolean.parseBoolean(f.getElementValue("//m:triple-index")));
+            installInfo.setCollectionLexiconOn(DatabaseKind.FINAL, Boolean.parseBoolean(f.getElementValue("//m:collection-lexicon")));
+            installInfo.setForestsExistent(DatabaseKind.FINAL, (f.getElements("//m:forest").size() > 0));
+        }
+
+        f = jobProperties.join();
+        if (f != null) {
+            installInfo.setForestsExistent(DatabaseKind.JOB, (f.getElements("//m:forest").size() > 0));
+        }
+
+        logger.info(installInfo.toString());
+        return installInfo;
+    }
+
+    private CompletableFuture<Fragment> fetchPropertiesIfExistent(InstallInfo installInfo, DatabaseManager databaseManager, DatabaseKind kind) {
+        if (!installInfo.isDbExistent(kind)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final String dbName = hubConfig.getDbName(kind);
+        return supply(() -> callManageApi(() -> databaseManager.getPropertiesAsXml(dbName)));
+    }
+
+    /**
+     * Whichever call to the Manage API is made first, a user who isn't allowed to make it is told that the data hub
+     * security isn't installed, as QuickStart expects.
+     */
+    private static <T> T callManageApi(Supplier<T> call) {
+        try {
+            return call.get();
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                throw new DataHubSecurityNotInstalledException();
+            }
+            throw e;
+        }
+    }
+
+    private String fetchMarkLogicVersion() {
+        return new Versions().getMarkLogicVersion(hubConfig.getAppConfig());
+    }
+
+    private String fetchHubVersion() {
+        try {
+            return new HubVersionManager(hubConfig.newStagingClient()).getHubVersion();
+        } catch (Exception e) {
+            logger.debug("Unable to get the version of the installed data hub, cause: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor);
+    }
+
+    private class Snapshot {
+        final String key;
+        final long createdAt = System.currentTimeMillis();
+
+        private CompletableFuture<InstallInfo> installInfo;
+        private CompletableFuture<String> markLogicVersion;
+        private CompletableFuture<String> hubVersion;
+
+        Snapshot(String key) {
+            this.key = key;
+        }
+
+        synchronized CompletableFuture<InstallInfo> getInstallInfo() {
+            if (installInfo == null) {
+                installInfo = supply(ClusterStateService.this::fetchInstallInfo);
+            }
+            return installInfo;
+        }
+
+        synchronized CompletableFuture<String> getMarkLogicVersion() {
+            if (markLogicVersion == null) {
+                markLogicVersion = supply(ClusterStateService.this::fetchMarkLogicVersion);
+            }
+            return markLogicVersion;
+        }
+
+        synchronized CompletableFuture<String> getHubVersion() {
+            if (hubVersion == null) {
+                hubVersion = supply(ClusterStateService.this::fetchHubVersion);
+            }
+            return hubVersion;
+        }
+
+        /**
+         * Forgets a part that failed to be fetched, so that it is fetched again.
+         */
+        synchronized void discard(CompletableFuture<?> future) {
+            if (future == installInfo) {
+                installInfo = null;
+            } else if (future == markLogicVersion) {
+                markLogicVersion = null;
+            } else if (future == hubVersion) {
+                hubVersion = null;
+            }
+        }
+    }
+}
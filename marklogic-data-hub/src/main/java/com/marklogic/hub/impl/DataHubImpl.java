@@ -25,6 +25,7 @@ import com.marklogic.appdeployer.command.databases.DeployOtherDatabasesCommand;
 import com.marklogic.appdeployer.command.forests.DeployCustomForestsCommand;
 import com.marklogic.appdeployer.command.modules.DeleteTestModulesCommand;
 import com.marklogic.appdeployer.command.modules.LoadModulesCommand;
+import com.marklogic.appdeployer.command.schemas.LoadSchemasCommand;
 import com.marklogic.appdeployer.command.security.DeployCertificateAuthoritiesCommand;
 import com.marklogic.appdeployer.command.security.DeployCertificateTemplatesCommand;
 import com.marklogic.appdeployer.command.security.DeployExternalSecurityCommand;
@@ -35,6 +36,7 @@ import com.marklogic.appdeployer.command.security.DeployQueryRolesetsCommand;
 import com.marklogic.appdeployer.command.security.DeployRolesCommand;
 import com.marklogic.appdeployer.command.security.DeployUsersCommand;
 import com.marklogic.appdeployer.command.security.InsertCertificateHostsTemplateCommand;
+import com.marklogic.appdeployer.command.triggers.DeployTriggersCommand;
 import com.marklogic.appdeployer.impl.SimpleAppDeployer;
 import com.marklogic.client.admin.QueryOptionsManager;
 import com.marklogic.client.admin.ResourceExtensionsManager;
@@ -53,7 +55,6 @@ import com.marklogic.hub.deploy.commands.*;
 import com.marklogic.hub.deploy.util.HubDeployStatusListener;
 import com.marklogic.hub.error.CantUpgradeException;
 import com.marklogic.hub.error.DataHubConfigurationException;
-import com.marklogic.hub.error.DataHubSecurityNotInstalledException;
 import com.marklogic.hub.error.InvalidDBOperationError;
 import com.marklogic.hub.error.ServerValidationException;
 import com.marklogic.hub.flow.FlowRunner;
@@ -92,6 +93,10 @@ import java.util.regex.Pattern;
 @Component
 public class DataHubImpl implements DataHub {
 
+    // The most commands that are executed at once when installing; only commands with declared dependencies run
+    // alongside others, so this rarely limits anything
+    private static final int DEPLOY_THREAD_COUNT = 4;
+
     @Autowired
     private HubConfigImpl hubConfig;
 
@@ -116,6 +121,9 @@ public class DataHubImpl implements DataHub {
     @Autowired
     private Versions versions;
 
+    @Autowired
+    private ClusterStateService clusterStateService;
+
     @Autowired
     private FlowRunner flowRunner;
 
@@ -128,10 +136,7 @@ public class DataHubImpl implements DataHub {
      * @return constructed ServerManager object
      */
     protected ServerManager constructServerManager(HubConfigImpl hubConfig) {
-        AppConfig appConfig = hubConfig.getAppConfig();
-        return appConfig != null ?
-            new ServerManager(hubConfig.getManageClient(), appConfig.getGroupName()) :
-            new ServerManager(hubConfig.getManageClient());
+        return ClusterStateService.constructServerManager(hubConfig);
     }
 
     @Override
@@ -156,6 +161,10 @@ public class DataHubImpl implements DataHub {
         return  this.flowRunner;
     }
 
+    /**
+     * The state of the cluster is cached by the ClusterStateService for a short time, and is fetched again once the
+     * data hub has been installed, uninstalled or updated through this class.
+     */
     @Override
     public InstallInfo isInstalled() throws ResourceAccessException {
 
@@ -164,50 +173,7 @@ public class DataHubImpl implements DataHub {
         if (hubConfig.getIsProvisionedEnvironment()) {
             return assumedProvisionedInstallInfo(installInfo);
         } else {
-            ResourcesFragment srf = null;
-            try {
-                srf = constructServerManager(hubConfig).getAsXml();
-            } catch (HttpClientErrorException e) {
-                if (e.getStatusCode() == HttpStatus.UNAUTHORIZED) {
-                    throw new DataHubSecurityNotInstalledException();
-                }
-            }
-
-            installInfo.setAppServerExistent(DatabaseKind.STAGING, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.STAGING)));
-            installInfo.setAppServerExistent(DatabaseKind.FINAL, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.FINAL)));
-            installInfo.setAppServerExistent(DatabaseKind.JOB, srf.resourceExists(hubConfig.getHttpName(DatabaseKind.JOB)));
-
-            ResourcesFragment drf = getDatabaseManager().getAsXml();
-            installInfo.setDbExistent(DatabaseKind.STAGING, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING)));
-            installInfo.setDbExistent(DatabaseKind.FINAL, drf.resourceExists(hubConfig.getDbName(DatabaseKind.FINAL)));
-            installInfo.setDbExistent(DatabaseKind.JOB, drf.resourceExists(hubConfig.getDbName(DatabaseKind.JOB)));
-
-            installInfo.setDbExistent(DatabaseKind.MODULES, drf.resourceExists(hubConfig.getDbName(DatabaseKind.MODULES)));
-            installInfo.setDbExistent(DatabaseKind.STAGING_SCHEMAS, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING_SCHEMAS)));
-            installInfo.setDbExistent(DatabaseKind.STAGING_TRIGGERS, drf.resourceExists(hubConfig.getDbName(DatabaseKind.STAGING_TRIGGERS)));
-
-            if (installInfo.isDbExistent(DatabaseKind.STAGING)) {
-                Fragment f = getDatabaseManager().getPropertiesAsXml(hubConfig.getDbName(DatabaseKind.STAGING));
-                installInfo.setTripleIndexOn(DatabaseKind.STAGING, Boolean.parseBoolean(f.getElementValue("//m:triple-index")));
-                installInfo.setCollectionLexiconOn(DatabaseKind.STAGING, Boolean.parseBoolean(f.getElementValue("//m:collection-lexicon")));
-                installInfo.setForestsExistent(DatabaseKind.STAGING, (f.getElements("//m:forest").size() > 0));
-            }
-
-            if (installInfo.isDbExistent(DatabaseKind.FINAL)) {
-                Fragment f = getDatabaseManager().getPropertiesAsXml(hubConfig.getDbName(DatabaseKind.FINAL));
-                installInfo.setTripleIndexOn(DatabaseKind.FINAL, Boolean.parseBoolean(f.getElementValue("//m:triple-index")));
-                installInfo.setCollectionLexiconOn(DatabaseKind.FINAL, Boolean.parseBoolean(f.getElementValue("//m:collection-lexicon")));
-                installInfo.setForestsExistent(DatabaseKind.FINAL, (f.getElements("//m:forest").size() > 0));
-            }
-
-            if (installInfo.isDbExistent(DatabaseKind.JOB)) {
-                Fragment f = getDatabaseManager().getPropertiesAsXml(hubConfig.getDbName(DatabaseKind.JOB));
-                installInfo.setForestsExistent(DatabaseKind.JOB, (f.getElements("//m:forest").size() > 0));
-            }
-
-            logger.info(installInfo.toString());
-
-            return installInfo;
+            return clusterStateService.getInstallInfo();
         }
     }
 
@@ -516,7 +482,27 @@ public class DataHubImpl implements DataHub {
 
         HubAppDeployer finalDeployer = new HubAppDeployer(getManageClient(), getAdminManager(), listener, hubConfig.newStagingClient());
         finalDeployer.setCommands(buildListOfCommands());
-        finalDeployer.deploy(appConfig);
+        finalDeployer.setThreadCount(DEPLOY_THREAD_COUNT);
+        addCommandDependencies(finalDeployer);
+        try {
+            finalDeployer.deploy(appConfig);
+        } finally {
+            clusterStateService.invalidate();
+        }
+    }
+
+    /**
+     * Declares the commands that only need the databases to exist, so that they can run while the servers are deployed
+     * and the modules are loaded. Every other command still waits for all of the commands that sort before it.
+     *
+     * @param deployer
+     */
+    protected void addCommandDependencies(HubAppDeployer deployer) {
+        // Privileges refer to databases by their IDs
+        deployer.addDependencies(CreateGranularPrivilegesCommand.class, DeployOtherDatabasesCommand.class);
+        // Triggers and schemas are written to their own databases, and triggers only refer to their modules by path
+        deployer.addDependencies(DeployTriggersCommand.class, DeployOtherDatabasesCommand.class, DeployCustomForestsCommand.class);
+        deployer.addDependencies(LoadSchemasCommand.class, DeployOtherDatabasesCommand.class, DeployCustomForestsCommand.class);
     }
 
     /**
@@ -559,6 +545,7 @@ public class DataHubImpl implements DataHub {
             }
             deployer.deploy(appConfig);
         } finally {
+            clusterStateService.invalidate();
             appConfig.setCreateForests(originalCreateForests);
             appConfig.setResourceFilenamesIncludePattern(originalIncludePattern);
         }
@@ -596,7 +583,11 @@ public class DataHubImpl implements DataHub {
 
         HubAppDeployer finalDeployer = new HubAppDeployer(getManageClient(), getAdminManager(), listener, hubConfig.newStagingClient());
         finalDeployer.setCommands(commandMap);
-        finalDeployer.undeploy(hubConfig.getAppConfig());
+        try {
+            finalDeployer.undeploy(hubConfig.getAppConfig());
+        } finally {
+            clusterStateService.invalidate();
+        }
     }
 
     private void runInDatabase(String query, String databaseName) {
@@ -918,6 +909,11 @@ public class DataHubImpl implements DataHub {
         this.hubConfig = hubConfig;
     }
 
+    // only used in test
+    public void setClusterStateService(ClusterStateService clusterStateService) {
+        this.clusterStateService = clusterStateService;
+    }
+
     // only used in test
     public void setVersions(Versions versions) {
         this.versions = versions;
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.impl;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.impl.DatabaseClientImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Shares DatabaseClient instances between everything that asks for a client with the same connection settings. Each
+ * DatabaseClient has its own pool of HTTP connections, so creating a client for every request means a new connection,
+ * and a new TLS handshake, for every request.
+ *
+ * Every call to {@link #acquire(Object, String, Supplier)} returns a new handle to the shared client, which is released
+ * by calling release() on that handle; releasing a handle more than once has no effect. A shared client is only
+ * released once no handles to it are held, and it has not been acquired for the idle timeout. Handles that are never
+ * released keep their client open, which is no worse than the unshared client each of them used to get; a handle to a
+ * DatabaseClientImpl gives up its reference once it is garbage collected.
+ *
+ * The handle to a DatabaseClientImpl is a DatabaseClientImpl as well, so that it can be used wherever the client API
+ * expects one, such as by the generated data service classes.
+ */
+public class DatabaseClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseClientRegistry.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    private final long idleTimeoutMillis;
+    private final LongSupplier clock;
+    private final Map<Object, SharedClient> clients = new LinkedHashMap<>();
+
+    private long acquiredCount;
+    private long createdCount;
+    private long evictedCount;
+
+    public DatabaseClientRegistry() {
+        this(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public DatabaseClientRegistry(long idleTimeoutMillis) {
+        this(idleTimeoutMillis, System::currentTimeMillis);
+    }
+
+    DatabaseClientRegistry(long idleTimeoutMillis, LongSupplier clock) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @param key         identifies the connection settings of the client; two keys that are equal must describe the
+     *                    same host, port, database, credentials and SSL settings
+     * @param description describes the client in {@link #getMetrics()}; it should not include credentials
+     * @param factory     creates the client if there is no shared client for the key
+     * @return a handle to the shared client for the key
+     */
+    public synchronized DatabaseClient acquire(Object key, String description, Supplier<DatabaseClient> factory) {
+        evictIdleClients();
+        SharedClient shared = clients.get(key);
+        if (shared == null) {
+            shared = new SharedClient(description, factory.get(), clock.getAsLong());
+            clients.put(key, shared);
+            createdCount++;
+        }
+        shared.references++;
+        shared.acquisitions++;
+        shared.lastAcquiredMillis = clock.getAsLong();
+        acquiredCount++;
+        return newHandle(shared);
+    }
+
+    /**
+     * Releases every shared client that isn't referenced by a handle and hasn't been acquired for the idle timeout.
+     */
+    public synchronized void evictIdleClients() {
+        long now = clock.getAsLong();
+        Iterator<SharedClient> iter = clients.values().iterator();
+        while (iter.hasNext()) {
+            SharedClient shared = iter.next();
+            if (shared.references <= 0 && now - shared.lastAcquiredMillis >= idleTimeoutMillis) {
+                iter.remove();
+                evictedCount++;
+                releaseQuietly(shared);
+            }
+        }
+    }
+
+    /**
+     * Releases every shared client that isn't referenced by a handle, regardless of how long it has been idle.
+     */
+    public synchronized void releaseUnreferencedClients() {
+        Iterator<SharedClient> iter = clients.values().iterator();
+        while (iter.hasNext()) {
+            SharedClient shared = iter.next();
+            if (shared.references <= 0) {
+                iter.remove();
+                evictedCount++;
+                releaseQuietly(shared);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of each shared client, in the order they were created
+     */
+    public synchronized List<ClientMetrics> getMetrics() {
+        List<ClientMetrics> metrics = new ArrayList<>();
+        for (SharedClient shared : clients.values()) {
+            metrics.add(new ClientMetrics(shared.description, shared.references, shared.acquisitions,
+                shared.createdMillis, shared.lastAcquiredMillis));
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the number of handles handed out, which is the number of clients that would have been created without
+     * this registry
+     */
+    public synchronized long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    private DatabaseClient newHandle(SharedClient shared) {
+        if (shared.client instanceof DatabaseClientImpl) {
+            return new SharedClientHandle(this, shared);
+        }
+        final AtomicBoolean released = new AtomicBoolean(false);
+        return (DatabaseClient) Proxy.newProxyInstance(DatabaseClient.class.getClassLoader(), new Class<?>[]{DatabaseClient.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "release":
+                        if (method.getParameterCount() == 0 && released.compareAndSet(false, true)) {
+                            releaseHandle(shared);
+                        }
+                        return null;
+                    case "equals":
+                        return method.getParameterCount() == 1 && proxy == args[0];
+                    case "hashCode":
+                        if (method.getParameterCount() == 0) {
+                            return System.identityHashCode(proxy);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                try {
+                    return method.invoke(shared.client, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    private synchronized void releaseHandle(SharedClient shared) {
+        shared.references--;
+        evictIdleClients();
+    }
+
+    private void releaseQuietly(SharedClient shared) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Releasing shared client: " + shared.description);
+        }
+        try {
+            shared.client.release();
+        } catch (Exception e) {
+            logger.warn("Unable to release client: " + shared.description + "; cause: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A handle to a shared DatabaseClientImpl. It is a DatabaseClientImpl itself, as the generated data service
+     * classes require one, and it uses the same RESTServices, and thus the same connection pool, as the shared client.
+     */
+    private static class SharedClientHandle extends DatabaseClientImpl {
+        private final DatabaseClientRegistry registry;
+        private final SharedClient shared;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        SharedClientHandle(DatabaseClientRegistry registry, SharedClient shared) {
+            super(((DatabaseClientImpl) shared.client).getServices(), shared.client.getHost(), shared.client.getPort(),
+                shared.client.getDatabase(), shared.client.getSecurityContext(), shared.client.getConnectionType());
+            setHandleRegistry(((DatabaseClientImpl) shared.client).getHandleRegistry());
+            this.registry = registry;
+            this.shared = shared;
+        }
+
+        /**
+         * Releases this handle's reference to the shared client; the connection pool is released by the registry. As
+         * DatabaseClientImpl calls this when it is garbage collected, a handle that is never released still gives up
+         * its reference eventually.
+         */
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                registry.releaseHandle(shared);
+            }
+        }
+    }
+
+    private static class SharedClient {
+        final String description;
+        final DatabaseClient client;
+        final long createdMillis;
+        int references;
+        long acquisitions;
+        long lastAcquiredMillis;
+
+        SharedClient(String description, DatabaseClient client, long createdMillis) {
+            this.description = description;
+            this.client = client;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    /**
+     * A snapshot of one shared client.
+     */
+    public static class ClientMetrics {
+        private final String description;
+        private final int references;
+        private final long acquisitions;
+        private final long createdMillis;
+        private final long lastAcquiredMillis;
+
+        ClientMetrics(String description, int references, long acquisitions, long createdMillis, long lastAcquiredMillis) {
+            this.description = description;
+            this.references = references;
+            this.acquisitions = acquisitions;
+            this.createdMillis = createdMillis;
+            this.lastAcquiredMillis = lastAcquiredMillis;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return the number of handles to the client that haven't been released
+         */
+        public int getReferences() {
+            return references;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        public long getLastAcquiredMillis() {
+            return lastAcquiredMillis;
+        }
+    }
+}
@@ -46,7 +46,6 @@ import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -63,6 +62,12 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
     @Autowired
     private HubProject hubProject;
 
+    private final ProjectArtifactCache artifactCache = new ProjectArtifactCache();
+
+    // The entity definitions of the project, and the fingerprint of the model files they were read from
+    private EntityDefinitions projectEntityDefinitions;
+    private String projectEntityDefinitionsFingerprint;
+
     public EntityManagerImpl() {
     }
 
@@ -191,6 +196,8 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
         }
         modulesLoader.setShutdownTaskExecutorAfterLoadingModules(true);
         modulesLoader.waitForTaskExecutorToFinish();
+        // Merges the journal of the timestamps saved by the loader into the timestamps file, and closes it
+        propsManager.saveProperties();
 
         return isLoaded;
     }
@@ -244,12 +251,9 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
         Path entitiesPath = hubConfig.getHubEntitiesDir();
         File[] entityDefs = entitiesPath.toFile().listFiles(pathname -> pathname.toString().endsWith(ENTITY_FILE_EXTENSION) && !pathname.isHidden());
         if (entityDefs != null) {
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
                 for (File entityDef : entityDefs) {
-                    FileInputStream fileInputStream = new FileInputStream(entityDef);
-                    entities.add(objectMapper.readTree(fileInputStream));
-                    fileInputStream.close();
+                    entities.add(artifactCache.getCopy(entityDef));
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -269,14 +273,11 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
                 .map(file -> file.getName())
                 .collect(Collectors.toList());
 
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
                 for (String entityName : entityNames) {
                     File[] entityDefs = entitiesPath.resolve(entityName).toFile().listFiles((dir, name) -> name.endsWith(ENTITY_FILE_EXTENSION));
                     for (File entityDef : entityDefs) {
-                        FileInputStream fileInputStream = new FileInputStream(entityDef);
-                        entities.add(objectMapper.readTree(fileInputStream));
-                        fileInputStream.close();
+                        entities.add(artifactCache.getCopy(entityDef));
                     }
                 }
             } catch (IOException e) {
@@ -297,16 +298,13 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
         Path entitiesPath = hubConfig.getHubEntitiesDir();
         File[] entityDefs = entitiesPath.toFile().listFiles(pathname -> pathname.toString().endsWith(ENTITY_FILE_EXTENSION) && !pathname.isHidden());
         if (entityDefs != null) {
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
                 boolean hasOneChanged = false;
                 for (File entityDef : entityDefs) {
                     if (propsManager.hasFileBeenModifiedSinceLastLoaded(entityDef)) {
                         hasOneChanged = true;
                     }
-                    FileInputStream fileInputStream = new FileInputStream(entityDef);
-                    tempEntities.add(objectMapper.readTree(fileInputStream));
-                    fileInputStream.close();
+                    tempEntities.add(artifactCache.getCopy(entityDef));
                 }
                 // all or nothing
                 if (hasOneChanged) {
@@ -334,7 +332,6 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
                 .map(file -> file.getName())
                 .collect(Collectors.toList());
 
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
                 boolean hasOneChanged = false;
                 for (String entityName : entityNames) {
@@ -343,9 +340,7 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
                         if (propsManager.hasFileBeenModifiedSinceLastLoaded(entityDef)) {
                             hasOneChanged = true;
                         }
-                        FileInputStream fileInputStream = new FileInputStream(entityDef);
-                        tempEntities.add(objectMapper.readTree(fileInputStream));
-                        fileInputStream.close();
+                        tempEntities.add(artifactCache.getCopy(entityDef));
                     }
                 }
                 // all or nothing
@@ -375,7 +370,28 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
 
     @Override
     public HubEntity getEntityFromProject(String entityName, String version, Boolean extendSubEntities) {
-        return getEntityFromProject(entityName, getEntities(), version, extendSubEntities);
+        return getEntityFromEntityDefinitions(entityName, getProjectEntityDefinitions(), version, extendSubEntities);
+    }
+
+    /**
+     * @return the entity definitions of the project, which are only read and flattened again once a model file has
+     * been added, removed or changed
+     */
+    private synchronized EntityDefinitions getProjectEntityDefinitions() {
+        List<File> modelFiles = listEntityModelFiles();
+        String fingerprint = ProjectArtifactCache.getFingerprint(modelFiles);
+        if (projectEntityDefinitions == null || !fingerprint.equals(projectEntityDefinitionsFingerprint)) {
+            projectEntityDefinitions = new EntityDefinitions(convertModelFilesToEntityDefinitions(readEntities(modelFiles)));
+            projectEntityDefinitionsFingerprint = fingerprint;
+        }
+        return projectEntityDefinitions;
+    }
+
+    private synchronized void invalidateProjectEntityDefinitions(File... modelFiles) {
+        for (File modelFile : modelFiles) {
+            artifactCache.invalidate(modelFile);
+        }
+        projectEntityDefinitions = null;
     }
 
     /**
@@ -404,16 +420,21 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
      * @return
      */
     protected HubEntity getEntityFromEntityDefinitions(String entityName, List<HubEntity> entityDefinitions, String version, Boolean extendSubEntities) {
-        HubEntity entity = null;
-        for (HubEntity e : entityDefinitions) {
-            InfoType info = e.getInfo();
-            if (entityName.equals(info.getTitle()) && (version == null || version.equals(info.getVersion()))) {
-                entity = e;
-                if (extendSubEntities) {
-                    addSubProperties(entity, entityDefinitions, version);
-                }
-                break;
-            }
+        return getEntityFromEntityDefinitions(entityName, new EntityDefinitions(entityDefinitions), version, extendSubEntities);
+    }
+
+    /**
+     * @return a copy of the entity definition, so that the shared definitions aren't modified by adding sub
+     * properties to it, or by the caller
+     */
+    private HubEntity getEntityFromEntityDefinitions(String entityName, EntityDefinitions entityDefinitions, String version, Boolean extendSubEntities) {
+        HubEntity definition = entityDefinitions.find(entityName, version);
+        if (definition == null) {
+            return null;
+        }
+        HubEntity entity = HubEntity.fromJson(definition.getFilename(), definition.toJson());
+        if (extendSubEntities) {
+            addSubProperties(entity, entityDefinitions, version);
         }
         return entity;
     }
@@ -460,6 +481,10 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
      * @param version
      */
     protected void addSubProperties(HubEntity entity, List<HubEntity> entityDefinitions, String version) {
+        addSubProperties(entity, new EntityDefinitions(entityDefinitions), version);
+    }
+
+    private void addSubProperties(HubEntity entity, EntityDefinitions entityDefinitions, String version) {
         Map<String, DefinitionType> definitions = entity.getDefinitions().getDefinitions();
         for (String definitionName : definitions.keySet()) {
             DefinitionType definition = definitions.get(definitionName);
@@ -488,23 +513,24 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
 
     @Override
     public List<HubEntity> getEntities(Boolean extendSubEntities) {
+        return readEntities(listEntityModelFiles());
+    }
+
+    private List<File> listEntityModelFiles() {
+        File[] entityDefs = hubConfig.getHubEntitiesDir().toFile().listFiles((dir, name) -> name.endsWith(ENTITY_FILE_EXTENSION));
+        return entityDefs != null ? Arrays.asList(entityDefs) : new ArrayList<>();
+    }
+
+    private List<HubEntity> readEntities(List<File> modelFiles) {
         List<HubEntity> entities = new ArrayList<>();
-        Path entitiesPath = hubConfig.getHubEntitiesDir();
-        ObjectMapper objectMapper = new ObjectMapper();
-        File[] entityDefs = entitiesPath.toFile().listFiles((dir, name) -> name.endsWith(ENTITY_FILE_EXTENSION));
-        if (entityDefs != null) {
-            for (File entityDef : entityDefs) {
-                try {
-                    FileInputStream fileInputStream = new FileInputStream(entityDef);
-                    JsonNode node = objectMapper.readTree(fileInputStream);
-                    entities.add(HubEntity.fromJson(entityDef.getAbsolutePath(), node));
-                    fileInputStream.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+        for (File entityDef : modelFiles) {
+            try {
+                // HubEntity doesn't keep any part of the node, so the cached node can be used as is
+                entities.add(HubEntity.fromJson(entityDef.getAbsolutePath(), artifactCache.get(entityDef)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
         }
-
         return entities;
     }
 
@@ -528,6 +554,7 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
                     throw new IOException("Unable to rename " + origFile.getAbsolutePath() + " to " +
                         newFile.getAbsolutePath());
                 }
+                invalidateProjectEntityDefinitions(origFile);
                 fullpath = newFile.getAbsolutePath();
                 entity.setFilename(fullpath);
                 // if legacy plugins dir exists, rename it as well
@@ -549,6 +576,7 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
 
         String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(node);
         FileUtils.writeStringToFile(new File(fullpath), json);
+        invalidateProjectEntityDefinitions(new File(fullpath));
 
         return entity;
     }
@@ -583,6 +611,30 @@ public class EntityManagerImpl extends LoggingObject implements EntityManager {
         Path entityPath = hubConfig.getHubEntitiesDir().resolve(entity + ENTITY_FILE_EXTENSION);
         if (entityPath.toFile().exists()) {
             entityPath.toFile().delete();
+            invalidateProjectEntityDefinitions(entityPath.toFile());
+        }
+    }
+
+    /**
+     * Entity definitions indexed by title, where each HubEntity holds a single definition. The definitions of a title
+     * are kept in the order of the model files they came from, as the first one is used when no version is requested.
+     */
+    private static class EntityDefinitions {
+        private final Map<String, List<HubEntity>> definitionsByTitle = new HashMap<>();
+
+        EntityDefinitions(List<HubEntity> entityDefinitions) {
+            for (HubEntity definition : entityDefinitions) {
+                definitionsByTitle.computeIfAbsent(definition.getInfo().getTitle(), title -> new ArrayList<>()).add(definition);
+            }
+        }
+
+        HubEntity find(String title, String version) {
+            for (HubEntity definition : definitionsByTitle.getOrDefault(title, Collections.emptyList())) {
+                if (version == null || version.equals(definition.getInfo().getVersion())) {
+                    return definition;
+                }
+            }
+            return null;
         }
     }
 
@@ -45,6 +45,8 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Component
@@ -59,32 +61,31 @@ public class FlowManagerImpl extends LoggingObject implements FlowManager {
     @Autowired
     private StepDefinitionManager stepDefinitionManager;
 
+    private final ProjectArtifactCache artifactCache = new ProjectArtifactCache();
+
+    // The flows that are packaged with DHF never change, so whether a flow is one of them is only checked once
+    private final Map<String, Optional<JsonNode>> internalFlows = new ConcurrentHashMap<>();
+
     public void setHubConfig(HubConfig hubConfig) {
         this.hubConfig = hubConfig;
     }
 
     @Override
     public Flow getFlow(String flowName) {
-        Path flowPath = Paths.get(hubConfig.getFlowsDir().toString(), flowName + FLOW_FILE_EXTENSION);
-        InputStream inputStream = null;
         // first, let's check our resources
-        inputStream = getClass().getResourceAsStream("/hub-internal-artifacts/flows/" + flowName + FLOW_FILE_EXTENSION);
-        if (inputStream == null) {
+        JsonNode node = internalFlows.computeIfAbsent(flowName, this::readInternalFlow).orElse(null);
+        if (node == null) {
+            File flowFile = Paths.get(hubConfig.getFlowsDir().toString(), flowName + FLOW_FILE_EXTENSION).toFile();
             try {
-                inputStream = FileUtils.openInputStream(flowPath.toFile());
+                node = artifactCache.get(flowFile);
             } catch (FileNotFoundException e) {
                 return null;
             } catch (IOException e) {
-                throw new DataHubProjectException(e.getMessage());
+                throw new DataHubProjectException("Unable to read flow: " + e.getMessage());
             }
         }
-        JsonNode node;
-        try {
-            node = JSONObject.readInput(inputStream);
-        } catch (IOException e) {
-            throw new DataHubProjectException("Unable to read flow: " + e.getMessage());
-        }
-        Flow newFlow = createFlowFromJSON(node);
+        // The flow keeps parts of the node, such as its options, so it gets its own copy
+        Flow newFlow = createFlowFromJSON(node.deepCopy());
         if (newFlow != null && newFlow.getName().length() > 0) {
             return newFlow;
         } else {
@@ -92,6 +93,18 @@ public class FlowManagerImpl extends LoggingObject implements FlowManager {
         }
     }
 
+    private Optional<JsonNode> readInternalFlow(String flowName) {
+        InputStream inputStream = getClass().getResourceAsStream("/hub-internal-artifacts/flows/" + flowName + FLOW_FILE_EXTENSION);
+        if (inputStream == null) {
+            return Optional.empty();
+        }
+        try (InputStream in = inputStream) {
+            return Optional.of(JSONObject.readInput(in));
+        } catch (IOException e) {
+            throw new DataHubProjectException("Unable to read flow: " + e.getMessage());
+        }
+    }
+
     @Override
     public String getFlowAsJSON(String flowName) {
         try {
@@ -162,6 +175,7 @@ public class FlowManagerImpl extends LoggingObject implements FlowManager {
         if (flowFile.exists()) {
             try {
                 FileUtils.forceDelete(flowFile);
+                artifactCache.invalidate(flowFile);
             } catch (IOException e) {
                 throw new DataHubProjectException("Could not delete flow " + flowName);
             }
@@ -212,6 +226,7 @@ public class FlowManagerImpl extends LoggingObject implements FlowManager {
             FileOutputStream fileOutputStream = new FileOutputStream(file);
             JSONStreamWriter writer = new JSONStreamWriter(fileOutputStream);
             writer.write(flow);
+            artifactCache.invalidate(file);
 
         } catch (JsonProcessingException e) {
             throw new DataHubProjectException("Could not serialize flow.");
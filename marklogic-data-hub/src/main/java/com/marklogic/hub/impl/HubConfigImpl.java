@@ -26,12 +26,15 @@ import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.ext.DatabaseClientConfig;
 import com.marklogic.client.ext.SecurityContextType;
 import com.marklogic.client.ext.modulesloader.ssl.SimpleX509TrustManager;
+import com.marklogic.client.extra.okhttpclient.OkHttpClientConfigurator;
 import com.marklogic.hub.DatabaseKind;
 import com.marklogic.hub.HubConfig;
 import com.marklogic.hub.HubProject;
 import com.marklogic.hub.error.DataHubConfigurationException;
 import com.marklogic.hub.error.DataHubProjectException;
 import com.marklogic.hub.error.InvalidDBOperationError;
+import com.marklogic.hub.step.CachingStepDefinitionProvider;
+import com.marklogic.hub.step.MarkLogicStepDefinitionProvider;
 import com.marklogic.hub.step.StepDefinition;
 import com.marklogic.mgmt.DefaultManageConfigFactory;
 import com.marklogic.mgmt.ManageClient;
@@ -40,6 +43,7 @@ import com.marklogic.mgmt.admin.AdminConfig;
 import com.marklogic.mgmt.admin.AdminManager;
 import com.marklogic.mgmt.admin.DefaultAdminConfigFactory;
 import com.marklogic.mgmt.util.SimplePropertySource;
+import okhttp3.ConnectionPool;
 import org.apache.commons.text.CharacterPredicate;
 import org.apache.commons.text.RandomStringGenerator;
 import org.slf4j.Logger;
@@ -59,6 +63,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 @JsonAutoDetect(
@@ -156,6 +162,17 @@ public class HubConfigImpl implements HubConfig
 
     private Boolean isProvisionedEnvironment;
 
+    // Settings for sharing DatabaseClient instances; see DatabaseClientRegistry
+    private Boolean shareDatabaseClients;
+    private Integer clientIdleTimeoutSeconds;
+    private Integer clientMaxIdleConnections;
+    private Integer clientKeepAliveSeconds;
+    private DatabaseClientRegistry databaseClientRegistry;
+
+    // Step definitions retrieved from MarkLogic are kept for this long; see CachingStepDefinitionProvider
+    private Integer stepDefinitionCacheTtlSeconds;
+    private CachingStepDefinitionProvider stepDefinitionCache;
+
     protected String customForestPath;
 
     protected String modulePermissions;
@@ -175,6 +192,11 @@ public class HubConfigImpl implements HubConfig
 
     private static final Logger logger = LoggerFactory.getLogger(HubConfigImpl.class);
 
+    // The Java Client keeps its configurators in a JVM-wide list, so a single configurator is added for every
+    // HubConfigImpl, and it applies whichever connection pool was configured last
+    private static final AtomicBoolean connectionPoolConfiguratorAdded = new AtomicBoolean(false);
+    private static volatile ConnectionPool sharedConnectionPool;
+
     // By default, DHF uses gradle-local.properties for your local environment.
     private String envString = "local";
 
@@ -1533,6 +1555,43 @@ public class HubConfigImpl implements HubConfig
             projectProperties.setProperty("mlIsProvisionedEnvironment", isProvisionedEnvironment.toString());
         }
 
+        if (shareDatabaseClients == null) {
+            shareDatabaseClients = getEnvPropBoolean(projectProperties, "mlShareDatabaseClients", true);
+        }
+        else {
+            projectProperties.setProperty("mlShareDatabaseClients", shareDatabaseClients.toString());
+        }
+
+        if (clientIdleTimeoutSeconds == null) {
+            clientIdleTimeoutSeconds = getEnvPropInteger(projectProperties, "mlClientIdleTimeoutSeconds", (int) (DatabaseClientRegistry.DEFAULT_IDLE_TIMEOUT_MILLIS / 1000));
+        }
+        else {
+            projectProperties.setProperty("mlClientIdleTimeoutSeconds", clientIdleTimeoutSeconds.toString());
+        }
+
+        if (stepDefinitionCacheTtlSeconds == null) {
+            stepDefinitionCacheTtlSeconds = getEnvPropInteger(projectProperties, "mlStepDefinitionCacheTtlSeconds", (int) (CachingStepDefinitionProvider.DEFAULT_TTL_MILLIS / 1000));
+        }
+        else {
+            projectProperties.setProperty("mlStepDefinitionCacheTtlSeconds", stepDefinitionCacheTtlSeconds.toString());
+        }
+
+        if (clientMaxIdleConnections == null) {
+            String value = projectProperties.getProperty("mlClientMaxIdleConnections");
+            clientMaxIdleConnections = value != null ? Integer.parseInt(value) : null;
+        }
+        else {
+            projectProperties.setProperty("mlClientMaxIdleConnections", clientMaxIdleConnections.toString());
+        }
+
+        if (clientKeepAliveSeconds == null) {
+            String value = projectProperties.getProperty("mlClientKeepAliveSeconds");
+            clientKeepAliveSeconds = value != null ? Integer.parseInt(value) : null;
+        }
+        else {
+            projectProperties.setProperty("mlClientKeepAliveSeconds", clientKeepAliveSeconds.toString());
+        }
+
         // Need to do this first so that objects like the final SSL objects are set before hydrating AppConfig
         hydrateConfigs();
 
@@ -1614,7 +1673,7 @@ public class HubConfigImpl implements HubConfig
         if (isHostLoadBalancer) {
             config.setConnectionType(DatabaseClient.ConnectionType.GATEWAY);
         }
-        return appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config);
+        return newDatabaseClient(appConfig, config);
     }
 
     @Override
@@ -1639,7 +1698,7 @@ public class HubConfigImpl implements HubConfig
         if (isHostLoadBalancer) {
             config.setConnectionType(DatabaseClient.ConnectionType.GATEWAY);
         }
-        return appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config);
+        return newDatabaseClient(appConfig, config);
     }
 
     public DatabaseClient newJobDbClient() {
@@ -1656,7 +1715,7 @@ public class HubConfigImpl implements HubConfig
         if (isHostLoadBalancer) {
             config.setConnectionType(DatabaseClient.ConnectionType.GATEWAY);
         }
-        return appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config);
+        return newDatabaseClient(appConfig, config);
     }
 
     public DatabaseClient newTraceDbClient() {
@@ -1679,7 +1738,83 @@ public class HubConfigImpl implements HubConfig
         if (isHostLoadBalancer) {
             config.setConnectionType(DatabaseClient.ConnectionType.GATEWAY);
         }
-        return appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config);
+        return newDatabaseClient(appConfig, config);
+    }
+
+    /**
+     * Returns a handle to a shared client for the given connection settings, unless sharing is disabled via the
+     * "mlShareDatabaseClients" property, in which case a new client is created.
+     */
+    protected DatabaseClient newDatabaseClient(AppConfig appConfig, DatabaseClientConfig config) {
+        if (shareDatabaseClients != null && !shareDatabaseClients) {
+            return appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config);
+        }
+        List<Object> key = Arrays.asList(config.getHost(), config.getPort(), config.getDatabase(), config.getUsername(),
+            config.getPassword(), config.getSecurityContextType(), config.getSslContext(), config.getSslHostnameVerifier(),
+            config.getCertFile(), config.getCertPassword(), config.getExternalName(), config.getTrustManager(),
+            config.getConnectionType());
+        String description = config.getUsername() + "@" + config.getHost() + ":" + config.getPort() + "/" + config.getDatabase() +
+            " (" + config.getSecurityContextType() + (config.getSslContext() != null ? ", SSL" : "") + ")";
+        return getDatabaseClientRegistry().acquire(key, description,
+            () -> appConfig.getConfiguredDatabaseClientFactory().newDatabaseClient(config));
+    }
+
+    /**
+     * The registry is created on first use. If "mlClientMaxIdleConnections" or "mlClientKeepAliveSeconds" is set, the
+     * connection pool that they describe is shared by every client created in this JVM from then on, as the
+     * MarkLogic Java Client only allows connection pools to be configured for all clients at once. The configurator
+     * that applies the pool is added to the Java Client only once per JVM; a HubConfig that configures a pool later
+     * replaces the pool that it applies.
+     *
+     * @return the registry of the clients shared by this HubConfig, which also reports metrics on them
+     */
+    @JsonIgnore
+    public synchronized DatabaseClientRegistry getDatabaseClientRegistry() {
+        if (databaseClientRegistry == null) {
+            if (clientMaxIdleConnections != null || clientKeepAliveSeconds != null) {
+                ConnectionPool connectionPool = new ConnectionPool(
+                    clientMaxIdleConnections != null ? clientMaxIdleConnections : 5,
+                    clientKeepAliveSeconds != null ? clientKeepAliveSeconds : 300, TimeUnit.SECONDS);
+                sharedConnectionPool = connectionPool;
+                if (connectionPoolConfiguratorAdded.compareAndSet(false, true)) {
+                    DatabaseClientFactory.addConfigurator((OkHttpClientConfigurator) builder -> {
+                        ConnectionPool pool = sharedConnectionPool;
+                        if (pool != null) {
+                            builder.connectionPool(pool);
+                        }
+                    });
+                }
+            }
+            long idleTimeoutMillis = clientIdleTimeoutSeconds != null ?
+                clientIdleTimeoutSeconds * 1000L : DatabaseClientRegistry.DEFAULT_IDLE_TIMEOUT_MILLIS;
+            databaseClientRegistry = new DatabaseClientRegistry(idleTimeoutMillis);
+        }
+        return databaseClientRegistry;
+    }
+
+    /**
+     * The cache is created on first use, and is shared by every FlowRunner that is constructed with this HubConfig, so
+     * that step definitions aren't retrieved again for every flow that is run.
+     *
+     * @return the step definitions retrieved from the staging database
+     */
+    @JsonIgnore
+    public synchronized CachingStepDefinitionProvider getStepDefinitionCache() {
+        if (stepDefinitionCache == null) {
+            long ttlMillis = stepDefinitionCacheTtlSeconds != null ?
+                stepDefinitionCacheTtlSeconds * 1000L : CachingStepDefinitionProvider.DEFAULT_TTL_MILLIS;
+            stepDefinitionCache = new CachingStepDefinitionProvider(new MarkLogicStepDefinitionProvider(newStagingClient(null)), ttlMillis);
+        }
+        return stepDefinitionCache;
+    }
+
+    /**
+     * Discards the cached step definitions, if any have been cached; called when artifacts are deployed.
+     */
+    public synchronized void invalidateStepDefinitionCache() {
+        if (stepDefinitionCache != null) {
+            stepDefinitionCache.invalidateAll();
+        }
     }
 
     @JsonIgnore
@@ -2192,6 +2327,13 @@ public class HubConfigImpl implements HubConfig
         hubLogLevel = null;
         loadBalancerHost = null;
         isHostLoadBalancer = null;
+        shareDatabaseClients = null;
+        clientIdleTimeoutSeconds = null;
+        clientMaxIdleConnections = null;
+        clientKeepAliveSeconds = null;
+        stepDefinitionCacheTtlSeconds = null;
+        // It retrieves step definitions with a client for the previous staging settings
+        stepDefinitionCache = null;
     }
 
     /**
@@ -2205,6 +2347,11 @@ public class HubConfigImpl implements HubConfig
         propertyConsumerMap.put("mlHost", prop -> setHost(prop));
         propertyConsumerMap.put("mlIsHostLoadBalancer", prop -> isHostLoadBalancer = Boolean.parseBoolean(prop));
         propertyConsumerMap.put("mlIsProvisionedEnvironment", prop -> isProvisionedEnvironment = Boolean.parseBoolean(prop));
+        propertyConsumerMap.put("mlShareDatabaseClients", prop -> shareDatabaseClients = Boolean.parseBoolean(prop));
+        propertyConsumerMap.put("mlClientIdleTimeoutSeconds", prop -> clientIdleTimeoutSeconds = Integer.parseInt(prop));
+        propertyConsumerMap.put("mlClientMaxIdleConnections", prop -> clientMaxIdleConnections = Integer.parseInt(prop));
+        propertyConsumerMap.put("mlClientKeepAliveSeconds", prop -> clientKeepAliveSeconds = Integer.parseInt(prop));
+        propertyConsumerMap.put("mlStepDefinitionCacheTtlSeconds", prop -> stepDefinitionCacheTtlSeconds = Integer.parseInt(prop));
 
         propertyConsumerMap.put("mlStagingAppserverName", prop -> stagingHttpName = prop);
         propertyConsumerMap.put("mlStagingPort", prop -> stagingPort = Integer.parseInt(prop));
@@ -35,7 +35,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -59,6 +58,8 @@ public class MappingManagerImpl extends LoggingObject implements MappingManager
     @Autowired
     private EntityManager entityManager;
 
+    private final ProjectArtifactCache artifactCache = new ProjectArtifactCache();
+
     @Override public Mapping createMapping(String mappingName) {
         return createMapping(mappingName, null);
     }
@@ -128,6 +129,7 @@ public class MappingManagerImpl extends LoggingObject implements MappingManager
                 fileOutputStream.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(json).getBytes());
                 fileOutputStream.flush();
             }
+            artifactCache.invalidate(file);
         } catch (JsonProcessingException e) {
             throw new DataHubProjectException("Could not serialize mapping for project.");
         } catch (IOException e){
@@ -182,9 +184,9 @@ public class MappingManagerImpl extends LoggingObject implements MappingManager
             }
         }
         if(targetFileName !=null ){
-            try (FileInputStream fileInputStream = new FileInputStream(mappingPath.resolve(targetFileName).toFile())) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                JsonNode node = objectMapper.readTree(fileInputStream);
+            try {
+                // The mapping keeps parts of the node, so it gets its own copy of the cached node
+                JsonNode node = artifactCache.getCopy(mappingPath.resolve(targetFileName).toFile());
                 Mapping newMap = createMappingFromJSON(node);
                 if(newMap != null && newMap.getName().length() > 0) {
                     return newMap;
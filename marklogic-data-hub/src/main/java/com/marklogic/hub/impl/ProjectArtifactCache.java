@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the parsed JSON of project files, such as flows, mappings and entity models, so that a file is only read and
+ * parsed again once it has changed. A file has changed when its last-modified time or its length differs from when it
+ * was parsed. Some file systems only keep the last-modified time to the second, so files written by the managers are
+ * also invalidated when they are written.
+ *
+ * The cached nodes are shared, so they must not be modified. Use {@link #getCopy(File)} when the node, or an object
+ * that keeps parts of it, is handed to a caller.
+ */
+class ProjectArtifactCache {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong parseCount = new AtomicLong();
+
+    /**
+     * @param file the file to read
+     * @return the parsed contents of the file, which must not be modified
+     * @throws FileNotFoundException if the file doesn't exist
+     * @throws IOException if the file can't be read or parsed
+     */
+    JsonNode get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        if (lastModified == 0L && !file.exists()) {
+            entries.remove(key);
+            throw new FileNotFoundException(key);
+        }
+        long length = file.length();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+            return entry.node;
+        }
+
+        JsonNode node;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            node = objectMapper.readTree(inputStream);
+        }
+        parseCount.incrementAndGet();
+        // If the file changes while it is read, its new length or time won't match, so it is read again next time
+        entries.put(key, new Entry(lastModified, length, node));
+        return node;
+    }
+
+    /**
+     * @return a copy of the parsed contents of the file, which the caller may modify
+     */
+    JsonNode getCopy(File file) throws IOException {
+        return get(file).deepCopy();
+    }
+
+    /**
+     * @return a value that is only the same for two lists of files if none of them were added, removed or changed in
+     * between, as far as the last-modified times and lengths can tell
+     */
+    static String getFingerprint(List<File> files) {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            sb.append(file.getAbsolutePath()).append('|').append(file.lastModified()).append('|').append(file.length()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    void invalidate(File file) {
+        entries.remove(file.getAbsolutePath());
+    }
+
+    void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of times a file was read and parsed
+     */
+    long getParseCount() {
+        return parseCount.get();
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final JsonNode node;
+
+        Entry(long lastModified, long length, JsonNode node) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.node = node;
+        }
+    }
+}
@@ -41,6 +41,10 @@ public class Versions {
     @Autowired
     private HubConfig hubConfig;
 
+    // Null outside of a Spring container, in which case every call is made to MarkLogic
+    @Autowired(required = false)
+    private ClusterStateService clusterStateService;
+
     public Versions() {
         super();
     }
@@ -92,9 +96,16 @@ public class Versions {
     }
 
     public String getHubVersion() {
-        try {
-            return new HubVersionManager(hubConfig.newStagingClient()).getHubVersion();
-        } catch (Exception e) {
+        if (clusterStateService != null) {
+            String hubVersion = clusterStateService.getHubVersion();
+            if (hubVersion != null) {
+                return hubVersion;
+            }
+        } else {
+            try {
+                return new HubVersionManager(hubConfig.newStagingClient()).getHubVersion();
+            } catch (Exception e) {
+            }
         }
 
         /* 2.0.0 is the version at which we started using this method. First we'll check the version gradle properties.
@@ -109,6 +120,9 @@ public class Versions {
     }
 
     public String getMarkLogicVersion() {
+        if (clusterStateService != null) {
+            return clusterStateService.getMarkLogicVersion();
+        }
         if (appConfig == null && hubConfig != null) {
             appConfig = hubConfig.getAppConfig();
         }
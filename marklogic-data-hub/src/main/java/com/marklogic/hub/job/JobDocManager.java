@@ -1,7 +1,9 @@
 package com.marklogic.hub.job;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.extensions.ResourceManager;
 import com.marklogic.client.extensions.ResourceServices;
@@ -10,49 +12,155 @@ import com.marklogic.client.io.JacksonHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.util.RequestParameters;
 import com.marklogic.hub.step.RunStepResponse;
-import com.marklogic.hub.util.json.JSONObject;
+import com.marklogic.hub.step.StepCheckpoint;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Reads and updates job documents via the mlJobs REST extension. The payload of an update is sent in the request body.
+ *
+ * The "Async" methods add an update to a queue that is written in the background, with the waiting updates of a job
+ * coalesced into a single request; see {@link JobUpdateWriter}. Every other method that reads or updates a job first
+ * waits for that job's queued updates to be written, so a job document that is read back always reflects every update
+ * made through this manager.
+ */
 public class JobDocManager extends ResourceManager {
     private static final String NAME = "mlJobs";
 
+    // Keeps the URL of a request for the latest jobs of many flows well under the length that servers accept
+    private static final int FLOW_NAMES_PER_REQUEST = 50;
+
+    private static final ObjectMapper mapper = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+    private final JobUpdateWriter updateWriter;
+
     public JobDocManager(DatabaseClient client) {
         super();
         client.init(NAME, this);
+        this.updateWriter = new JobUpdateWriter(this::postUpdates, JobUpdateWriter.DEFAULT_CAPACITY, 2);
     }
 
-    public void updateJobStatus(String jobId, JobStatus status) {
-        RequestParameters params = new RequestParameters();
-        params.add("jobid", jobId);
-        params.add("status", status.toString());
-        getServices().post(params, new StringHandle("{}").withFormat(Format.JSON));
+    /**
+     * Updates the status of the job, e.g. when a flow has finished.
+     *
+     * @return the updated job document, or null if there is no job with the given ID
+     */
+    public JsonNode updateJobStatus(String jobId, JobStatus status) {
+        return postUpdate(jobId, newJobStatusUpdate(status), "Unable to update the job status");
+    }
+
+    /**
+     * Queues a job status update to be written in the background.
+     */
+    public void updateJobStatusAsync(String jobId, JobStatus status) {
+        updateWriter.add(jobId, newJobStatusUpdate(status));
     }
 
     //Called when step execution starts/ completes
     public JsonNode postJobs(String jobId, String status, String step, String lastCompleted, RunStepResponse stepResponse) {
-        RequestParameters params = new RequestParameters();
-        params.put("jobid", jobId);
-        params.put("status", status);
-        params.put("step", step);
-        params.put("lastCompleted", lastCompleted);
+        return postUpdate(jobId, newStepUpdate(status, step, lastCompleted, stepResponse), "Unable to update the job document");
+    }
+
+    /**
+     * Queues a step update to be written in the background. As the updated job document isn't returned, this suits
+     * updates whose caller doesn't need the step start and end times recorded by the server.
+     */
+    public void postJobsAsync(String jobId, String status, String step, String lastCompleted, RunStepResponse stepResponse) {
+        updateWriter.add(jobId, newStepUpdate(status, step, lastCompleted, stepResponse));
+    }
+
+    /**
+     * Saves the progress of a running step in its step response, so that the step can be resumed if the job does not
+     * finish. The status of the job and the step are not changed.
+     */
+    public void postCheckpoint(String jobId, String step, StepCheckpoint checkpoint) {
+        postUpdate(jobId, newCheckpointUpdate(step, checkpoint), "Unable to save the step checkpoint");
+    }
+
+    /**
+     * Queues a checkpoint to be written in the background. A checkpoint that is still waiting to be written when the
+     * next one is queued is replaced by it.
+     */
+    public void postCheckpointAsync(String jobId, String step, StepCheckpoint checkpoint) {
+        updateWriter.add(jobId, newCheckpointUpdate(step, checkpoint));
+    }
+
+    /**
+     * Waits until every update queued for the job has been written.
+     *
+     * @throws RuntimeException if any of those updates could not be written
+     */
+    public void flush(String jobId) {
+        updateWriter.flush(jobId);
+    }
+
+    /**
+     * Waits until every queued update has been written. Updates that could not be written are only logged.
+     */
+    public void flush() {
+        updateWriter.flush();
+    }
+
+    private JsonNode postUpdate(String jobId, ObjectNode update, String errorMessage) {
+        awaitQueuedUpdates(jobId);
+        List<ObjectNode> updates = new ArrayList<>();
+        updates.add(update);
         try {
-            params.put("stepResponse", JSONObject.writeValueAsString(stepResponse));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+            return postUpdates(jobId, updates);
+        } catch (Exception e) {
+            throw new RuntimeException(errorMessage + "; cause: " + e.getMessage(), e);
         }
-        ResourceServices.ServiceResultIterator resultItr = null;
+    }
+
+    private void awaitQueuedUpdates(String jobId) {
         try {
-            resultItr = this.getServices().post(params, new StringHandle("{}").withFormat(Format.JSON));
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to update the job document; cause: " + e.getMessage(), e);
+            updateWriter.flush(jobId);
+        } catch (RuntimeException e) {
+            // The writer has logged the failure, and the job document is still read or updated as it may be useful
         }
-        if (resultItr == null || !resultItr.hasNext()) {
-            return null;
+    }
+
+    private JsonNode postUpdates(String jobId, List<ObjectNode> updates) {
+        RequestParameters params = new RequestParameters();
+        params.put("jobid", jobId);
+        ObjectNode body = mapper.createObjectNode();
+        body.putArray("updates").addAll(updates);
+        ResourceServices.ServiceResultIterator resultItr = this.getServices().post(params, new JacksonHandle(body));
+        try {
+            if (resultItr == null || !resultItr.hasNext()) {
+                return null;
+            }
+            return resultItr.next().getContent(new JacksonHandle()).get();
+        } finally {
+            if (resultItr != null) {
+                resultItr.close();
+            }
         }
-        ResourceServices.ServiceResult res = resultItr.next();
-        return res.getContent(new JacksonHandle()).get();
+    }
+
+    private static ObjectNode newJobStatusUpdate(JobStatus status) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("status", status.toString());
+        return update;
+    }
+
+    private static ObjectNode newStepUpdate(String status, String step, String lastCompleted, RunStepResponse stepResponse) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("status", status);
+        update.put("step", step);
+        update.put("lastCompleted", lastCompleted);
+        update.set("stepResponse", mapper.valueToTree(stepResponse));
+        return update;
+    }
+
+    private static ObjectNode newCheckpointUpdate(String step, StepCheckpoint checkpoint) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("step", step);
+        update.set("checkpoint", mapper.valueToTree(checkpoint));
+        return update;
     }
 
     public void createJob(String jobId, String flow) {
@@ -71,6 +179,9 @@ public class JobDocManager extends ResourceManager {
     }
 
     public JsonNode getJobDocument(String jobId, String flowName) {
+        if (StringUtils.isNotEmpty(jobId)) {
+            awaitQueuedUpdates(jobId);
+        }
         RequestParameters params = new RequestParameters();
         if (StringUtils.isNotEmpty(flowName)) {
             params.add("flow-name", flowName);
@@ -99,6 +210,35 @@ public class JobDocManager extends ResourceManager {
         return getJobDocuments(params);
     }
 
+    /**
+     * Retrieves the latest job of each of the given flows, along with the IDs of all of the flow's jobs. The latest job
+     * is found with the range index on timeStarted, so the documents of a flow's other jobs are never read. The flows
+     * are requested a page at a time, and each response is read one flow at a time.
+     *
+     * @param flowNames the names of the flows
+     * @param consumer  receives an object for each flow, with its name in "flow", its job IDs in "jobIds", and its
+     *                  latest job document in "latestJob", which is null if the flow has no jobs
+     */
+    public void getLatestJobsForFlows(List<String> flowNames, Consumer<JsonNode> consumer) {
+        for (int start = 0; start < flowNames.size(); start += FLOW_NAMES_PER_REQUEST) {
+            List<String> page = flowNames.subList(start, Math.min(flowNames.size(), start + FLOW_NAMES_PER_REQUEST));
+            RequestParameters params = new RequestParameters();
+            params.put("flowNames", page.toArray(new String[]{}));
+            params.add("latest", "true");
+            ResourceServices.ServiceResultIterator iter = this.getServices().get(params);
+            if (iter == null) {
+                continue;
+            }
+            try {
+                while (iter.hasNext()) {
+                    consumer.accept(iter.next().getContent(new JacksonHandle()).get());
+                }
+            } finally {
+                iter.close();
+            }
+        }
+    }
+
     /**
      * Per DHFPROD-2842, the jobs endpoint no longer throws an error when no job documents are found. This was both
      * causing a stacktrace to be dumped to the jobs app server log - suggesting an error when there really wasn't one -
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a purge of the jobs database by {@link JobPurger}.
+ */
+public class JobPurgeResponse {
+    public long jobsDeleted = 0;
+    public long batchesDeleted = 0;
+    public long legacyJobsDeleted = 0;
+    public long tracesDeleted = 0;
+    public List<String> errors = new ArrayList<>();
+
+    public String toString()
+    {
+        return
+            "JobPurgeResponse:" +
+                "\n\tjobs deleted: " + jobsDeleted +
+                "\n\tbatches deleted: " + batchesDeleted +
+                "\n\tlegacy jobs deleted: " + legacyJobsDeleted +
+                "\n\ttraces deleted: " + tracesDeleted +
+                "\n\terrors: " + errors;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.job;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.DeleteListener;
+import com.marklogic.client.datamovement.ExportListener;
+import com.marklogic.client.datamovement.JobTicket;
+import com.marklogic.client.datamovement.QueryBatch;
+import com.marklogic.client.datamovement.QueryBatcher;
+import com.marklogic.client.io.JacksonHandle;
+import com.marklogic.client.query.StructuredQueryBuilder;
+import com.marklogic.client.query.StructuredQueryDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.namespace.QName;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Purges the jobs database of the jobs that are no longer retained, along with their batches, or for legacy jobs,
+ * their traces. A job is retained if it ended after the cutoff, if it's one of the most recent jobs of its flow, or if
+ * it hasn't ended. At least one of the cutoff and the number of jobs to keep per flow must be set.
+ *
+ * The jobs to purge are deleted in partitions of consecutive jobs, oldest first. The batches or traces of a partition
+ * are deleted before its jobs, so a purge that fails part way never leaves batches or traces without their job, and
+ * every job it left behind ended after every job it deleted. Documents are deleted by query batchers, which use at
+ * most the configured number of threads each, and only one of which runs at a time.
+ *
+ * Provenance records aren't purged, as they describe how the documents in the staging and final databases came to
+ * be, rather than the state of a job.
+ */
+public class JobPurger {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobPurger.class);
+
+    public static final int DEFAULT_THREAD_COUNT = 4;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    // The number of jobs in a partition, which keeps the query that matches their batches or traces small
+    static final int JOBS_PER_PARTITION = 500;
+
+    /**
+     * Receives the progress of a purge, as the number of documents of a type that have been deleted so far; the types
+     * are "jobs", "batches", "legacy jobs" and "traces". It's called from the threads of the query batchers.
+     */
+    public interface ProgressListener {
+        void onProgress(String documentType, long deletedCount);
+    }
+
+    private final DatabaseClient jobClient;
+    private Instant cutoff;
+    private Integer jobsToKeepPerFlow;
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private ProgressListener progressListener = (documentType, deletedCount) -> {};
+
+    public JobPurger(DatabaseClient jobClient) {
+        this.jobClient = jobClient;
+    }
+
+    /**
+     * @param cutoff jobs that ended before this time are purged, unless they're among the jobs kept for their flow
+     * @return this purger
+     */
+    public JobPurger withCutoff(Instant cutoff) {
+        this.cutoff = cutoff;
+        return this;
+    }
+
+    /**
+     * @param retainDays jobs that ended more than this many days ago are purged, unless they're among the jobs kept for
+     *                   their flow; null to purge jobs however recently they ended
+     * @return this purger
+     */
+    public JobPurger withRetainDays(Integer retainDays) {
+        if (retainDays != null && retainDays < 0) {
+            throw new IllegalArgumentException("The number of days to retain jobs for must not be negative");
+        }
+        return withCutoff(retainDays != null ? Instant.now().minus(Duration.ofDays(retainDays)) : null);
+    }
+
+    /**
+     * @param jobsToKeepPerFlow the number of the most recently started jobs of each flow that are never purged
+     * @return this purger
+     */
+    public JobPurger withJobsToKeepPerFlow(Integer jobsToKeepPerFlow) {
+        if (jobsToKeepPerFlow != null && jobsToKeepPerFlow < 0) {
+            throw new IllegalArgumentException("The number of jobs to keep per flow must not be negative");
+        }
+        this.jobsToKeepPerFlow = jobsToKeepPerFlow;
+        return this;
+    }
+
+    public JobPurger withThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public JobPurger withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public JobPurger onProgress(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Purges the jobs that aren't retained. A failure to read or delete documents doesn't throw an exception; it's
+     * added to the errors of the response, and no further jobs of the same type are purged.
+     *
+     * @return the number of documents of each type that were deleted
+     */
+    public JobPurgeResponse purge() {
+        if (cutoff == null && jobsToKeepPerFlow == null) {
+            throw new IllegalArgumentException("A cutoff or a number of jobs to keep per flow is required to purge jobs");
+        }
+
+        JobPurgeResponse response = new JobPurgeResponse();
+        DataMovementManager dmm = jobClient.newDataMovementManager();
+        try {
+            for (JobType type : JobType.values()) {
+                purge(dmm, type, response);
+            }
+        } finally {
+            dmm.release();
+        }
+        return response;
+    }
+
+    private void purge(DataMovementManager dmm, JobType type, JobPurgeResponse response) {
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong jobsDeleted = new AtomicLong();
+        AtomicLong attachedDeleted = new AtomicLong();
+
+        List<JobEntry> jobs = readJobs(dmm, type, errors);
+        if (errors.isEmpty()) {
+            jobs = selectJobsToPurge(jobs, cutoff, jobsToKeepPerFlow);
+            jobs.sort(Comparator.comparing((JobEntry job) -> job.timeEnded).thenComparing(job -> job.uri));
+            logger.info("Purging " + jobs.size() + " " + type.jobLabel);
+
+            StructuredQueryBuilder sqb = jobClient.newQueryManager().newStructuredQueryBuilder();
+            for (int start = 0; start < jobs.size() && errors.isEmpty(); start += JOBS_PER_PARTITION) {
+                List<JobEntry> partition = jobs.subList(start, Math.min(start + JOBS_PER_PARTITION, jobs.size()));
+
+                String[] jobIds = partition.stream().map(job -> job.jobId).filter(Objects::nonNull).toArray(String[]::new);
+                if (jobIds.length > 0) {
+                    StructuredQueryDefinition query = sqb.and(
+                        sqb.collection(type.attachedCollection),
+                        type.attachedJobIdQuery(sqb, jobIds)
+                    );
+                    // The batcher deletes the documents that it matches, so it reads them from a point in time
+                    delete(dmm, dmm.newQueryBatcher(query).withConsistentSnapshot(), type.attachedLabel, attachedDeleted, errors);
+                }
+
+                if (errors.isEmpty()) {
+                    List<String> uris = partition.stream().map(job -> job.uri).collect(Collectors.toList());
+                    delete(dmm, dmm.newQueryBatcher(uris.iterator()), type.jobLabel, jobsDeleted, errors);
+                }
+            }
+        }
+
+        if (type == JobType.JOB) {
+            response.jobsDeleted = jobsDeleted.get();
+            response.batchesDeleted = attachedDeleted.get();
+        } else {
+            response.legacyJobsDeleted = jobsDeleted.get();
+            response.tracesDeleted = attachedDeleted.get();
+        }
+        response.errors.addAll(errors);
+    }
+
+    /**
+     * Reads the jobs that may be purged. When jobs are kept per flow, every job is read, as the most recent jobs of a
+     * flow can't otherwise be known; else only the jobs that ended before the cutoff are read.
+     */
+    private List<JobEntry> readJobs(DataMovementManager dmm, JobType type, List<String> errors) {
+        StructuredQueryBuilder sqb = jobClient.newQueryManager().newStructuredQueryBuilder();
+        StructuredQueryDefinition query = sqb.collection(type.jobCollection);
+        if (jobsToKeepPerFlow == null) {
+            query = sqb.and(query,
+                sqb.range(sqb.jsonProperty(type.timeEndedProperty), "xs:dateTime", StructuredQueryBuilder.Operator.LT, cutoff.toString())
+            );
+        }
+
+        Queue<JobEntry> jobs = new ConcurrentLinkedQueue<>();
+        QueryBatcher batcher = dmm.newQueryBatcher(query)
+            .withJobName("Read " + type.jobLabel + " to purge")
+            .withBatchSize(batchSize)
+            .withThreadCount(threadCount)
+            .onUrisReady(new ExportListener()
+                .onDocumentReady(record -> jobs.add(type.toJobEntry(record.getUri(), record.getContent(new JacksonHandle()).get())))
+                .onFailure((batch, failure) -> errors.add("Unable to read " + type.jobLabel + "; cause: " + failure.getMessage())))
+            .onQueryFailure(failure -> errors.add("Unable to query " + type.jobLabel + "; cause: " + failure.getMessage()));
+        run(dmm, batcher);
+        return new ArrayList<>(jobs);
+    }
+
+    private void delete(DataMovementManager dmm, QueryBatcher batcher, String documentType, AtomicLong deletedCount, List<String> errors) {
+        Set<QueryBatch> failedBatches = ConcurrentHashMap.newKeySet();
+        batcher
+            .withJobName("Purge " + documentType)
+            .withBatchSize(batchSize)
+            .withThreadCount(threadCount)
+            .onUrisReady(new DeleteListener().onFailure((batch, failure) -> {
+                failedBatches.add(batch);
+                errors.add("Unable to delete " + documentType + "; cause: " + failure.getMessage());
+            }))
+            // Called after the delete listener, on the same thread, so a batch is only counted once it's deleted
+            .onUrisReady(batch -> {
+                if (!failedBatches.remove(batch)) {
+                    progressListener.onProgress(documentType, deletedCount.addAndGet(batch.getItems().length));
+                }
+            })
+            .onQueryFailure(failure -> errors.add("Unable to query " + documentType + "; cause: " + failure.getMessage()));
+        run(dmm, batcher);
+    }
+
+    private void run(DataMovementManager dmm, QueryBatcher batcher) {
+        JobTicket ticket = dmm.startJob(batcher);
+        batcher.awaitCompletion();
+        dmm.stopJob(ticket);
+    }
+
+    /**
+     * @param jobs the jobs of one type
+     * @param cutoff the time before which a job must have ended to be purged, or null for any time
+     * @param jobsToKeepPerFlow the number of most recently started jobs of each flow to keep, or null for none
+     * @return the jobs that aren't retained
+     */
+    static List<JobEntry> selectJobsToPurge(Collection<JobEntry> jobs, Instant cutoff, Integer jobsToKeepPerFlow) {
+        // A job that hasn't recorded when it started is taken to be the most recent of its flow
+        Comparator<JobEntry> newestFirst = Comparator
+            .comparing((JobEntry job) -> job.timeStarted, Comparator.nullsFirst(Comparator.reverseOrder()))
+            .thenComparing(job -> job.uri);
+
+        Map<String, List<JobEntry>> jobsByFlow = jobs.stream().collect(Collectors.groupingBy(job -> String.valueOf(job.flowName)));
+        List<JobEntry> selected = new ArrayList<>();
+        for (List<JobEntry> flowJobs : jobsByFlow.values()) {
+            flowJobs.sort(newestFirst);
+            for (int i = jobsToKeepPerFlow != null ? jobsToKeepPerFlow : 0; i < flowJobs.size(); i++) {
+                JobEntry job = flowJobs.get(i);
+                if (job.timeEnded != null && (cutoff == null || job.timeEnded.isBefore(cutoff))) {
+                    selected.add(job);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * The job of a job document, as far as its retention is concerned. The times are null if the document has none
+     * that can be parsed, such as the "N/A" end time of a running job.
+     */
+    static class JobEntry {
+        final String uri;
+        final String jobId;
+        final String flowName;
+        final Instant timeStarted;
+        final Instant timeEnded;
+
+        JobEntry(String uri, String jobId, String flowName, Instant timeStarted, Instant timeEnded) {
+            this.uri = uri;
+            this.jobId = jobId;
+            this.flowName = flowName;
+            this.timeStarted = timeStarted;
+            this.timeEnded = timeEnded;
+        }
+    }
+
+    /**
+     * The jobs run by flows, which have batches, and the jobs run by legacy flows, which have traces.
+     */
+    enum JobType {
+        JOB("jobs", "Job", "job", "flow", "timeStarted", "timeEnded", "batches", "Batch") {
+            @Override
+            StructuredQueryDefinition attachedJobIdQuery(StructuredQueryBuilder sqb, String... jobIds) {
+                return sqb.value(sqb.jsonProperty("jobId"), jobIds);
+            }
+        },
+        LEGACY_JOB("legacy jobs", "job", null, "flowName", "startTime", "endTime", "traces", "trace") {
+            @Override
+            StructuredQueryDefinition attachedJobIdQuery(StructuredQueryBuilder sqb, String... jobIds) {
+                // Traces may be XML documents with a jobId element, or JSON documents with a jobId property
+                return sqb.or(
+                    sqb.value(sqb.element(new QName("jobId")), jobIds),
+                    sqb.value(sqb.jsonProperty("jobId"), jobIds)
+                );
+            }
+        };
+
+        final String jobLabel;
+        final String jobCollection;
+        final String rootProperty;
+        final String flowNameProperty;
+        final String timeStartedProperty;
+        final String timeEndedProperty;
+        final String attachedLabel;
+        final String attachedCollection;
+
+        JobType(String jobLabel, String jobCollection, String rootProperty, String flowNameProperty,
+                String timeStartedProperty, String timeEndedProperty, String attachedLabel, String attachedCollection) {
+            this.jobLabel = jobLabel;
+            this.jobCollection = jobCollection;
+            this.rootProperty = rootProperty;
+            this.flowNameProperty = flowNameProperty;
+            this.timeStartedProperty = timeStartedProperty;
+            this.timeEndedProperty = timeEndedProperty;
+            this.attachedLabel = attachedLabel;
+            this.attachedCollection = attachedCollection;
+        }
+
+        abstract StructuredQueryDefinition attachedJobIdQuery(StructuredQueryBuilder sqb, String... jobIds);
+
+        JobEntry toJobEntry(String uri, JsonNode doc) {
+            JsonNode job = rootProperty != null && doc != null ? doc.path(rootProperty) : doc;
+            if (job == null) {
+                return new JobEntry(uri, null, null, null, null);
+            }
+            return new JobEntry(uri,
+                job.path("jobId").textValue(),
+                job.path(flowNameProperty).textValue(),
+                parseDateTime(job.path(timeStartedProperty)),
+                parseDateTime(job.path(timeEndedProperty))
+            );
+        }
+
+        private static Instant parseDateTime(JsonNode node) {
+            if (!node.isTextual()) {
+                return null;
+            }
+            try {
+                return OffsetDateTime.parse(node.textValue()).toInstant();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+}
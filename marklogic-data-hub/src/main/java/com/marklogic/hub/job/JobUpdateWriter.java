@@ -0,0 +1,202 @@
+package com.marklogic.hub.job;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes updates to job documents in the background. The updates for a job are sent in the order they were added,
+ * and all of the updates that are waiting when a job is written are sent in a single request, so a job document is
+ * written once per request rather than once per update. While an update is waiting, a newer update that supersedes it
+ * replaces it:
+ * <ul>
+ * <li>a checkpoint or step update replaces a waiting checkpoint of the same step, as both carry the step's progress</li>
+ * <li>a job status update replaces a waiting job status update</li>
+ * </ul>
+ * The number of waiting updates is bounded; adding an update blocks while the queue is full. A failed write is logged,
+ * and is thrown from the next call to {@link #flush(String)} for that job.
+ */
+class JobUpdateWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobUpdateWriter.class);
+
+    static final int DEFAULT_CAPACITY = 1000;
+
+    private final BiConsumer<String, List<ObjectNode>> writer;
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, JobQueue> queues = new HashMap<>();
+    private int pendingCount;
+
+    /**
+     * @param writer      sends the given updates for a job in one request
+     * @param capacity    the maximum number of updates that can wait to be written
+     * @param threadCount the maximum number of jobs that are written at once
+     */
+    JobUpdateWriter(BiConsumer<String, List<ObjectNode>> writer, int capacity, int threadCount) {
+        if (capacity < 1 || threadCount < 1) {
+            throw new IllegalArgumentException("Capacity and thread count must be positive");
+        }
+        this.writer = writer;
+        this.capacity = capacity;
+        // Threads end when idle, so a writer that is no longer used doesn't need to be shut down
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "job-update-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Adds an update for the given job, waiting if the queue is full.
+     */
+    synchronized void add(String jobId, ObjectNode update) {
+        while (pendingCount >= capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to update job document: " + jobId, e);
+            }
+        }
+        JobQueue queue = queues.computeIfAbsent(jobId, id -> new JobQueue());
+        pendingCount -= removeSuperseded(queue.pending, update);
+        queue.pending.add(update);
+        pendingCount++;
+        queue.added++;
+        if (!queue.writing) {
+            queue.writing = true;
+            executor.execute(() -> write(jobId, queue));
+        }
+    }
+
+    /**
+     * Waits until every update added for the given job before this was called has been written.
+     *
+     * @throws RuntimeException if any of those updates could not be written
+     */
+    synchronized void flush(String jobId) {
+        JobQueue queue = queues.get(jobId);
+        if (queue == null) {
+            return;
+        }
+        long target = queue.added;
+        while (queue.written < target) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to update job document: " + jobId, e);
+            }
+        }
+        RuntimeException failure = queue.failure;
+        queue.failure = null;
+        removeIfIdle(jobId, queue);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits until every update added before this was called has been written. Failures are only logged.
+     */
+    void flush() {
+        List<String> jobIds;
+        synchronized (this) {
+            jobIds = new ArrayList<>(queues.keySet());
+        }
+        for (String jobId : jobIds) {
+            try {
+                flush(jobId);
+            } catch (RuntimeException e) {
+                logger.error(e.getMessage());
+            }
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    private void write(String jobId, JobQueue queue) {
+        while (true) {
+            List<ObjectNode> updates;
+            long added;
+            synchronized (this) {
+                if (queue.pending.isEmpty()) {
+                    queue.writing = false;
+                    removeIfIdle(jobId, queue);
+                    notifyAll();
+                    return;
+                }
+                updates = queue.pending;
+                queue.pending = new ArrayList<>();
+                added = queue.added;
+                pendingCount -= updates.size();
+                notifyAll();
+            }
+            RuntimeException failure = null;
+            try {
+                writer.accept(jobId, updates);
+            } catch (RuntimeException e) {
+                logger.error("Unable to update job document: " + jobId + "; cause: " + e.getMessage());
+                failure = e;
+            }
+            synchronized (this) {
+                queue.written = added;
+                if (failure != null) {
+                    queue.failure = failure;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void removeIfIdle(String jobId, JobQueue queue) {
+        if (!queue.writing && queue.pending.isEmpty() && queue.failure == null && queues.get(jobId) == queue) {
+            queues.remove(jobId);
+        }
+    }
+
+    /**
+     * @return the number of waiting updates that were removed because the new update supersedes them
+     */
+    private static int removeSuperseded(List<ObjectNode> pending, ObjectNode update) {
+        int removed = 0;
+        Iterator<ObjectNode> iter = pending.iterator();
+        while (iter.hasNext()) {
+            ObjectNode waiting = iter.next();
+            boolean superseded;
+            if (update.hasNonNull("step")) {
+                superseded = waiting.hasNonNull("checkpoint") && update.get("step").equals(waiting.get("step"));
+            } else {
+                superseded = !waiting.hasNonNull("step");
+            }
+            if (superseded) {
+                iter.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static class JobQueue {
+        List<ObjectNode> pending = new ArrayList<>();
+        long added;
+        long written;
+        boolean writing;
+        RuntimeException failure;
+    }
+}
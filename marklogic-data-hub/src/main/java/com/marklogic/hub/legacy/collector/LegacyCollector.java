@@ -17,6 +17,7 @@ package com.marklogic.hub.legacy.collector;
 
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.legacy.flow.CodeFormat;
 
 import java.util.Map;
@@ -72,4 +73,34 @@ public interface LegacyCollector {
      * @return a list of uris as strings in a diskqueue object
      */
     DiskQueue<String> run(String jobId, String entity, String flow, int threadCount, Map<String, Object> options);
+
+    /**
+     * Streams the uris that match the collector code into a queue, so that they can be processed while the collector
+     * is still running. The queue is marked as completed or failed when this method returns. The default
+     * implementation collects every uri before adding any of them to the queue.
+     * @param jobId - id of the job this is to have
+     * @param entity - name of which entity is this being run against
+     * @param flow - name of which flow
+     * @param threadCount - how many threads to use for the operation
+     * @param options - string/object map of options you want to pass to the collector
+     * @param queue - bounded queue that is read from while this method is running
+     */
+    default void run(String jobId, String entity, String flow, int threadCount, Map<String, Object> options, StreamingUriQueue queue) {
+        try {
+            for (String uri : run(jobId, entity, flow, threadCount, options)) {
+                if (!queue.put(uri)) {
+                    break;
+                }
+            }
+            queue.complete();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.fail(e);
+        }
+        catch (RuntimeException e) {
+            queue.fail(e);
+            throw e;
+        }
+    }
 }
@@ -21,6 +21,7 @@ import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.MarkLogicIOException;
 import com.marklogic.client.DatabaseClientFactory.SSLHostnameVerifier;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.legacy.collector.LegacyCollector;
 import com.marklogic.hub.legacy.collector.DiskQueue;
 import com.marklogic.hub.legacy.flow.CodeFormat;
@@ -58,6 +59,7 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.function.Function;
 
 public class LegacyCollectorImpl implements LegacyCollector {
     private DatabaseClient client = null;
@@ -108,48 +110,7 @@ public class LegacyCollectorImpl implements LegacyCollector {
     public DiskQueue<String> run(String jobId, String entity, String flow, int threadCount, Map<String, Object> options) {
         try {
             DiskQueue<String> results = new DiskQueue<>(5000);
-
-            // Important design info:
-            // The collector is invoked with a regular http client due to streaming limitations in OkHttp.
-            // https://github.com/marklogic/marklogic-data-hub/issues/632
-            // https://github.com/marklogic/marklogic-data-hub/issues/633
-            //
-
-            RestTemplate template = newRestTemplate(  ((HubConfigImpl) hubConfig).getMlUsername(), ( (HubConfigImpl) hubConfig).getMlPassword());
-            String uriString = String.format(
-                "%s://%s:%d%s?job-id=%s&entity-name=%s&flow-name=%s&database=%s",
-                client.getSecurityContext().getSSLContext() != null ? "https" : "http",
-                client.getHost(),
-                client.getPort(),
-                "/v1/internal/hubcollector",
-                URLEncoder.encode(jobId, "UTF-8"),
-                URLEncoder.encode(entity, "UTF-8"),
-                URLEncoder.encode(flow, "UTF-8"),
-                URLEncoder.encode(client.getDatabase(), "UTF-8")
-            );
-
-            if (options != null) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                uriString += "&options=" + URLEncoder.encode(objectMapper.writeValueAsString(options), "UTF-8");
-            }
-            URI uri = new URI(uriString);
-
-            RequestCallback requestCallback = request -> request.getHeaders()
-                .setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
-
-            // Streams the response instead of loading it all in memory
-            ResponseExtractor<Void> responseExtractor = response -> {
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
-                String line;
-                while((line = bufferedReader.readLine()) != null) {
-                    results.add(line);
-                }
-                bufferedReader.close();
-                return null;
-            };
-
-            template.execute(uri, HttpMethod.GET, requestCallback, responseExtractor);
-
+            collect(jobId, entity, flow, options, results::add);
             return results;
         }
         catch(Exception e) {
@@ -158,6 +119,73 @@ public class LegacyCollectorImpl implements LegacyCollector {
         }
     }
 
+    @Override
+    public void run(String jobId, String entity, String flow, int threadCount, Map<String, Object> options, StreamingUriQueue queue) {
+        try {
+            collect(jobId, entity, flow, options, uri -> {
+                try {
+                    return queue.put(uri);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            });
+            queue.complete();
+        }
+        catch(Exception e) {
+            queue.fail(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param uriConsumer receives each URI; reading stops if it returns false
+     */
+    private void collect(String jobId, String entity, String flow, Map<String, Object> options, Function<String, Boolean> uriConsumer) throws Exception {
+        // Important design info:
+        // The collector is invoked with a regular http client due to streaming limitations in OkHttp.
+        // https://github.com/marklogic/marklogic-data-hub/issues/632
+        // https://github.com/marklogic/marklogic-data-hub/issues/633
+        //
+
+        RestTemplate template = newRestTemplate(  ((HubConfigImpl) hubConfig).getMlUsername(), ( (HubConfigImpl) hubConfig).getMlPassword());
+        String uriString = String.format(
+            "%s://%s:%d%s?job-id=%s&entity-name=%s&flow-name=%s&database=%s",
+            client.getSecurityContext().getSSLContext() != null ? "https" : "http",
+            client.getHost(),
+            client.getPort(),
+            "/v1/internal/hubcollector",
+            URLEncoder.encode(jobId, "UTF-8"),
+            URLEncoder.encode(entity, "UTF-8"),
+            URLEncoder.encode(flow, "UTF-8"),
+            URLEncoder.encode(client.getDatabase(), "UTF-8")
+        );
+
+        if (options != null) {
+            ObjectMapper objectMapper = new ObjectMapper();
+            uriString += "&options=" + URLEncoder.encode(objectMapper.writeValueAsString(options), "UTF-8");
+        }
+        URI uri = new URI(uriString);
+
+        RequestCallback requestCallback = request -> request.getHeaders()
+            .setAccept(Arrays.asList(MediaType.APPLICATION_OCTET_STREAM, MediaType.ALL));
+
+        // Streams the response instead of loading it all in memory
+        ResponseExtractor<Void> responseExtractor = response -> {
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
+            String line;
+            while((line = bufferedReader.readLine()) != null) {
+                if (!uriConsumer.apply(line)) {
+                    break;
+                }
+            }
+            bufferedReader.close();
+            return null;
+        };
+
+        template.execute(uri, HttpMethod.GET, requestCallback, responseExtractor);
+    }
+
     private RestTemplate newRestTemplate(String username, String password) {
         DatabaseClientFactory.SecurityContext securityContext = client.getSecurityContext();
 
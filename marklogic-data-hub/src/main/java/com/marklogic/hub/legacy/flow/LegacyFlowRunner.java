@@ -75,6 +75,14 @@ public interface LegacyFlowRunner {
      */
     LegacyFlowRunner withStopOnFailure(boolean stopOnFailure);
 
+    /**
+     * Sets if the uris are processed while the collector is still returning them, which is the default, or only once
+     * the collector has returned every uri
+     * @param streamCollector - false to wait for the collector to finish before processing any uri
+     * @return the flow runner object
+     */
+    LegacyFlowRunner withStreamCollector(boolean streamCollector);
+
     /**
      * Sets a listener on each item completing
      * @param listener the listen object to set
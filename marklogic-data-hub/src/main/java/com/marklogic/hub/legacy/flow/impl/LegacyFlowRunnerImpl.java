@@ -18,6 +18,7 @@ package com.marklogic.hub.legacy.flow.impl;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.FailedRequestException;
 import com.marklogic.client.datamovement.*;
@@ -29,13 +30,17 @@ import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.util.RequestParameters;
 import com.marklogic.hub.DatabaseKind;
 import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.legacy.collector.DiskQueue;
 import com.marklogic.hub.legacy.collector.LegacyCollector;
 import com.marklogic.hub.legacy.flow.*;
 import com.marklogic.hub.legacy.job.Job;
 import com.marklogic.hub.legacy.job.JobStatus;
 import com.marklogic.hub.legacy.job.LegacyJobManager;
+import com.marklogic.hub.step.impl.StepMetrics;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -44,13 +49,21 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
 
     private static final int DEFAULT_BATCH_SIZE = 100;
     private static final int DEFAULT_THREAD_COUNT = 4;
     private static final int MAX_ERROR_MESSAGES = 10;
+    // Lower bound on the number of uris buffered between a streaming collector and the QueryBatcher
+    private static final int MIN_STREAMING_BUFFER_SIZE = 5000;
+
+    private static final Logger logger = LoggerFactory.getLogger(LegacyFlowRunnerImpl.class);
+
+    // Both are thread-safe, so they are shared by every batch instead of being created for each one
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ObjectReader responseReader = objectMapper.readerFor(RunFlowResponse.class);
+
     private LegacyFlow flow;
     private int batchSize = DEFAULT_BATCH_SIZE;
     private int threadCount = DEFAULT_THREAD_COUNT;
@@ -59,6 +72,7 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
     private Map<String, Object> options;
     private int previousPercentComplete;
     private boolean stopOnFailure = false;
+    private boolean streamCollector = true;
 
     private List<LegacyFlowItemCompleteListener> flowItemCompleteListeners = new ArrayList<>();
     private List<LegacyFlowItemFailureListener> flowItemFailureListeners = new ArrayList<>();
@@ -113,6 +127,12 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
         return this;
     }
 
+    @Override
+    public LegacyFlowRunner withStreamCollector(boolean streamCollector) {
+        this.streamCollector = streamCollector;
+        return this;
+    }
+
     @Override
     public LegacyFlowRunner withOptions(Map<String, Object> options) {
         this.options = options;
@@ -171,10 +191,7 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
         c.setHubConfig(hubConfig);
         c.setClient(stagingClient);
 
-        AtomicLong successfulEvents = new AtomicLong(0);
-        AtomicLong failedEvents = new AtomicLong(0);
-        AtomicLong successfulBatches = new AtomicLong(0);
-        AtomicLong failedBatches = new AtomicLong(0);
+        StepMetrics metrics = new StepMetrics(MAX_ERROR_MESSAGES);
 
         if (options == null) {
             options = new HashMap<>();
@@ -183,87 +200,119 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
         options.put("flow", this.flow.getName());
         options.put("flowType", this.flow.getType().toString());
 
+        // Serialized once, instead of once for every batch
+        final String optionsJson;
+        try {
+            optionsJson = objectMapper.writeValueAsString(options);
+        }
+        catch (JsonProcessingException e) {
+            throw new RuntimeException("Unable to serialize options for flow " + flow.getName() + "; cause: " + e.getMessage(), e);
+        }
+
         flowStatusListeners.forEach((LegacyFlowStatusListener listener) -> {
             listener.onStatusChange(jobId, 0, "running collector");
         });
 
         jobManager.saveJob(job.withStatus(JobStatus.RUNNING_COLLECTOR));
         final DiskQueue<String> uris;
-        try {
-            uris = c.run(jobId, this.flow.getEntityName(), this.flow.getName(), threadCount, options);
+        final StreamingUriQueue uriQueue;
+        if (streamCollector) {
+            uris = null;
+            uriQueue = runStreamingCollector(c, jobId);
+            // Blocks until the collector has returned its first uri, or has finished without returning any
+            if (!uriQueue.iterator().hasNext() && uriQueue.getFailure() != null) {
+                return collectorFailed(job, jobManager, uriQueue.getFailure());
+            }
         }
-        catch(Exception e) {
-            job.setCounts(0, 0, 0, 0)
-                .withStatus(JobStatus.FAILED)
-                .withEndTime(new Date());
-
-            StringWriter errors = new StringWriter();
-            e.printStackTrace(new PrintWriter(errors));
-            job.withJobOutput(errors.toString());
-            jobManager.saveJob(job);
-            return new JobTicketImpl(jobId, JobTicket.JobType.QUERY_BATCHER);
+        else {
+            uriQueue = null;
+            try {
+                uris = c.run(jobId, this.flow.getEntityName(), this.flow.getName(), threadCount, options);
+            }
+            catch(Exception e) {
+                return collectorFailed(job, jobManager, e);
+            }
         }
 
         flowStatusListeners.forEach((LegacyFlowStatusListener listener) -> {
             listener.onStatusChange(jobId, 0, "starting harmonization");
         });
 
-        Vector<String> errorMessages = new Vector<>();
-
         DataMovementManager dataMovementManager = stagingClient.newDataMovementManager();
 
-        int uriCount = uris.size();
-
-        double batchCount = Math.ceil((double)uris.size() / (double)batchSize);
-
         HashMap<String, JobTicket> ticketWrapper = new HashMap<>();
 
         ConcurrentHashMap<DatabaseClient, FlowResource> databaseClientMap = new ConcurrentHashMap<>();
 
+        AtomicLong batchNumber = new AtomicLong(0);
+        long startTime = System.currentTimeMillis();
 
-
-        QueryBatcher queryBatcher = dataMovementManager.newQueryBatcher(uris.iterator())
+        QueryBatcher queryBatcher = dataMovementManager.newQueryBatcher(uriQueue != null ? uriQueue.iterator() : uris.iterator())
             .withBatchSize(batchSize)
             .withThreadCount(threadCount)
             .withJobId(jobId)
             .onUrisReady((QueryBatch batch) -> {
                 try {
-                    FlowResource flowResource;
-
-                    if (databaseClientMap.containsKey(batch.getClient())){
-                        flowResource = databaseClientMap.get(batch.getClient());
+                    long batchStartTime = System.currentTimeMillis();
+                    String[] items = batch.getItems();
+                    FlowResource flowResource = databaseClientMap.computeIfAbsent(batch.getClient(),
+                        client -> new FlowResource(client, destinationDatabase, flow));
+
+                    RunFlowResponse response;
+                    try {
+                        response = flowResource.run(jobId, items, optionsJson);
                     }
-                    else {
-                        flowResource = new FlowResource(batch.getClient(), destinationDatabase, flow);
-                        databaseClientMap.put(batch.getClient(), flowResource);
+                    catch (Exception e) {
+                        // None of the items were processed, so every item in the batch failed
+                        metrics.addFailedEvents(items.length);
+                        metrics.incrementFailedBatches();
+                        metrics.addErrorMessage(e.toString());
+                        response = null;
                     }
 
-                    RunFlowResponse response = flowResource.run(jobId, batch.getItems(), options);
-                    failedEvents.addAndGet(response.errorCount);
-                    successfulEvents.addAndGet(response.totalCount - response.errorCount);
-                    if (response.errors != null) {
-                        if (errorMessages.size() < MAX_ERROR_MESSAGES) {
-                            errorMessages.addAll(response.errors.stream().map(jsonNode -> jsonToString(jsonNode)).collect(Collectors.toList()));
+                    if (response != null) {
+                        // An item can have more than one error, but it can only fail once
+                        long errorCount = Math.min(response.errorCount, response.totalCount);
+                        metrics.addFailedEvents(errorCount);
+                        metrics.addSuccessfulEvents(response.totalCount - errorCount);
+                        if (response.errors != null) {
+                            response.errors.forEach(jsonNode -> metrics.addErrorMessage(jsonToString(jsonNode)));
                         }
-                    }
 
-                    if (response.errorCount < response.totalCount) {
-                        successfulBatches.addAndGet(1);
+                        if (errorCount < response.totalCount) {
+                            metrics.incrementSuccessfulBatches();
+                        }
+                        else {
+                            metrics.incrementFailedBatches();
+                        }
                     }
-                    else {
-                        failedBatches.addAndGet(1);
+
+                    long batchMillis = System.currentTimeMillis() - batchStartTime;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(String.format("Job %s batch %d: %d items in %d ms (%.1f items/sec)", jobId,
+                            batchNumber.incrementAndGet(), items.length, batchMillis, itemsPerSecond(items.length, batchMillis)));
                     }
 
-                    int percentComplete = (int) (((double)successfulBatches.get() / batchCount) * 100.0);
+                    long processedBatches = metrics.getSuccessfulBatchesCount() + metrics.getFailedBatchesCount();
+                    double batchCount = Math.ceil((double) getExpectedUriCount(uris, uriQueue) / (double) batchSize);
+                    int percentComplete = (int) Math.min(((double) processedBatches / batchCount) * 100.0, 100.0);
+                    if (uriQueue != null && !uriQueue.isCompleted()) {
+                        // The collector is still returning uris, so only report 100 once it has returned all of them
+                        percentComplete = Math.min(percentComplete, 99);
+                    }
 
                     if (percentComplete != previousPercentComplete && (percentComplete % 5 == 0)) {
                         previousPercentComplete = percentComplete;
+                        long processedItems = metrics.getSuccessfulEventsCount() + metrics.getFailedEventsCount();
+                        String message = String.format("%d items processed (%.1f items/sec)", processedItems,
+                            itemsPerSecond(processedItems, System.currentTimeMillis() - startTime));
+                        final int percent = percentComplete;
                         flowStatusListeners.forEach((LegacyFlowStatusListener listener) -> {
-                            listener.onStatusChange(jobId, percentComplete, "");
+                            listener.onStatusChange(jobId, percent, message);
                         });
                     }
 
-                    if (flowItemCompleteListeners.size() > 0) {
+                    if (response != null && flowItemCompleteListeners.size() > 0 && response.completedItems != null) {
                         response.completedItems.forEach((String item) -> {
                             flowItemCompleteListeners.forEach((LegacyFlowItemCompleteListener listener) -> {
                                 listener.processCompletion(jobId, item);
@@ -271,7 +320,7 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
                         });
                     }
 
-                    if (flowItemFailureListeners.size() > 0) {
+                    if (response != null && flowItemFailureListeners.size() > 0 && response.failedItems != null) {
                         response.failedItems.forEach((String item) -> {
                             flowItemFailureListeners.forEach((LegacyFlowItemFailureListener listener) -> {
                                 listener.processFailure(jobId, item);
@@ -279,7 +328,10 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
                         });
                     }
 
-                    if (stopOnFailure && response.errorCount > 0) {
+                    if (stopOnFailure && (response == null || response.errorCount > 0)) {
+                        if (uriQueue != null) {
+                            uriQueue.close();
+                        }
                         JobTicket jobTicket = ticketWrapper.get("jobTicket");
                         if (jobTicket != null) {
                             dataMovementManager.stopJob(jobTicket);
@@ -288,14 +340,13 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
 
                 }
                 catch(Exception e) {
-                    if (errorMessages.size() < MAX_ERROR_MESSAGES) {
-                        errorMessages.add(e.toString());
-                    }
+                    metrics.addErrorMessage(e.toString());
                 }
             })
             .onQueryFailure((QueryBatchException failure) -> {
-                failedBatches.addAndGet(1);
-                failedEvents.addAndGet(batchSize);
+                // The uris of the failed batch aren't known, so only the batch is counted
+                metrics.incrementFailedBatches();
+                metrics.addErrorMessage(failure.toString());
             });
 
 
@@ -314,29 +365,31 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
 
             dataMovementManager.stopJob(queryBatcher);
 
-            JobStatus status;
-            if (failedEvents.get() > 0 && stopOnFailure) {
-                status = JobStatus.STOP_ON_ERROR;
-            }
-            else if (failedEvents.get() + successfulEvents.get() != uriCount) {
-                status = JobStatus.CANCELED;
-            }
-            else if (failedEvents.get() > 0 && successfulEvents.get() > 0) {
-                status = JobStatus.FINISHED_WITH_ERRORS;
-            }
-            //empty collector or no failure events => JobStatus.FINISHED
-            else if ((failedEvents.get() == 0 && successfulEvents.get() > 0) || uriCount == 0) {
-                status = JobStatus.FINISHED;
-            }
-            else {
-                status = JobStatus.FAILED;
+            Throwable collectorFailure = null;
+            if (uriQueue != null) {
+                // Stops the collector if the job was stopped while it was still returning uris
+                uriQueue.close();
+                collectorFailure = uriQueue.getFailure();
+                if (collectorFailure != null) {
+                    metrics.addErrorMessage("Collector failed before returning every uri: " + collectorFailure.toString());
+                }
             }
 
+            JobStatus status = getJobStatus(metrics.getSuccessfulEventsCount(), metrics.getFailedEventsCount(),
+                getExpectedUriCount(uris, uriQueue), collectorFailure != null);
+
+            long processedItems = metrics.getSuccessfulEventsCount() + metrics.getFailedEventsCount();
+            logger.info(String.format("Job %s finished with status %s: %d items processed in %d ms (%.1f items/sec)", jobId,
+                status, processedItems, System.currentTimeMillis() - startTime,
+                itemsPerSecond(processedItems, System.currentTimeMillis() - startTime)));
+
             // store the thing in MarkLogic
-            job.setCounts(successfulEvents.get(), failedEvents.get(), successfulBatches.get(), failedBatches.get())
+            job.setCounts(metrics.getSuccessfulEventsCount(), metrics.getFailedEventsCount(),
+                metrics.getSuccessfulBatchesCount(), metrics.getFailedBatchesCount())
                 .withStatus(status)
                 .withEndTime(new Date());
 
+            List<String> errorMessages = metrics.getErrorMessages();
             if (errorMessages.size() > 0) {
                 job.withJobOutput(errorMessages);
             }
@@ -347,9 +400,84 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
         return jobTicket;
     }
 
+    /**
+     * @param successfulEvents the number of items that were processed without an error
+     * @param failedEvents the number of items that failed
+     * @param uriCount the number of uris the collector returned; fewer items than this are only processed when the job
+     *                 is stopped, as every item of a batch that fails is counted as failed
+     * @param collectorFailed true if the collector failed after it returned some of the uris
+     * @return the status of the finished job
+     */
+    protected JobStatus getJobStatus(long successfulEvents, long failedEvents, long uriCount, boolean collectorFailed) {
+        if (failedEvents > 0 && stopOnFailure) {
+            return JobStatus.STOP_ON_ERROR;
+        }
+        if (failedEvents + successfulEvents < uriCount) {
+            return JobStatus.CANCELED;
+        }
+        if ((failedEvents > 0 || collectorFailed) && successfulEvents > 0) {
+            return JobStatus.FINISHED_WITH_ERRORS;
+        }
+        //empty collector or no failure events => JobStatus.FINISHED
+        if (failedEvents == 0 && !collectorFailed) {
+            return JobStatus.FINISHED;
+        }
+        return JobStatus.FAILED;
+    }
+
+    private JobTicket collectorFailed(Job job, LegacyJobManager jobManager, Throwable e) {
+        job.setCounts(0, 0, 0, 0)
+            .withStatus(JobStatus.FAILED)
+            .withEndTime(new Date());
+
+        StringWriter errors = new StringWriter();
+        e.printStackTrace(new PrintWriter(errors));
+        job.withJobOutput(errors.toString());
+        jobManager.saveJob(job);
+        return new JobTicketImpl(job.getJobId(), JobTicket.JobType.QUERY_BATCHER);
+    }
+
+    /**
+     * Starts the collector on its own thread, writing to a bounded queue that the QueryBatcher reads from while the
+     * collector is still running.
+     */
+    private StreamingUriQueue runStreamingCollector(LegacyCollector collector, String jobId) {
+        final StreamingUriQueue queue = new StreamingUriQueue(Math.max(batchSize * threadCount * 10, MIN_STREAMING_BUFFER_SIZE));
+        final String entityName = this.flow.getEntityName();
+        final String flowName = this.flow.getName();
+        final Map<String, Object> collectorOptions = options;
+        Thread collectorThread = new Thread(() -> {
+            try {
+                collector.run(jobId, entityName, flowName, threadCount, collectorOptions, queue);
+            } catch (Exception e) {
+                logger.error("Collector failed for flow " + flowName + " of entity " + entityName + "; cause: " + e.getMessage(), e);
+            }
+        }, "collector-" + jobId);
+        collectorThread.setDaemon(true);
+        collectorThread.start();
+        return queue;
+    }
+
+    /**
+     * @return the number of uris to base the percent complete on; when streaming, this is the number returned so far
+     * until the collector has finished
+     */
+    private static long getExpectedUriCount(DiskQueue<String> uris, StreamingUriQueue uriQueue) {
+        if (uriQueue == null) {
+            return uris.size();
+        }
+        if (uriQueue.isCompleted()) {
+            return uriQueue.getAddedCount();
+        }
+        return Math.max(uriQueue.getEstimatedCount(), uriQueue.getAddedCount());
+    }
+
+    private static double itemsPerSecond(long items, long millis) {
+        return millis > 0 ? items * 1000.0 / millis : 0;
+    }
+
     private String jsonToString(JsonNode node) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
             return objectMapper.writeValueAsString(node);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
@@ -371,23 +499,37 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
         }
 
         public RunFlowResponse run(String jobId, String[] items) {
-            return run(jobId, items, null);
+            return run(jobId, items, (String) null);
         }
 
         public RunFlowResponse run(String jobId, String[] items, Map<String, Object> options) {
+            try {
+                return run(jobId, items, options != null ? objectMapper.writeValueAsString(options) : null);
+            }
+            catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * The identifiers are posted in the request body, so that a large batch, or long uris, can't exceed the
+         * maximum length of a url.
+         *
+         * @param optionsJson the options, already serialized as JSON
+         */
+        public RunFlowResponse run(String jobId, String[] items, String optionsJson) {
             RunFlowResponse resp = null;
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
                 RequestParameters params = new RequestParameters();
                 params.add("entity-name", flow.getEntityName());
                 params.add("flow-name", flow.getName());
                 params.put("job-id", jobId);
-                params.put("identifiers", items);
                 params.put("target-database", targetDatabase);
-                if (options != null) {
-                    params.put("options", objectMapper.writeValueAsString(options));
+                if (optionsJson != null) {
+                    params.put("options", optionsJson);
                 }
-                ResourceServices.ServiceResultIterator resultItr = this.getServices().post(params, new StringHandle("{}").withFormat(Format.JSON));
+                String body = objectMapper.writeValueAsString(Collections.singletonMap("identifiers", items));
+                ResourceServices.ServiceResultIterator resultItr = this.getServices().post(params, new StringHandle(body).withFormat(Format.JSON));
                 try {
                     if (resultItr == null || !resultItr.hasNext()) {
                         resp = new RunFlowResponse();
@@ -395,7 +537,7 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
                     else {
                         ResourceServices.ServiceResult res = resultItr.next();
                         StringHandle handle = new StringHandle();
-                        resp = objectMapper.readValue(res.getContent(handle).get(), RunFlowResponse.class);
+                        resp = responseReader.readValue(res.getContent(handle).get());
                     }
                 }
                 finally {
@@ -412,11 +554,10 @@ public class LegacyFlowRunnerImpl implements LegacyFlowRunner {
     }
 
     protected RunFlowResponse handleFlowRunnerException (Exception e) {
-        ObjectMapper objectMapper = new ObjectMapper();
         RunFlowResponse resp = null;
         if(e instanceof FailedRequestException && StringUtils.containsIgnoreCase(((FailedRequestException) e).getFailedRequest().getStatus(), "Plugin error")){
             try {
-                resp = objectMapper.readValue(((FailedRequestException)e).getFailedRequest().getMessage(), RunFlowResponse.class);
+                resp = responseReader.readValue(((FailedRequestException)e).getFailedRequest().getMessage());
             } catch (IOException ex) {
                 throw new RuntimeException("Unexpected IO error while parsing exception from running flow; original exception: " + e.getMessage());
             }
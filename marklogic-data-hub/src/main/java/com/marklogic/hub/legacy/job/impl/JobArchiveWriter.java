@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.legacy.job.impl;
+
+import com.marklogic.client.document.DocumentRecord;
+import com.marklogic.client.io.InputStreamHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the documents of a job export to a zip file, with an entry for each document named after its URI. Documents
+ * are accepted from many threads at once, such as those of the query batchers that export the jobs and the traces at
+ * the same time. Each document is copied straight from its content stream into the zip file, so the writer holds no
+ * more than one copy buffer in memory, however many documents are exported.
+ *
+ * Entries are compressed for speed rather than size, because they are written one at a time and the compression of
+ * millions of trace documents would otherwise limit how fast the batchers can export them.
+ */
+class JobArchiveWriter implements Consumer<DocumentRecord>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobArchiveWriter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ZipOutputStream zipOutputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final AtomicLong entryCount = new AtomicLong();
+    private IOException failure;
+
+    /**
+     * @param file the zip file to write, which is replaced if it exists
+     * @throws IOException if the file can't be created
+     */
+    JobArchiveWriter(File file) throws IOException {
+        zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        zipOutputStream.setLevel(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Adds the document to the zip file. If a document can't be written, the zip file is incomplete, so no other
+     * documents are written, and the failure is thrown by {@link #close()}.
+     */
+    @Override
+    public void accept(DocumentRecord record) {
+        String uri = record.getUri();
+        try (InputStream content = record.getContent(new InputStreamHandle()).get()) {
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    zipOutputStream.putNextEntry(new ZipEntry(uri));
+                } catch (ZipException e) {
+                    // Such as a document that matched more than one query, which is only written the first time
+                    logger.warn("Not writing document to job export: " + uri + "; cause: " + e.getMessage());
+                    return;
+                }
+                try {
+                    int read;
+                    while ((read = content.read(buffer)) != -1) {
+                        zipOutputStream.write(buffer, 0, read);
+                    }
+                    zipOutputStream.closeEntry();
+                    entryCount.incrementAndGet();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents that were written
+     */
+    long getEntryCount() {
+        return entryCount.get();
+    }
+
+    /**
+     * Finishes the zip file.
+     *
+     * @throws IOException if the zip file can't be finished, or if a document couldn't be written to it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            zipOutputStream.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -24,15 +24,14 @@ import com.marklogic.client.Transaction;
 import com.marklogic.client.datamovement.*;
 import com.marklogic.client.document.DocumentWriteSet;
 import com.marklogic.client.document.JSONDocumentManager;
-import com.marklogic.client.ext.datamovement.consumer.WriteToZipConsumer;
 import com.marklogic.client.extensions.ResourceManager;
 import com.marklogic.client.extensions.ResourceServices;
 import com.marklogic.client.io.DocumentMetadataHandle;
 import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.JacksonDatabindHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.query.QueryManager;
-import com.marklogic.client.query.StringQueryDefinition;
 import com.marklogic.client.query.StructuredQueryBuilder;
 import com.marklogic.client.query.StructuredQueryDefinition;
 import com.marklogic.client.util.RequestParameters;
@@ -42,13 +41,12 @@ import com.marklogic.hub.legacy.job.JobExportResponse;
 import com.marklogic.hub.legacy.job.LegacyJobManager;
 
 import javax.xml.namespace.QName;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Scanner;
 import java.util.TimeZone;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -59,6 +57,12 @@ public class LegacyJobManagerImpl implements LegacyJobManager {
     private JSONDocumentManager docMgr;
     private JobDeleteResource jobDeleteRunner = null;
 
+    private static final String JOB_COLLECTION = "job";
+    private static final String TRACE_COLLECTION = "trace";
+
+    // The number of threads that write the jobs, and the number that write the traces, of an import
+    private static final int IMPORT_THREAD_COUNT = 4;
+
     private static final String ISO_8601_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
     private static SimpleDateFormat simpleDateFormat8601;
     static {
@@ -95,7 +99,7 @@ public class LegacyJobManagerImpl implements LegacyJobManager {
         JacksonDatabindHandle<Job> contentHandle = new JacksonDatabindHandle<>(job);
         contentHandle.setMapper(objectMapper);
         DocumentMetadataHandle metadataHandle = new DocumentMetadataHandle();
-        metadataHandle = metadataHandle.withCollections("job");
+        metadataHandle = metadataHandle.withCollections(JOB_COLLECTION);
         DocumentWriteSet writeSet = docMgr.newWriteSet();
         writeSet.add("/jobs/" + job.getJobId() + ".json", metadataHandle, contentHandle);
         docMgr.write(writeSet, transaction);
@@ -105,133 +109,130 @@ public class LegacyJobManagerImpl implements LegacyJobManager {
         return this.jobDeleteRunner.deleteJobs(jobIds);
     }
 
+    /**
+     * The jobs and their traces are exported at the same time, by a query batcher each, into the same zip file.
+     */
     @Override public JobExportResponse exportJobs(Path exportFilePath, String[] jobIds) {
         JobExportResponse response = new JobExportResponse();
         response.fullPath = exportFilePath.toAbsolutePath().toString();
 
         File zipFile = exportFilePath.toFile();
-        WriteToZipConsumer zipConsumer = new WriteToZipConsumer(zipFile);
 
         QueryManager qm = jobClient.newQueryManager();
-
-        // Build a query that will match everything
-        StringQueryDefinition emptyQuery = qm.newStringDefinition();
-        emptyQuery.setCriteria("");
-
-        // Get the job(s) document(s)
         StructuredQueryBuilder sqb = qm.newStructuredQueryBuilder();
-        DataMovementManager dmm = jobClient.newDataMovementManager();
-        QueryBatcher batcher = null;
-        StructuredQueryDefinition query = null;
+        StructuredQueryDefinition jobQuery;
+        StructuredQueryDefinition traceQuery;
         if (jobIds == null) {
-            batcher = dmm.newQueryBatcher(emptyQuery);
+            // Together these match everything, and no document is matched by both
+            jobQuery = sqb.collection(JOB_COLLECTION);
+            traceQuery = sqb.not(sqb.collection(JOB_COLLECTION));
         }
         else {
-            batcher = dmm.newQueryBatcher(sqb.value(sqb.jsonProperty("jobId"), jobIds));
+            jobQuery = sqb.and(sqb.collection(JOB_COLLECTION), sqb.value(sqb.jsonProperty("jobId"), jobIds));
+            traceQuery = sqb.and(sqb.collection(TRACE_COLLECTION), sqb.value(sqb.element(new QName("jobId")), jobIds));
         }
-        batcher.onUrisReady(new ExportListener().onDocumentReady(zipConsumer));
-        JobTicket jobTicket = dmm.startJob(batcher);
-
-        batcher.awaitCompletion();
-        dmm.stopJob(batcher);
-        dmm.release();
-
-        JobReport report = dmm.getJobReport(jobTicket);
-        long jobCount = report.getSuccessEventsCount();
-        response.totalJobs = jobCount;
-
-        if (jobCount > 0) {
 
-            // Get the traces that go with the job(s)
-            dmm = this.jobClient.newDataMovementManager();
-            if (jobIds == null) {
-                batcher = dmm.newQueryBatcher(emptyQuery);
-            }
-            else {
-                batcher = dmm.newQueryBatcher(sqb.value(sqb.element(new QName("jobId")), jobIds));
-            }
-            batcher.onUrisReady(new ExportListener().onDocumentReady(zipConsumer));
-            jobTicket = dmm.startJob(batcher);
-
-            batcher.awaitCompletion();
-            dmm.stopJob(batcher);
+        long jobCount;
+        long traceCount;
+        DataMovementManager dmm = jobClient.newDataMovementManager();
+        try (JobArchiveWriter archiveWriter = new JobArchiveWriter(zipFile)) {
+            QueryBatcher jobBatcher = dmm.newQueryBatcher(jobQuery)
+                .withJobName("Export jobs")
+                .onUrisReady(new ExportListener().onDocumentReady(archiveWriter));
+            QueryBatcher traceBatcher = dmm.newQueryBatcher(traceQuery)
+                .withJobName("Export traces")
+                .onUrisReady(new ExportListener().onDocumentReady(archiveWriter));
+            JobTicket jobTicket = dmm.startJob(jobBatcher);
+            JobTicket traceTicket = dmm.startJob(traceBatcher);
+
+            jobBatcher.awaitCompletion();
+            traceBatcher.awaitCompletion();
+            dmm.stopJob(jobBatcher);
+            dmm.stopJob(traceBatcher);
+
+            jobCount = dmm.getJobReport(jobTicket).getSuccessEventsCount();
+            traceCount = dmm.getJobReport(traceTicket).getSuccessEventsCount();
+        } catch (IOException e) {
+            zipFile.delete();
+            throw new RuntimeException("Unable to export jobs to " + response.fullPath + "; cause: " + e.getMessage(), e);
+        } finally {
             dmm.release();
+        }
 
-            report = dmm.getJobReport(jobTicket);
-            long traceCount = report.getSuccessEventsCount();
+        response.totalJobs = jobCount;
+        // Traces of jobs that weren't found aren't exported, and when nothing was found, no zip file is produced
+        if (jobCount > 0 || (jobIds == null && traceCount > 0)) {
             response.totalTraces = traceCount;
-
-            zipConsumer.close();
         }
         else {
-            // there were no jobs, so don't produce an empty zip file
-            zipConsumer.close();
             zipFile.delete();
         }
 
         return response;
     }
 
+    /**
+     * The jobs and the traces are written at the same time, by a write batcher each. Each document is streamed from
+     * the zip file when its batch is written, so no document is held in memory, and the threads of the batchers read
+     * their documents from the zip file in parallel.
+     */
     @Override public void importJobs(Path importFilePath) throws IOException {
         try(ZipFile importZip = new ZipFile(importFilePath.toFile())) {
-            Enumeration<? extends ZipEntry> entries = importZip.entries();
-
             DataMovementManager dmm = jobClient.newDataMovementManager();
-            WriteBatcher writer = dmm
-                .newWriteBatcher()
-                .withJobName("Load jobs")
-                .withBatchSize(50);
-            JobTicket ticket = dmm.startJob(writer);
-
-            // Add each Job entry to the writer; set aside the Trace entries.
-            ArrayList<ZipEntry> traceEntries = new ArrayList<ZipEntry>();
-            DocumentMetadataHandle jobMetadata = new DocumentMetadataHandle().withCollections("job");
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-
-                if (entry.getName().startsWith("/jobs/")) {
-                    // Delimiter = \A, which is the beginning of the input
-                    Scanner s = new Scanner(importZip.getInputStream(entry)).useDelimiter("\\A");
-                    String entryText = s.hasNext() ? s.next() : "";
-
-                    writer.add(
-                        entry.getName(),
-                        jobMetadata,
-                        new StringHandle(entryText).withFormat(Format.JSON)
-                    );
-                } else {
-                    traceEntries.add(entry);
+            WriteBatcher jobWriter = newImportWriter(dmm, "Load jobs", 50);
+            WriteBatcher traceWriter = newImportWriter(dmm, "Load traces", 100);
+            JobTicket jobTicket = dmm.startJob(jobWriter);
+            JobTicket traceTicket = dmm.startJob(traceWriter);
+
+            try {
+                DocumentMetadataHandle jobMetadata = new DocumentMetadataHandle().withCollections(JOB_COLLECTION);
+                DocumentMetadataHandle traceMetadata = new DocumentMetadataHandle().withCollections(TRACE_COLLECTION);
+                Enumeration<? extends ZipEntry> entries = importZip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+
+                    String name = entry.getName();
+                    InputStreamHandle handle = new InputStreamHandle(importZip.getInputStream(entry));
+                    if (name.startsWith("/jobs/")) {
+                        jobWriter.add(name, jobMetadata, handle.withFormat(Format.JSON));
+                    } else {
+                        traceWriter.add(name, traceMetadata, handle.withFormat(name.endsWith(".json") ? Format.JSON : Format.XML));
+                    }
                 }
+
+                jobWriter.flushAndWait();
+                traceWriter.flushAndWait();
             }
+            finally {
+                dmm.stopJob(jobTicket);
+                dmm.stopJob(traceTicket);
+                dmm.release();
+            }
+        }
+    }
 
-            writer.flushAndWait();
-            dmm.stopJob(ticket);
-            dmm.release();
+    private WriteBatcher newImportWriter(DataMovementManager dmm, String jobName, int batchSize) {
+        return dmm
+            .newWriteBatcher()
+            .withJobName(jobName)
+            .withBatchSize(batchSize)
+            .withThreadCount(IMPORT_THREAD_COUNT)
+            // The zip entry streams of a batch are closed once it has been written, whether or not that succeeded
+            .onBatchSuccess(this::closeContent)
+            .onBatchFailure((batch, failure) -> closeContent(batch));
+    }
 
-            if (traceEntries.size() > 0) {
-                dmm = this.jobClient.newDataMovementManager();
-                writer = dmm
-                    .newWriteBatcher()
-                    .withJobName("Load traces");
-                ticket = dmm.startJob(writer);
-
-                DocumentMetadataHandle traceMetadata = new DocumentMetadataHandle().withCollections("trace");
-
-                for (ZipEntry entry : traceEntries) {
-                    // Delimiter = \A, which is the beginning of the input
-                    Scanner s = new Scanner(importZip.getInputStream(entry)).useDelimiter("\\A");
-                    String entryText = s.hasNext() ? s.next() : "";
-
-                    writer.add(
-                        entry.getName(),
-                        traceMetadata,
-                        new StringHandle(entryText)
-                            .withFormat(entry.getName().endsWith(".json") ? Format.JSON : Format.XML)
-                    );
+    private void closeContent(WriteBatch batch) {
+        for (WriteEvent event : batch.getItems()) {
+            if (event.getContent() instanceof Closeable) {
+                try {
+                    ((Closeable) event.getContent()).close();
+                } catch (IOException e) {
+                    // The entry was already read, so there's nothing left to release
                 }
-                writer.flushAndWait();
-                dmm.stopJob(ticket);
-                dmm.release();
             }
         }
     }
@@ -0,0 +1,172 @@
+package com.marklogic.hub.step;
+
+import com.marklogic.hub.flow.Flow;
+import com.marklogic.hub.step.impl.Step;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the step definitions retrieved by another provider, so that flows that are run often don't retrieve the same
+ * step definitions again for every step. A step definition is retrieved again once it has been kept for longer than
+ * the time to live, or once it has been invalidated, which is done when step definitions are deployed.
+ *
+ * The same StepDefinition objects are returned to every caller, so they must not be modified.
+ */
+public class CachingStepDefinitionProvider implements StepDefinitionProvider {
+
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final StepDefinitionProvider delegate;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Incremented on every invalidation, so that a step definition retrieved before then isn't kept afterwards
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CachingStepDefinitionProvider(StepDefinitionProvider delegate) {
+        this(delegate, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param delegate  the provider to retrieve step definitions from
+     * @param ttlMillis how long a step definition is kept for; zero or less disables caching
+     */
+    public CachingStepDefinitionProvider(StepDefinitionProvider delegate, long ttlMillis) {
+        this(delegate, ttlMillis, System::currentTimeMillis);
+    }
+
+    CachingStepDefinitionProvider(StepDefinitionProvider delegate, long ttlMillis, LongSupplier clock) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    @Override
+    public StepDefinition getStepDefinition(String name, StepDefinition.StepDefinitionType type) {
+        String key = toKey(name, type);
+        StepDefinition cached = getCached(key);
+        if (cached != null) {
+            return cached;
+        }
+        long currentGeneration = generation.get();
+        StepDefinition stepDefinition = delegate.getStepDefinition(name, type);
+        put(key, stepDefinition, currentGeneration);
+        return stepDefinition;
+    }
+
+    /**
+     * Step definitions that aren't cached are retrieved with a single call to the delegate's getStepDefinitions.
+     */
+    @Override
+    public List<StepDefinition> getStepDefinitions(Collection<Step> steps) {
+        List<Step> distinctSteps = StepDefinitionProvider.distinctSteps(steps);
+        StepDefinition[] stepDefinitions = new StepDefinition[distinctSteps.size()];
+        List<Step> missingSteps = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < distinctSteps.size(); i++) {
+            Step step = distinctSteps.get(i);
+            stepDefinitions[i] = getCached(toKey(step.getStepDefinitionName(), step.getStepDefinitionType()));
+            if (stepDefinitions[i] == null) {
+                missingSteps.add(step);
+                missingIndexes.add(i);
+            }
+        }
+
+        if (!missingSteps.isEmpty()) {
+            long currentGeneration = generation.get();
+            List<StepDefinition> retrieved = delegate.getStepDefinitions(missingSteps);
+            for (int i = 0; i < missingSteps.size(); i++) {
+                Step step = missingSteps.get(i);
+                StepDefinition stepDefinition = retrieved.get(i);
+                put(toKey(step.getStepDefinitionName(), step.getStepDefinitionType()), stepDefinition, currentGeneration);
+                stepDefinitions[missingIndexes.get(i)] = stepDefinition;
+            }
+        }
+
+        List<StepDefinition> result = new ArrayList<>();
+        for (StepDefinition stepDefinition : stepDefinitions) {
+            result.add(stepDefinition);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves every step definition used by the steps of the flow that isn't cached yet, in a single call, so that
+     * running the steps doesn't need to retrieve any.
+     *
+     * @param flow the flow to be run
+     */
+    public void prefetch(Flow flow) {
+        if (flow.getSteps() != null) {
+            getStepDefinitions(flow.getSteps().values());
+        }
+    }
+
+    public void invalidate(String name, StepDefinition.StepDefinitionType type) {
+        generation.incrementAndGet();
+        entries.remove(toKey(name, type));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * @return the number of step definitions that were returned from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of step definitions that had to be retrieved from the delegate
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private StepDefinition getCached(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.loadedAt < ttlMillis) {
+            hitCount.incrementAndGet();
+            return entry.stepDefinition;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    private void put(String key, StepDefinition stepDefinition, long loadedGeneration) {
+        if (stepDefinition == null || ttlMillis <= 0) {
+            return;
+        }
+        entries.put(key, new Entry(stepDefinition, clock.getAsLong()));
+        // If it was invalidated while the step definition was being retrieved, the retrieved one may be out of date
+        if (generation.get() != loadedGeneration) {
+            entries.remove(key);
+        }
+    }
+
+    private static String toKey(String name, StepDefinition.StepDefinitionType type) {
+        return type + ":" + name;
+    }
+
+    private static class Entry {
+        final StepDefinition stepDefinition;
+        final long loadedAt;
+
+        Entry(StepDefinition stepDefinition, long loadedAt) {
+            this.stepDefinition = stepDefinition;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
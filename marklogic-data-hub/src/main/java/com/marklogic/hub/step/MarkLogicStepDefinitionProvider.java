@@ -1,8 +1,15 @@
 package com.marklogic.hub.step;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.hub.dataservices.StepDefinitionService;
+import com.marklogic.hub.step.impl.Step;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Implementation that retrieves step definitions from MarkLogic via a data service.
@@ -22,4 +29,31 @@ public class MarkLogicStepDefinitionProvider implements StepDefinitionProvider {
         step.deserialize(json);
         return step;
     }
+
+    /**
+     * Retrieves all of the step definitions with a single call to the data service.
+     */
+    @Override
+    public List<StepDefinition> getStepDefinitions(Collection<Step> steps) {
+        List<Step> distinctSteps = StepDefinitionProvider.distinctSteps(steps);
+        List<StepDefinition> stepDefinitions = new ArrayList<>();
+        if (distinctSteps.isEmpty()) {
+            return stepDefinitions;
+        }
+
+        ArrayNode request = new ObjectMapper().createArrayNode();
+        for (Step step : distinctSteps) {
+            request.addObject()
+                .put("name", step.getStepDefinitionName())
+                .put("type", step.getStepDefinitionType().name());
+        }
+        JsonNode json = service.getStepDefinitions(request);
+        for (int i = 0; i < distinctSteps.size(); i++) {
+            Step step = distinctSteps.get(i);
+            StepDefinition stepDefinition = StepDefinition.create(step.getStepDefinitionName(), step.getStepDefinitionType());
+            stepDefinition.deserialize(json.get(i));
+            stepDefinitions.add(stepDefinition);
+        }
+        return stepDefinitions;
+    }
 }
@@ -16,6 +16,7 @@
 package com.marklogic.hub.step;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.marklogic.hub.error.DataHubConfigurationException;
 import com.marklogic.hub.flow.Flow;
 import com.marklogic.hub.job.JobStatus;
@@ -54,6 +55,13 @@ public class RunStepResponse {
 
     private String stepStartTime;
     private String stepEndTime;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private StepCheckpoint checkpoint;
+    // Only set when adaptive batching chose the values while the step ran, so that they can be pinned in the step
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer batchSize;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer threadCount;
 
     private Flow flow;
 
@@ -186,6 +194,40 @@ public class RunStepResponse {
         return stepEndTime;
     }
 
+    /**
+     * @return the progress of a step that did not finish, which can be used to resume it; null once the step has
+     * completed
+     */
+    public StepCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(StepCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the batch size that gave the highest throughput when adaptive batching was enabled; null otherwise
+     */
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the thread count that gave the highest throughput when adaptive batching was enabled; null otherwise
+     */
+    public Integer getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(Integer threadCount) {
+        this.threadCount = threadCount;
+    }
+
 
     @Override
     public String toString() {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how far a step has got through the URIs returned by its collector, so that a step that did not finish can
+ * be resumed without reprocessing those URIs. A checkpoint only covers the leading run of batches that have all
+ * finished; batches that finished after a batch that was still running are processed again when the step is resumed.
+ *
+ * The counts are totals across every run of the step for the same job, including the runs that were resumed.
+ */
+public class StepCheckpoint {
+
+    private String cursor;
+    private long position;
+    private long successfulEvents;
+    private long failedEvents;
+    private long successfulBatches;
+    private long failedBatches;
+    private List<String> failedItems = new ArrayList<>();
+
+    public StepCheckpoint() {
+    }
+
+    public StepCheckpoint(StepCheckpoint other) {
+        this.cursor = other.cursor;
+        this.position = other.position;
+        this.successfulEvents = other.successfulEvents;
+        this.failedEvents = other.failedEvents;
+        this.successfulBatches = other.successfulBatches;
+        this.failedBatches = other.failedBatches;
+        this.failedItems = new ArrayList<>(other.failedItems);
+    }
+
+    /**
+     * @return the last URI, in the order returned by the collector, that has been processed; null if none have been
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the number of URIs returned by the collector up to and including the cursor
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public void setPosition(long position) {
+        this.position = position;
+    }
+
+    public long getSuccessfulEvents() {
+        return successfulEvents;
+    }
+
+    public void setSuccessfulEvents(long successfulEvents) {
+        this.successfulEvents = successfulEvents;
+    }
+
+    public long getFailedEvents() {
+        return failedEvents;
+    }
+
+    public void setFailedEvents(long failedEvents) {
+        this.failedEvents = failedEvents;
+    }
+
+    public long getSuccessfulBatches() {
+        return successfulBatches;
+    }
+
+    public void setSuccessfulBatches(long successfulBatches) {
+        this.successfulBatches = successfulBatches;
+    }
+
+    public long getFailedBatches() {
+        return failedBatches;
+    }
+
+    public void setFailedBatches(long failedBatches) {
+        this.failedBatches = failedBatches;
+    }
+
+    /**
+     * @return the URIs up to the cursor that failed; this is capped, so it may not include every failed URI
+     */
+    public List<String> getFailedItems() {
+        return failedItems;
+    }
+
+    public void setFailedItems(List<String> failedItems) {
+        this.failedItems = failedItems != null ? failedItems : new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[cursor: %s, position: %d, successfulEvents: %d, failedEvents: %d, successfulBatches: %d, " +
+            "failedBatches: %d]", cursor, position, successfulEvents, failedEvents, successfulBatches, failedBatches);
+    }
+}
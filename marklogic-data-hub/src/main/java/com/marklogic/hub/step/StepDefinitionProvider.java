@@ -1,5 +1,13 @@
 package com.marklogic.hub.step;
 
+import com.marklogic.hub.step.impl.Step;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Abstracts how a StepDefinition is provided to a client so that it can come from MarkLogic, from a filesystem, or from
  * other location.
@@ -8,4 +16,33 @@ public interface StepDefinitionProvider {
 
     StepDefinition getStepDefinition(String name, StepDefinition.StepDefinitionType type);
 
+    /**
+     * Returns the step definitions used by the given steps. Implementations that retrieve step definitions from
+     * somewhere else should override this to retrieve all of them at once.
+     *
+     * @param steps the steps whose step definitions are needed
+     * @return one step definition for each distinct name and type, in the order in which the steps were given
+     */
+    default List<StepDefinition> getStepDefinitions(Collection<Step> steps) {
+        List<StepDefinition> stepDefinitions = new ArrayList<>();
+        for (Step step : distinctSteps(steps)) {
+            stepDefinitions.add(getStepDefinition(step.getStepDefinitionName(), step.getStepDefinitionType()));
+        }
+        return stepDefinitions;
+    }
+
+    /**
+     * @return the first of the given steps for each distinct step definition name and type; steps without a name or
+     * a type are left out
+     */
+    static List<Step> distinctSteps(Collection<Step> steps) {
+        Map<String, Step> distinct = new LinkedHashMap<>();
+        for (Step step : steps) {
+            if (step != null && step.getStepDefinitionName() != null && step.getStepDefinitionType() != null) {
+                distinct.putIfAbsent(step.getStepDefinitionType() + ":" + step.getStepDefinitionName(), step);
+            }
+        }
+        return new ArrayList<>(distinct.values());
+    }
+
 }
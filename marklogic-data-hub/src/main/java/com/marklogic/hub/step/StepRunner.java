@@ -17,6 +17,7 @@ package com.marklogic.hub.step;
 
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.hub.flow.*;
+import com.marklogic.hub.job.JobDocManager;
 
 
 import java.util.Collection;
@@ -95,6 +96,22 @@ public interface StepRunner {
      */
     StepRunner withStepConfig(Map<String, Object> stepConfig);
 
+    /**
+     * Sets the checkpoint to resume the step from, so that the URIs it covers are not processed again.
+     * @param checkpoint - the checkpoint saved by an earlier run of the step in the same job; null to run the whole step
+     * @return the step runner object
+     */
+    StepRunner withCheckpoint(StepCheckpoint checkpoint);
+
+    /**
+     * Sets the manager that the step runner updates the job document with. Updates made through one manager are
+     * written in order, so a flow runner passes its own manager to make sure that the final job status it writes
+     * isn't overwritten by a step update that was still queued.
+     * @param jobDocManager - the manager to use; null for the step runner to create its own
+     * @return the step runner object
+     */
+    StepRunner withJobDocManager(JobDocManager jobDocManager);
+
     /**
      * Sets if this will stop the job on a failure, or if it will continue on
      * @param stopOnFailure - true to stop the job if a failure happens
@@ -173,4 +190,10 @@ public interface StepRunner {
      */
      int getBatchSize();
 
+    /**
+     * Returns the thread count
+     * @return thread count for step runner
+     */
+     int getThreadCount();
+
 }
@@ -1,6 +1,6 @@
 package com.marklogic.hub.step;
 
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.marklogic.hub.DatabaseKind;
 import com.marklogic.hub.HubConfig;
 import com.marklogic.hub.flow.Flow;
@@ -22,11 +22,8 @@ public class StepRunnerFactory {
     @Autowired
     private StepDefinitionProvider stepDefinitionProvider;
 
-    private StepRunner stepRunner;
-    private int batchSize = 100;
-    private int threadCount = 4;
-    private String sourceDatabase;
-    private String targetDatabase;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_THREAD_COUNT = 4;
 
     public StepRunnerFactory() {
     }
@@ -35,11 +32,16 @@ public class StepRunnerFactory {
         this.hubConfig = hubConfig;
     }
 
+    /**
+     * Builds a new step runner on each call, with no state kept between calls, so that steps of jobs running at the
+     * same time can get their runners from the same factory.
+     */
     public StepRunner getStepRunner(Flow flow, String stepNum)  {
         Map<String, Step> steps = flow.getSteps();
         Step step = steps.get(stepNum);
         StepDefinition stepDef = stepDefinitionProvider.getStepDefinition(step.getStepDefinitionName(), step.getStepDefinitionType());
 
+        StepRunner stepRunner;
         switch (step.getStepDefinitionType()) {
             case INGESTION:
                 stepRunner = new WriteStepRunner(hubConfig);
@@ -50,6 +52,7 @@ public class StepRunnerFactory {
         stepRunner = stepRunner.withFlow(flow)
             .withStep(stepNum);
 
+        int batchSize = DEFAULT_BATCH_SIZE;
         if(step.getBatchSize() != 0) {
             batchSize = step.getBatchSize();
         }
@@ -61,6 +64,7 @@ public class StepRunnerFactory {
         }
         stepRunner.withBatchSize(batchSize);
 
+        int threadCount = DEFAULT_THREAD_COUNT;
         if(step.getThreadCount() != 0) {
             threadCount = step.getThreadCount();
         }
@@ -73,33 +77,8 @@ public class StepRunnerFactory {
 
         stepRunner.withThreadCount(threadCount);
 
-        if(step.getOptions().get("sourceDatabase") != null) {
-            sourceDatabase = ((TextNode)step.getOptions().get("sourceDatabase")).asText();
-        }
-        else if(stepDef.getOptions().get("sourceDatabase") != null) {
-            sourceDatabase = ((TextNode)stepDef.getOptions().get("sourceDatabase")).asText();
-        }
-        else {
-            sourceDatabase = hubConfig.getDbName(DatabaseKind.STAGING);
-        }
-        stepRunner.withSourceClient(hubConfig.newStagingClient(sourceDatabase));
-
-        if(step.getOptions().get("targetDatabase") != null) {
-            targetDatabase = ((TextNode)step.getOptions().get("targetDatabase")).asText();
-        }
-        else if(stepDef.getOptions().get("targetDatabase") != null) {
-            targetDatabase = ((TextNode)stepDef.getOptions().get("targetDatabase")).asText();
-        }
-        else {
-            if(StepDefinition.StepDefinitionType.INGESTION.equals(step.getStepDefinitionType())) {
-                targetDatabase = hubConfig.getDbName(DatabaseKind.STAGING);
-            }
-            else {
-                targetDatabase = hubConfig.getDbName(DatabaseKind.FINAL);
-            }
-        }
-
-        stepRunner.withDestinationDatabase(targetDatabase);
+        stepRunner.withSourceClient(hubConfig.newStagingClient(getSourceDatabase(step, stepDef)));
+        stepRunner.withDestinationDatabase(getTargetDatabase(step, stepDef));
 
         //For ingest flow, set stepDef.
         if(StepDefinition.StepDefinitionType.INGESTION.equals(step.getStepDefinitionType())) {
@@ -108,6 +87,60 @@ public class StepRunnerFactory {
         return stepRunner;
     }
 
+    /**
+     * @return the database that the runner of the given step reads its source documents from
+     */
+    public String getSourceDatabase(Flow flow, String stepNum) {
+        Step step = flow.getSteps().get(stepNum);
+        return getSourceDatabase(step, stepDefinitionProvider.getStepDefinition(step.getStepDefinitionName(), step.getStepDefinitionType()));
+    }
+
+    /**
+     * @return the database that the runner of the given step writes its documents to
+     */
+    public String getTargetDatabase(Flow flow, String stepNum) {
+        Step step = flow.getSteps().get(stepNum);
+        return getTargetDatabase(step, stepDefinitionProvider.getStepDefinition(step.getStepDefinitionName(), step.getStepDefinitionType()));
+    }
+
+    /**
+     * @return the source query of the given step, or null if neither the step nor its step definition has one
+     */
+    public String getSourceQuery(Flow flow, String stepNum) {
+        Step step = flow.getSteps().get(stepNum);
+        return getOption(step, stepDefinitionProvider.getStepDefinition(step.getStepDefinitionName(), step.getStepDefinitionType()), "sourceQuery");
+    }
+
+    private String getSourceDatabase(Step step, StepDefinition stepDef) {
+        String sourceDatabase = getOption(step, stepDef, "sourceDatabase");
+        return sourceDatabase != null ? sourceDatabase : hubConfig.getDbName(DatabaseKind.STAGING);
+    }
+
+    private String getTargetDatabase(Step step, StepDefinition stepDef) {
+        String targetDatabase = getOption(step, stepDef, "targetDatabase");
+        if (targetDatabase != null) {
+            return targetDatabase;
+        }
+        if(StepDefinition.StepDefinitionType.INGESTION.equals(step.getStepDefinitionType())) {
+            return hubConfig.getDbName(DatabaseKind.STAGING);
+        }
+        return hubConfig.getDbName(DatabaseKind.FINAL);
+    }
+
+    /**
+     * @return the option of the step, or if the step doesn't set it, the option of its step definition
+     */
+    private static String getOption(Step step, StepDefinition stepDef, String name) {
+        Object value = step.getOptions() != null ? step.getOptions().get(name) : null;
+        if (value == null && stepDef != null && stepDef.getOptions() != null) {
+            value = stepDef.getOptions().get(name);
+        }
+        if (value == null) {
+            return null;
+        }
+        return value instanceof JsonNode ? ((JsonNode) value).asText() : value.toString();
+    }
+
     public void setStepDefinitionProvider(StepDefinitionProvider stepDefinitionProvider) {
         this.stepDefinitionProvider = stepDefinitionProvider;
     }
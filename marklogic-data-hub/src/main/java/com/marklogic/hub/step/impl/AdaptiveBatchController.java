@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import com.marklogic.client.MarkLogicServerException;
+
+import java.net.SocketTimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Tunes the number of URIs sent in each call to the server, and the number of those calls that run at once, while a
+ * step is running. DMSDK fixes the batch size and thread count of a batcher once it has started, so the batcher is
+ * created with the upper bounds, and each of its batches is split into calls of the current batch size, with
+ * {@link #acquire()} limiting how many calls are in flight.
+ *
+ * The settings are hill-climbed on throughput. After each window of calls, the number of documents processed
+ * successfully per second is compared with the previous window; a setting keeps moving in the same direction while
+ * throughput improves, and is moved back when it drops, after which the other setting is tuned. Slower calls and
+ * failed documents both lower throughput, so they steer the settings without any thresholds of their own. A server
+ * that is busy, i.e. returns a 503 or times out, halves both settings straight away.
+ */
+class AdaptiveBatchController {
+
+    // A window has to last this long, and include this many calls per permitted thread, before it is compared
+    private static final long MIN_WINDOW_NANOS = 1000L * 1000 * 1000;
+    private static final int MIN_WINDOW_CALLS_PER_THREAD = 2;
+    private static final double BATCH_SIZE_FACTOR = 1.5;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int minThreadCount;
+    private final int maxThreadCount;
+    private final LongSupplier nanoClock;
+
+    private int batchSize;
+    private int threadCount;
+    private int inFlight;
+
+    private boolean tuningBatchSize = true;
+    private int direction = 1;
+    private double previousThroughput = -1;
+
+    private long windowStartNanos;
+    private long windowDocuments;
+    private int windowCalls;
+
+    private double bestThroughput = -1;
+    private int bestBatchSize;
+    private int bestThreadCount;
+
+    AdaptiveBatchController(int batchSize, int threadCount, int minBatchSize, int maxBatchSize, int minThreadCount, int maxThreadCount) {
+        this(batchSize, threadCount, minBatchSize, maxBatchSize, minThreadCount, maxThreadCount, System::nanoTime);
+    }
+
+    AdaptiveBatchController(int batchSize, int threadCount, int minBatchSize, int maxBatchSize, int minThreadCount,
+                            int maxThreadCount, LongSupplier nanoClock) {
+        if (minBatchSize < 1 || minBatchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + minBatchSize + " to " + maxBatchSize);
+        }
+        if (minThreadCount < 1 || minThreadCount > maxThreadCount) {
+            throw new IllegalArgumentException("Invalid thread count bounds: " + minThreadCount + " to " + maxThreadCount);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.minThreadCount = minThreadCount;
+        this.maxThreadCount = maxThreadCount;
+        this.batchSize = clamp(batchSize, minBatchSize, maxBatchSize);
+        this.threadCount = clamp(threadCount, minThreadCount, maxThreadCount);
+        this.bestBatchSize = this.batchSize;
+        this.bestThreadCount = this.threadCount;
+        this.nanoClock = nanoClock;
+        this.windowStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Waits until fewer calls than the current thread count are in flight. Every call to this must be followed by a
+     * call to {@link #release()}.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= threadCount) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * @param itemCount  the number of URIs sent in the call
+     * @param errorCount the number of those URIs that failed
+     * @param serverBusy true if the call failed because the server returned a 503 or timed out
+     */
+    synchronized void callFinished(int itemCount, long errorCount, boolean serverBusy) {
+        long now = nanoClock.getAsLong();
+        if (serverBusy) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+            threadCount = Math.max(minThreadCount, threadCount / 2);
+            direction = 1;
+            previousThroughput = -1;
+            startWindow(now);
+            return;
+        }
+
+        windowDocuments += Math.max(0, itemCount - errorCount);
+        windowCalls++;
+        long elapsed = now - windowStartNanos;
+        if (elapsed < MIN_WINDOW_NANOS || windowCalls < threadCount * MIN_WINDOW_CALLS_PER_THREAD) {
+            return;
+        }
+
+        double throughput = windowDocuments / (elapsed / 1000000000.0);
+        if (throughput > bestThroughput) {
+            bestThroughput = throughput;
+            bestBatchSize = batchSize;
+            bestThreadCount = threadCount;
+        }
+
+        if (previousThroughput >= 0 && throughput < previousThroughput) {
+            // The last change made things worse, so undo it, and measure again before tuning the other setting
+            direction = -direction;
+            adjust();
+            tuningBatchSize = !tuningBatchSize;
+            direction = 1;
+            previousThroughput = -1;
+        } else {
+            previousThroughput = throughput;
+            if (!adjust()) {
+                // At a bound, so try the other setting in the other direction
+                tuningBatchSize = !tuningBatchSize;
+                direction = -direction;
+                adjust();
+            }
+        }
+        startWindow(now);
+    }
+
+    synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return the batch size of the window with the highest throughput so far
+     */
+    synchronized int getBestBatchSize() {
+        return bestBatchSize;
+    }
+
+    /**
+     * @return the thread count of the window with the highest throughput so far
+     */
+    synchronized int getBestThreadCount() {
+        return bestThreadCount;
+    }
+
+    /**
+     * @return true if the exception, or any of its causes, shows that the server is too busy to handle the call
+     */
+    static boolean isServerBusy(Throwable t) {
+        while (t != null) {
+            if (t instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (t instanceof MarkLogicServerException) {
+                MarkLogicServerException ex = (MarkLogicServerException) t;
+                if (ex.getFailedRequest() != null && ex.getFailedRequest().getStatusCode() == 503) {
+                    return true;
+                }
+            }
+            t = t.getCause() != t ? t.getCause() : null;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the setting being tuned is already at the bound in the current direction
+     */
+    private boolean adjust() {
+        if (tuningBatchSize) {
+            int newSize = direction > 0 ?
+                Math.max(batchSize + 1, (int) (batchSize * BATCH_SIZE_FACTOR)) :
+                Math.min(batchSize - 1, (int) (batchSize / BATCH_SIZE_FACTOR));
+            newSize = clamp(newSize, minBatchSize, maxBatchSize);
+            boolean changed = newSize != batchSize;
+            batchSize = newSize;
+            return changed;
+        }
+        int newCount = clamp(threadCount + direction, minThreadCount, maxThreadCount);
+        boolean changed = newCount != threadCount;
+        threadCount = newCount;
+        if (changed) {
+            notifyAll();
+        }
+        return changed;
+    }
+
+    private void startWindow(long now) {
+        windowStartNanos = now;
+        windowDocuments = 0;
+        windowCalls = 0;
+        notifyAll();
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
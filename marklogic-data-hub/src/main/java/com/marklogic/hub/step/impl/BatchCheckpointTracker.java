@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import com.marklogic.hub.step.StepCheckpoint;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link StepCheckpoint} from batches that finish in any order. A QueryBatcher that reads from an Iterator
+ * numbers its batches in the order of the URIs, starting at 1, but runs them concurrently; so a batch only moves the
+ * checkpoint forward once every batch before it has finished, and batches that finish early are held until then.
+ */
+class BatchCheckpointTracker {
+
+    // Failed URIs are sent to the job document with the checkpoint, so only a limited number are kept
+    static final int MAX_FAILED_ITEMS = 100;
+
+    private final StepCheckpoint checkpoint;
+    private final long intervalMillis;
+    private final Map<Long, FinishedBatch> finishedBatches = new HashMap<>();
+
+    private long nextBatchNumber = 1;
+    private long lastSavedMillis;
+    private long lastSavedPosition;
+
+    /**
+     * @param resumeFrom     the checkpoint that the step was resumed from; null if the step is starting from scratch
+     * @param intervalMillis the minimum time between checkpoints returned by {@link #checkpointIfDue()}
+     */
+    BatchCheckpointTracker(StepCheckpoint resumeFrom, long intervalMillis) {
+        this.checkpoint = resumeFrom != null ? new StepCheckpoint(resumeFrom) : new StepCheckpoint();
+        this.intervalMillis = intervalMillis;
+        this.lastSavedMillis = System.currentTimeMillis();
+        this.lastSavedPosition = checkpoint.getPosition();
+    }
+
+    /**
+     * @param batchNumber      the job batch number of the batch, starting at 1
+     * @param uris             the URIs of the batch, in collector order
+     * @param successfulEvents the number of URIs that were processed successfully
+     * @param failedEvents     the number of URIs that failed
+     * @param failedItems      the URIs that failed; may be null
+     */
+    synchronized void batchFinished(long batchNumber, String[] uris, long successfulEvents, long failedEvents, List<String> failedItems) {
+        finishedBatches.put(batchNumber, new FinishedBatch(uris, successfulEvents, failedEvents, failedItems));
+        FinishedBatch batch;
+        while ((batch = finishedBatches.remove(nextBatchNumber)) != null) {
+            nextBatchNumber++;
+            if (batch.uris.length > 0) {
+                checkpoint.setCursor(batch.uris[batch.uris.length - 1]);
+                checkpoint.setPosition(checkpoint.getPosition() + batch.uris.length);
+            }
+            checkpoint.setSuccessfulEvents(checkpoint.getSuccessfulEvents() + batch.successfulEvents);
+            checkpoint.setFailedEvents(checkpoint.getFailedEvents() + batch.failedEvents);
+            if (batch.failedEvents < batch.successfulEvents + batch.failedEvents) {
+                checkpoint.setSuccessfulBatches(checkpoint.getSuccessfulBatches() + 1);
+            } else {
+                checkpoint.setFailedBatches(checkpoint.getFailedBatches() + 1);
+            }
+            if (batch.failedItems != null) {
+                List<String> items = checkpoint.getFailedItems();
+                for (int i = 0; i < batch.failedItems.size() && items.size() < MAX_FAILED_ITEMS; i++) {
+                    items.add(batch.failedItems.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the checkpoint if it has moved forward and the interval has passed since one was last
+     * returned, otherwise null
+     */
+    synchronized StepCheckpoint checkpointIfDue() {
+        long now = System.currentTimeMillis();
+        if (checkpoint.getPosition() == lastSavedPosition || now - lastSavedMillis < intervalMillis) {
+            return null;
+        }
+        lastSavedMillis = now;
+        lastSavedPosition = checkpoint.getPosition();
+        return new StepCheckpoint(checkpoint);
+    }
+
+    /**
+     * @return a copy of the current checkpoint
+     */
+    synchronized StepCheckpoint getCheckpoint() {
+        return new StepCheckpoint(checkpoint);
+    }
+
+    private static class FinishedBatch {
+        private final String[] uris;
+        private final long successfulEvents;
+        private final long failedEvents;
+        private final List<String> failedItems;
+
+        FinishedBatch(String[] uris, long successfulEvents, long failedEvents, List<String> failedItems) {
+            this.uris = uris;
+            this.successfulEvents = successfulEvents;
+            this.failedEvents = failedEvents;
+            this.failedItems = failedItems;
+        }
+    }
+}
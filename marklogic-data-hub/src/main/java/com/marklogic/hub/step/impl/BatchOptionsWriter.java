@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the JSON "options" parameter that is sent with each batch of a step. Every option other than "uris" is the
+ * same for each batch, so those are serialized once when the step starts, and each batch only appends its own URIs.
+ * This avoids copying and re-serializing the whole options map for every batch.
+ */
+public class BatchOptionsWriter {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+    // Average URI length used to size the buffer for a batch; it grows if needed
+    private static final int ESTIMATED_URI_LENGTH = 64;
+
+    private final String optionsPrefix;
+
+    /**
+     * @param options the options for the step; any "uris" entry is ignored, and the map is not modified
+     */
+    public BatchOptionsWriter(Map<String, Object> options) {
+        Map<String, Object> staticOptions = options != null ? new LinkedHashMap<>(options) : new LinkedHashMap<>();
+        staticOptions.remove("uris");
+        String json;
+        try {
+            json = MAPPER.writeValueAsString(staticOptions);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Unable to serialize step options; cause: " + e.getMessage(), e);
+        }
+        // Drop the closing brace so the URIs can be appended as the last property
+        this.optionsPrefix = json.substring(0, json.length() - 1) + (staticOptions.isEmpty() ? "" : ",") + "\"uris\":[";
+    }
+
+    /**
+     * @param uris the URIs of the batch
+     * @return the step options with a "uris" array containing the given URIs, serialized as JSON
+     */
+    public String writeOptions(String[] uris) {
+        StringBuilder json = new StringBuilder(optionsPrefix.length() + uris.length * ESTIMATED_URI_LENGTH);
+        json.append(optionsPrefix);
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        for (int i = 0; i < uris.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"');
+            encoder.quoteAsString(uris[i], json);
+            json.append('"');
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Splits a delimited file, such as a CSV file, into its rows. A large file is parsed on several threads: it is divided
+ * into byte ranges that end on a record boundary, and each range is parsed with the columns of the file's header. A
+ * record boundary is a line break outside of a quoted value, which is found by following the same quoting rules as the
+ * parser, so a value that contains line breaks is never split.
+ *
+ * Byte ranges only work for encodings in which the separator, the quote and line breaks are single bytes that are not
+ * part of other characters, such as UTF-8 and ISO-8859-1. Files that start with a UTF-16 or UTF-32 byte order mark,
+ * and files that only use carriage returns as line breaks, are parsed on a single thread.
+ */
+class DelimitedFileSplitter {
+
+    static final long DEFAULT_RANGE_BYTES = 64L * 1024 * 1024;
+
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+    private static final byte QUOTE = '"';
+    private static final byte LINE_FEED = '\n';
+
+    // States of the record boundary scanner
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    // Readers are immutable and share the schemas cached by the mapper, so one mapper serves every file
+    private static final CsvMapper csvMapper = new CsvMapper();
+
+    private final char separator;
+    private final int threadCount;
+    private final long rangeBytes;
+    private final ObjectReader headerReader;
+    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    /**
+     * @param separator   the column separator
+     * @param threadCount the number of threads that parse the ranges of a large file
+     */
+    DelimitedFileSplitter(char separator, int threadCount) {
+        this(separator, threadCount, DEFAULT_RANGE_BYTES);
+    }
+
+    /**
+     * @param separator   the column separator
+     * @param threadCount the number of threads that parse the ranges of a large file
+     * @param rangeBytes  the least number of bytes in a range; only files of at least two ranges are parsed on more
+     *                    than one thread
+     */
+    DelimitedFileSplitter(char separator, int threadCount, long rangeBytes) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid argument for thread count: " + threadCount + ". It must be at least one");
+        }
+        this.separator = separator;
+        this.threadCount = threadCount;
+        this.rangeBytes = rangeBytes;
+        this.headerReader = csvMapper.readerFor(JsonNode.class)
+            .with(CsvSchema.emptySchema().withHeader().withColumnSeparator(separator));
+    }
+
+    /**
+     * Passes the rows of the file to the consumer in lists of up to batchSize rows, each row as an object with a
+     * property for each column of the header. The lists of a large file are passed from up to threadCount threads at
+     * once, so they aren't passed in the order of the file, and the consumer must be thread-safe.
+     *
+     * @param file          the file to split
+     * @param batchSize     the largest number of rows passed at once
+     * @param stopped       checked before each row; once it returns true, no more rows are passed
+     * @param batchConsumer receives the lists of rows, which it may keep
+     * @throws IOException if the file can't be read or parsed
+     */
+    void split(Path file, int batchSize, BooleanSupplier stopped, Consumer<List<JsonNode>> batchConsumer) throws IOException {
+        final int rowsPerBatch = Math.max(1, batchSize);
+        if (threadCount < 2 || separator > 0x7F || Files.size(file) < 2 * rangeBytes || hasWideByteOrderMark(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                parse(in, headerReader, rowsPerBatch, stopped, batchConsumer);
+            }
+            return;
+        }
+
+        final ObjectReader rangeReader = newRangeReader(file);
+        if (rangeReader == null) {
+            return;
+        }
+        ThreadPoolExecutor parsers = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threadCount),
+            runnable -> {
+                Thread thread = new Thread(runnable, "delimited-file-parser-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            // When every parser is busy, the scanning thread parses the next range itself and stops scanning ahead
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            final byte separatorByte = (byte) separator;
+            int state = FIELD_START;
+            long rangeStart = 0;
+            long position = 0;
+            while (failure.get() == null && !stopped.getAsBoolean()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    position++;
+                    // A quote only starts a quoted value at the start of a field, and "" within one is an escaped quote
+                    switch (state) {
+                        case QUOTED:
+                            if (b == QUOTE) {
+                                state = QUOTE_IN_QUOTED;
+                            }
+                            continue;
+                        case QUOTE_IN_QUOTED:
+                            if (b == QUOTE) {
+                                state = QUOTED;
+                                continue;
+                            }
+                            break;
+                        case FIELD_START:
+                            if (b == QUOTE) {
+                                state = QUOTED;
+                                continue;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    if (b == separatorByte) {
+                        state = FIELD_START;
+                    } else if (b == LINE_FEED) {
+                        state = FIELD_START;
+                        if (position - rangeStart >= rangeBytes) {
+                            submit(parsers, file, rangeStart, position, rangeReader, rowsPerBatch, stopped, batchConsumer, failure);
+                            rangeStart = position;
+                        }
+                    } else {
+                        state = UNQUOTED;
+                    }
+                }
+            }
+            if (position > rangeStart && failure.get() == null && !stopped.getAsBoolean()) {
+                submit(parsers, file, rangeStart, position, rangeReader, rowsPerBatch, stopped, batchConsumer, failure);
+            }
+        } finally {
+            parsers.shutdown();
+            try {
+                parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new InterruptedIOException("Interrupted while parsing " + file));
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Ranges after the first don't start with the header, so they are parsed with the columns read from the header of
+     * the first range.
+     *
+     * @return a reader for the ranges after the first, or null if the file has no columns
+     */
+    private ObjectReader newRangeReader(Path file) throws IOException {
+        CsvSchema columns;
+        try (InputStream in = Files.newInputStream(file);
+             MappingIterator<JsonNode> rows = headerReader.readValues(in)) {
+            rows.hasNextValue();
+            columns = (CsvSchema) rows.getParserSchema();
+        }
+        if (columns == null || columns.size() == 0) {
+            return null;
+        }
+        return csvMapper.readerFor(JsonNode.class).with(columns.withoutHeader());
+    }
+
+    private void submit(ThreadPoolExecutor parsers, Path file, long start, long end, ObjectReader rangeReader,
+                        int batchSize, BooleanSupplier stopped, Consumer<List<JsonNode>> batchConsumer,
+                        AtomicReference<Exception> failure) {
+        final ObjectReader reader = start == 0 ? headerReader : rangeReader;
+        parsers.execute(() -> {
+            if (failure.get() != null) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.position(start);
+                parse(new BoundedInputStream(Channels.newInputStream(channel), end - start), reader, batchSize, stopped, batchConsumer);
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+    }
+
+    private void parse(InputStream in, ObjectReader reader, int batchSize, BooleanSupplier stopped,
+                       Consumer<List<JsonNode>> batchConsumer) throws IOException {
+        try (MappingIterator<JsonNode> rows = reader.readValues(in)) {
+            List<JsonNode> batch = new ArrayList<>(batchSize);
+            while (!stopped.getAsBoolean() && rows.hasNextValue()) {
+                batch.add(rows.nextValue());
+                if (batch.size() == batchSize) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && !stopped.getAsBoolean()) {
+                batchConsumer.accept(batch);
+            }
+        }
+    }
+
+    private static boolean hasWideByteOrderMark(Path file) throws IOException {
+        byte[] start = new byte[2];
+        try (InputStream in = Files.newInputStream(file)) {
+            if (in.read(start) < 2) {
+                return false;
+            }
+        }
+        // FE FF is UTF-16BE, FF FE is UTF-16LE or UTF-32LE, and UTF-32BE starts with 00 00
+        return (start[0] == (byte) 0xFE && start[1] == (byte) 0xFF)
+            || (start[0] == (byte) 0xFF && start[1] == (byte) 0xFE)
+            || (start[0] == 0 && start[1] == 0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads a file that is only opened when it is first read, and that is closed as soon as its end is reached. A document
+ * can then wait in a WriteBatcher batch without holding a file descriptor. While the file is open, it holds a permit of
+ * the given semaphore, which limits the number of files that are open at once.
+ */
+class LazyFileInputStream extends InputStream {
+
+    private final Path path;
+    private final Semaphore openFilePermits;
+    private InputStream stream;
+    private boolean closed;
+
+    /**
+     * @param path            the file to read
+     * @param openFilePermits acquired when the file is opened, and released when it is closed; may be null
+     */
+    LazyFileInputStream(Path path, Semaphore openFilePermits) {
+        this.path = path;
+        this.openFilePermits = openFilePermits;
+    }
+
+    @Override
+    public int read() throws IOException {
+        InputStream in = open();
+        int b = in != null ? in.read() : -1;
+        if (b == -1) {
+            close();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        InputStream in = open();
+        int count = in != null ? in.read(b, off, len) : -1;
+        if (count == -1) {
+            close();
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (stream != null) {
+            try {
+                stream.close();
+            } finally {
+                if (openFilePermits != null) {
+                    openFilePermits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the opened file, or null if it has already been read to the end or closed
+     */
+    private synchronized InputStream open() throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (stream == null) {
+            if (openFilePermits != null) {
+                try {
+                    openFilePermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to open " + path);
+                }
+            }
+            try {
+                // Backed by a FileChannel, and unlike FileInputStream, it doesn't need to be finalized
+                stream = Files.newInputStream(path);
+            } catch (IOException | RuntimeException e) {
+                if (openFilePermits != null) {
+                    openFilePermits.release();
+                }
+                throw e;
+            }
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the progress of a running step from a single scheduled thread. The batch threads then only update
+ * {@link StepMetrics}, and never wait on status listeners such as the one that pushes progress to QuickStart. As the
+ * publisher only ever runs on this thread, it doesn't need to synchronize the state it keeps between runs.
+ */
+class ProgressTicker {
+
+    static final long DEFAULT_PERIOD_MILLIS = 500;
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressTicker.class);
+
+    private final String threadName;
+    private final long periodMillis;
+    private final Runnable publisher;
+    private ScheduledExecutorService executor;
+
+    ProgressTicker(String threadName, Runnable publisher) {
+        this(threadName, DEFAULT_PERIOD_MILLIS, publisher);
+    }
+
+    ProgressTicker(String threadName, long periodMillis, Runnable publisher) {
+        this.threadName = threadName;
+        this.periodMillis = periodMillis;
+        this.publisher = publisher;
+    }
+
+    synchronized ProgressTicker start() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::publish, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stops publishing, and waits for a publish that is in progress, so that progress is never reported after the
+     * final status of the step.
+     */
+    synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(periodMillis * 10, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    private void publish() {
+        try {
+            publisher.run();
+        } catch (Exception e) {
+            // An exception would cancel the schedule, so a failing listener is only logged
+            logger.warn("Unable to publish step progress; cause: " + e.getMessage(), e);
+        }
+    }
+}
@@ -15,30 +15,32 @@
  */
 package com.marklogic.hub.step.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.datamovement.*;
 import com.marklogic.client.extensions.ResourceManager;
 import com.marklogic.client.extensions.ResourceServices;
 import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.StringHandle;
 import com.marklogic.client.util.RequestParameters;
 import com.marklogic.hub.DatabaseKind;
 import com.marklogic.hub.HubConfig;
 import com.marklogic.hub.collector.Collector;
 import com.marklogic.hub.collector.DiskQueue;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.collector.impl.CollectorImpl;
 import com.marklogic.hub.error.DataHubConfigurationException;
 import com.marklogic.hub.flow.Flow;
 import com.marklogic.hub.job.JobDocManager;
 import com.marklogic.hub.job.JobStatus;
 import com.marklogic.hub.step.*;
-import com.marklogic.hub.util.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.*;
@@ -46,11 +48,16 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 public class QueryStepRunner implements StepRunner {
 
     private static final int MAX_ERROR_MESSAGES = 10;
+    // Thread-safe, so one reader is shared by every batch of every step
+    private static final ObjectReader RESPONSE_READER = new ObjectMapper().readerFor(ResponseHolder.class);
+    // Lower bound on the number of URIs buffered between a streaming collector and the QueryBatcher
+    private static final int MIN_STREAMING_BUFFER_SIZE = 5000;
+    // Default number of seconds between checkpoints saved to the job document while the step runs
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 30;
     private Flow flow;
     private int batchSize;
     private int threadCount;
@@ -58,6 +65,8 @@ public class QueryStepRunner implements StepRunner {
     private String destinationDatabase;
     private Map<String, Object> options;
     private int previousPercentComplete;
+    // The batch size of the QueryBatcher, which differs from batchSize when adaptive batching is enabled
+    private int batcherBatchSize;
     private boolean stopOnFailure = false;
     private String jobId;
     private boolean isFullOutput = false;
@@ -77,6 +86,20 @@ public class QueryStepRunner implements StepRunner {
     private JobDocManager jobDocManager;
     private AtomicBoolean isStopped = new AtomicBoolean(false) ;
     private StepDefinition stepDef;
+    private boolean streamCollector = false;
+    private StreamingUriQueue uriQueue = null;
+    private boolean disableJobOutput = false;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private StepCheckpoint resumeCheckpoint = null;
+    // Set when the URIs come from this step's collector; checkpoints don't apply to URIs passed in by the caller
+    private boolean collectorRun = false;
+    // When enabled, the batch size and thread count are tuned within these bounds while the step runs; a bound of 0
+    // is derived from the configured batch size or thread count
+    private boolean adaptiveBatching = false;
+    private int minBatchSize = 0;
+    private int maxBatchSize = 0;
+    private int minThreadCount = 0;
+    private int maxThreadCount = 0;
 
     public QueryStepRunner(HubConfig hubConfig) {
         this.hubConfig = hubConfig;
@@ -128,6 +151,18 @@ public class QueryStepRunner implements StepRunner {
         return this;
     }
 
+    @Override
+    public StepRunner withCheckpoint(StepCheckpoint checkpoint) {
+        this.resumeCheckpoint = checkpoint;
+        return this;
+    }
+
+    @Override
+    public StepRunner withJobDocManager(JobDocManager jobDocManager) {
+        this.jobDocManager = jobDocManager;
+        return this;
+    }
+
     @Override
     public StepRunner withStopOnFailure(boolean stopOnFailure) {
         this.stopOnFailure = stopOnFailure;
@@ -218,7 +253,51 @@ public class QueryStepRunner implements StepRunner {
 
     @Override
     public RunStepResponse run() {
-        boolean disableJobOutput = false;
+        collectorRun = true;
+        RunStepResponse runStepResponse = initializeRun();
+
+        if (streamCollector) {
+            StreamingUriQueue queue = runStreamingCollector();
+            // Blocks until the collector has returned its first URI, or has finished without returning any
+            if (queue != null && !queue.iterator().hasNext() && queue.getFailure() != null) {
+                return collectorFailed(runStepResponse, queue.getFailure());
+            }
+            return this.runHarmonizer(runStepResponse, queue);
+        }
+
+        Collection<String> uris = null;
+        try {
+            uris = runCollector();
+        } catch (Exception e) {
+            return collectorFailed(runStepResponse, e);
+        }
+        return this.runHarmonizer(runStepResponse,uris);
+    }
+
+    /**
+     * Runs the step against URIs that are read from the given queue while another producer - typically the previous
+     * step of a pipelined flow - is still adding to it. This bypasses the collector, but only the URIs that also
+     * match the source query of this step, in its source database, are processed.
+     *
+     * @param uris the queue to read URIs from; it is closed if this step is stopped
+     * @return RunStepResponse object for the step that is run
+     */
+    public RunStepResponse run(StreamingUriQueue uris) {
+        collectorRun = false;
+        RunStepResponse runStepResponse = initializeRun();
+        options.put("filterUrisBySourceQuery", true);
+        this.uriQueue = uris;
+        if (isStopped.get()) {
+            uris.close();
+        }
+        return this.runHarmonizer(runStepResponse, uris);
+    }
+
+    /**
+     * Applies the step config and options, and creates the job document unless job output is disabled.
+     */
+    private RunStepResponse initializeRun() {
+        disableJobOutput = false;
         if (options != null && options.containsKey("disableJobOutput")) {
             disableJobOutput = Boolean.parseBoolean(options.get("disableJobOutput").toString());
         }
@@ -232,7 +311,30 @@ public class QueryStepRunner implements StepRunner {
         if(stepConfig.get("stopOnFailure") != null){
             this.withStopOnFailure(Boolean.parseBoolean(stepConfig.get("stopOnFailure").toString()));
         }
+        if(stepConfig.get("streamCollector") != null){
+            this.streamCollector = Boolean.parseBoolean(stepConfig.get("streamCollector").toString());
+        }
+        if(stepConfig.get("checkpointInterval") != null){
+            this.checkpointInterval = Integer.parseInt(stepConfig.get("checkpointInterval").toString());
+        }
+        if(stepConfig.get("adaptiveBatching") != null){
+            this.adaptiveBatching = Boolean.parseBoolean(stepConfig.get("adaptiveBatching").toString());
+        }
+        if(stepConfig.get("minBatchSize") != null){
+            this.minBatchSize = Integer.parseInt(stepConfig.get("minBatchSize").toString());
+        }
+        if(stepConfig.get("maxBatchSize") != null){
+            this.maxBatchSize = Integer.parseInt(stepConfig.get("maxBatchSize").toString());
+        }
+        if(stepConfig.get("minThreadCount") != null){
+            this.minThreadCount = Integer.parseInt(stepConfig.get("minThreadCount").toString());
+        }
+        if(stepConfig.get("maxThreadCount") != null){
+            this.maxThreadCount = Integer.parseInt(stepConfig.get("maxThreadCount").toString());
+        }
         RunStepResponse runStepResponse = StepRunnerUtil.createStepResponse(flow, step, jobId);
+        // Keeps the checkpoint in the job document until this run saves a newer one
+        runStepResponse.setCheckpoint(getResumeCheckpoint());
         if (options == null) {
             options = new HashMap<>();
         } else {
@@ -253,39 +355,41 @@ public class QueryStepRunner implements StepRunner {
         // Needed to support constrainSourceQueryToJob
         options.put("jobId", jobId);
 
-        Collection<String> uris = null;
         //If current step is the first run step job output isn't disabled, a job doc is created
         if (!disableJobOutput) {
-            jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+            if (jobDocManager == null) {
+                jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+            }
             StepRunnerUtil.initializeStepRun(jobDocManager, runStepResponse, flow, step, jobId);
         } else {
             jobDocManager = null;
         }
+        return runStepResponse;
+    }
 
-        try {
-            uris = runCollector();
-        } catch (Exception e) {
-            runStepResponse.setCounts(0,0, 0, 0, 0)
-                .withStatus(JobStatus.FAILED_PREFIX + step);
-            StringWriter errors = new StringWriter();
-            e.printStackTrace(new PrintWriter(errors));
-            runStepResponse.withStepOutput(errors.toString());
-            if (!disableJobOutput) {
-                JsonNode jobDoc = null;
-                jobDoc = jobDocManager.postJobs(jobId, JobStatus.FAILED_PREFIX + step, step, null, runStepResponse);
-                try {
-                    return StepRunnerUtil.getResponse(jobDoc, step);
-                } catch (Exception ignored) {
-                }
+    private RunStepResponse collectorFailed(RunStepResponse runStepResponse, Throwable e) {
+        runStepResponse.setCounts(0,0, 0, 0, 0)
+            .withStatus(JobStatus.FAILED_PREFIX + step);
+        StringWriter errors = new StringWriter();
+        e.printStackTrace(new PrintWriter(errors));
+        runStepResponse.withStepOutput(errors.toString());
+        if (!disableJobOutput) {
+            JsonNode jobDoc = null;
+            jobDoc = jobDocManager.postJobs(jobId, JobStatus.FAILED_PREFIX + step, step, null, runStepResponse);
+            try {
+                return StepRunnerUtil.getResponse(jobDoc, step);
+            } catch (Exception ignored) {
             }
-            return runStepResponse;
         }
-        return this.runHarmonizer(runStepResponse,uris);
+        return runStepResponse;
     }
 
     @Override
     public void stop() {
         isStopped.set(true);
+        if(uriQueue != null) {
+            uriQueue.close();
+        }
         if(queryBatcher != null) {
             dataMovementManager.stopJob(queryBatcher);
         }
@@ -293,6 +397,7 @@ public class QueryStepRunner implements StepRunner {
 
     @Override
     public RunStepResponse run(Collection uris) {
+        collectorRun = false;
         runningThread = null;
         RunStepResponse runStepResponse = StepRunnerUtil.createStepResponse(flow, step, jobId);
         try {
@@ -309,8 +414,29 @@ public class QueryStepRunner implements StepRunner {
         return this.batchSize;
     }
 
+    @Override
+    public int getThreadCount(){
+        return this.threadCount;
+    }
+
+    /**
+     * @return the checkpoint that this run resumes from, or null if it processes every URI
+     */
+    private StepCheckpoint getResumeCheckpoint() {
+        return collectorRun && resumeCheckpoint != null && resumeCheckpoint.getCursor() != null ? resumeCheckpoint : null;
+    }
+
+    private CollectorImpl newCollector() {
+        CollectorImpl c = new CollectorImpl(hubConfig, stagingClient);
+        StepCheckpoint checkpoint = getResumeCheckpoint();
+        if (checkpoint != null) {
+            c.withResumePoint(checkpoint.getCursor(), checkpoint.getPosition());
+        }
+        return c;
+    }
+
     private Collection<String> runCollector() {
-        Collector c = new CollectorImpl(hubConfig, stagingClient);
+        Collector c = newCollector();
 
         stepStatusListeners.forEach((StepStatusListener listener) -> {
             listener.onStatusChange(this.jobId, 0, JobStatus.RUNNING_PREFIX + step, 0, 0,  "running collector");
@@ -331,14 +457,167 @@ public class QueryStepRunner implements StepRunner {
         return uris;
     }
 
+    /**
+     * Starts the collector on its own thread, writing to a bounded queue that the QueryBatcher reads from while the
+     * collector is still running.
+     *
+     * @return the queue, or null if the step has already been stopped
+     */
+    private StreamingUriQueue runStreamingCollector() {
+        stepStatusListeners.forEach((StepStatusListener listener) -> {
+            listener.onStatusChange(this.jobId, 0, JobStatus.RUNNING_PREFIX + step, 0, 0,  "running collector");
+        });
+
+        if (isStopped.get()) {
+            return null;
+        }
+
+        final StreamingUriQueue queue = new StreamingUriQueue(Math.max(batchSize * threadCount * 10, MIN_STREAMING_BUFFER_SIZE));
+        final CollectorImpl c = newCollector();
+        final String flowName = this.flow.getName();
+        Thread collectorThread = new Thread(() -> {
+            try {
+                c.run(flowName, step, options, queue);
+            } catch (Exception e) {
+                logger.error("Collector failed for step " + step + " in flow " + flowName + "; cause: " + e.getMessage(), e);
+            }
+        }, "collector-" + jobId + "-" + step);
+        collectorThread.setDaemon(true);
+        this.uriQueue = queue;
+        collectorThread.start();
+        return queue;
+    }
+
+    private RunStepResponse runHarmonizer(RunStepResponse runStepResponse, StreamingUriQueue queue) {
+        if (queue == null) {
+            return runHarmonizer(runStepResponse, Collections.emptyIterator(), 0, null);
+        }
+        return runHarmonizer(runStepResponse, queue.iterator(), 0, queue);
+    }
+
     private RunStepResponse runHarmonizer(RunStepResponse runStepResponse, Collection uris) {
-        StepMetrics stepMetrics = new StepMetrics();
+        if (uris == null) {
+            return runHarmonizer(runStepResponse, Collections.emptyIterator(), 0, null);
+        }
+        return runHarmonizer(runStepResponse, uris.iterator(), uris.size(), null);
+    }
+
+    /**
+     * @return the number of URIs to base the percent complete on. When streaming, this is the server-side estimate
+     * until the collector has finished.
+     */
+    private static long getExpectedUriCount(long uriCount, StreamingUriQueue queue) {
+        if (queue == null) {
+            return uriCount;
+        }
+        if (queue.isCompleted()) {
+            return queue.getAddedCount();
+        }
+        return Math.max(queue.getEstimatedCount(), queue.getAddedCount());
+    }
+
+    /**
+     * Called by the ProgressTicker, which already limits how often listeners are notified, so every change in the
+     * percent complete is published.
+     */
+    private void publishProgress(String jobId, StepMetrics stepMetrics, long uriCount, StreamingUriQueue queue) {
+        double batchCount = Math.ceil((double) getExpectedUriCount(uriCount, queue) / (double) batcherBatchSize);
+        if (batchCount <= 0) {
+            return;
+        }
+        int percentComplete = (int) (((double) stepMetrics.getSuccessfulBatchesCount() / batchCount) * 100.0);
+        if (queue != null && !queue.isCompleted()) {
+            // An estimate can be too low; only report 100 once every URI has been collected
+            percentComplete = Math.min(percentComplete, 99);
+        }
+
+        if (percentComplete != previousPercentComplete) {
+            previousPercentComplete = percentComplete;
+            final int currentPercentComplete = percentComplete;
+            stepStatusListeners.forEach((StepStatusListener listener) -> {
+                listener.onStatusChange(jobId, currentPercentComplete, JobStatus.RUNNING_PREFIX + step, stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), "");
+            });
+        }
+    }
+
+    private int getMaxBatchSize() {
+        return maxBatchSize > 0 ? maxBatchSize : batchSize * 10;
+    }
+
+    private int getMaxThreadCount() {
+        return maxThreadCount > 0 ? maxThreadCount : threadCount * 4;
+    }
+
+    /**
+     * Starts from the configured batch size and thread count; by default, the batch size can range from a tenth to ten
+     * times that, and the thread count from 1 to four times that.
+     */
+    private AdaptiveBatchController newAdaptiveBatchController() {
+        int min = minBatchSize > 0 ? minBatchSize : Math.max(1, batchSize / 10);
+        return new AdaptiveBatchController(batchSize, threadCount, min, Math.max(min, getMaxBatchSize()),
+            minThreadCount > 0 ? minThreadCount : 1, Math.max(1, getMaxThreadCount()));
+    }
+
+    /**
+     * Splits a batch into calls of the batch size chosen by the controller, and combines their responses. A call that
+     * fails counts each of its URIs as failed, and the rest of the batch is still processed.
+     */
+    private ResponseHolder runAdaptively(FlowResource flowResource, String jobId, String[] uris, BatchOptionsWriter batchOptionsWriter,
+                                         AdaptiveBatchController controller, StepMetrics stepMetrics) throws InterruptedException {
+        ResponseHolder combined = new ResponseHolder();
+        combined.jobId = jobId;
+        combined.completedItems = new ArrayList<>();
+        combined.failedItems = new ArrayList<>();
+        combined.errors = new ArrayList<>();
+        combined.documents = new ArrayList<>();
+        int start = 0;
+        while (start < uris.length) {
+            String[] callUris = Arrays.copyOfRange(uris, start, Math.min(uris.length, start + controller.getBatchSize()));
+            start += callUris.length;
+            controller.acquire();
+            try {
+                ResponseHolder response = flowResource.run(jobId, step, batchOptionsWriter.writeOptions(callUris));
+                controller.callFinished(callUris.length, response.errorCount, false);
+                combined.totalCount += response.totalCount;
+                combined.errorCount += response.errorCount;
+                if (response.completedItems != null) {
+                    combined.completedItems.addAll(response.completedItems);
+                }
+                if (response.failedItems != null) {
+                    combined.failedItems.addAll(response.failedItems);
+                }
+                if (response.errors != null) {
+                    combined.errors.addAll(response.errors);
+                }
+                if (response.documents != null) {
+                    combined.documents.addAll(response.documents);
+                }
+            } catch (RuntimeException e) {
+                controller.callFinished(callUris.length, callUris.length, AdaptiveBatchController.isServerBusy(e));
+                stepMetrics.addErrorMessage(e.toString());
+                combined.totalCount += callUris.length;
+                combined.errorCount += callUris.length;
+                combined.failedItems.addAll(Arrays.asList(callUris));
+            } finally {
+                controller.release();
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * @param uriIterator the URIs to process
+     * @param uriCount the number of URIs when they were collected up front
+     * @param queue the queue that the URIs are streamed from; null when the URIs were collected up front
+     */
+    private RunStepResponse runHarmonizer(RunStepResponse runStepResponse, Iterator<String> uriIterator, long uriCount, StreamingUriQueue queue) {
+        StepMetrics stepMetrics = new StepMetrics(MAX_ERROR_MESSAGES);
 
         stepStatusListeners.forEach((StepStatusListener listener) -> {
             listener.onStatusChange(runStepResponse.getJobId(), 0, JobStatus.RUNNING_PREFIX + step, 0,0, "starting step execution");
         });
 
-        if (uris == null || uris.size() == 0) {
+        if (!uriIterator.hasNext()) {
             JsonNode jobDoc = null;
             final String stepStatus;
             if(isStopped.get()) {
@@ -353,8 +632,18 @@ public class QueryStepRunner implements StepRunner {
                     (stepStatus.contains(JobStatus.COMPLETED_PREFIX) ? "collector returned 0 items" : "job was stopped"));
             });
             stepFinishedListeners.forEach((StepFinishedListener::onStepFinished));
-            runStepResponse.setCounts(0,0,0,0,0);
+            final StepCheckpoint resumedFrom = getResumeCheckpoint();
+            if (resumedFrom != null) {
+                // Everything was processed before the step was resumed
+                runStepResponse.setCounts(resumedFrom.getPosition(), resumedFrom.getSuccessfulEvents(), resumedFrom.getFailedEvents(),
+                    resumedFrom.getSuccessfulBatches(), resumedFrom.getFailedBatches());
+            } else {
+                runStepResponse.setCounts(0,0,0,0,0);
+            }
             runStepResponse.withStatus(stepStatus);
+            if (stepStatus.contains(JobStatus.COMPLETED_PREFIX)) {
+                runStepResponse.setCheckpoint(null);
+            }
 
             try {
                 jobDoc = jobDocManager.postJobs(jobId, stepStatus, step, stepStatus.contains(JobStatus.COMPLETED_PREFIX) ? step : null, runStepResponse);
@@ -371,40 +660,35 @@ public class QueryStepRunner implements StepRunner {
             }
         }
 
-        Vector<String> errorMessages = new Vector<>();
-
         dataMovementManager = stagingClient.newDataMovementManager();
 
-        double batchCount = Math.ceil((double) uris.size() / (double) batchSize);
-
         HashMap<String, JobTicket> ticketWrapper = new HashMap<>();
 
         ConcurrentHashMap<DatabaseClient, FlowResource> databaseClientMap = new ConcurrentHashMap<>();
-        Map<String,Object> fullResponse = new HashMap<>();
-        ObjectMapper mapper = new ObjectMapper();
-        queryBatcher = dataMovementManager.newQueryBatcher(uris.iterator())
-            .withBatchSize(batchSize)
-            .withThreadCount(threadCount)
+        Map<String,Object> fullResponse = new ConcurrentHashMap<>();
+        final BatchOptionsWriter batchOptionsWriter = new BatchOptionsWriter(options);
+        final StepCheckpoint resumedFrom = getResumeCheckpoint();
+        final BatchCheckpointTracker checkpointTracker = collectorRun && !disableJobOutput && checkpointInterval > 0 ?
+            new BatchCheckpointTracker(resumedFrom, checkpointInterval * 1000L) : null;
+        final AdaptiveBatchController adaptiveController = adaptiveBatching ? newAdaptiveBatchController() : null;
+        // An adaptive step splits each batch into calls of the size chosen by the controller, so the batcher uses the upper bounds
+        batcherBatchSize = adaptiveController != null ? getMaxBatchSize() : batchSize;
+        queryBatcher = dataMovementManager.newQueryBatcher(uriIterator)
+            .withBatchSize(batcherBatchSize)
+            .withThreadCount(adaptiveController != null ? getMaxThreadCount() : threadCount)
             .withJobId(runStepResponse.getJobId())
             .onUrisReady((QueryBatch batch) -> {
                 try {
-                    FlowResource flowResource;
-                    Map<String,Object> optsMap = new HashMap<>(options);
-                    if (databaseClientMap.containsKey(batch.getClient())) {
-                        flowResource = databaseClientMap.get(batch.getClient());
-                    } else {
-                        flowResource = new FlowResource(batch.getClient(), destinationDatabase, flow);
-                        databaseClientMap.put(batch.getClient(), flowResource);
-                    }
-                    optsMap.put("uris", batch.getItems());
-
-                    ResponseHolder response = flowResource.run(runStepResponse.getJobId(), step, optsMap);
-                    stepMetrics.getFailedEvents().addAndGet(response.errorCount);
-                    stepMetrics.getSuccessfulEvents().addAndGet(response.totalCount - response.errorCount);
+                    FlowResource flowResource = databaseClientMap.computeIfAbsent(batch.getClient(),
+                        client -> new FlowResource(client, destinationDatabase, flow));
+
+                    ResponseHolder response = adaptiveController != null ?
+                        runAdaptively(flowResource, runStepResponse.getJobId(), batch.getItems(), batchOptionsWriter, adaptiveController, stepMetrics) :
+                        flowResource.run(runStepResponse.getJobId(), step, batchOptionsWriter.writeOptions(batch.getItems()));
+                    stepMetrics.addFailedEvents(response.errorCount);
+                    stepMetrics.addSuccessfulEvents(response.totalCount - response.errorCount);
                     if (response.errors != null) {
-                        if (errorMessages.size() < MAX_ERROR_MESSAGES) {
-                            errorMessages.addAll(response.errors.stream().map(jsonNode -> StepRunnerUtil.jsonToString(jsonNode)).collect(Collectors.toList()));
-                        }
+                        response.errors.forEach(jsonNode -> stepMetrics.addErrorMessage(StepRunnerUtil.jsonToString(jsonNode)));
                     }
 
                     if (isFullOutput && response.documents != null) {
@@ -424,18 +708,14 @@ public class QueryStepRunner implements StepRunner {
                     }
 
                     if (response.errorCount < response.totalCount) {
-                        stepMetrics.getSuccessfulBatches().addAndGet(1);
+                        stepMetrics.incrementSuccessfulBatches();
                     } else {
-                        stepMetrics.getFailedBatches().addAndGet(1);
+                        stepMetrics.incrementFailedBatches();
                     }
-
-                    int percentComplete = (int) (((double) stepMetrics.getSuccessfulBatchesCount() / batchCount) * 100.0);
-
-                    if (percentComplete != previousPercentComplete && (percentComplete % 5 == 0)) {
-                        previousPercentComplete = percentComplete;
-                        stepStatusListeners.forEach((StepStatusListener listener) -> {
-                            listener.onStatusChange(runStepResponse.getJobId(), percentComplete, JobStatus.RUNNING_PREFIX + step, stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), "");
-                        });
+                    if (checkpointTracker != null) {
+                        checkpointTracker.batchFinished(batch.getJobBatchNumber(), batch.getItems(),
+                            response.totalCount - response.errorCount, response.errorCount, response.failedItems);
+                        saveCheckpointIfDue(checkpointTracker);
                     }
 
                     if (stepItemCompleteListeners.size() > 0) {
@@ -461,50 +741,85 @@ public class QueryStepRunner implements StepRunner {
                         }
                     }
                 } catch (Exception e) {
-                    if (errorMessages.size() < MAX_ERROR_MESSAGES) {
-                        errorMessages.add(e.toString());
-                    }
+                    stepMetrics.addErrorMessage(e.toString());
                     // if exception is thrown update the failed related metrics
-                    stepMetrics.getFailedBatches().addAndGet(1);
-                    stepMetrics.getFailedEvents().addAndGet(batchSize);
+                    stepMetrics.incrementFailedBatches();
+                    stepMetrics.addFailedEvents(batch.getItems().length);
+                    if (checkpointTracker != null) {
+                        checkpointTracker.batchFinished(batch.getJobBatchNumber(), batch.getItems(), 0, batch.getItems().length, Arrays.asList(batch.getItems()));
+                        saveCheckpointIfDue(checkpointTracker);
+                    }
                 }
             })
             .onQueryFailure((QueryBatchException failure) -> {
-                stepMetrics.getFailedBatches().addAndGet(1);
-                stepMetrics.getFailedEvents().addAndGet(batchSize);
+                stepMetrics.incrementFailedBatches();
+                stepMetrics.addFailedEvents(batcherBatchSize);
             });
 
+        // Batch threads only update the metrics; progress is published from a single thread at a fixed rate
+        previousPercentComplete = 0;
+        final ProgressTicker progressTicker = new ProgressTicker("step-progress-" + jobId + "-" + step,
+            () -> publishProgress(runStepResponse.getJobId(), stepMetrics, uriCount, queue));
+
         if(! isStopped.get()) {
             JobTicket jobTicket = dataMovementManager.startJob(queryBatcher);
             ticketWrapper.put("jobTicket", jobTicket);
+            progressTicker.start();
         }
 
         runningThread = new Thread(() -> {
             queryBatcher.awaitCompletion();
+            progressTicker.stop();
+
+            // A streaming collector can fail after the QueryBatcher has already started processing URIs
+            final boolean collectorFailed = queue != null && queue.getFailure() != null;
+            final List<String> errorMessages = new ArrayList<>();
+            if (collectorFailed) {
+                errorMessages.add("Collector failed before returning every URI; cause: " + queue.getFailure().getMessage());
+            }
+            errorMessages.addAll(stepMetrics.getErrorMessages());
+
+            // When the step was resumed, its totals include the URIs that were processed before it was resumed
+            final long totalEvents = (queue != null ? queue.getAddedCount() : uriCount) + (resumedFrom != null ? resumedFrom.getPosition() : 0);
+            final long successfulEvents = stepMetrics.getSuccessfulEventsCount() + (resumedFrom != null ? resumedFrom.getSuccessfulEvents() : 0);
+            final long failedEvents = stepMetrics.getFailedEventsCount() + (resumedFrom != null ? resumedFrom.getFailedEvents() : 0);
+            final long successfulBatches = stepMetrics.getSuccessfulBatchesCount() + (resumedFrom != null ? resumedFrom.getSuccessfulBatches() : 0);
+            final long failedBatches = stepMetrics.getFailedBatchesCount() + (resumedFrom != null ? resumedFrom.getFailedBatches() : 0);
 
             String stepStatus;
             if (stepMetrics.getFailedEventsCount() > 0 && stopOnFailure) {
                 stepStatus = JobStatus.STOP_ON_ERROR_PREFIX + step;
             } else if( isStopped.get()){
                 stepStatus = JobStatus.CANCELED_PREFIX + step;
-            } else if (stepMetrics.getFailedEventsCount() > 0 && stepMetrics.getSuccessfulEventsCount() > 0) {
+            } else if ((failedEvents > 0 || collectorFailed) && successfulEvents > 0) {
                 stepStatus = JobStatus.COMPLETED_WITH_ERRORS_PREFIX + step;
-            } else if (stepMetrics.getFailedEventsCount() == 0 && stepMetrics.getSuccessfulEventsCount() > 0)  {
+            } else if (failedEvents == 0 && successfulEvents > 0)  {
                 stepStatus = JobStatus.COMPLETED_PREFIX + step;
             } else {
                 stepStatus = JobStatus.FAILED_PREFIX + step;
             }
 
             stepStatusListeners.forEach((StepStatusListener listener) -> {
-                listener.onStatusChange(runStepResponse.getJobId(), 100, stepStatus, stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), "");
+                listener.onStatusChange(runStepResponse.getJobId(), 100, stepStatus, successfulEvents, failedEvents, "");
             });
 
             stepFinishedListeners.forEach((StepFinishedListener::onStepFinished));
 
             dataMovementManager.stopJob(queryBatcher);
 
-            runStepResponse.setCounts(uris.size(),stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), stepMetrics.getSuccessfulBatchesCount(), stepMetrics.getFailedBatchesCount());
+            runStepResponse.setCounts(totalEvents, successfulEvents, failedEvents, successfulBatches, failedBatches);
             runStepResponse.withStatus(stepStatus);
+            if (adaptiveController != null) {
+                runStepResponse.setBatchSize(adaptiveController.getBestBatchSize());
+                runStepResponse.setThreadCount(adaptiveController.getBestThreadCount());
+                logger.info(String.format("Adaptive batching for step %s chose a batch size of %d and a thread count of %d",
+                    step, adaptiveController.getBestBatchSize(), adaptiveController.getBestThreadCount()));
+            }
+            if (stepStatus.startsWith(JobStatus.COMPLETED_PREFIX)) {
+                runStepResponse.setCheckpoint(null);
+            } else if (checkpointTracker != null) {
+                runStepResponse.setCheckpoint(checkpointTracker.getCheckpoint());
+            }
             if (errorMessages.size() > 0) {
                 runStepResponse.withStepOutput(errorMessages);
             }
@@ -535,6 +850,21 @@ public class QueryStepRunner implements StepRunner {
         return runStepResponse;
     }
 
+    /**
+     * Queues a checkpoint to be saved to the job document if one is due. A failure to save is only logged, as the step
+     * itself is not affected; the step just can't be resumed from that point.
+     */
+    private void saveCheckpointIfDue(BatchCheckpointTracker checkpointTracker) {
+        StepCheckpoint checkpoint = checkpointTracker.checkpointIfDue();
+        if (checkpoint != null) {
+            try {
+                jobDocManager.postCheckpointAsync(jobId, step, checkpoint);
+            } catch (Exception e) {
+                logger.warn("Unable to save checkpoint for step " + step + " of job " + jobId + "; cause: " + e.getMessage());
+            }
+        }
+    }
+
     class FlowResource extends ResourceManager {
 
         private DatabaseClient srcClient;
@@ -550,7 +880,10 @@ public class QueryStepRunner implements StepRunner {
         }
 
 
-        public ResponseHolder run(String jobId, String step, Map<String, Object> options) {
+        /**
+         * @param options the step options for this batch, already serialized as JSON
+         */
+        public ResponseHolder run(String jobId, String step, String options) {
             ResponseHolder resp;
 
                 RequestParameters params = new RequestParameters();
@@ -559,11 +892,7 @@ public class QueryStepRunner implements StepRunner {
                 params.put("job-id", jobId);
                 params.put("target-database", targetDatabase);
                 if (options != null) {
-                    try {
-                        params.put("options", JSONObject.writeValueAsString(options));
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException(e);
-                    }
+                    params.put("options", options);
                 }
                 ResourceServices.ServiceResultIterator resultItr = this.getServices().post(params, new StringHandle("{}").withFormat(Format.JSON));
                 try {
@@ -571,9 +900,9 @@ public class QueryStepRunner implements StepRunner {
                         resp = new ResponseHolder();
                     } else {
                         ResourceServices.ServiceResult res = resultItr.next();
-                        StringHandle handle = new StringHandle();
-                        ObjectMapper objectMapper = new ObjectMapper();
-                        resp = objectMapper.readValue(res.getContent(handle).get(), ResponseHolder.class);
+                        try (InputStream content = res.getContent(new InputStreamHandle()).get()) {
+                            resp = RESPONSE_READER.readValue(content);
+                        }
                     }
                 } catch (Exception e) {
                     throw new RuntimeException(e);
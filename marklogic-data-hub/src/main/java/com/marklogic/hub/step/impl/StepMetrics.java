@@ -15,44 +15,111 @@
  */
 package com.marklogic.hub.step.impl;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counts the events and batches of a running step. Every DMSDK batch thread updates these counts, so they are kept in
+ * LongAdders, which spread contended updates across cells instead of having every thread retry on the same value; the
+ * counts are only summed when progress is reported.
+ *
+ * Error messages are kept in a fixed number of slots that threads claim with a single atomic increment, so recording
+ * an error never blocks. As before, the first messages are kept and later ones are only counted.
+ */
 public class StepMetrics {
-    AtomicLong successfulEvents = new AtomicLong(0);
-    AtomicLong failedEvents = new AtomicLong(0);
-    AtomicLong successfulBatches = new AtomicLong(0);
-    AtomicLong failedBatches = new AtomicLong(0);
 
-    public AtomicLong getSuccessfulEvents() {
-        return successfulEvents;
+    public static final int DEFAULT_MAX_ERROR_MESSAGES = 10;
+
+    private final LongAdder successfulEvents = new LongAdder();
+    private final LongAdder failedEvents = new LongAdder();
+    private final LongAdder successfulBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    private final AtomicReferenceArray<String> errorMessages;
+    private final AtomicInteger errorCount = new AtomicInteger(0);
+
+    public StepMetrics() {
+        this(DEFAULT_MAX_ERROR_MESSAGES);
+    }
+
+    /**
+     * @param maxErrorMessages the number of error messages to keep
+     */
+    public StepMetrics(int maxErrorMessages) {
+        this.errorMessages = new AtomicReferenceArray<>(maxErrorMessages);
+    }
+
+    public void addSuccessfulEvents(long count) {
+        successfulEvents.add(count);
+    }
+
+    public void addFailedEvents(long count) {
+        failedEvents.add(count);
+    }
+
+    public void incrementSuccessfulBatches() {
+        successfulBatches.increment();
+    }
+
+    public void incrementFailedBatches() {
+        failedBatches.increment();
     }
 
-    public AtomicLong getFailedEvents() {
-        return failedEvents;
+    /**
+     * Records an error message if there is still a free slot for it.
+     *
+     * @param message the message; null is ignored
+     */
+    public void addErrorMessage(String message) {
+        if (message == null) {
+            return;
+        }
+        int slot = errorCount.getAndIncrement();
+        if (slot < errorMessages.length()) {
+            errorMessages.set(slot, message);
+        }
     }
 
-    public AtomicLong getSuccessfulBatches() {
-        return successfulBatches;
+    /**
+     * @return the recorded error messages, in the order their slots were claimed
+     */
+    public List<String> getErrorMessages() {
+        int count = Math.min(errorCount.get(), errorMessages.length());
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String message = errorMessages.get(i);
+            // A slot can be claimed but not yet written by a thread that is still recording its message
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
     }
 
-    public AtomicLong getFailedBatches() {
-        return failedBatches;
+    /**
+     * @return the number of error messages that were added, including those that were not kept
+     */
+    public int getErrorCount() {
+        return errorCount.get();
     }
 
     //shorthand methods for getting the counts
     public long getSuccessfulEventsCount() {
-        return successfulEvents.get();
+        return successfulEvents.sum();
     }
 
     public long getFailedEventsCount() {
-        return failedEvents.get();
+        return failedEvents.sum();
     }
 
     public long getSuccessfulBatchesCount() {
-        return successfulBatches.get();
+        return successfulBatches.sum();
     }
 
     public long getFailedBatchesCount() {
-        return failedBatches.get();
+        return failedBatches.sum();
     }
 }
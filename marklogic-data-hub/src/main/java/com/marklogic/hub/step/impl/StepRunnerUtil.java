@@ -49,12 +49,9 @@ public class StepRunnerUtil {
             jobDocManager.createJob(jobId,flow.getName());
         }
 
-        try {
-            jobDocManager.postJobs(jobId, JobStatus.RUNNING_PREFIX + step, step, null, runStepResponse);
-        }
-        catch (Exception ex) {
-            throw ex;
-        }
+        // Nothing is needed from the updated job document, so the step can start without waiting for it; the update is
+        // written before the step's final update
+        jobDocManager.postJobsAsync(jobId, JobStatus.RUNNING_PREFIX + step, step, null, runStepResponse);
     }
 
     protected static String objectToString(Object obj) {
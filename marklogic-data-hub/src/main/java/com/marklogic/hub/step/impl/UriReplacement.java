@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.step.impl;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The outputURIReplacement of an ingestion step, which consists of pairs of a regular expression and a replacement in
+ * single quotes, separated by commas. It is parsed and its expressions are compiled once per step run rather than for
+ * every file.
+ */
+class UriReplacement {
+
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<String> replacements = new ArrayList<>();
+
+    /**
+     * @param outputURIReplacement the pairs of expressions and replacements; may be empty or null
+     * @throws IllegalArgumentException if it isn't made up of pairs, or if an expression is invalid
+     */
+    UriReplacement(String outputURIReplacement) {
+        if (StringUtils.isEmpty(outputURIReplacement)) {
+            return;
+        }
+        String[] replace = outputURIReplacement.split(",");
+        // URI replace comes in pattern and replacement pairs.
+        if (replace.length % 2 != 0) {
+            throw new IllegalArgumentException("Invalid argument for URI replacement: " + outputURIReplacement);
+        }
+        for (int i = 0; i < replace.length; i += 2) {
+            // Replacement string is expected to be in ''
+            String replacement = replace[i + 1].trim();
+            if (replacement.length() < 2 || !replacement.startsWith("'") || !replacement.endsWith("'")) {
+                throw new IllegalArgumentException("Invalid argument for URI replacement: " + outputURIReplacement);
+            }
+            patterns.add(Pattern.compile(replace[i]));
+            replacements.add(replacement.substring(1, replacement.length() - 1));
+        }
+    }
+
+    /**
+     * @return the URI with every expression replaced, in the order in which they were given
+     */
+    String apply(String uri) {
+        for (int i = 0; i < patterns.size(); i++) {
+            uri = patterns.get(i).matcher(uri).replaceAll(replacements.get(i));
+        }
+        return uri;
+    }
+
+    /**
+     * Quotes the characters of a path that aren't legal in a URI, as java.net.URI does. Most file paths don't contain
+     * any, in which case the path is returned as it is, without the cost of constructing and parsing a URI.
+     */
+    static String encodePath(String path) throws URISyntaxException {
+        if (isLegalAbsolutePath(path)) {
+            return path;
+        }
+        return new URI(null, null, null, 0, path, null, null).toString();
+    }
+
+    /**
+     * @return true if the path starts with a single slash, so that it can't be mistaken for a scheme or an authority,
+     * and only contains ASCII characters that java.net.URI doesn't quote in a path
+     */
+    private static boolean isLegalAbsolutePath(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/' || (path.length() > 1 && path.charAt(1) == '/')) {
+            return false;
+        }
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            boolean legal = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || "-_.!~*'()/;:@&=+$,".indexOf(c) >= 0;
+            if (!legal) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -18,20 +18,26 @@ package com.marklogic.hub.step.impl;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.datamovement.*;
+import com.marklogic.client.document.DocumentWriteOperation;
 import com.marklogic.client.document.ServerTransform;
 import com.marklogic.client.ext.util.DefaultDocumentPermissionsParser;
 import com.marklogic.client.ext.util.DocumentPermissionsParser;
+import com.marklogic.client.impl.DocumentWriteOperationImpl;
+import com.marklogic.client.io.BytesHandle;
 import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.io.FileHandle;
 import com.marklogic.client.io.Format;
 import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.JacksonHandle;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
 import com.marklogic.hub.DatabaseKind;
 import com.marklogic.hub.HubConfig;
 import com.marklogic.hub.collector.DiskQueue;
+import com.marklogic.hub.collector.StreamingUriQueue;
 import com.marklogic.hub.collector.impl.FileCollector;
 import com.marklogic.hub.error.DataHubConfigurationException;
 import com.marklogic.hub.flow.Flow;
@@ -41,35 +47,50 @@ import com.marklogic.hub.job.JobStatus;
 import com.marklogic.hub.step.*;
 import com.marklogic.hub.util.json.JSONObject;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
 
 public class WriteStepRunner implements StepRunner {
 
     private static final int MAX_ERROR_MESSAGES = 10;
+    // Number of file paths buffered between the file collector and the reader threads
+    private static final int STREAMING_BUFFER_SIZE = 10000;
+    // Number of files each reader thread may have waiting to be read
+    private static final int READ_AHEAD_PER_THREAD = 16;
+    // Files up to this size are read into memory by a reader thread; larger files are streamed by the WriteBatcher
+    private static final long MAX_PREFETCH_BYTES = 1024 * 1024;
+    // Serializes the documents of the rows of delimited files; ObjectMapper is thread-safe once configured
+    private static final ObjectMapper ROW_MAPPER = new ObjectMapper();
     private Flow flow;
     private int batchSize;
     private int threadCount;
+    private int ioThreadCount = 1;
     private DatabaseClient stagingClient;
     private String destinationDatabase;
     private int previousPercentComplete;
-    protected long csvFilesProcessed;
-    private String currentCsvFile;
+    // Read by the progress ticker while files are being added
+    protected volatile long csvFilesProcessed;
     private Map<String, Object> options;
     private boolean stopOnFailure = false;
     private String jobId;
@@ -94,8 +115,13 @@ public class WriteStepRunner implements StepRunner {
     private String outputFormat;
     private String inputFileType;
     private String outputURIReplacement;
+    private UriReplacement uriReplacement;
+    // Limits the number of input files that are open at once, if maxOpenFiles is set
+    private Semaphore openFilePermits;
     private String separator = ",";
+    private DelimitedFileSplitter delimitedFileSplitter;
     private AtomicBoolean isStopped = new AtomicBoolean(false);
+    private StreamingUriQueue uriQueue = null;
     private IngestionStepDefinitionImpl stepDef;
     private Map<String, Object> stepConfig = new HashMap<>();
     private DocumentPermissionsParser documentPermissionsParser = new DefaultDocumentPermissionsParser();
@@ -151,6 +177,21 @@ public class WriteStepRunner implements StepRunner {
         return this;
     }
 
+    /**
+     * Ingestion steps cannot be resumed, as the order in which files are collected isn't fixed; the whole step is run
+     * again, which rewrites the same URIs.
+     */
+    @Override
+    public StepRunner withCheckpoint(StepCheckpoint checkpoint) {
+        return this;
+    }
+
+    @Override
+    public StepRunner withJobDocManager(JobDocManager jobDocManager) {
+        this.jobDocManager = jobDocManager;
+        return this;
+    }
+
     @Override
     public StepRunner withStopOnFailure(boolean stopOnFailure) {
         this.stopOnFailure = stopOnFailure;
@@ -244,6 +285,11 @@ public class WriteStepRunner implements StepRunner {
         return this.batchSize;
     }
 
+    @Override
+    public int getThreadCount(){
+        return this.threadCount;
+    }
+
     @Override
     public RunStepResponse run() {
         boolean disableJobOutput = false;
@@ -251,6 +297,7 @@ public class WriteStepRunner implements StepRunner {
             disableJobOutput = Boolean.parseBoolean(options.get("disableJobOutput").toString());
         }
         runningThread = null;
+        uriQueue = null;
         RunStepResponse runStepResponse = StepRunnerUtil.createStepResponse(flow, step, jobId);
         loadStepRunnerParameters();
         if("csv".equalsIgnoreCase(inputFileType)){
@@ -261,14 +308,20 @@ public class WriteStepRunner implements StepRunner {
         Collection<String> uris = null;
         //If current step is the first run step job output isn't disabled, a job doc is created
         if (!disableJobOutput) {
-            jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+            if (jobDocManager == null) {
+                jobDocManager = new JobDocManager(hubConfig.newJobDbClient());
+            }
             StepRunnerUtil.initializeStepRun(jobDocManager, runStepResponse, flow, step, jobId);
         } else {
             jobDocManager = null;
         }
 
         try {
-            uris = runFileCollector();
+            if (isStreamingIngestion()) {
+                runStreamingFileCollector();
+            } else {
+                uris = runFileCollector();
+            }
         } catch (Exception e) {
             runStepResponse.setCounts(0,0, 0, 0, 0)
                 .withStatus(JobStatus.FAILED_PREFIX + step);
@@ -291,6 +344,9 @@ public class WriteStepRunner implements StepRunner {
             }
             return runStepResponse;
         }
+        if (uriQueue != null) {
+            return this.runIngester(runStepResponse, uriQueue);
+        }
         return this.runIngester(runStepResponse,uris);
     }
 
@@ -310,6 +366,9 @@ public class WriteStepRunner implements StepRunner {
     @Override
     public void stop() {
         isStopped.set(true);
+        if(uriQueue != null) {
+            uriQueue.close();
+        }
         if(writeBatcher != null) {
             dataMovementManager.stopJob(writeBatcher);
         }
@@ -364,6 +423,21 @@ public class WriteStepRunner implements StepRunner {
         if(stepConfig.get("threadCount") != null) {
             this.threadCount = Integer.parseInt(stepConfig.get("threadCount").toString());
         }
+        if(stepConfig.get("ioThreadCount") != null) {
+            int count = Integer.parseInt(stepConfig.get("ioThreadCount").toString());
+            if (count < 1) {
+                throw new IllegalArgumentException("Invalid argument for ioThreadCount: " + count + ". It must be at least one");
+            }
+            this.ioThreadCount = count;
+        }
+        this.openFilePermits = null;
+        if(stepConfig.get("maxOpenFiles") != null) {
+            int count = Integer.parseInt(stepConfig.get("maxOpenFiles").toString());
+            if (count < 1) {
+                throw new IllegalArgumentException("Invalid argument for maxOpenFiles: " + count + ". It must be at least one");
+            }
+            this.openFilePermits = new Semaphore(count);
+        }
         if(stepConfig.get("fileLocations") != null) {
             HashMap<String, String> fileLocations = (HashMap) stepConfig.get("fileLocations");
             if(fileLocations.get("inputFilePath") != null) {
@@ -394,6 +468,8 @@ public class WriteStepRunner implements StepRunner {
         if (inputFilePath == null || inputFileType == null) {
             throw new RuntimeException("File path and type cannot be empty");
         }
+        this.uriReplacement = new UriReplacement(outputURIReplacement);
+        this.delimitedFileSplitter = isDelimitedFileType() ? new DelimitedFileSplitter(separator.charAt(0), ioThreadCount) : null;
     }
 
     protected Path determineInputFilePath(String inputFilePath) {
@@ -416,7 +492,7 @@ public class WriteStepRunner implements StepRunner {
         });
         final DiskQueue<String> uris;
         if(!isStopped.get()) {
-            uris = new FileCollector(inputFileType).run(determineInputFilePath(this.inputFilePath));
+            uris = new FileCollector(inputFileType).withParallelism(ioThreadCount).run(determineInputFilePath(this.inputFilePath));
         }
         else {
             uris = null;
@@ -424,29 +500,96 @@ public class WriteStepRunner implements StepRunner {
         return uris;
     }
 
+    /**
+     * When ioThreadCount is greater than one, non-delimited files are ingested while the directory is still being
+     * walked, and are read by a pool of ioThreadCount threads. Delimited files are ingested one at a time, and the
+     * ranges of a large one are parsed by ioThreadCount threads instead.
+     */
+    private boolean isStreamingIngestion() {
+        return ioThreadCount > 1 && !isDelimitedFileType();
+    }
+
+    private boolean isDelimitedFileType() {
+        //note these ORs are for forward compatibility if we swap out the filecollector for another lib
+        return inputFileType.equalsIgnoreCase("csv") || inputFileType.equalsIgnoreCase("tsv") || inputFileType.equalsIgnoreCase("psv");
+    }
+
+    /**
+     * Starts walking the input directory on a separate thread, so that files are ingested as they are found.
+     */
+    private void runStreamingFileCollector() {
+        stepStatusListeners.forEach((StepStatusListener listener) -> {
+            listener.onStatusChange(this.jobId, 0, JobStatus.RUNNING_PREFIX + step, 0, 0,  "fetching files");
+        });
+
+        if (isStopped.get()) {
+            return;
+        }
+
+        final FileCollector collector = new FileCollector(inputFileType).withParallelism(ioThreadCount);
+        final Path dirPath = determineInputFilePath(this.inputFilePath);
+        collector.verifyDirectory(dirPath);
+        final StreamingUriQueue queue = new StreamingUriQueue(STREAMING_BUFFER_SIZE);
+        Thread collectorThread = new Thread(() -> {
+            collector.run(dirPath, queue);
+            if (queue.getFailure() != null) {
+                logger.error("File collector failed for step " + step + "; cause: " + queue.getFailure().getMessage(), queue.getFailure());
+            }
+        }, "file-collector-" + jobId + "-" + step);
+        collectorThread.setDaemon(true);
+        this.uriQueue = queue;
+        collectorThread.start();
+    }
+
     private RunStepResponse runIngester(RunStepResponse runStepResponse, Collection<String> uris) {
-        StepMetrics stepMetrics = new StepMetrics();
+        if (uris == null) {
+            return runIngester(runStepResponse, Collections.emptyIterator(), () -> 0);
+        }
+        final double uriSize = uris.size();
+        return runIngester(runStepResponse, uris.iterator(), () -> uriSize);
+    }
+
+    /**
+     * The number of files is only known once the collector has finished, so progress is not reported before then.
+     */
+    private RunStepResponse runIngester(RunStepResponse runStepResponse, StreamingUriQueue queue) {
+        return runIngester(runStepResponse, queue.iterator(), () -> queue.isCompleted() ? queue.getAddedCount() : -1);
+    }
+
+    private RunStepResponse runIngester(RunStepResponse runStepResponse, Iterator<String> itr, DoubleSupplier uriCount) {
+        StepMetrics stepMetrics = new StepMetrics(MAX_ERROR_MESSAGES);
         stepStatusListeners.forEach((StepStatusListener listener) -> {
             listener.onStatusChange(runStepResponse.getJobId(), 0, JobStatus.RUNNING_PREFIX + step, 0, 0, "starting step execution");
         });
 
-        if (uris == null || uris.size() == 0 ) {
+        if (!itr.hasNext()) {
+            final StreamingUriQueue queue = uriQueue;
+            final Throwable collectorFailure = queue != null && !isStopped.get() ? queue.getFailure() : null;
             JsonNode jobDoc = null;
             final String stepStatus;
             if(isStopped.get()) {
                 stepStatus = JobStatus.CANCELED_PREFIX + step;
             }
+            else if (collectorFailure != null) {
+                stepStatus = JobStatus.FAILED_PREFIX + step;
+            }
             else {
                 stepStatus = JobStatus.COMPLETED_PREFIX + step;
             }
 
             stepStatusListeners.forEach((StepStatusListener listener) -> {
                 listener.onStatusChange(runStepResponse.getJobId(), 100, stepStatus, 0, 0,
-                    (stepStatus.contains(JobStatus.COMPLETED_PREFIX) ? "provided file path returned 0 items" : "job was stopped"));
+                    (stepStatus.contains(JobStatus.COMPLETED_PREFIX) ? "provided file path returned 0 items" :
+                        (collectorFailure != null ? "unable to collect files" : "job was stopped")));
             });
             stepFinishedListeners.forEach((StepFinishedListener::onStepFinished));
             runStepResponse.setCounts(0,0,0,0,0);
             runStepResponse.withStatus(stepStatus);
+            if (collectorFailure != null) {
+                StringWriter errors = new StringWriter();
+                collectorFailure.printStackTrace(new PrintWriter(errors));
+                runStepResponse.withStepOutput(errors.toString());
+            }
 
             try {
                 jobDoc = jobDocManager.postJobs(jobId, stepStatus, step, stepStatus.contains(JobStatus.COMPLETED_PREFIX) ? step : null, runStepResponse);
@@ -463,7 +606,6 @@ public class WriteStepRunner implements StepRunner {
             }
         }
 
-        Vector<String> errorMessages = new Vector<>();
         if (stagingClient == null) {
             stagingClient = hubConfig.newStagingClient();
         }
@@ -471,8 +613,7 @@ public class WriteStepRunner implements StepRunner {
 
         HashMap<String, JobTicket> ticketWrapper = new HashMap<>();
 
-        double uriSize = uris.size();
-        Map<String,Object> fullResponse = new HashMap<>();
+        Map<String,Object> fullResponse = new ConcurrentHashMap<>();
 
         ServerTransform serverTransform = new ServerTransform("mlRunIngest");
         serverTransform.addParameter("job-id", jobId);
@@ -487,11 +628,13 @@ public class WriteStepRunner implements StepRunner {
             .withJobId(runStepResponse.getJobId())
             .withTransform(serverTransform)
             .onBatchSuccess(batch ->{
+                closeContent(batch);
                 //TODO: There is one additional item returned, it has to be investigated
-                stepMetrics.getSuccessfulEvents().addAndGet(batch.getItems().length-1);
-                stepMetrics.getSuccessfulBatches().addAndGet(1);
-                logger.debug(String.format("Current SuccessfulEvents: %d - FailedEvents: %d", stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount()));
-                runStatusListener(uriSize, stepMetrics);
+                stepMetrics.addSuccessfulEvents(batch.getItems().length-1);
+                stepMetrics.incrementSuccessfulBatches();
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("Current SuccessfulEvents: %d - FailedEvents: %d", stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount()));
+                }
                 if (stepItemCompleteListeners.size() > 0) {
                     Arrays.stream(batch.getItems()).forEach((WriteEvent e) -> {
                         stepItemCompleteListeners.forEach((StepItemCompleteListener listener) -> {
@@ -501,12 +644,11 @@ public class WriteStepRunner implements StepRunner {
                 }
             })
             .onBatchFailure((batch, ex) -> {
-                stepMetrics.getFailedEvents().addAndGet(batch.getItems().length-1);
-                stepMetrics.getFailedBatches().addAndGet(1);
-                runStatusListener(uriSize, stepMetrics);
-                if (errorMessages.size() < MAX_ERROR_MESSAGES) {
-                    errorMessages.add(ex.getLocalizedMessage());
-                }
+                // A failed batch may never have been read, and a file that was opened keeps its permit until closed
+                closeContent(batch);
+                stepMetrics.addFailedEvents(batch.getItems().length-1);
+                stepMetrics.incrementFailedBatches();
+                stepMetrics.addErrorMessage(ex.getLocalizedMessage());
                 if(stepItemFailureListeners.size() > 0) {
                     Arrays.stream(batch.getItems()).forEach((WriteEvent e) -> {
                         stepItemFailureListeners.forEach((StepItemFailureListener listener) -> {
@@ -567,20 +709,37 @@ public class WriteStepRunner implements StepRunner {
                 format = Format.BINARY;
         }
         final Format fileFormat = format;
-        Iterator itr = uris.iterator();
+        // Batch threads only update the metrics; progress is published from a single thread at a fixed rate
+        previousPercentComplete = 0;
+        final ProgressTicker progressTicker = new ProgressTicker("step-progress-" + jobId + "-" + step,
+            () -> runStatusListener(uriCount.getAsDouble(), stepMetrics));
         if(!isStopped.get()){
             JobTicket jobTicket = dataMovementManager.startJob(writeBatcher);
             ticketWrapper.put("jobTicket", jobTicket);
-            while(itr.hasNext()) {
-                try {
-                    File file = new File((String) itr.next());
-                    addToBatcher(file, fileFormat);
+            progressTicker.start();
+            try {
+                if (isStreamingIngestion()) {
+                    addToBatcherInParallel(itr, fileFormat);
                 }
-                catch (Exception e) {
-                    throw new RuntimeException(e);
+                else {
+                    while(itr.hasNext()) {
+                        try {
+                            File file = new File(itr.next());
+                            addToBatcher(file, fileFormat);
+                        }
+                        catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
                 }
             }
+            catch (RuntimeException e) {
+                progressTicker.stop();
+                throw e;
+            }
         }
+        final StreamingUriQueue queue = uriQueue;
+        final Throwable collectorFailure = queue != null && !isStopped.get() ? queue.getFailure() : null;
 
         runningThread = new Thread(() -> {
             try {
@@ -589,15 +748,21 @@ public class WriteStepRunner implements StepRunner {
             catch (IllegalStateException e) {
                 logger.error("WriteBatcher has been stopped");
             }
+            progressTicker.stop();
+
+            final List<String> errorMessages = new ArrayList<>(stepMetrics.getErrorMessages());
+            if (collectorFailure != null) {
+                errorMessages.add("Unable to collect all files; cause: " + collectorFailure.getMessage());
+            }
 
             String stepStatus;
             if (stepMetrics.getFailedEventsCount() > 0 && stopOnFailure) {
                 stepStatus = JobStatus.STOP_ON_ERROR_PREFIX + step;
             } else if (isStopped.get()){
                 stepStatus = JobStatus.CANCELED_PREFIX + step;
-            } else if (stepMetrics.getFailedEventsCount() > 0 && stepMetrics.getSuccessfulEventsCount() > 0) {
+            } else if ((stepMetrics.getFailedEventsCount() > 0 || collectorFailure != null) && stepMetrics.getSuccessfulEventsCount() > 0) {
                 stepStatus = JobStatus.COMPLETED_WITH_ERRORS_PREFIX + step;
-            } else if (stepMetrics.getFailedEventsCount() == 0 && stepMetrics.getSuccessfulEventsCount() > 0)  {
+            } else if (stepMetrics.getFailedEventsCount() == 0 && collectorFailure == null && stepMetrics.getSuccessfulEventsCount() > 0)  {
                 stepStatus = JobStatus.COMPLETED_PREFIX + step ;
             } else {
                 stepStatus = JobStatus.FAILED_PREFIX + step;
@@ -642,119 +807,213 @@ public class WriteStepRunner implements StepRunner {
         return runStepResponse;
     }
 
-    private void processCsv(JacksonHandle jacksonHandle, File file) {
-        String uri = file.getParent();
+    private void addToBatcher(File file, Format fileFormat) throws IOException {
+        if (isDelimitedFileType()) {
+            acquireOpenFilePermit();
+            try {
+                addDelimitedFileToBatcher(file);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                releaseOpenFilePermit();
+            }
+            ++csvFilesProcessed;
+        } else {
+            try {
+                addFileToBatcher(file, fileFormat);
+            } catch (URISyntaxException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Each row of the file becomes a document with the row as its content. The URI prefix is the same for every row,
+     * so it is computed once per file, and the rows are added to the batcher a batch at a time, from the threads that
+     * parse them.
+     */
+    private void addDelimitedFileToBatcher(File file) throws IOException, URISyntaxException {
+        if (writeBatcher.isStopped()) {
+            return;
+        }
+        String dir = file.getParent();
         if(SystemUtils.OS_NAME.toLowerCase().contains("windows")){
-            uri = "/" + FilenameUtils.separatorsToUnix(StringUtils.replaceOnce(uri, ":", ""));
+            dir = "/" + FilenameUtils.separatorsToUnix(StringUtils.replaceOnce(dir, ":", ""));
         }
-        try {
-            uri =  generateAndEncodeURI(outputURIReplace(uri)).replace("%", "%%");
-        } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
+        final String uriPrefix = generateAndEncodeURI(outputURIReplace(dir)) + "/";
+        final String uriSuffix = "xml".equalsIgnoreCase(outputFormat) ? ".xml" : ".json";
+        final String filePath = file.getAbsolutePath();
+        if (delimitedFileSplitter == null) {
+            delimitedFileSplitter = new DelimitedFileSplitter(separator.charAt(0), ioThreadCount);
         }
-        ObjectMapper mapper = jacksonHandle.getMapper();
-        JsonNode originalContent = jacksonHandle.get();
-        ObjectNode node = mapper.createObjectNode();
-        node.set("content",originalContent);
-        node.put("file", file.getAbsolutePath());
-        jacksonHandle.set(node);
+        delimitedFileSplitter.split(file.toPath(), batchSize, () -> isStopped.get() || writeBatcher.isStopped(), rows -> {
+            List<DocumentWriteOperation> operations = new ArrayList<>(rows.size());
+            for (JsonNode row : rows) {
+                ObjectNode node = JsonNodeFactory.instance.objectNode();
+                node.set("content", row);
+                node.put("file", filePath);
+                JacksonHandle handle = new JacksonHandle(node);
+                handle.setMapper(ROW_MAPPER);
+                operations.add(new DocumentWriteOperationImpl(DocumentWriteOperation.OperationType.DOCUMENT_WRITE,
+                    uriPrefix + randomUuid() + uriSuffix, null, handle));
+            }
+            try {
+                writeBatcher.addAll(operations.stream());
+            }
+            catch (IllegalStateException e) {
+                logger.error("WriteBatcher has been stopped");
+            }
+        });
+    }
+
+    /**
+     * UUID.randomUUID shares one SecureRandom between all threads, which becomes a point of contention when every row
+     * of a large file needs a URI; the URIs only need to be unique, not unpredictable.
+     */
+    private static String randomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    /**
+     * Reads files on a bounded pool of ioThreadCount threads, so that opening and reading files, which is often the
+     * bottleneck on network file systems, overlaps with both the directory walk and the writes to MarkLogic. When the
+     * pool falls behind, the calling thread reads the next file itself, which also throttles the file collector.
+     */
+    private void addToBatcherInParallel(Iterator<String> itr, Format fileFormat) {
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        ThreadPoolExecutor readers = new ThreadPoolExecutor(ioThreadCount, ioThreadCount, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ioThreadCount * READ_AHEAD_PER_THREAD),
+            runnable -> {
+                Thread thread = new Thread(runnable, "file-reader-" + jobId + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
         try {
-            writeBatcher.add(String.format(uri +"/%s." + ("xml".equalsIgnoreCase(outputFormat) ? "xml":"json"), UUID.randomUUID()), jacksonHandle);
-        }
-        catch (IllegalStateException e) {
-            logger.error("WriteBatcher has been stopped");
+            while (failure.get() == null && !isStopped.get() && itr.hasNext()) {
+                final File file = new File(itr.next());
+                readers.execute(() -> {
+                    try {
+                        addFileToBatcher(file, fileFormat);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+        } finally {
+            readers.shutdown();
+            try {
+                readers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        if (!file.getAbsolutePath().equalsIgnoreCase(currentCsvFile)) {
-            currentCsvFile = file.getAbsolutePath();
-            ++csvFilesProcessed;
+        if (failure.get() != null) {
+            if (uriQueue != null) {
+                uriQueue.close();
+            }
+            throw new RuntimeException(failure.get());
         }
     }
 
-    private void addToBatcher(File file, Format fileFormat) throws IOException {
-        // Coverity is saying that the docStream is a resource leak, but the comment below this indicates that it must
-        // not be closed. Because this is for DHFPROD-3695 and we're close to releasing 5.1.0, leaving this as-is for now.
-
-        // This docStream must not be closed, or use try-resource due to WriteBatcher needing the stream open
-        FileInputStream docStream = new FileInputStream(file);
-        //note these ORs are for forward compatibility if we swap out the filecollector for another lib
-        if (inputFileType.equalsIgnoreCase("csv") || inputFileType.equalsIgnoreCase("tsv") || inputFileType.equalsIgnoreCase("psv")) {
-            CsvSchema schema = CsvSchema.emptySchema()
-                .withHeader()
-                .withColumnSeparator(separator.charAt(0));
-            JacksonCSVSplitter splitter = new JacksonCSVSplitter().withCsvSchema(schema);
+    /**
+     * Small files are read fully on the calling thread, so no file handle is held open while the document waits in a
+     * batch. Larger files are only opened when the batch is written, and are streamed from disk: as a FileHandle, or, if
+     * maxOpenFiles is set, as a stream that holds one of the open file permits while the file is open.
+     */
+    private void addFileToBatcher(File file, Format fileFormat) throws IOException, URISyntaxException {
+        if (writeBatcher.isStopped()) {
+            return;
+        }
+        final String uri = toDocumentUri(file);
+        final AbstractWriteHandle handle;
+        if (file.length() <= MAX_PREFETCH_BYTES) {
+            acquireOpenFilePermit();
             try {
-                if (!writeBatcher.isStopped()) {
-                    Stream<JacksonHandle> contentStream = splitter.split(docStream);
-                    contentStream.forEach(jacksonHandle -> this.processCsv(jacksonHandle, file));
-                }
-            } catch (Exception e) {
-                IOUtils.closeQuietly(docStream);
-                throw new RuntimeException(e);
+                handle = new BytesHandle(Files.readAllBytes(file.toPath())).withFormat(fileFormat);
+            } finally {
+                releaseOpenFilePermit();
             }
+        } else if (openFilePermits != null) {
+            handle = new InputStreamHandle(new LazyFileInputStream(file.toPath(), openFilePermits)).withFormat(fileFormat);
         } else {
-            InputStreamHandle handle = new InputStreamHandle(docStream);
-            try {
-                handle.setFormat(fileFormat);
-                if (!writeBatcher.isStopped()) {
-                    try {
-                        String uri = file.getAbsolutePath();
-                        //In case of Windows, C:\\Documents\\abc.json will be converted to /c/Documents/abc.json
-                        if (SystemUtils.OS_NAME.toLowerCase().contains("windows")) {
-                            uri = "/" + FilenameUtils.separatorsToUnix(StringUtils.replaceOnce(uri, ":", ""));
-                        }
-                        writeBatcher.add(generateAndEncodeURI(outputURIReplace(uri)), handle);
-                    } catch (IllegalStateException e) {
-                        logger.error("WriteBatcher has been stopped");
-                    }
+            handle = new FileHandle(file).withFormat(fileFormat);
+        }
+        try {
+            writeBatcher.add(uri, handle);
+        } catch (IllegalStateException e) {
+            logger.error("WriteBatcher has been stopped");
+        }
+    }
+
+    private void closeContent(WriteBatch batch) {
+        for (WriteEvent event : batch.getItems()) {
+            if (event.getContent() instanceof Closeable) {
+                try {
+                    ((Closeable) event.getContent()).close();
+                } catch (IOException e) {
+                    logger.warn("Unable to close content of " + event.getTargetUri() + ": " + e.getMessage());
                 }
-            } catch (URISyntaxException e) {
-                IOUtils.closeQuietly(handle);
-                throw new RuntimeException(e);
             }
         }
     }
 
+    private String toDocumentUri(File file) throws URISyntaxException {
+        String uri = file.getAbsolutePath();
+        //In case of Windows, C:\\Documents\\abc.json will be converted to /c/Documents/abc.json
+        if (SystemUtils.OS_NAME.toLowerCase().contains("windows")) {
+            uri = "/" + FilenameUtils.separatorsToUnix(StringUtils.replaceOnce(uri, ":", ""));
+        }
+        return generateAndEncodeURI(outputURIReplace(uri));
+    }
+
     private String generateAndEncodeURI(String path) throws  URISyntaxException {
-        URI uri = new URI(null, null, null, 0, path, null, null);
-        return uri.toString();
+        return UriReplacement.encodePath(path);
     }
 
-    private String outputURIReplace(String uri) {
-        if (StringUtils.isNotEmpty(outputURIReplacement)) {
-            String[] replace = outputURIReplacement.split(",");
-            // URI replace comes in pattern and replacement pairs.
-            if (replace.length % 2 != 0) {
-                throw new IllegalArgumentException(
-                    "Invalid argument for URI replacement: " + outputURIReplacement);
-            }
-            // Replacement string is expected to be in ''
-            for (int i = 0; i < replace.length - 1; i++) {
-                String replacement = replace[++i].trim();
-                if (!replacement.startsWith("'") ||
-                    !replacement.endsWith("'")) {
-                    throw new IllegalArgumentException(
-                        "Invalid argument for URI replacement: " + outputURIReplacement);
-                }
-            }
-            for (int i = 0; i < replace.length - 1; i += 2) {
-                String replacement = replace[i + 1].trim();
-                replacement = replacement.substring(1, replacement.length() - 1);
-                uri = uri.replaceAll(replace[i], replacement);
+    private void acquireOpenFilePermit() throws InterruptedIOException {
+        if (openFilePermits != null) {
+            try {
+                openFilePermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to open a file");
             }
         }
-        return uri;
+    }
+
+    private void releaseOpenFilePermit() {
+        if (openFilePermits != null) {
+            openFilePermits.release();
+        }
+    }
+
+    private String outputURIReplace(String uri) {
+        // Compiled by loadStepRunnerParameters, unless the runner was configured some other way
+        if (uriReplacement == null) {
+            uriReplacement = new UriReplacement(outputURIReplacement);
+        }
+        return uriReplacement.apply(uri);
     }
 
     //percentComplete for csv files is (csvFilesProcessed/ urisCount) * 100.0
-    //The number of csv files would probably be less than that of regular files, so the step status listeners are updated more frequently
     //'uris' is backed by DiskQueue whose size changes as the Collection is iterated, so size is calculated before iteration
+    //Called by the ProgressTicker, which already limits how often listeners are notified, so every change is published
     protected void runStatusListener(double uriSize, StepMetrics stepMetrics) {
+        // The file collector may still be running, in which case the number of files isn't known yet
+        if (uriSize <= 0) {
+            return;
+        }
         double batchCount = Math.ceil(uriSize / (double) batchSize);
         long totalRunBatches = stepMetrics.getSuccessfulBatchesCount() + stepMetrics.getFailedBatchesCount();
         int percentComplete;
         if("csv".equalsIgnoreCase(inputFileType)) {
             percentComplete = (int) (((double) csvFilesProcessed/ uriSize) * 100.0);
-            if (percentComplete != previousPercentComplete && (percentComplete % 2 == 0)) {
+            if (percentComplete != previousPercentComplete) {
                 previousPercentComplete = percentComplete;
                 stepStatusListeners.forEach((StepStatusListener listener) -> {
                     listener.onStatusChange(jobId, percentComplete, JobStatus.RUNNING_PREFIX + step, stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), "Ingesting");
@@ -763,7 +1022,7 @@ public class WriteStepRunner implements StepRunner {
         }
         else {
             percentComplete = (int) (((double) totalRunBatches/ batchCount) * 100.0);
-            if (percentComplete != previousPercentComplete && (percentComplete % 5 == 0)) {
+            if (percentComplete != previousPercentComplete) {
                 previousPercentComplete = percentComplete;
                 stepStatusListeners.forEach((StepStatusListener listener) -> {
                     listener.onStatusChange(jobId, percentComplete, JobStatus.RUNNING_PREFIX + step, stepMetrics.getSuccessfulEventsCount(), stepMetrics.getFailedEventsCount(), "Ingesting");
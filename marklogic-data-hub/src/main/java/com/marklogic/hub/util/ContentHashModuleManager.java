@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.hub.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a file needs to be loaded based on its content rather than only its last-modified timestamp. A
+ * git checkout or a fresh CI workspace gives every file a new timestamp, so a timestamp alone causes every module and
+ * artifact to be reloaded; this also records a SHA-256 hash of each file that is loaded, and a file whose timestamp
+ * has changed but whose content has not is skipped.
+ *
+ * The hashes are stored in the same properties file as the timestamps, under keys with a "#sha256" suffix, so other
+ * users of that file, which only look up the timestamp keys of their own files, are unaffected. A file is only hashed
+ * when its timestamp says it has changed, so an unchanged project is checked as quickly as before.
+ *
+ * Files can be checked from many threads at once. The new timestamp of a file whose content is unchanged is journaled
+ * like any other change, and is written to the properties file the next time it is saved.
+ */
+public class ContentHashModuleManager extends HubModuleManager {
+
+    private static final String HASH_KEY_SUFFIX = "#sha256";
+
+    // Hashes computed when checking a file, kept until the file is saved as loaded so it isn't read twice
+    private final Map<String, String> pendingHashes = new ConcurrentHashMap<>();
+
+    public ContentHashModuleManager(String propertiesFilePath) {
+        super(propertiesFilePath);
+    }
+
+    @Override
+    public boolean hasFileBeenModifiedSinceLastLoaded(File file) {
+        if (!super.hasFileBeenModifiedSinceLastLoaded(file)) {
+            return false;
+        }
+        String key = buildKey(file);
+        String hash = hashFile(file);
+        if (hash == null) {
+            return true;
+        }
+        if (hash.equals(getProps().getProperty(key + HASH_KEY_SUFFIX))) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Content of file is unchanged since it was last loaded, so not loading: " + file.getAbsolutePath());
+            }
+            // Record the new timestamp, so the file isn't hashed again until it's touched again
+            setProperty(key, Math.max(System.currentTimeMillis(), file.lastModified()) + "");
+            return false;
+        }
+        pendingHashes.put(key, hash);
+        return true;
+    }
+
+    @Override
+    public synchronized void saveLastLoadedTimestamp(File file, Date date) {
+        recordHash(file);
+        super.saveLastLoadedTimestamp(file, date);
+    }
+
+    @Override
+    public synchronized void saveLastLoadedTimestamps(Collection<File> files, Date date) {
+        files.forEach(this::recordHash);
+        super.saveLastLoadedTimestamps(files, date);
+    }
+
+    @Override
+    public synchronized void saveProperties() {
+        super.saveProperties();
+    }
+
+    @Override
+    public synchronized void deletePropertiesFile() {
+        pendingHashes.clear();
+        super.deletePropertiesFile();
+    }
+
+    private void recordHash(File file) {
+        String key = buildKey(file);
+        String hash = pendingHashes.remove(key);
+        if (hash == null) {
+            hash = hashFile(file);
+        }
+        if (hash != null) {
+            setProperty(key + HASH_KEY_SUFFIX, hash);
+        }
+    }
+
+    /**
+     * @return the hex-encoded SHA-256 hash of the file, or null if it can't be read, in which case the file is
+     * treated as modified
+     */
+    protected String hashFile(File file) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to compute hash of file: " + file.getAbsolutePath() + "; cause: " + e.getMessage());
+            return null;
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -21,16 +21,49 @@ import com.marklogic.client.ext.modulesloader.ModulesManager;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Keeps the time at which each module or artifact file was last loaded in a properties file.
+ *
+ * Rewriting the whole properties file for every file that is loaded would make loading N files cost O(N^2) disk I/O, so
+ * each change is instead appended to a journal next to the properties file, and the journal is only merged into the
+ * properties file, in a single rewrite, by {@link #saveProperties()}. The properties file is replaced atomically, and
+ * the journal is only deleted once it has been replaced. If a load is interrupted before then, the journal is replayed
+ * the next time the properties are loaded. A journal line that was only partly written is ignored, and the file it
+ * belonged to is loaded again.
+ *
+ * Timestamps can be saved from many threads at once, such as those of the task executor of a modules loader.
+ */
 public class HubModuleManager extends LoggingObject implements ModulesManager {
     public static final String DEFAULT_FILE_PATH = "build/ml-javaclient-util/module-timestamps.properties";
 
+    public static final String JOURNAL_SUFFIX = ".journal";
+
     private Properties props;
     private String propertiesFilePath;
     private long minimumFileTimestampToLoad;
 
+    // Guards the journal writer and the properties file, which are also written to by saveProperties
+    private final Object journalLock = new Object();
+    private Writer journalWriter;
+
     public HubModuleManager(String propertiesFilePath) {
         props = new Properties();
         this.propertiesFilePath = propertiesFilePath;
@@ -59,12 +92,52 @@ public class HubModuleManager extends LoggingObject implements ModulesManager {
                 }
             }
         }
+        replayJournal();
+    }
+
+    /**
+     * Applies the changes in a journal that was left behind by a load that didn't save its properties, e.g. because
+     * the process was killed. A line that was only partly written is cut from the journal, so that the next line
+     * appended to it doesn't run on from that line.
+     */
+    private void replayJournal() {
+        Path journal = getJournalPath();
+        if (!Files.exists(journal)) {
+            return;
+        }
+        try {
+            byte[] content = Files.readAllBytes(journal);
+            // A line without a line break at its end may only have been partly written
+            int length = content.length;
+            while (length > 0 && content[length - 1] != '\n') {
+                length--;
+            }
+            if (length < content.length) {
+                try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                }
+            }
+            props.load(new StringReader(new String(content, 0, length, StandardCharsets.UTF_8)));
+            if (logger.isDebugEnabled()) {
+                logger.debug("Replayed journal of unsaved timestamps: " + journal.toAbsolutePath());
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to replay journal, cause: " + e.getMessage());
+        }
     }
 
     public void deletePropertiesFile() {
-        File propertiesFile = new File(propertiesFilePath);
-        if (propertiesFile.exists()) {
-            propertiesFile.delete();
+        synchronized (journalLock) {
+            closeJournal();
+            try {
+                Files.deleteIfExists(getJournalPath());
+            } catch (IOException e) {
+                logger.warn("Unable to delete journal, cause: " + e.getMessage());
+            }
+            File propertiesFile = new File(propertiesFilePath);
+            if (propertiesFile.exists()) {
+                propertiesFile.delete();
+            }
             props.clear();
         }
     }
@@ -97,19 +170,138 @@ public class HubModuleManager extends LoggingObject implements ModulesManager {
     }
 
     public void saveLastLoadedTimestamp(String key, Date date) {
-        props.setProperty(key, date.getTime() + "");
-        FileWriter fw = null;
-        try {
-            fw = new FileWriter(new File(propertiesFilePath));
-            props.store(fw, "");
-        } catch (Exception e) {
-            logger.warn("Unable to store properties, cause: " + e.getMessage());
-        } finally {
+        setProperty(key, date.getTime() + "");
+    }
+
+    /**
+     * Saves the same timestamp for every file, appending them to the journal at once.
+     *
+     * @param files - the files that were loaded
+     * @param date - the time they were loaded
+     */
+    public void saveLastLoadedTimestamps(Collection<File> files, Date date) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (File file : files) {
+            entries.put(buildKey(file), date.getTime() + "");
+        }
+        setProperties(entries);
+    }
+
+    protected void setProperty(String key, String value) {
+        setProperties(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Sets the properties in memory and appends them to the journal, so they are kept even if the properties are
+     * never saved.
+     */
+    protected void setProperties(Map<String, String> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        synchronized (journalLock) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                props.setProperty(entry.getKey(), entry.getValue());
+            }
             try {
-                fw.close();
+                if (journalWriter == null) {
+                    journalWriter = Files.newBufferedWriter(getJournalPath(), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                StringBuilder lines = new StringBuilder();
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    appendEscaped(lines, entry.getKey(), true);
+                    lines.append('=');
+                    appendEscaped(lines, entry.getValue(), false);
+                    lines.append('\n');
+                }
+                journalWriter.write(lines.toString());
+                journalWriter.flush();
+            } catch (IOException e) {
+                logger.warn("Unable to append to journal, cause: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the properties, including any changes that have only been made in memory, to the properties file, and
+     * then deletes the journal, as its changes are now in the properties file.
+     */
+    public void saveProperties() {
+        synchronized (journalLock) {
+            closeJournal();
+            Path propertiesFile = Paths.get(propertiesFilePath);
+            Path tempFile = Paths.get(propertiesFilePath + ".tmp");
+            try {
+                try (FileWriter fw = new FileWriter(tempFile.toFile())) {
+                    props.store(fw, "");
+                }
+                try {
+                    Files.move(tempFile, propertiesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, propertiesFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.deleteIfExists(getJournalPath());
             } catch (Exception e) {
+                logger.warn("Unable to store properties, cause: " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
                 logger.warn(e.getMessage());
             }
+            journalWriter = null;
+        }
+    }
+
+    private Path getJournalPath() {
+        return Paths.get(propertiesFilePath + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Escapes a key or value the same way as Properties.store, so that the journal can be read with Properties.load.
+     */
+    private static void appendEscaped(StringBuilder sb, String s, boolean isKey) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    sb.append('\\').append(c);
+                    break;
+                case ' ':
+                    if (i == 0 || isKey) {
+                        sb.append('\\');
+                    }
+                    sb.append(c);
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
         }
     }
 
@@ -128,4 +320,8 @@ public class HubModuleManager extends LoggingObject implements ModulesManager {
     public void setMinimumFileTimestampToLoad(long minimumFileTimestampToLoad) {
         this.minimumFileTimestampToLoad = minimumFileTimestampToLoad;
     }
+
+    protected Properties getProps() {
+        return props;
+    }
 }
@@ -0,0 +1,89 @@
+package com.marklogic.hub.collector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingUriQueueTest {
+
+    @Test
+    public void capacityTooSmall() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamingUriQueue(0));
+    }
+
+    @Test
+    public void consumeWhileProducing() throws Exception {
+        StreamingUriQueue queue = new StreamingUriQueue(10);
+        queue.setEstimatedCount(1000);
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    queue.put("/uri" + i + ".json");
+                }
+                queue.complete();
+            } catch (InterruptedException e) {
+                queue.fail(e);
+            }
+        });
+        producer.start();
+
+        List<String> uris = new ArrayList<>();
+        queue.iterator().forEachRemaining(uris::add);
+        producer.join();
+
+        assertEquals(1000, uris.size());
+        assertEquals("/uri0.json", uris.get(0));
+        assertEquals("/uri999.json", uris.get(999));
+        assertEquals(1000, queue.getAddedCount());
+        assertEquals(1000, queue.getEstimatedCount());
+        assertNull(queue.getFailure());
+    }
+
+    @Test
+    public void emptyQueue() {
+        StreamingUriQueue queue = new StreamingUriQueue(10);
+        assertEquals(-1, queue.getEstimatedCount());
+        queue.complete();
+        assertFalse(queue.iterator().hasNext());
+    }
+
+    @Test
+    public void failedProducer() throws Exception {
+        StreamingUriQueue queue = new StreamingUriQueue(10);
+        queue.put("/uri1.json");
+        queue.fail(new RuntimeException("collector failed"));
+
+        Iterator<String> iterator = queue.iterator();
+        assertEquals("/uri1.json", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals("collector failed", queue.getFailure().getMessage());
+    }
+
+    @Test
+    public void waitingForFirstUriDoesNotConsumeIt() throws Exception {
+        StreamingUriQueue queue = new StreamingUriQueue(10);
+        queue.put("/uri1.json");
+        queue.put("/uri2.json");
+        queue.complete();
+
+        assertTrue(queue.iterator().hasNext());
+        List<String> uris = new ArrayList<>();
+        queue.iterator().forEachRemaining(uris::add);
+        assertEquals(2, uris.size(), "The URI that hasNext() waited for should still be returned");
+        assertEquals("/uri1.json", uris.get(0));
+    }
+
+    @Test
+    public void closeStopsProducer() throws Exception {
+        StreamingUriQueue queue = new StreamingUriQueue(1);
+        assertTrue(queue.put("/uri1.json"));
+        queue.close();
+        assertFalse(queue.put("/uri2.json"), "A closed queue should reject URIs instead of blocking the producer");
+        assertFalse(queue.iterator().hasNext());
+    }
+}
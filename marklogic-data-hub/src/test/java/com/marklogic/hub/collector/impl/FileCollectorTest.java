@@ -1,8 +1,19 @@
 package com.marklogic.hub.collector.impl;
 
+import com.marklogic.hub.collector.StreamingUriQueue;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileCollectorTest {
@@ -61,6 +72,58 @@ class FileCollectorTest {
         no("test.psv");
     }
 
+    @Test
+    void parallelWalkFindsSameFiles(@TempDir Path dir) throws IOException {
+        Set<String> expected = createFiles(dir);
+
+        Set<String> sequential = new HashSet<>(new FileCollector("json").run(dir));
+        Set<String> parallel = new HashSet<>(new FileCollector("json").withParallelism(4).run(dir));
+        assertEquals(expected, sequential);
+        assertEquals(expected, parallel);
+    }
+
+    @Test
+    void streamingWalk(@TempDir Path dir) throws IOException {
+        Set<String> expected = createFiles(dir);
+
+        StreamingUriQueue queue = new StreamingUriQueue(2);
+        Thread producer = new Thread(() -> new FileCollector("json").withParallelism(3).run(dir, queue));
+        producer.start();
+        Set<String> collected = new HashSet<>();
+        queue.forEach(collected::add);
+
+        assertTrue(queue.isCompleted());
+        assertNull(queue.getFailure());
+        assertEquals(expected, collected);
+        assertEquals(expected.size(), queue.getAddedCount());
+    }
+
+    @Test
+    void streamingWalkOfMissingDirectory(@TempDir Path dir) {
+        StreamingUriQueue queue = new StreamingUriQueue(10);
+        new FileCollector("json").run(dir.resolve("missing"), queue);
+        assertTrue(queue.isCompleted());
+        assertTrue(queue.getFailure() instanceof RuntimeException);
+        assertFalse(queue.iterator().hasNext());
+    }
+
+    @Test
+    void invalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new FileCollector("json").withParallelism(0));
+    }
+
+    private Set<String> createFiles(Path dir) throws IOException {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            Path subdir = Files.createDirectories(dir.resolve("dir" + i).resolve("nested"));
+            expected.add(Files.write(subdir.resolve("doc" + i + ".json"), "{}".getBytes()).toFile().getAbsolutePath());
+            expected.add(Files.write(subdir.getParent().resolve("doc" + i + ".json"), "{}".getBytes()).toFile().getAbsolutePath());
+            Files.write(subdir.resolve("doc" + i + ".xml"), "<doc/>".getBytes());
+        }
+        expected.add(Files.write(dir.resolve("top.json"), "{}".getBytes()).toFile().getAbsolutePath());
+        return expected;
+    }
+
     void yes(String filename) {
         assertTrue(collector.acceptFile(filename));
     }
@@ -0,0 +1,136 @@
+package com.marklogic.hub.deploy;
+
+import com.marklogic.appdeployer.command.Command;
+import com.marklogic.appdeployer.command.CommandContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandGraphTest {
+
+    private Map<Class<?>, List<Class<?>>> declaredDependencies = new HashMap<>();
+
+    @Test
+    void commandsDependOnEveryEarlierCommandByDefault() {
+        Command databases = new DatabaseCommand(100);
+        Command servers = new ServerCommand(200);
+        Command modules = new ModulesCommand(300);
+        CommandGraph graph = new CommandGraph(Arrays.asList(modules, databases, servers), declaredDependencies);
+
+        assertEquals(Arrays.asList(databases, servers, modules), graph.getCommands());
+        assertEquals(Collections.emptyList(), graph.getDependencies(databases));
+        assertEquals(Arrays.asList(databases, servers), graph.getDependencies(modules));
+    }
+
+    @Test
+    void declaredDependenciesReplaceSortOrder() {
+        Command databases = new DatabaseCommand(100);
+        Command servers = new ServerCommand(200);
+        Command privileges = new PrivilegesCommand(Integer.MAX_VALUE);
+        Command modules = new ModulesCommand(300);
+        declaredDependencies.put(PrivilegesCommand.class, Collections.singletonList(DatabaseCommand.class));
+        CommandGraph graph = new CommandGraph(Arrays.asList(databases, servers, privileges, modules), declaredDependencies);
+
+        assertEquals(Collections.singletonList(databases), graph.getDependencies(privileges),
+            "The privileges only need the databases, so they can be created at the same time as the servers and modules");
+        assertEquals(Arrays.asList(databases, servers), graph.getDependencies(modules));
+    }
+
+    @Test
+    void subclassesUseDependenciesOfTheirSuperclass() {
+        Command databases = new DatabaseCommand(100);
+        Command servers = new ServerCommand(200);
+        Command triggers = new HubTriggersCommand(700);
+        declaredDependencies.put(TriggersCommand.class, Collections.singletonList(DatabaseCommand.class));
+        CommandGraph graph = new CommandGraph(Arrays.asList(databases, servers, triggers), declaredDependencies);
+        assertEquals(Collections.singletonList(databases), graph.getDependencies(triggers));
+    }
+
+    @Test
+    void criticalPath() {
+        Command databases = new DatabaseCommand(100);
+        Command servers = new ServerCommand(200);
+        Command modules = new ModulesCommand(300);
+        Command privileges = new PrivilegesCommand(Integer.MAX_VALUE);
+        declaredDependencies.put(PrivilegesCommand.class, Collections.singletonList(DatabaseCommand.class));
+        CommandGraph graph = new CommandGraph(Arrays.asList(databases, servers, modules, privileges), declaredDependencies);
+
+        Map<Command, Long> durations = new IdentityHashMap<>();
+        durations.put(databases, 1000L);
+        durations.put(servers, 500L);
+        durations.put(modules, 2000L);
+        durations.put(privileges, 3000L);
+        assertEquals(Arrays.asList(databases, privileges), graph.getCriticalPath(durations));
+
+        durations.put(modules, 3000L);
+        assertEquals(Arrays.asList(databases, servers, modules), graph.getCriticalPath(durations));
+    }
+
+    @Test
+    void emptyGraph() {
+        CommandGraph graph = new CommandGraph(new ArrayList<>(), declaredDependencies);
+        assertTrue(graph.getCriticalPath(new IdentityHashMap<>()).isEmpty());
+    }
+
+    static class TestCommand implements Command {
+        private final Integer sortOrder;
+
+        TestCommand(Integer sortOrder) {
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public void execute(CommandContext context) {
+        }
+
+        @Override
+        public Integer getExecuteSortOrder() {
+            return sortOrder;
+        }
+    }
+
+    static class DatabaseCommand extends TestCommand {
+        DatabaseCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+
+    static class ServerCommand extends TestCommand {
+        ServerCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+
+    static class ModulesCommand extends TestCommand {
+        ModulesCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+
+    static class PrivilegesCommand extends TestCommand {
+        PrivilegesCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+
+    static class TriggersCommand extends TestCommand {
+        TriggersCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+
+    static class HubTriggersCommand extends TriggersCommand {
+        HubTriggersCommand(Integer sortOrder) {
+            super(sortOrder);
+        }
+    }
+}
@@ -7,7 +7,11 @@ import com.marklogic.hub.deploy.util.HubDeployStatusListener;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class HubAppDeployerTest {
@@ -39,6 +43,90 @@ public class HubAppDeployerTest {
         assertEquals("33:[Step 2 of 3]  com.marklogic.hub.deploy.TestCommand", testListener.getMessages().get(2));
         assertEquals("66:[Step 3 of 3]  com.marklogic.hub.deploy.TestCommand", testListener.getMessages().get(3));
         assertEquals("100:Installation Complete", testListener.getMessages().get(4));
+        assertEquals(3, testListener.getCriticalPath().size(), "Each command depends on the one before it by default");
+    }
+
+    @Test
+    public void independentCommandsRunAtTheSameTime() {
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch bothStarted = new CountDownLatch(2);
+
+        List<Command> commands = new ArrayList<>();
+        commands.add(new TestCommand(10, messages));
+        commands.add(new AwaitingCommand(20, messages, bothStarted));
+        commands.add(new IndependentCommand(30, messages, bothStarted));
+        commands.add(new TestCommand(40, messages));
+
+        TestListener testListener = new TestListener();
+        HubAppDeployer appDeployer = new HubAppDeployer(null, null, testListener, null);
+        appDeployer.setCommands(commands);
+        appDeployer.setThreadCount(2);
+        appDeployer.addDependencies(IndependentCommand.class, TestCommand.class);
+        appDeployer.deploy(new AppConfig());
+
+        assertEquals("My sort order: 10", messages.get(0));
+        assertTrue(messages.contains("Both started: 20"), "Command 30 only depends on command 10, so it should run alongside 20");
+        assertTrue(messages.contains("Both started: 30"));
+        assertEquals("My sort order: 40", messages.get(3), "Command 40 should wait for every command before it");
+        assertEquals(4, testListener.getFinishedCommands().size());
+        assertEquals("100:Installation Complete", testListener.getMessages().get(testListener.getMessages().size() - 1));
+    }
+
+    @Test
+    public void failedCommandStopsDependentCommands() {
+        List<String> messages = new ArrayList<>();
+        List<Command> commands = new ArrayList<>();
+        commands.add(new TestCommand(10, messages));
+        commands.add(new TestCommand(20, messages) {
+            @Override
+            public void execute(CommandContext context) {
+                throw new RuntimeException("Unable to deploy");
+            }
+        });
+        commands.add(new TestCommand(30, messages));
+
+        HubAppDeployer appDeployer = new HubAppDeployer(null, null, null, null);
+        appDeployer.setCommands(commands);
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> appDeployer.deploy(new AppConfig()));
+        assertEquals("Unable to deploy", ex.getMessage());
+        assertEquals(1, messages.size(), "The command after the failed one shouldn't have been executed");
+    }
+}
+
+class AwaitingCommand implements Command {
+
+    private int sortOrder;
+    private List<String> messages;
+    private CountDownLatch bothStarted;
+
+    public AwaitingCommand(int sortOrder, List<String> messages, CountDownLatch bothStarted) {
+        this.sortOrder = sortOrder;
+        this.messages = messages;
+        this.bothStarted = bothStarted;
+    }
+
+    @Override
+    public Integer getExecuteSortOrder() {
+        return sortOrder;
+    }
+
+    @Override
+    public void execute(CommandContext context) {
+        bothStarted.countDown();
+        try {
+            if (bothStarted.await(5, TimeUnit.SECONDS)) {
+                messages.add("Both started: " + getExecuteSortOrder());
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
+
+class IndependentCommand extends AwaitingCommand {
+
+    public IndependentCommand(int sortOrder, List<String> messages, CountDownLatch bothStarted) {
+        super(sortOrder, messages, bothStarted);
     }
 }
 
@@ -66,6 +154,8 @@ class TestCommand implements Command {
 class TestListener implements HubDeployStatusListener {
 
     private List<String> messages = new ArrayList<>();
+    private List<String> finishedCommands = Collections.synchronizedList(new ArrayList<>());
+    private List<String> criticalPath;
 
     @Override
     public void onStatusChange(int percentComplete, String message) {
@@ -77,7 +167,25 @@ class TestListener implements HubDeployStatusListener {
 
     }
 
+    @Override
+    public void onCommandFinished(String commandName, long durationMillis) {
+        finishedCommands.add(commandName);
+    }
+
+    @Override
+    public void onCriticalPath(List<String> commandNames, long durationMillis) {
+        criticalPath = commandNames;
+    }
+
     public List<String> getMessages() {
         return messages;
     }
+
+    public List<String> getFinishedCommands() {
+        return finishedCommands;
+    }
+
+    public List<String> getCriticalPath() {
+        return criticalPath;
+    }
 }
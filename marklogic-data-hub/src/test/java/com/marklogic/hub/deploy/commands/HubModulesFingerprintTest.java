@@ -0,0 +1,68 @@
+package com.marklogic.hub.deploy.commands;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class HubModulesFingerprintTest {
+
+    private static final String PERMISSIONS = "rest-reader,read,rest-writer,update";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sameModulesAtDifferentLocationsHaveSameFingerprint() throws Exception {
+        Path first = writeModules(tempDir.resolve("first"), "'use strict';");
+        Path second = writeModules(tempDir.resolve("second"), "'use strict';");
+        Map<String, String> tokens = new HashMap<>();
+        tokens.put("%%mlStagingDbName%%", "data-hub-STAGING");
+        tokens.put("%%mlFinalDbName%%", "data-hub-FINAL");
+
+        assertEquals(fingerprint(first, tokens, PERMISSIONS), fingerprint(second, new HashMap<>(tokens), PERMISSIONS));
+    }
+
+    @Test
+    void fingerprintChangesWithModulesAndTheirInputs() throws Exception {
+        Path modules = writeModules(tempDir.resolve("modules"), "'use strict';");
+        Map<String, String> tokens = Collections.singletonMap("%%mlStagingDbName%%", "data-hub-STAGING");
+        String fingerprint = fingerprint(modules, tokens, PERMISSIONS);
+
+        assertNotEquals(fingerprint, fingerprint(modules, Collections.singletonMap("%%mlStagingDbName%%", "other-STAGING"), PERMISSIONS),
+            "Modules with a different token value are different once their tokens are replaced");
+        assertNotEquals(fingerprint, fingerprint(modules, tokens, "rest-reader,read"));
+
+        Files.write(modules.resolve("ml-modules-jobs/options/jobs.xml"), "<options/>".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(fingerprint, fingerprint(modules, tokens, PERMISSIONS), "Search options are loaded by the command too");
+
+        Path renamed = writeModules(tempDir.resolve("renamed"), "'use strict';");
+        Files.write(renamed.resolve("ml-modules-jobs/options/jobs.xml"), "<options/>".getBytes(StandardCharsets.UTF_8));
+        Files.move(renamed.resolve("ml-modules/root/data-hub/5/lib.sjs"), renamed.resolve("ml-modules/root/data-hub/5/other.sjs"));
+        assertNotEquals(fingerprint(modules, tokens, PERMISSIONS), fingerprint(renamed, tokens, PERMISSIONS));
+    }
+
+    private Path writeModules(Path dir, String moduleContent) throws Exception {
+        Path libDir = Files.createDirectories(dir.resolve("ml-modules/root/data-hub/5"));
+        Files.write(libDir.resolve("lib.sjs"), moduleContent.getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(dir.resolve("ml-modules-jobs/options"));
+        return dir;
+    }
+
+    private String fingerprint(Path classpathDir, Map<String, String> tokens, String permissions) throws Exception {
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{classpathDir.toUri().toURL()}, null)) {
+            return HubModulesFingerprint.compute(new PathMatchingResourcePatternResolver(classLoader), tokens, permissions);
+        }
+    }
+}
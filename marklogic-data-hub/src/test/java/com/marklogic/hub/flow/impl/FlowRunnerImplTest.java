@@ -1,9 +1,19 @@
 package com.marklogic.hub.flow.impl;
 
 import com.marklogic.hub.flow.RunFlowResponse;
+import com.marklogic.hub.step.StepRunner;
+import org.easymock.EasyMock;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class FlowRunnerImplTest {
 
@@ -24,4 +34,42 @@ public class FlowRunnerImplTest {
         assertEquals("3", response.getLastAttemptedStep());
         assertEquals("2", response.getLastCompletedStep());
     }
+
+    @Test
+    void noThreadBudget() {
+        StepRunner stepRunner = EasyMock.mock(StepRunner.class);
+        replay(stepRunner);
+
+        Map<String, Object> stepConfig = new HashMap<>();
+        stepConfig.put("threadCount", 32);
+        assertSame(stepConfig, new FlowRunnerImpl().applyThreadBudget(stepRunner, stepConfig),
+            "With no thread budget, the step config should be used as-is");
+        verify(stepRunner);
+    }
+
+    @Test
+    void threadBudgetCapsThreadCount() {
+        StepRunner stepRunner = EasyMock.mock(StepRunner.class);
+        expect(stepRunner.getThreadCount()).andReturn(16);
+        expect(stepRunner.withThreadCount(8)).andReturn(stepRunner);
+        replay(stepRunner);
+
+        FlowRunnerImpl flowRunner = new FlowRunnerImpl();
+        flowRunner.setThreadBudget(8);
+
+        Map<String, Object> stepConfig = new HashMap<>();
+        stepConfig.put("threadCount", 12);
+        stepConfig.put("batchSize", 50);
+        Map<String, Object> cappedConfig = flowRunner.applyThreadBudget(stepRunner, stepConfig);
+
+        verify(stepRunner);
+        assertEquals(8, cappedConfig.get("threadCount"));
+        assertEquals(50, cappedConfig.get("batchSize"));
+        assertEquals(12, stepConfig.get("threadCount"), "The flow's step config should not be modified");
+    }
+
+    @Test
+    void invalidMaxConcurrentJobs() {
+        assertThrows(IllegalArgumentException.class, () -> new FlowRunnerImpl().setMaxConcurrentJobs(0));
+    }
 }
@@ -0,0 +1,53 @@
+package com.marklogic.hub.impl;
+
+import com.marklogic.hub.ApplicationConfig;
+import com.marklogic.hub.HubTestBase;
+import com.marklogic.hub.InstallInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = ApplicationConfig.class)
+public class ClusterStateServiceTest extends HubTestBase {
+
+    private ClusterStateService clusterStateService;
+
+    @BeforeEach
+    void setUp() {
+        clusterStateService = new ClusterStateService(adminHubConfig);
+    }
+
+    @Test
+    void snapshotIsReusedUntilInvalidated() {
+        InstallInfo installInfo = clusterStateService.getInstallInfo();
+        assertTrue(installInfo.isInstalled());
+        assertSame(installInfo, clusterStateService.getInstallInfo(), "The install info should be read from the snapshot");
+
+        clusterStateService.invalidate();
+        InstallInfo refetched = clusterStateService.getInstallInfo();
+        assertNotSame(installInfo, refetched);
+        assertEquals(installInfo.toString(), refetched.toString());
+    }
+
+    @Test
+    void snapshotExpires() throws Exception {
+        clusterStateService.setTimeToLiveMillis(10);
+        InstallInfo installInfo = clusterStateService.getInstallInfo();
+        Thread.sleep(50);
+        assertNotSame(installInfo, clusterStateService.getInstallInfo());
+    }
+
+    @Test
+    void versionsMatchTheServer() {
+        assertEquals(new Versions().getMarkLogicVersion(adminHubConfig.getAppConfig()), clusterStateService.getMarkLogicVersion());
+        assertEquals(adminHubConfig.getJarVersion(), clusterStateService.getHubVersion());
+    }
+}
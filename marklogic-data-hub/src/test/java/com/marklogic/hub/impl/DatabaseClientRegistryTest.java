@@ -0,0 +1,126 @@
+package com.marklogic.hub.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.hub.dataservices.StepDefinitionService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class DatabaseClientRegistryTest {
+
+    private AtomicLong clock = new AtomicLong();
+    private AtomicInteger createdClients = new AtomicInteger();
+    private AtomicInteger releasedClients = new AtomicInteger();
+
+    @Test
+    void clientsWithSameSettingsAreShared() {
+        DatabaseClientRegistry registry = new DatabaseClientRegistry(1000, clock::get);
+        DatabaseClient first = registry.acquire("staging", "staging", this::newClient);
+        DatabaseClient second = registry.acquire("staging", "staging", this::newClient);
+        DatabaseClient other = registry.acquire("final", "final", this::newClient);
+
+        assertEquals(2, createdClients.get());
+        assertEquals("data-hub-STAGING", first.getDatabase(), "Calls should be passed to the shared client");
+        assertNotEquals(first, second, "Each caller gets its own handle, so that it can release it");
+        assertEquals(3, registry.getAcquiredCount());
+        assertEquals(2, registry.getMetrics().get(0).getReferences());
+        assertEquals(1, registry.getMetrics().get(1).getReferences());
+        other.release();
+    }
+
+    @Test
+    void sharedClientIsReleasedWhenUnreferencedAndIdle() {
+        DatabaseClientRegistry registry = new DatabaseClientRegistry(1000, clock::get);
+        DatabaseClient first = registry.acquire("staging", "staging", this::newClient);
+        DatabaseClient second = registry.acquire("staging", "staging", this::newClient);
+
+        first.release();
+        first.release();
+        clock.addAndGet(5000);
+        registry.evictIdleClients();
+        assertEquals(0, releasedClients.get(), "Releasing a handle twice shouldn't release another caller's reference");
+
+        second.release();
+        assertEquals(1, releasedClients.get());
+        assertEquals(1, registry.getEvictedCount());
+        assertEquals(0, registry.getMetrics().size());
+
+        registry.acquire("staging", "staging", this::newClient);
+        assertEquals(2, createdClients.get(), "A new client should be created once the shared one is released");
+    }
+
+    @Test
+    void recentlyUsedClientIsKept() {
+        DatabaseClientRegistry registry = new DatabaseClientRegistry(1000, clock::get);
+        registry.acquire("staging", "staging", this::newClient).release();
+        assertEquals(0, releasedClients.get());
+
+        clock.addAndGet(500);
+        registry.acquire("staging", "staging", this::newClient).release();
+        assertEquals(1, createdClients.get());
+
+        registry.releaseUnreferencedClients();
+        assertEquals(1, releasedClients.get());
+    }
+
+    @Test
+    void dataServiceIsCalledThroughSharedClient() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/data-hub/5/data-services/stepDefinition/getStepDefinition.sjs", exchange -> {
+            byte[] body = "{\"name\":\"default-mapping\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            DatabaseClientRegistry registry = new DatabaseClientRegistry(1000, clock::get);
+            int port = server.getAddress().getPort();
+            Supplier<DatabaseClient> factory = () -> {
+                createdClients.incrementAndGet();
+                return DatabaseClientFactory.newClient("localhost", port, new DatabaseClientFactory.DigestAuthContext("someone", "something"));
+            };
+            DatabaseClient first = registry.acquire("staging", "staging", factory);
+            DatabaseClient second = registry.acquire("staging", "staging", factory);
+            assertEquals(1, createdClients.get());
+
+            first.release();
+            JsonNode stepDefinition = StepDefinitionService.on(second).getStepDefinition("default-mapping", "mapping");
+            assertEquals("default-mapping", stepDefinition.get("name").asText(),
+                "A handle should work with a data service, and keep working when another handle is released");
+            second.release();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private DatabaseClient newClient() {
+        createdClients.incrementAndGet();
+        return (DatabaseClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DatabaseClient.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "release":
+                        releasedClients.incrementAndGet();
+                        return null;
+                    case "getDatabase":
+                        return "data-hub-STAGING";
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,73 @@
+package com.marklogic.hub.impl;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProjectArtifactCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fileIsOnlyParsedAgainWhenItChanges() throws Exception {
+        File file = write("myFlow.flow.json", "{\"name\":\"myFlow\"}");
+        ProjectArtifactCache cache = new ProjectArtifactCache();
+
+        assertEquals("myFlow", cache.get(file).get("name").asText());
+        assertEquals("myFlow", cache.get(file).get("name").asText());
+        assertEquals(1, cache.getParseCount());
+
+        write("myFlow.flow.json", "{\"name\":\"myRenamedFlow\"}");
+        assertEquals("myRenamedFlow", cache.get(file).get("name").asText(), "The length changed, so the file should be read again");
+        assertEquals(2, cache.getParseCount());
+
+        cache.invalidate(file);
+        cache.get(file);
+        assertEquals(3, cache.getParseCount());
+    }
+
+    @Test
+    void copiesDontChangeTheCachedNode() throws Exception {
+        File file = write("myMapping-1.mapping.json", "{\"name\":\"myMapping\"}");
+        ProjectArtifactCache cache = new ProjectArtifactCache();
+
+        ((ObjectNode) cache.getCopy(file)).put("name", "changed");
+        assertEquals("myMapping", cache.get(file).get("name").asText());
+    }
+
+    @Test
+    void missingFile() throws Exception {
+        File file = write("Person.entity.json", "{}");
+        ProjectArtifactCache cache = new ProjectArtifactCache();
+        cache.get(file);
+
+        assertTrue(file.delete());
+        assertThrows(FileNotFoundException.class, () -> cache.get(file));
+    }
+
+    @Test
+    void fingerprintChangesWhenAFileIsAdded() throws Exception {
+        File person = write("Person.entity.json", "{}");
+        String fingerprint = ProjectArtifactCache.getFingerprint(Arrays.asList(person));
+        assertEquals(fingerprint, ProjectArtifactCache.getFingerprint(Arrays.asList(person)));
+
+        File order = write("Order.entity.json", "{}");
+        assertNotEquals(fingerprint, ProjectArtifactCache.getFingerprint(Arrays.asList(person, order)));
+    }
+
+    private File write(String filename, String json) throws Exception {
+        Path path = tempDir.resolve(filename);
+        Files.write(path, json.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+}
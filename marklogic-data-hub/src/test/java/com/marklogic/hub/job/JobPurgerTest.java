@@ -0,0 +1,89 @@
+package com.marklogic.hub.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marklogic.client.query.StructuredQueryBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobPurgerTest {
+
+    private static final Instant CUTOFF = Instant.parse("2019-06-01T00:00:00Z");
+
+    @Test
+    void jobsEndedBeforeCutoffArePurged() {
+        List<JobPurger.JobEntry> jobs = new ArrayList<>();
+        jobs.add(job("old", "flowA", "2019-05-01T00:00:00Z", "2019-05-01T01:00:00Z"));
+        jobs.add(job("spansCutoff", "flowA", "2019-05-31T23:00:00Z", "2019-06-01T01:00:00Z"));
+        jobs.add(job("running", "flowA", "2019-05-01T00:00:00Z", null));
+        jobs.add(job("otherFlow", "flowB", "2019-04-01T00:00:00Z", "2019-04-01T01:00:00Z"));
+
+        assertEquals("old,otherFlow", jobIds(JobPurger.selectJobsToPurge(jobs, CUTOFF, null)));
+    }
+
+    @Test
+    void mostRecentJobsOfEachFlowAreKept() {
+        List<JobPurger.JobEntry> jobs = new ArrayList<>();
+        jobs.add(job("a1", "flowA", "2019-01-01T00:00:00Z", "2019-01-01T01:00:00Z"));
+        jobs.add(job("a2", "flowA", "2019-02-01T00:00:00Z", "2019-02-01T01:00:00Z"));
+        jobs.add(job("a3", "flowA", "2019-07-01T00:00:00Z", "2019-07-01T01:00:00Z"));
+        jobs.add(job("aRunning", "flowA", "2019-08-01T00:00:00Z", null));
+        jobs.add(job("b1", "flowB", "2019-01-01T00:00:00Z", "2019-01-01T01:00:00Z"));
+        jobs.add(job("noFlow", null, "2019-01-01T00:00:00Z", "2019-01-01T01:00:00Z"));
+
+        assertEquals("a1,a2,a3", jobIds(JobPurger.selectJobsToPurge(jobs, null, 1)),
+            "The running job is the most recent of its flow, so it's the one that's kept");
+        assertEquals("a1,a2", jobIds(JobPurger.selectJobsToPurge(jobs, CUTOFF, 1)),
+            "A job that ended after the cutoff should be kept whatever its rank");
+        assertEquals("a1", jobIds(JobPurger.selectJobsToPurge(jobs, CUTOFF, 3)));
+        assertEquals("", jobIds(JobPurger.selectJobsToPurge(jobs, CUTOFF, 4)));
+    }
+
+    @Test
+    void jobDocumentsOfEachTypeAreRead() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        JobPurger.JobEntry job = JobPurger.JobType.JOB.toJobEntry("/jobs/123.json", mapper.readTree(
+            "{\"job\":{\"jobId\":\"123\",\"flow\":\"myFlow\",\"timeStarted\":\"2019-05-01T10:15:30.123456-07:00\",\"timeEnded\":\"N/A\"}}"));
+        assertEquals("123", job.jobId);
+        assertEquals("myFlow", job.flowName);
+        assertEquals(Instant.parse("2019-05-01T17:15:30.123456Z"), job.timeStarted);
+        assertNull(job.timeEnded, "A job that hasn't ended has no end time");
+
+        JobPurger.JobEntry legacyJob = JobPurger.JobType.LEGACY_JOB.toJobEntry("/jobs/456.json", mapper.readTree(
+            "{\"jobId\":\"456\",\"flowName\":\"legacyFlow\",\"startTime\":\"2019-05-01T00:00:00.000Z\",\"endTime\":\"2019-05-01T00:01:00.000Z\"}"));
+        assertEquals("456", legacyJob.jobId);
+        assertEquals("legacyFlow", legacyJob.flowName);
+        assertEquals(Instant.parse("2019-05-01T00:01:00Z"), legacyJob.timeEnded);
+    }
+
+    @Test
+    void purgeRequiresCutoffOrJobsToKeep() {
+        assertThrows(IllegalArgumentException.class, () -> new JobPurger(null).purge());
+        assertThrows(IllegalArgumentException.class, () -> new JobPurger(null).withJobsToKeepPerFlow(-1));
+        assertThrows(IllegalArgumentException.class, () -> new JobPurger(null).withRetainDays(-1));
+    }
+
+    @Test
+    void tracesAreMatchedByJobIdInXmlAndJson() {
+        String query = JobPurger.JobType.LEGACY_JOB.attachedJobIdQuery(new StructuredQueryBuilder(), "123").serialize();
+        assertTrue(query.contains("<element ns=\"\" name=\"jobId\"></element>"), "XML traces have a jobId element: " + query);
+        assertTrue(query.contains("<json-property>jobId</json-property>"), "JSON traces have a jobId property: " + query);
+    }
+
+    private static JobPurger.JobEntry job(String jobId, String flowName, String timeStarted, String timeEnded) {
+        return new JobPurger.JobEntry("/jobs/" + jobId + ".json", jobId, flowName,
+            Instant.parse(timeStarted), timeEnded != null ? Instant.parse(timeEnded) : null);
+    }
+
+    private static String jobIds(List<JobPurger.JobEntry> jobs) {
+        return jobs.stream().map(job -> job.jobId).sorted().collect(Collectors.joining(","));
+    }
+}
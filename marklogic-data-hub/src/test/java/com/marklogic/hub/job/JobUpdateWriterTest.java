@@ -0,0 +1,138 @@
+package com.marklogic.hub.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobUpdateWriterTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+    private List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void waitingUpdatesAreCoalesced() throws Exception {
+        CountDownLatch firstRequestStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstRequest = new CountDownLatch(1);
+        JobUpdateWriter writer = new JobUpdateWriter((jobId, updates) -> {
+            record(updates);
+            if (requests.size() == 1) {
+                firstRequestStarted.countDown();
+                await(releaseFirstRequest);
+            }
+        }, 100, 1);
+
+        writer.add("job1", step("1", "running step 1"));
+        assertTrue(firstRequestStarted.await(5, TimeUnit.SECONDS));
+
+        // These all wait while the first request is being written
+        writer.add("job1", checkpoint("1", 100));
+        writer.add("job1", checkpoint("1", 200));
+        writer.add("job1", status("running"));
+        writer.add("job1", checkpoint("1", 300));
+        writer.add("job1", step("1", "completed step 1"));
+        writer.add("job1", status("finished"));
+        assertEquals(2, writer.getPendingCount(), "The checkpoints and the first status should have been replaced");
+
+        releaseFirstRequest.countDown();
+        writer.flush("job1");
+
+        assertEquals(2, requests.size());
+        assertEquals("[step 1 running step 1]", requests.get(0).toString());
+        assertEquals("[step 1 completed step 1, status finished]", requests.get(1).toString(),
+            "The waiting updates should be sent in one request, in the order they were added");
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    void updatesOfDifferentJobsAreNotCoalesced() {
+        JobUpdateWriter writer = new JobUpdateWriter((jobId, updates) -> record(updates), 100, 2);
+        writer.add("job1", status("finished"));
+        writer.add("job2", status("finished"));
+        writer.flush();
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    void flushThrowsFailedWrite() {
+        JobUpdateWriter writer = new JobUpdateWriter((jobId, updates) -> {
+            throw new RuntimeException("Server unavailable");
+        }, 100, 1);
+        writer.add("job1", status("finished"));
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> writer.flush("job1"));
+        assertEquals("Server unavailable", ex.getMessage());
+
+        writer.flush("job1");
+    }
+
+    @Test
+    void addWaitsWhileQueueIsFull() throws Exception {
+        CountDownLatch releaseWrites = new CountDownLatch(1);
+        JobUpdateWriter writer = new JobUpdateWriter((jobId, updates) -> {
+            record(updates);
+            await(releaseWrites);
+        }, 1, 1);
+        writer.add("job1", step("1", "running step 1"));
+        writer.add("job2", step("1", "running step 1"));
+
+        Thread adder = new Thread(() -> writer.add("job3", step("1", "running step 1")));
+        adder.start();
+        adder.join(200);
+        assertTrue(adder.isAlive(), "The queue is full, so the update should wait");
+
+        releaseWrites.countDown();
+        adder.join(5000);
+        writer.flush();
+        assertEquals(3, requests.size());
+    }
+
+    private void record(List<ObjectNode> updates) {
+        requests.add(updates.stream().map(update -> {
+            if (update.has("checkpoint")) {
+                return "checkpoint " + update.get("step").asText() + " " + update.get("checkpoint").get("position").asLong();
+            }
+            if (update.has("step")) {
+                return "step " + update.get("step").asText() + " " + update.get("status").asText();
+            }
+            return "status " + update.get("status").asText();
+        }).collect(Collectors.toList()));
+    }
+
+    private ObjectNode step(String step, String status) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("status", status);
+        update.put("step", step);
+        return update;
+    }
+
+    private ObjectNode checkpoint(String step, long position) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("step", step);
+        update.putObject("checkpoint").put("position", position);
+        return update;
+    }
+
+    private ObjectNode status(String status) {
+        ObjectNode update = mapper.createObjectNode();
+        update.put("status", status);
+        return update;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
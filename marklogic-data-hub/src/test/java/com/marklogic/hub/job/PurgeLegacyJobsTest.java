@@ -0,0 +1,72 @@
+package com.marklogic.hub.job;
+
+import com.marklogic.bootstrap.Installer;
+import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.StringHandle;
+import com.marklogic.hub.ApplicationConfig;
+import com.marklogic.hub.HubConfig;
+import com.marklogic.hub.HubTestBase;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import static com.marklogic.client.io.DocumentMetadataHandle.Capability.*;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = ApplicationConfig.class)
+class PurgeLegacyJobsTest extends HubTestBase {
+
+    @BeforeAll
+    public static void runOnce() {
+        new Installer().deleteProjectDir();
+    }
+
+    @BeforeEach
+    public void setup() {
+        basicSetup();
+        adminHubConfig.initHubProject();
+        clearDatabases(HubConfig.DEFAULT_JOB_NAME);
+    }
+
+    @AfterAll
+    public static void removeProjectDir() {
+        new Installer().deleteProjectDir();
+    }
+
+    @Test
+    void tracesOfPurgedLegacyJobAreDeleted() {
+        writeJobDoc("/jobs/456.json", "job",
+            "{\"jobId\":\"456\",\"flowName\":\"legacyFlow\",\"startTime\":\"2019-05-01T00:00:00.000Z\",\"endTime\":\"2019-05-01T00:01:00.000Z\"}",
+            Format.JSON);
+        // Written by trace-lib.sjs for JSON flows
+        writeJobDoc("/trace/json-trace.json", "trace",
+            "{\"trace\":{\"jobId\":\"456\",\"format\":\"json\",\"traceId\":\"1\",\"flowName\":\"legacyFlow\",\"hasError\":false,\"steps\":[]}}",
+            Format.JSON);
+        writeJobDoc("/trace/xml-trace.xml", "trace",
+            "<trace><jobId>456</jobId><format>xml</format><traceId>2</traceId><flowName>legacyFlow</flowName></trace>",
+            Format.XML);
+        writeJobDoc("/trace/other-job-trace.json", "trace",
+            "{\"trace\":{\"jobId\":\"789\",\"format\":\"json\",\"traceId\":\"3\",\"flowName\":\"legacyFlow\",\"hasError\":false,\"steps\":[]}}",
+            Format.JSON);
+
+        JobPurgeResponse response = new JobPurger(jobClient)
+            .withRetainDays(1)
+            .withJobsToKeepPerFlow(0)
+            .purge();
+
+        Assertions.assertTrue(response.errors.isEmpty(), response.toString());
+        Assertions.assertEquals(1, response.legacyJobsDeleted);
+        Assertions.assertEquals(2, response.tracesDeleted, "Both the JSON and the XML trace of the job should be deleted");
+        Assertions.assertEquals(1, getTracingDocCount(), "The trace of a job that wasn't purged should be kept");
+        Assertions.assertEquals(0, getJobDocCount());
+    }
+
+    private void writeJobDoc(String uri, String collection, String content, Format format) {
+        DocumentMetadataHandle meta = new DocumentMetadataHandle();
+        meta.getCollections().add(collection);
+        meta.getPermissions().add("flow-developer-role", READ, UPDATE, EXECUTE);
+        jobClient.newDocumentManager().write(uri, meta, new StringHandle(content).withFormat(format));
+    }
+}
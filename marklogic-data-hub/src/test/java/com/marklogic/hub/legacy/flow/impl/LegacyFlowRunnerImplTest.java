@@ -3,6 +3,7 @@ package com.marklogic.hub.legacy.flow.impl;
 import com.marklogic.client.FailedRequestException;
 import com.marklogic.client.impl.FailedRequest;
 import com.marklogic.hub.legacy.flow.RunFlowResponse;
+import com.marklogic.hub.legacy.job.JobStatus;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -52,4 +53,19 @@ class LegacyFlowRunnerImplTest  {
             Assertions.assertTrue(e.getMessage().contains("com.marklogic.client.FailedRequestException: Local message: Not a 'Plugin error' exception"));
         }
     }
+
+    @Test
+    public void jobStatus() {
+        LegacyFlowRunnerImpl fr = new LegacyFlowRunnerImpl();
+        Assertions.assertEquals(JobStatus.FINISHED, fr.getJobStatus(10, 0, 10, false));
+        Assertions.assertEquals(JobStatus.FINISHED, fr.getJobStatus(0, 0, 0, false));
+        Assertions.assertEquals(JobStatus.FINISHED_WITH_ERRORS, fr.getJobStatus(7, 3, 10, false));
+        Assertions.assertEquals(JobStatus.FINISHED_WITH_ERRORS, fr.getJobStatus(10, 0, 10, true));
+        Assertions.assertEquals(JobStatus.FAILED, fr.getJobStatus(0, 10, 10, false));
+        Assertions.assertEquals(JobStatus.CANCELED, fr.getJobStatus(5, 0, 10, false),
+            "Fewer items than were collected were processed, so the job must have been stopped");
+
+        fr.withStopOnFailure(true);
+        Assertions.assertEquals(JobStatus.STOP_ON_ERROR, fr.getJobStatus(4, 1, 10, false));
+    }
 }
@@ -0,0 +1,132 @@
+package com.marklogic.hub.legacy.job.impl;
+
+import com.marklogic.client.document.DocumentRecord;
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.marker.AbstractReadHandle;
+import com.marklogic.client.io.marker.DocumentMetadataReadHandle;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JobArchiveWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void documentsAreWrittenFromManyThreads() throws Exception {
+        File file = tempDir.resolve("jobexport.zip").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (JobArchiveWriter writer = new JobArchiveWriter(file)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                String uri = i % 5 == 0 ? "/jobs/job-" + i + ".json" : "/trace-" + i + ".xml";
+                futures.add(executor.submit(() -> writer.accept(new TestDocumentRecord(uri, content(uri)))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            writer.accept(new TestDocumentRecord("/trace-1.xml", "duplicate"));
+            assertEquals(500, writer.getEntryCount(), "A document that was already written should be skipped");
+        } finally {
+            executor.shutdown();
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            assertEquals(500, zip.size());
+            for (String uri : new String[]{"/jobs/job-0.json", "/trace-1.xml", "/trace-499.xml"}) {
+                try (InputStream in = zip.getInputStream(zip.getEntry(uri))) {
+                    assertEquals(content(uri), IOUtils.toString(in, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    void failureIsThrownOnClose() throws Exception {
+        JobArchiveWriter writer = new JobArchiveWriter(tempDir.resolve("jobexport.zip").toFile());
+        writer.accept(new TestDocumentRecord("/trace-1.xml", null));
+        writer.accept(new TestDocumentRecord("/trace-2.xml", "<trace/>"));
+        assertEquals(0, writer.getEntryCount(), "No documents should be written once one has failed");
+        assertThrows(IOException.class, writer::close);
+    }
+
+    private static String content(String uri) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(uri).append(' ');
+        }
+        return content.toString();
+    }
+
+    private static class TestDocumentRecord implements DocumentRecord {
+        private final String uri;
+        private final String content;
+
+        TestDocumentRecord(String uri, String content) {
+            this.uri = uri;
+            this.content = content;
+        }
+
+        @Override
+        public String getUri() {
+            return uri;
+        }
+
+        @Override
+        public Format getFormat() {
+            return uri.endsWith(".json") ? Format.JSON : Format.XML;
+        }
+
+        @Override
+        public String getMimetype() {
+            return null;
+        }
+
+        @Override
+        public <T extends DocumentMetadataReadHandle> T getMetadata(T metadataHandle) {
+            return metadataHandle;
+        }
+
+        @Override
+        public <T> T getMetadataAs(Class<T> as) {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends AbstractReadHandle> T getContent(T contentHandle) {
+            InputStream in = content != null ?
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)) :
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        throw new IOException("Connection reset");
+                    }
+                };
+            return (T) ((InputStreamHandle) contentHandle).with(in);
+        }
+
+        @Override
+        public <T> T getContentAs(Class<T> as) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.marklogic.hub.step;
+
+import com.marklogic.hub.step.impl.Step;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CachingStepDefinitionProviderTest {
+
+    private AtomicLong clock = new AtomicLong();
+    private List<String> singleRequests = new ArrayList<>();
+    private List<List<String>> bulkRequests = new ArrayList<>();
+
+    private StepDefinitionProvider delegate = new StepDefinitionProvider() {
+        @Override
+        public StepDefinition getStepDefinition(String name, StepDefinition.StepDefinitionType type) {
+            singleRequests.add(name);
+            return StepDefinition.create(name, type);
+        }
+
+        @Override
+        public List<StepDefinition> getStepDefinitions(Collection<Step> steps) {
+            List<String> names = new ArrayList<>();
+            List<StepDefinition> stepDefinitions = new ArrayList<>();
+            for (Step step : StepDefinitionProvider.distinctSteps(steps)) {
+                names.add(step.getStepDefinitionName());
+                stepDefinitions.add(StepDefinition.create(step.getStepDefinitionName(), step.getStepDefinitionType()));
+            }
+            bulkRequests.add(names);
+            return stepDefinitions;
+        }
+    };
+
+    @Test
+    void stepDefinitionIsCachedUntilTtlExpires() {
+        CachingStepDefinitionProvider provider = new CachingStepDefinitionProvider(delegate, 1000, clock::get);
+        StepDefinition first = provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        clock.addAndGet(999);
+        assertSame(first, provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING));
+        assertEquals(1, singleRequests.size());
+
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.CUSTOM);
+        assertEquals(2, singleRequests.size(), "Step definitions of different types are cached separately");
+
+        clock.addAndGet(1);
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        assertEquals(3, singleRequests.size());
+        assertEquals(1, provider.getHitCount());
+        assertEquals(3, provider.getMissCount());
+    }
+
+    @Test
+    void invalidate() {
+        CachingStepDefinitionProvider provider = new CachingStepDefinitionProvider(delegate, 1000, clock::get);
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        provider.getStepDefinition("default-ingestion", StepDefinition.StepDefinitionType.INGESTION);
+
+        provider.invalidate("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        provider.getStepDefinition("default-ingestion", StepDefinition.StepDefinitionType.INGESTION);
+        assertEquals(Arrays.asList("default-mapping", "default-ingestion", "default-mapping"), singleRequests);
+
+        provider.invalidateAll();
+        provider.getStepDefinition("default-ingestion", StepDefinition.StepDefinitionType.INGESTION);
+        assertEquals(4, singleRequests.size());
+    }
+
+    @Test
+    void missingStepDefinitionsAreRetrievedInOneRequest() {
+        CachingStepDefinitionProvider provider = new CachingStepDefinitionProvider(delegate, 1000, clock::get);
+        StepDefinition mapping = provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+
+        List<StepDefinition> stepDefinitions = provider.getStepDefinitions(Arrays.asList(
+            newStep("default-ingestion", StepDefinition.StepDefinitionType.INGESTION),
+            newStep("default-mapping", StepDefinition.StepDefinitionType.MAPPING),
+            newStep("default-ingestion", StepDefinition.StepDefinitionType.INGESTION),
+            newStep("my-custom-step", StepDefinition.StepDefinitionType.CUSTOM)));
+
+        assertEquals(1, bulkRequests.size());
+        assertEquals(Arrays.asList("default-ingestion", "my-custom-step"), bulkRequests.get(0));
+        assertEquals(3, stepDefinitions.size(), "One step definition should be returned for each distinct name and type");
+        assertEquals("default-ingestion", stepDefinitions.get(0).getName());
+        assertSame(mapping, stepDefinitions.get(1));
+        assertEquals("my-custom-step", stepDefinitions.get(2).getName());
+
+        provider.getStepDefinition("my-custom-step", StepDefinition.StepDefinitionType.CUSTOM);
+        provider.getStepDefinitions(Arrays.asList(newStep("default-ingestion", StepDefinition.StepDefinitionType.INGESTION)));
+        assertEquals(1, singleRequests.size());
+        assertEquals(1, bulkRequests.size(), "Nothing should be retrieved once every step definition is cached");
+    }
+
+    @Test
+    void zeroTtlDisablesCaching() {
+        CachingStepDefinitionProvider provider = new CachingStepDefinitionProvider(delegate, 0, clock::get);
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        provider.getStepDefinition("default-mapping", StepDefinition.StepDefinitionType.MAPPING);
+        assertEquals(2, singleRequests.size());
+    }
+
+    private Step newStep(String stepDefinitionName, StepDefinition.StepDefinitionType type) {
+        Step step = new Step();
+        step.setStepDefinitionName(stepDefinitionName);
+        step.setStepDefinitionType(type);
+        return step;
+    }
+}
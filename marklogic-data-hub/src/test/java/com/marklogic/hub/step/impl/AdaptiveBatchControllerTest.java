@@ -0,0 +1,85 @@
+package com.marklogic.hub.step.impl;
+
+import com.marklogic.client.MarkLogicIOException;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveBatchControllerTest {
+
+    private static final long ONE_SECOND = 1000L * 1000 * 1000;
+
+    private AtomicLong clock = new AtomicLong();
+
+    @Test
+    void batchSizeGrowsWhileThroughputImproves() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 1, 10, 1000, 1, 4, clock::get);
+
+        finishWindow(controller, 1000);
+        assertEquals(150, controller.getBatchSize(), "The first window is the baseline, and the batch size is tried first");
+        assertEquals(1, controller.getThreadCount());
+
+        finishWindow(controller, 2000);
+        assertEquals(225, controller.getBatchSize(), "Throughput improved, so the batch size should keep growing");
+
+        finishWindow(controller, 1500);
+        assertEquals(150, controller.getBatchSize(), "Throughput dropped, so the last change should be undone");
+        assertEquals(150, controller.getBestBatchSize());
+        assertEquals(1, controller.getBestThreadCount());
+
+        finishWindow(controller, 2000);
+        assertEquals(150, controller.getBatchSize());
+        assertEquals(2, controller.getThreadCount(), "After measuring again, the thread count should be tuned next");
+    }
+
+    @Test
+    void busyServerHalvesBothSettings() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(100, 4, 10, 1000, 1, 8, clock::get);
+        controller.callFinished(100, 100, true);
+        assertEquals(50, controller.getBatchSize());
+        assertEquals(2, controller.getThreadCount());
+
+        for (int i = 0; i < 10; i++) {
+            controller.callFinished(10, 10, true);
+        }
+        assertEquals(10, controller.getBatchSize(), "The settings shouldn't go below their lower bounds");
+        assertEquals(1, controller.getThreadCount());
+    }
+
+    @Test
+    void settingsStayWithinBounds() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(5000, 10, 10, 1000, 1, 4, clock::get);
+        assertEquals(1000, controller.getBatchSize());
+        assertEquals(4, controller.getThreadCount());
+
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(100, 1, 0, 10, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(100, 1, 1, 10, 2, 1));
+    }
+
+    @Test
+    void serverBusyExceptions() {
+        assertTrue(AdaptiveBatchController.isServerBusy(new MarkLogicIOException(new SocketTimeoutException("Read timed out"))));
+        assertTrue(AdaptiveBatchController.isServerBusy(new RuntimeException(new SocketTimeoutException())));
+        assertFalse(AdaptiveBatchController.isServerBusy(new RuntimeException("Unable to map document")));
+        assertFalse(AdaptiveBatchController.isServerBusy(null));
+    }
+
+    /**
+     * Finishes enough calls to end a window that processed the given number of documents in one second.
+     */
+    private void finishWindow(AdaptiveBatchController controller, int documents) {
+        int calls = controller.getThreadCount() * 2;
+        for (int i = 0; i < calls; i++) {
+            if (i == calls - 1) {
+                clock.addAndGet(ONE_SECOND);
+            }
+            controller.callFinished(documents / calls, 0, false);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.marklogic.hub.step.impl;
+
+import com.marklogic.hub.step.StepCheckpoint;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class BatchCheckpointTrackerTest {
+
+    @Test
+    void batchesFinishingOutOfOrder() {
+        BatchCheckpointTracker tracker = new BatchCheckpointTracker(null, 0);
+
+        tracker.batchFinished(2, new String[]{"/c.json", "/d.json"}, 2, 0, null);
+        assertNull(tracker.getCheckpoint().getCursor(), "Batch 1 hasn't finished, so the checkpoint can't move");
+        assertNull(tracker.checkpointIfDue());
+
+        tracker.batchFinished(1, new String[]{"/a.json", "/b.json"}, 1, 1, Collections.singletonList("/b.json"));
+        StepCheckpoint checkpoint = tracker.checkpointIfDue();
+        assertNotNull(checkpoint);
+        assertEquals("/d.json", checkpoint.getCursor());
+        assertEquals(4, checkpoint.getPosition());
+        assertEquals(3, checkpoint.getSuccessfulEvents());
+        assertEquals(1, checkpoint.getFailedEvents());
+        assertEquals(2, checkpoint.getSuccessfulBatches());
+        assertEquals(0, checkpoint.getFailedBatches());
+        assertEquals(Collections.singletonList("/b.json"), checkpoint.getFailedItems());
+
+        assertNull(tracker.checkpointIfDue(), "Nothing has changed since the last checkpoint");
+
+        tracker.batchFinished(3, new String[]{"/e.json"}, 0, 1, Collections.singletonList("/e.json"));
+        checkpoint = tracker.checkpointIfDue();
+        assertEquals("/e.json", checkpoint.getCursor());
+        assertEquals(1, checkpoint.getFailedBatches());
+        assertEquals(Arrays.asList("/b.json", "/e.json"), checkpoint.getFailedItems());
+    }
+
+    @Test
+    void resumedCheckpointIsAddedTo() {
+        StepCheckpoint resumeFrom = new StepCheckpoint();
+        resumeFrom.setCursor("/b.json");
+        resumeFrom.setPosition(2);
+        resumeFrom.setSuccessfulEvents(2);
+        resumeFrom.setSuccessfulBatches(1);
+
+        BatchCheckpointTracker tracker = new BatchCheckpointTracker(resumeFrom, 0);
+        tracker.batchFinished(1, new String[]{"/c.json"}, 1, 0, null);
+
+        StepCheckpoint checkpoint = tracker.getCheckpoint();
+        assertEquals("/c.json", checkpoint.getCursor());
+        assertEquals(3, checkpoint.getPosition());
+        assertEquals(3, checkpoint.getSuccessfulEvents());
+        assertEquals(2, checkpoint.getSuccessfulBatches());
+        assertEquals("/b.json", resumeFrom.getCursor(), "The checkpoint that was resumed from should not be modified");
+    }
+
+    @Test
+    void intervalLimitsCheckpoints() {
+        BatchCheckpointTracker tracker = new BatchCheckpointTracker(null, 60 * 60 * 1000L);
+        tracker.batchFinished(1, new String[]{"/a.json"}, 1, 0, null);
+        assertNull(tracker.checkpointIfDue());
+        assertEquals("/a.json", tracker.getCheckpoint().getCursor());
+    }
+
+    @Test
+    void failedItemsAreCapped() {
+        BatchCheckpointTracker tracker = new BatchCheckpointTracker(null, 0);
+        String[] uris = new String[BatchCheckpointTracker.MAX_FAILED_ITEMS + 10];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = "/" + i + ".json";
+        }
+        tracker.batchFinished(1, uris, 0, uris.length, Arrays.asList(uris));
+        assertEquals(BatchCheckpointTracker.MAX_FAILED_ITEMS, tracker.getCheckpoint().getFailedItems().size());
+        assertEquals(uris.length, tracker.getCheckpoint().getFailedEvents());
+    }
+}
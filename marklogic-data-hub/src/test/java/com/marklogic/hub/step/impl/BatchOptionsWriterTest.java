@@ -0,0 +1,48 @@
+package com.marklogic.hub.step.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchOptionsWriterTest {
+
+    private ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void sameAsSerializingWholeMap() throws Exception {
+        Map<String, Object> options = new HashMap<>();
+        options.put("flow", "myFlow");
+        options.put("jobId", "123");
+        options.put("collections", Arrays.asList("a", "b"));
+        options.put("headers", mapper.createObjectNode().put("source", "test"));
+        String[] originalUris = new String[]{"/should/be/ignored.json"};
+        options.put("uris", originalUris);
+        Map<String, Object> originalOptions = new HashMap<>(options);
+        JsonNode originalJson = mapper.valueToTree(options);
+
+        String[] uris = new String[]{"/one.json", "/two \"quoted\".json", "/three\\back.xml"};
+        JsonNode actual = mapper.readTree(new BatchOptionsWriter(options).writeOptions(uris));
+
+        Map<String, Object> expectedOptions = new HashMap<>(options);
+        expectedOptions.put("uris", uris);
+        assertEquals(mapper.valueToTree(expectedOptions), actual);
+        assertEquals(originalOptions, options, "The step's options should not be modified");
+        assertEquals(originalJson, mapper.valueToTree(options), "The step's option values should not be modified");
+        assertArrayEquals(new String[]{"/should/be/ignored.json"}, originalUris);
+    }
+
+    @Test
+    public void emptyOptions() throws Exception {
+        BatchOptionsWriter writer = new BatchOptionsWriter(new HashMap<>());
+        assertEquals("{\"uris\":[\"/a.json\",\"/b.json\"]}", writer.writeOptions(new String[]{"/a.json", "/b.json"}));
+        assertEquals("{\"uris\":[]}", writer.writeOptions(new String[]{}));
+        assertEquals(mapper.readTree("{\"uris\":[]}"), mapper.readTree(new BatchOptionsWriter(null).writeOptions(new String[]{})));
+    }
+}
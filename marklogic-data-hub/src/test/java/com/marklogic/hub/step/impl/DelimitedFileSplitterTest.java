@@ -0,0 +1,95 @@
+package com.marklogic.hub.step.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DelimitedFileSplitterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rangesEndOnRecordBoundaries() throws Exception {
+        StringBuilder csv = new StringBuilder("id,name,comment\r\n");
+        for (int i = 0; i < 500; i++) {
+            switch (i % 4) {
+                case 0:
+                    csv.append(i).append(",\"Smith, John\",\"line one\nline two\"\r\n");
+                    break;
+                case 1:
+                    csv.append(i).append(",\"He said \"\"hi\"\"\nthen left\",plain\r\n");
+                    break;
+                case 2:
+                    csv.append(i).append(",12\" pipe,\"ends with a quote\"\"\"\r\n");
+                    break;
+                default:
+                    csv.append(i).append(",,\n");
+            }
+        }
+        Path file = Files.write(tempDir.resolve("rows.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> sequential = split(new DelimitedFileSplitter(',', 1), file, 7);
+        List<String> parallel = split(new DelimitedFileSplitter(',', 4, 100), file, 7);
+        assertEquals(500, sequential.size());
+        assertEquals(sequential, parallel, "Splitting the file into ranges shouldn't change any of its rows");
+        assertTrue(sequential.contains("{\"id\":\"1\",\"name\":\"He said \\\"hi\\\"\\nthen left\",\"comment\":\"plain\"}"));
+        assertTrue(sequential.contains("{\"id\":\"2\",\"name\":\"12\\\" pipe\",\"comment\":\"ends with a quote\\\"\"}"));
+    }
+
+    @Test
+    void rowsArePassedInBatches() throws Exception {
+        StringBuilder tsv = new StringBuilder("a\tb\n");
+        for (int i = 0; i < 1000; i++) {
+            tsv.append(i).append('\t').append("value ").append(i).append('\n');
+        }
+        Path file = Files.write(tempDir.resolve("rows.tsv"), tsv.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        Set<String> ids = Collections.synchronizedSet(new TreeSet<>());
+        new DelimitedFileSplitter('\t', 3, 1024).split(file, 64, () -> false, rows -> {
+            batchSizes.add(rows.size());
+            rows.forEach(row -> ids.add(row.get("a").asText()));
+        });
+        assertEquals(1000, ids.size());
+        assertTrue(batchSizes.size() > 1000 / 64, "Each range should be passed in batches of its own");
+        batchSizes.forEach(size -> assertTrue(size <= 64));
+    }
+
+    @Test
+    void noRowsArePassedOnceStopped() throws Exception {
+        StringBuilder csv = new StringBuilder("a,b\n");
+        for (int i = 0; i < 1000; i++) {
+            csv.append(i).append(",x\n");
+        }
+        Path file = Files.write(tempDir.resolve("rows.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        AtomicInteger count = new AtomicInteger();
+        new DelimitedFileSplitter(',', 2, 512).split(file, 10, () -> count.get() >= 100, rows -> count.addAndGet(rows.size()));
+        assertTrue(count.get() < 1000, "Splitting should stop soon after it was stopped");
+    }
+
+    private List<String> split(DelimitedFileSplitter splitter, Path file, int batchSize) throws Exception {
+        List<String> rows = Collections.synchronizedList(new ArrayList<>());
+        splitter.split(file, batchSize, () -> false, batch -> {
+            for (JsonNode row : batch) {
+                rows.add(row.toString());
+            }
+        });
+        Collections.sort(rows);
+        return rows;
+    }
+}
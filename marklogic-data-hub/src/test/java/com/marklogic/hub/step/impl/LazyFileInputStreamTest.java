@@ -0,0 +1,58 @@
+package com.marklogic.hub.step.impl;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LazyFileInputStreamTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void fileIsOnlyOpenWhileBeingRead() throws Exception {
+        Path file = Files.write(tempDir.resolve("doc.json"), "{\"hello\":\"world\"}".getBytes(StandardCharsets.UTF_8));
+        Semaphore permits = new Semaphore(1);
+
+        InputStream stream = new LazyFileInputStream(file, permits);
+        assertEquals(1, permits.availablePermits(), "The file shouldn't be opened until it is read");
+
+        assertEquals('{', stream.read());
+        assertEquals(0, permits.availablePermits());
+
+        assertEquals("\"hello\":\"world\"}", IOUtils.toString(stream, StandardCharsets.UTF_8));
+        assertEquals(1, permits.availablePermits(), "The file should be closed once its end is reached");
+
+        stream.close();
+        assertEquals(1, permits.availablePermits(), "Closing again shouldn't release another permit");
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    void closingUnreadStreamDoesNotReleasePermit() throws Exception {
+        Path file = Files.write(tempDir.resolve("doc.json"), new byte[]{1, 2, 3});
+        Semaphore permits = new Semaphore(1);
+        new LazyFileInputStream(file, permits).close();
+        assertEquals(1, permits.availablePermits());
+    }
+
+    @Test
+    void missingFileReleasesPermit() {
+        Semaphore permits = new Semaphore(1);
+        InputStream stream = new LazyFileInputStream(tempDir.resolve("missing.json"), permits);
+        try {
+            stream.read();
+        } catch (Exception ex) {
+            // Expected
+        }
+        assertEquals(1, permits.availablePermits());
+    }
+}
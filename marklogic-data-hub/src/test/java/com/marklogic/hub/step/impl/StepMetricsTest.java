@@ -0,0 +1,74 @@
+package com.marklogic.hub.step.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StepMetricsTest {
+
+    @Test
+    void countsFromManyThreads() throws Exception {
+        StepMetrics metrics = new StepMetrics(5);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int threadNumber = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    metrics.addSuccessfulEvents(2);
+                    metrics.addFailedEvents(1);
+                    metrics.incrementSuccessfulBatches();
+                    metrics.incrementFailedBatches();
+                    metrics.addErrorMessage("error " + threadNumber + "-" + j);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(16000, metrics.getSuccessfulEventsCount());
+        assertEquals(8000, metrics.getFailedEventsCount());
+        assertEquals(8000, metrics.getSuccessfulBatchesCount());
+        assertEquals(8000, metrics.getFailedBatchesCount());
+        assertEquals(8000, metrics.getErrorCount());
+        assertEquals(5, metrics.getErrorMessages().size(), "Only the first messages are kept");
+    }
+
+    @Test
+    void firstErrorMessagesAreKeptInOrder() {
+        StepMetrics metrics = new StepMetrics(2);
+        metrics.addErrorMessage("first");
+        metrics.addErrorMessage(null);
+        metrics.addErrorMessage("second");
+        metrics.addErrorMessage("third");
+        assertEquals(2, metrics.getErrorMessages().size());
+        assertEquals("first", metrics.getErrorMessages().get(0));
+        assertEquals("second", metrics.getErrorMessages().get(1));
+        assertEquals(3, metrics.getErrorCount());
+    }
+
+    @Test
+    void progressTickerPublishesUntilStopped() throws Exception {
+        AtomicInteger publishCount = new AtomicInteger();
+        CountDownLatch published = new CountDownLatch(2);
+        ProgressTicker ticker = new ProgressTicker("test-progress", 10, () -> {
+            publishCount.incrementAndGet();
+            published.countDown();
+            throw new RuntimeException("A failing publisher shouldn't stop the ticker");
+        }).start();
+
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        ticker.stop();
+        int countWhenStopped = publishCount.get();
+        Thread.sleep(50);
+        assertEquals(countWhenStopped, publishCount.get(), "Nothing should be published after the ticker is stopped");
+    }
+}
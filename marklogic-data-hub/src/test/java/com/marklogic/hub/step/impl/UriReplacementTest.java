@@ -0,0 +1,42 @@
+package com.marklogic.hub.step.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UriReplacementTest {
+
+    @Test
+    void replacementsAreAppliedInOrder() throws Exception {
+        UriReplacement replacement = new UriReplacement(".*/input,'/output',/output/json,'/customers'");
+        assertEquals("/customers/customer1.json", replacement.apply("/data/input/json/customer1.json"));
+        assertEquals("/data/other.json", new UriReplacement(null).apply("/data/other.json"));
+    }
+
+    @Test
+    void invalidReplacement() {
+        assertThrows(IllegalArgumentException.class, () -> new UriReplacement(".*/input"));
+        assertThrows(IllegalArgumentException.class, () -> new UriReplacement(".*/input,/output"));
+        assertThrows(IllegalArgumentException.class, () -> new UriReplacement(".*/input,'"));
+    }
+
+    @Test
+    void encodePathMatchesUri() throws Exception {
+        String[] paths = {
+            "/data/input/customer-1.json",
+            "/c/Documents/a+b=c;d@e$f,g:h!i~j*k'l(m)n_o.xml",
+            "/data/input/with space.json",
+            "/data/input/100%.json",
+            "/data/input/café.json",
+            "/data/input/a#b?c.json",
+            "//host/share/file.json",
+            "relative/file.json"
+        };
+        for (String path : paths) {
+            assertEquals(new URI(null, null, null, 0, path, null, null).toString(), UriReplacement.encodePath(path), path);
+        }
+    }
+}
@@ -96,8 +96,8 @@ public class WriteStepRunnerTest extends HubTestBase {
                 try {
                     Thread.sleep(500);
                 } catch (InterruptedException e) {}
-                stepMetrics.getSuccessfulEvents().incrementAndGet();
-                stepMetrics.getSuccessfulBatches().incrementAndGet();
+                stepMetrics.addSuccessfulEvents(1);
+                stepMetrics.incrementSuccessfulBatches();
                 wsr.runStatusListener(files.size(),stepMetrics);
             });
         };
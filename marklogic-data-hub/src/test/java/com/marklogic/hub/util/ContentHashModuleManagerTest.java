@@ -0,0 +1,88 @@
+package com.marklogic.hub.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContentHashModuleManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void touchedButUnchangedFileIsNotReloaded() throws Exception {
+        String propertiesFile = tempDir.resolve("timestamps.properties").toString();
+        File module = writeFile("module.sjs", "'use strict';");
+
+        ContentHashModuleManager manager = new ContentHashModuleManager(propertiesFile);
+        assertTrue(manager.hasFileBeenModifiedSinceLastLoaded(module), "A file that has never been loaded should be loaded");
+        manager.saveLastLoadedTimestamp(module, new Date());
+
+        // Simulates a git checkout, which gives the file a new timestamp without changing it
+        module.setLastModified(System.currentTimeMillis() + 60000);
+        manager = new ContentHashModuleManager(propertiesFile);
+        assertFalse(manager.hasFileBeenModifiedSinceLastLoaded(module));
+
+        Files.write(module.toPath(), "'use strict'; // changed".getBytes(StandardCharsets.UTF_8));
+        module.setLastModified(System.currentTimeMillis() + 120000);
+        manager = new ContentHashModuleManager(propertiesFile);
+        assertTrue(manager.hasFileBeenModifiedSinceLastLoaded(module));
+    }
+
+    @Test
+    void timestampsAreStillReadableByHubModuleManager() throws Exception {
+        String propertiesFile = tempDir.resolve("timestamps.properties").toString();
+        File module = writeFile("module.sjs", "'use strict';");
+        module.setLastModified(System.currentTimeMillis() - 60000);
+
+        new ContentHashModuleManager(propertiesFile).saveLastLoadedTimestamp(module, new Date());
+
+        HubModuleManager timestampManager = new HubModuleManager(propertiesFile);
+        assertFalse(timestampManager.hasFileBeenModifiedSinceLastLoaded(module),
+            "The hash entries shouldn't affect the timestamps that other commands rely on");
+    }
+
+    @Test
+    void saveManyTimestampsAtOnce() throws Exception {
+        String propertiesFile = tempDir.resolve("timestamps.properties").toString();
+        File first = writeFile("first.json", "{}");
+        File second = writeFile("second.json", "[]");
+
+        ContentHashModuleManager manager = new ContentHashModuleManager(propertiesFile);
+        assertTrue(manager.hasFileBeenModifiedSinceLastLoaded(first));
+        manager.saveLastLoadedTimestamps(Arrays.asList(first, second), new Date());
+
+        first.setLastModified(System.currentTimeMillis() + 60000);
+        manager = new ContentHashModuleManager(propertiesFile);
+        assertFalse(manager.hasFileBeenModifiedSinceLastLoaded(first));
+        assertFalse(manager.hasFileBeenModifiedSinceLastLoaded(second));
+        manager.saveProperties();
+
+        HubModuleManager timestampManager = new HubModuleManager(propertiesFile);
+        assertFalse(timestampManager.hasFileBeenModifiedSinceLastLoaded(first),
+            "Saving the properties should also save the new timestamp of a file whose content was unchanged");
+    }
+
+    @Test
+    void hashFile() throws Exception {
+        File file = writeFile("empty.json", "");
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+            new ContentHashModuleManager(tempDir.resolve("timestamps.properties").toString()).hashFile(file));
+    }
+
+    private File writeFile(String name, String content) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+}
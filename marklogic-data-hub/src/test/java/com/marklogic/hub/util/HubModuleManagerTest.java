@@ -0,0 +1,103 @@
+package com.marklogic.hub.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HubModuleManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void timestampsAreJournaledUntilSaved() throws Exception {
+        Path propertiesFile = tempDir.resolve("timestamps.properties");
+        Path journal = tempDir.resolve("timestamps.properties" + HubModuleManager.JOURNAL_SUFFIX);
+        File module = writeFile("my module.sjs");
+
+        HubModuleManager manager = new HubModuleManager(propertiesFile.toString());
+        manager.saveLastLoadedTimestamp(module, new Date());
+        assertFalse(Files.exists(propertiesFile), "Saving a timestamp should only append it to the journal");
+        assertTrue(Files.exists(journal));
+
+        // Simulates a load that was killed before it saved its properties
+        assertFalse(new HubModuleManager(propertiesFile.toString()).hasFileBeenModifiedSinceLastLoaded(module),
+            "The journal should be replayed when the properties are loaded");
+
+        manager.saveProperties();
+        assertTrue(Files.exists(propertiesFile));
+        assertFalse(Files.exists(journal), "The journal should be deleted once its changes are in the properties file");
+        assertFalse(new HubModuleManager(propertiesFile.toString()).hasFileBeenModifiedSinceLastLoaded(module));
+    }
+
+    @Test
+    void partlyWrittenJournalLineIsIgnored() throws Exception {
+        Path propertiesFile = tempDir.resolve("timestamps.properties");
+        File first = writeFile("first.sjs");
+        File second = writeFile("second.sjs");
+
+        new HubModuleManager(propertiesFile.toString()).saveLastLoadedTimestamp(first, new Date());
+        String secondKey = second.getAbsolutePath().toLowerCase().replace("\\", "\\\\").replace(":", "\\:");
+        Files.write(tempDir.resolve("timestamps.properties" + HubModuleManager.JOURNAL_SUFFIX),
+            (secondKey + "=9").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        HubModuleManager manager = new HubModuleManager(propertiesFile.toString());
+        assertFalse(manager.hasFileBeenModifiedSinceLastLoaded(first));
+        assertTrue(manager.hasFileBeenModifiedSinceLastLoaded(second), "A file whose timestamp was cut off should be loaded again");
+
+        manager.saveLastLoadedTimestamp(second, new Date());
+        assertFalse(new HubModuleManager(propertiesFile.toString()).hasFileBeenModifiedSinceLastLoaded(second),
+            "The partly written line should have been cut from the journal, so the next line doesn't run on from it");
+    }
+
+    @Test
+    void timestampsCanBeSavedFromManyThreads() throws Exception {
+        Path propertiesFile = tempDir.resolve("timestamps.properties");
+        List<File> modules = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            modules.add(writeFile("module-" + i + ".sjs"));
+        }
+
+        HubModuleManager manager = new HubModuleManager(propertiesFile.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (File module : modules) {
+            futures.add(executor.submit(() -> manager.saveLastLoadedTimestamp(module, new Date())));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        HubModuleManager replayed = new HubModuleManager(propertiesFile.toString());
+        manager.saveProperties();
+        HubModuleManager saved = new HubModuleManager(propertiesFile.toString());
+        for (File module : modules) {
+            assertFalse(replayed.hasFileBeenModifiedSinceLastLoaded(module));
+            assertFalse(saved.hasFileBeenModifiedSinceLastLoaded(module));
+        }
+        assertEquals(200, saved.getProps().size());
+    }
+
+    private File writeFile(String name) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.write(path, "'use strict';".getBytes(StandardCharsets.UTF_8));
+        path.toFile().setLastModified(System.currentTimeMillis() - 60000);
+        return path.toFile();
+    }
+}
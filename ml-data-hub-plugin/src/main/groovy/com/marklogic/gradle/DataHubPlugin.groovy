@@ -183,6 +183,8 @@ class DataHubPlugin implements Plugin<Project> {
 
         String flowGroup = "MarkLogic Data Hub Flow Management"
         project.task("hubRunFlow", group: flowGroup, type: RunFlowTask)
+        project.task("hubPurgeJobs", group: flowGroup, type: PurgeJobsTask,
+            description: "Deletes the jobs that ended more than -PretainDays days ago and/or that aren't among the latest -PretainJobsPerFlow jobs of their flow, along with their batches and traces")
 
         project.task("hubDeployAsSecurityAdmin", group: deployGroup, type: DeployAsSecurityAdminTask,
             description: "Deploy roles as a user with the data-hub-security-admin role")
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  
+ */
+
+package com.marklogic.gradle.exception
+
+import org.gradle.api.GradleException
+
+class JobRetentionRequiredException extends GradleException {
+    JobRetentionRequiredException() {
+        super("retainDays or retainJobsPerFlow property is required. Supply the number of days to retain jobs for with -PretainDays=days, " +
+            "and/or the number of jobs to retain for each flow with -PretainJobsPerFlow=count")
+    }
+}
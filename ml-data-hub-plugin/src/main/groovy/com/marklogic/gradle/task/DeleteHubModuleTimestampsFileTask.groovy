@@ -17,16 +17,20 @@
 
 package com.marklogic.gradle.task
 
+import com.marklogic.hub.util.HubModuleManager
 import org.gradle.api.tasks.TaskAction
 
 class DeleteHubModuleTimestampsFileTask extends HubTask {
 
     @TaskAction
     void deleteFile() {
-        File f = new File(hubProject.getUserModulesDeployTimestampFile())
-        if (f.exists()) {
-            println "Deleting " + f.getAbsolutePath() + "\n"
-            f.delete()
+        String path = hubProject.getUserModulesDeployTimestampFile()
+        // The journal holds timestamps that haven't been merged into the timestamps file yet
+        [new File(path), new File(path + HubModuleManager.JOURNAL_SUFFIX)].each { f ->
+            if (f.exists()) {
+                println "Deleting " + f.getAbsolutePath() + "\n"
+                f.delete()
+            }
         }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package com.marklogic.gradle.task
+
+import com.marklogic.gradle.exception.JobRetentionRequiredException
+import com.marklogic.hub.job.JobPurger
+import org.gradle.api.GradleException
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.TaskAction
+
+class PurgeJobsTask extends HubTask {
+
+    @Input
+    public Integer retainDays
+
+    @Input
+    public Integer retainJobsPerFlow
+
+    @Input
+    public Integer threadCount
+
+    @TaskAction
+    void purgeJobs() {
+        if (retainDays == null) {
+            retainDays = project.hasProperty("retainDays") ? Integer.parseInt(project.property("retainDays")) : null
+        }
+        if (retainJobsPerFlow == null) {
+            retainJobsPerFlow = project.hasProperty("retainJobsPerFlow") ? Integer.parseInt(project.property("retainJobsPerFlow")) : null
+        }
+        if (retainDays == null && retainJobsPerFlow == null) {
+            throw new JobRetentionRequiredException()
+        }
+        if ((retainDays != null && retainDays < 0) || (retainJobsPerFlow != null && retainJobsPerFlow < 0)) {
+            throw new GradleException("retainDays and retainJobsPerFlow must not be negative")
+        }
+        if (threadCount == null) {
+            threadCount = project.hasProperty("threadCount") ? Integer.parseInt(project.property("threadCount")) : JobPurger.DEFAULT_THREAD_COUNT
+        }
+
+        if (!isHubInstalled()) {
+            println("Data Hub is not installed.")
+            return
+        }
+
+        println("Purging jobs" + (retainDays != null ? " that ended more than " + retainDays + " days ago" : "") +
+            (retainJobsPerFlow != null ? ", retaining the latest " + retainJobsPerFlow + " jobs of each flow" : ""))
+
+        def jobPurgeResponse = new JobPurger(getHubConfig().newJobDbClient())
+            .withRetainDays(retainDays)
+            .withJobsToKeepPerFlow(retainJobsPerFlow)
+            .withThreadCount(threadCount)
+            .onProgress({ documentType, deletedCount -> println("Deleted " + deletedCount + " " + documentType) } as JobPurger.ProgressListener)
+            .purge()
+        println jobPurgeResponse
+    }
+
+}
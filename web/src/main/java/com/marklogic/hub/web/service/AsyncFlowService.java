@@ -20,7 +20,6 @@ import com.marklogic.hub.flow.Flow;
 import com.marklogic.hub.flow.impl.FlowRunnerImpl;
 import com.marklogic.hub.job.JobStatus;
 import com.marklogic.hub.util.metrics.tracer.JaegerConfig;
-import com.marklogic.hub.web.exception.DataHubException;
 import com.marklogic.hub.web.model.FlowJobModel.FlowJobs;
 import com.marklogic.hub.web.model.FlowStepModel;
 import io.opentracing.Scope;
@@ -34,12 +33,9 @@ import org.springframework.context.annotation.PropertySource;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
-import java.util.stream.IntStream;
 
 @Service
 @PropertySource({"classpath:dhf-defaults.properties"})
@@ -47,13 +43,6 @@ public class AsyncFlowService {
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    //core/maximum pool size, can be configurable if required
-    private static final int NTHREADS = 4;
-
-    //a thread processes 10 flows, can be configurable if required
-    //if the flow number is not more than 30, we do not use any thread in the pool
-    private static final int FLOW_COUNT_PER_THREAD = 30;
-
     @Autowired
     private FlowManager flowManager;
 
@@ -63,8 +52,6 @@ public class AsyncFlowService {
     @Autowired
     private FlowJobService flowJobService;
 
-    ExecutorService executor;
-
     @Value("${JaegerServiceName}")
     private String jaegerServiceName;
 
@@ -78,78 +65,12 @@ public class AsyncFlowService {
         if (StringUtils.isNotEmpty(jaegerServiceName)) {
             JaegerConfig.init(jaegerServiceName);
         }
-        executor = Executors.newFixedThreadPool(NTHREADS);
-        logger.info(String.format("Initialized a fixed thread pool with pool size: %d", NTHREADS));
-    }
-
-    @PreDestroy
-    public void destroy() {
-        executor.shutdown();
-        try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
-        logger.info("shutdown the thread pool");
-    }
-
-    class FlowStepsWithThreadInfo {
-        int groupId;
-        long threadId;
-        List<FlowStepModel> flowSteps;
-
-        public FlowStepsWithThreadInfo(List<FlowStepModel> flowSteps, int groupId, long threadId) {
-            this.flowSteps = flowSteps;
-            this.groupId = groupId;
-            this.threadId = threadId;
-        }
-    }
-
-    class FlowStepsCallable implements Callable<FlowStepsWithThreadInfo> {
-        List<Flow> flows;
-        int start;
-        Span parentSpan;
-
-        public FlowStepsCallable(List<Flow> flows, int start, Span parentSpan) {
-            this.flows = flows;
-            this.start = start;
-            this.parentSpan = parentSpan;
-        }
-
-        @Override
-        public FlowStepsWithThreadInfo call() {
-            FlowStepsWithThreadInfo flowStepsWithThreadInfo;
-            Span span = JaegerConfig.buildSpanFromMethod(new Object() {
-            }, parentSpan)
-                .withTag("currThread", Thread.currentThread().getId()).start();
-
-            try (Scope ignored = JaegerConfig.activate(span)) {
-                List<FlowStepModel> flowSteps = new ArrayList<>();
-                int startIdx = start * FLOW_COUNT_PER_THREAD;
-                List<Flow> flowGroup = new ArrayList<>();
-                IntStream.range(startIdx, Math.min(flows.size(), startIdx + FLOW_COUNT_PER_THREAD))
-                    .forEach(i -> {
-                        flowGroup.add(flows.get(i));
-                    });
-                Map<String, FlowJobs> jobMap = flowJobService.getFlowJobs(flowGroup, span);
-                IntStream.range(startIdx, Math.min(flows.size(), startIdx + FLOW_COUNT_PER_THREAD))
-                    .forEach(i -> {
-                        logger.debug(String
-                            .format("thread id: %d, flowName: %s", Thread.currentThread().getId(),
-                                flows.get(i).getName()));
-                        FlowStepModel fsm = getFlowStepModel(flows.get(i), false, jobMap);
-                        flowSteps.add(fsm);
-                    });
-                flowStepsWithThreadInfo = new FlowStepsWithThreadInfo(flowSteps, start,
-                    Thread.currentThread().getId());
-            } finally {
-                span.finish();
-            }
-            return flowStepsWithThreadInfo;
-        }
     }
 
-    public List<FlowStepModel> getFlows(boolean useThread) {
+    /**
+     * The jobs of all of the flows are retrieved at once, in pages of flows, so the flows aren't split across threads.
+     */
+    public List<FlowStepModel> getFlows() {
         FlowRunnerChecker.getInstance(flowRunner);
         List<Flow> flows = flowManager.getFlows();
         List<FlowStepModel> flowSteps = new ArrayList<>();
@@ -157,21 +78,15 @@ public class AsyncFlowService {
             return flowSteps;
         }
 
-        int threadCnt = flows.size() / FLOW_COUNT_PER_THREAD;
-
         Span span = JaegerConfig.buildSpanFromMethod(new Object() {
         })
             .withTag("mainThread", Thread.currentThread().getId()).start();
 
         try (Scope ignored = JaegerConfig.activate(span)) {
-            if (useThread && threadCnt > 0) {
-                asyncGetFlowSteps(flows, threadCnt, flowSteps);
-            } else {
-                Map<String, FlowJobs> jobMap = flowJobService.getFlowJobs(flows, span);
-                for (Flow flow : flows) {
-                    FlowStepModel fsm = getFlowStepModel(flow, false, jobMap);
-                    flowSteps.add(fsm);
-                }
+            Map<String, FlowJobs> jobMap = flowJobService.getFlowJobs(flows, span);
+            for (Flow flow : flows) {
+                FlowStepModel fsm = getFlowStepModel(flow, false, jobMap);
+                flowSteps.add(fsm);
             }
             flowJobService.firstTimeRun = false;
         } finally {
@@ -203,45 +118,10 @@ public class AsyncFlowService {
         //If flow is running, update FlowStepModel at the end
         //check if status in fsm is running, if so call setLatestJob()
         if ((fsm.latestJob != null && fsm.latestJob.status != null && fsm.latestJob.status.contains(JobStatus.RUNNING_PREFIX))
-            || (flowRunner.getRunningFlow() != null && flow.getName()
-            .equalsIgnoreCase(flowRunner.getRunningFlow().getName()))) {
+            || flowRunner.isFlowRunning(flow.getName())) {
             fsm.setLatestJob(FlowRunnerChecker.getInstance(flowRunner).getLatestJob(flow));
         }
 
         return fsm;
     }
-
-    private void asyncGetFlowSteps(List<Flow> flows, int threadCnt, List<FlowStepModel> flowSteps) {
-        if (flows.size() % FLOW_COUNT_PER_THREAD != 0) {
-            threadCnt++;
-        }
-
-        ExecutorCompletionService<FlowStepsWithThreadInfo> ecs = new ExecutorCompletionService(
-            executor);
-        Future[] futures = IntStream.range(0, threadCnt)
-            .mapToObj(i -> ecs.submit(new FlowStepsCallable(flows, i, JaegerConfig.activeSpan())))
-            .toArray(Future[]::new);
-
-        IntStream.range(0, threadCnt).mapToObj(i -> JaegerConfig.buildSpanFromMethod(new Object() {
-        }, JaegerConfig.activeSpan())
-            .withTag("threadCnt", i).start()).forEach(span -> {
-            try (Scope ignored = JaegerConfig.activate(span)) {
-                final Future<FlowStepsWithThreadInfo> future = ecs.take();
-
-                FlowStepsWithThreadInfo flowStepsWithThreadInfo = future.get();
-                span.setTag("threadId", flowStepsWithThreadInfo.threadId);
-                span.setTag("groupId", flowStepsWithThreadInfo.groupId);
-
-                flowSteps.addAll(flowStepsWithThreadInfo.flowSteps);
-            } catch (ExecutionException e) {
-                logger.error("Failed to get data: ", e.getCause());
-                throw new DataHubException("Failed to get data: " + e.getMessage());
-            } catch (InterruptedException e) {
-                logger.error("Interrupted exception: ", e.getCause());
-                throw new DataHubException("Interrupted exception: " + e.getMessage());
-            } finally {
-                span.finish();
-            }
-        });
-    }
 }
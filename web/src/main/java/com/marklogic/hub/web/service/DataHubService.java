@@ -29,6 +29,7 @@ import com.marklogic.hub.deploy.util.HubDeployStatusListener;
 import com.marklogic.hub.error.CantUpgradeException;
 import com.marklogic.hub.impl.HubConfigImpl;
 import com.marklogic.hub.legacy.validate.EntitiesValidator;
+import com.marklogic.hub.util.HubModuleManager;
 import com.marklogic.hub.util.PerformanceLogger;
 import com.marklogic.hub.web.auth.ConnectionAuthenticationToken;
 import com.marklogic.hub.web.exception.DataHubException;
@@ -100,6 +101,48 @@ public class DataHubService {
         installUserModules(config, forceLoad, deployListener, validateListener);
     }
 
+    /**
+     * Loads only what the given project changes affect: the user modules if a module or an entity changed, and the user
+     * artifacts if an entity, flow, mapping or step definition changed. Loading the user modules for an entity change
+     * is what deploys the search options generated from the entities, while unchanged modules are skipped. The user
+     * modules are validated again if an entity or a module changed. If the changes are incomplete, everything is
+     * loaded, as in installUserModules.
+     */
+    @Async
+    public void installUserModulesAsync(HubConfig config, ProjectChangeSet changes, DeployUserModulesListener deployListener, ValidateListener validateListener) {
+        if (changes.isIncomplete()) {
+            installUserModules(config, false, deployListener, validateListener);
+            return;
+        }
+
+        logger.info("Installing user modules for " + changes);
+        long startTime = PerformanceLogger.monitorTimeInsideMethod();
+        try {
+            List<Command> commands = new ArrayList<>();
+            if (changes.contains(ProjectChangeSet.ArtifactType.MODULE) || changes.contains(ProjectChangeSet.ArtifactType.ENTITY)) {
+                loadUserModulesCommand.setHubConfig(config);
+                loadUserModulesCommand.setForceLoad(false);
+                commands.add(loadUserModulesCommand);
+            }
+            if (changes.contains(ProjectChangeSet.ArtifactType.ENTITY) || changes.contains(ProjectChangeSet.ArtifactType.FLOW) ||
+                changes.contains(ProjectChangeSet.ArtifactType.MAPPING) || changes.contains(ProjectChangeSet.ArtifactType.STEP_DEFINITION)) {
+                loadUserArtifactsCommand.setHubConfig(config);
+                loadUserArtifactsCommand.setForceLoad(false);
+                commands.add(loadUserArtifactsCommand);
+            }
+            if (!commands.isEmpty()) {
+                deploy(config, commands, deployListener);
+            }
+            if (validateListener != null &&
+                (changes.contains(ProjectChangeSet.ArtifactType.ENTITY) || changes.contains(ProjectChangeSet.ArtifactType.MODULE))) {
+                validateUserModules(config, validateListener);
+            }
+        } catch (Throwable e) {
+            throw new DataHubException(e.getMessage(), e);
+        }
+        PerformanceLogger.logTimeInsideMethod(startTime, "DataHubService.installUserModulesAsync");
+    }
+
     @Async
     public void installUserModules(HubConfig config, boolean forceLoad, DeployUserModulesListener deployListener, ValidateListener validateListener) {
         logger.info("Installing user modules");
@@ -154,13 +197,16 @@ public class DataHubService {
 
     public String getLastDeployed(HubConfig config) {
         File tsFile = new File(config.getHubProject().getUserModulesDeployTimestampFile());
-        Date lastModified = new Date(tsFile.lastModified());
+        // Timestamps are appended to the journal until the load that saved them is finished
+        File journalFile = new File(tsFile.getPath() + HubModuleManager.JOURNAL_SUFFIX);
+        boolean deployed = tsFile.exists() || journalFile.exists();
+        Date lastModified = new Date(Math.max(tsFile.lastModified(), journalFile.lastModified()));
 
         TimeZone tz = TimeZone.getTimeZone("UTC");
         DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
         df.setTimeZone(tz);
 
-        return "{\"deployed\":" + tsFile.exists() + ", \"lastModified\":\"" + df.format(lastModified) + "\"}";
+        return "{\"deployed\":" + deployed + ", \"lastModified\":\"" + df.format(lastModified) + "\"}";
     }
 
     public boolean updateHub(HubConfig config) throws IOException, CantUpgradeException {
@@ -198,7 +244,10 @@ public class DataHubService {
         commands.add(loadUserModulesCommand);
         commands.add(loadUserArtifactsCommand);
         commands.add(loadHubArtifactsCommand);
+        deploy(hubConfig, commands, deployListener);
+    }
 
+    private void deploy(HubConfig hubConfig, List<Command> commands, DeployUserModulesListener deployListener) {
         SimpleAppDeployer deployer = new SimpleAppDeployer(((HubConfigImpl)hubConfig).getManageClient(), ((HubConfigImpl)hubConfig).getAdminManager());
         deployer.setCommands(commands);
         deployer.deploy(hubConfig.getAppConfig());
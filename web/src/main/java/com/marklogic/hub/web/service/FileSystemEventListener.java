@@ -19,6 +19,10 @@ package com.marklogic.hub.web.service;
 import com.marklogic.hub.HubConfig;
 import org.springframework.stereotype.Component;
 
+/**
+ * Notified by the FileSystemWatcherService whenever watched files have changed, without saying which; implement
+ * ProjectChangeListener instead to be told which files changed.
+ */
 @Component
 public interface FileSystemEventListener {
 
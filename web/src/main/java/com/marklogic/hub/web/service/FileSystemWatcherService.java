@@ -30,13 +30,21 @@ import java.nio.file.*;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches project directories, and notifies listeners once the files in them have stopped changing for a second.
+ * ProjectChangeListeners are told which files changed, so that they only need to reload those.
+ */
 @Service
 public class FileSystemWatcherService implements DisposableBean {
 
     private WatchService _watcher = null;
     // needs to have class scope so that it doesn't go away
-    private Thread watcherThread;
+    private DirectoryWatcherThread watcherThread;
     private Map<WatchKey,Path> keys = new HashMap<>();
 
     private static Logger logger = LoggerFactory.getLogger(FileSystemWatcherService.class);
@@ -45,6 +53,10 @@ public class FileSystemWatcherService implements DisposableBean {
     private HubConfigImpl hubConfig;
 
     private final List<FileSystemEventListener> listeners = Collections.synchronizedList(new ArrayList<>());
+    private final List<ProjectChangeListener> changeListeners = Collections.synchronizedList(new ArrayList<>());
+
+    // The files that changed since listeners were last notified
+    private final ProjectChangeSet.Builder pendingChanges = new ProjectChangeSet.Builder();
 
     private WatchService watcher() throws IOException {
         if (_watcher == null) {
@@ -56,11 +68,27 @@ public class FileSystemWatcherService implements DisposableBean {
     }
 
     public synchronized void unwatch(String pathName) throws IOException {
-        unregisterAll(Paths.get(pathName));
+        Path dir = Paths.get(pathName);
+        pendingChanges.removeDirectory(dir);
+        unregisterAll(dir);
     }
 
+    /**
+     * Watches a directory of the project; the type of the artifacts in it is determined from the project directories.
+     */
     public synchronized void watch(String pathName) throws IOException {
-        registerAll(Paths.get(pathName));
+        Path dir = Paths.get(pathName);
+        watch(pathName, getArtifactType(dir));
+    }
+
+    /**
+     * @param pathName the directory to watch, including its sub-directories
+     * @param type     the type of the artifacts in the directory, as reported to ProjectChangeListeners
+     */
+    public synchronized void watch(String pathName, ProjectChangeSet.ArtifactType type) throws IOException {
+        Path dir = Paths.get(pathName);
+        pendingChanges.addDirectory(dir, type);
+        registerAll(dir);
     }
 
     public void addListener(FileSystemEventListener listener) {
@@ -75,7 +103,22 @@ public class FileSystemWatcherService implements DisposableBean {
         listeners.remove(listener);
     }
 
+    public void addChangeListener(ProjectChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    public boolean hasChangeListener(ProjectChangeListener listener) {
+        return changeListeners.contains(listener);
+    }
+
+    public void removeChangeListener(ProjectChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
     private void notifyListeners(HubConfig hubConfig) {
+        ProjectChangeSet changes = pendingChanges.build();
+        logger.debug("Notifying listeners of {}", changes);
+
         // notify global listeners
         synchronized (listeners) {
             for (FileSystemEventListener listener : listeners) {
@@ -87,6 +130,48 @@ public class FileSystemWatcherService implements DisposableBean {
                 }
             }
         }
+
+        // A file that was created and deleted again, for example, leaves nothing to reload
+        if (changes.isEmpty()) {
+            return;
+        }
+        synchronized (changeListeners) {
+            for (ProjectChangeListener listener : changeListeners) {
+                try {
+                    listener.onProjectChange(hubConfig, changes);
+                }
+                catch (Exception e) {
+                    logger.error("Exception occured on listener", e);
+                }
+            }
+        }
+    }
+
+    private ProjectChangeSet.ArtifactType getArtifactType(Path dir) {
+        Path path = dir.toAbsolutePath().normalize();
+        if (path.startsWith(hubConfig.getHubEntitiesDir().toAbsolutePath().normalize())) {
+            return ProjectChangeSet.ArtifactType.ENTITY;
+        }
+        if (path.startsWith(hubConfig.getFlowsDir().toAbsolutePath().normalize())) {
+            return ProjectChangeSet.ArtifactType.FLOW;
+        }
+        if (path.startsWith(hubConfig.getHubMappingsDir().toAbsolutePath().normalize())) {
+            return ProjectChangeSet.ArtifactType.MAPPING;
+        }
+        if (path.startsWith(hubConfig.getStepDefinitionsDir().toAbsolutePath().normalize())) {
+            return ProjectChangeSet.ArtifactType.STEP_DEFINITION;
+        }
+        return ProjectChangeSet.ArtifactType.MODULE;
+    }
+
+    private static ProjectChangeSet.ChangeKind toChangeKind(Kind<?> kind) {
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            return ProjectChangeSet.ChangeKind.CREATED;
+        }
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            return ProjectChangeSet.ChangeKind.DELETED;
+        }
+        return ProjectChangeSet.ChangeKind.MODIFIED;
     }
 
     /**
@@ -159,6 +244,9 @@ public class FileSystemWatcherService implements DisposableBean {
         if (watcher() != null) {
             watcher().close();
         }
+        if (watcherThread != null) {
+            watcherThread.notificationExecutor.shutdownNow();
+        }
     }
 
     private class DirectoryWatcherThread extends Thread {
@@ -166,24 +254,41 @@ public class FileSystemWatcherService implements DisposableBean {
         private HubConfig hubConfig;
         private final int DELAY = 1000;
 
-        Timer processDelayTimer = null;
+        // Listeners are notified on this thread, one change set at a time
+        private final ScheduledExecutorService notificationExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "directory-watcher-notifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private ScheduledFuture<?> pendingNotification = null;
 
         DirectoryWatcherThread(String name, HubConfig hubConfig) {
             super(name);
             this.hubConfig = hubConfig;
         }
 
+        /**
+         * Notifies listeners once no further events have arrived for the delay; the changes accumulate until then.
+         */
         private synchronized void queueReload() {
-            if (processDelayTimer != null) {
-                processDelayTimer.cancel();
+            if (pendingNotification != null) {
+                pendingNotification.cancel(false);
             }
-            processDelayTimer = new Timer();
-            processDelayTimer.schedule(new TimerTask() {
+            pendingNotification = notificationExecutor.schedule(() -> notifyListeners(hubConfig), DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Records the files in a directory that was just created, as they may have been created before the directory
+         * was registered, in which case there are no events for them.
+         */
+        private void addCreatedFiles(Path dir) throws IOException {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
                 @Override
-                public void run() {
-                    notifyListeners(hubConfig);
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    pendingChanges.add(file, ProjectChangeSet.ChangeKind.CREATED);
+                    return FileVisitResult.CONTINUE;
                 }
-            }, DELAY);
+            });
         }
 
         @Override
@@ -205,10 +310,16 @@ public class FileSystemWatcherService implements DisposableBean {
 
                 for (WatchEvent<?> event: key.pollEvents()) {
                     Kind<?> kind = event.kind();
-//                    if (kind == StandardWatchEventKinds.OVERFLOW) {
-//                        continue;
-//                    }
+                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so listeners have to assume that anything may have changed
+                        pendingChanges.setIncomplete();
+                        queueReload();
+                        continue;
+                    }
 
+                    @SuppressWarnings("unchecked")
+                    Path changed = dir.resolve(((WatchEvent<Path>) event).context());
+                    pendingChanges.add(changed, toChangeKind(kind));
                     queueReload();
 
                     // if directory is created, then register it and its sub-directories
@@ -226,6 +337,7 @@ public class FileSystemWatcherService implements DisposableBean {
 
                             if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
                                 registerAll(child);
+                                addCreatedFiles(child);
                             }
                         } catch (IOException x) {
                             logger.error("Cannot watch newly created directory: " + child.getFileName().toAbsolutePath(), x);
@@ -6,6 +6,7 @@ import com.google.common.cache.CacheBuilder;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.hub.FlowManager;
 import com.marklogic.hub.flow.Flow;
+import com.marklogic.hub.flow.RunFlowResponse;
 import com.marklogic.hub.flow.impl.FlowRunnerImpl;
 import com.marklogic.hub.impl.HubConfigImpl;
 import com.marklogic.hub.job.JobDocManager;
@@ -23,8 +24,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.xml.bind.DatatypeConverter;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -49,7 +50,8 @@ public class FlowJobService {
 
     protected static boolean firstTimeRun = true;
 
-    //use a cache with ttl 5 minutes to reduce frequency for fetching data from DB
+    // A flow's jobs are cached until one of its jobs run by this application changes status, or the TTL expires. The
+    // TTL is kept short, as nothing detects jobs run by other processes, such as Gradle, whose events aren't seen here.
     public final Cache<String, FlowJobs> cachedJobsByFlowName = CacheBuilder.newBuilder().expireAfterWrite(
         5, TimeUnit.SECONDS).build();
 
@@ -65,6 +67,14 @@ public class FlowJobService {
         this.jobDocManager = new JobDocManager(client);
     }
 
+    @PostConstruct
+    public void init() {
+        if (flowRunner != null) {
+            flowRunner.onStatusChanged((jobId, step, jobStatus, percentComplete, successfulEvents, failedEvents, message) ->
+                onJobStatusChanged(jobId, jobStatus));
+        }
+    }
+
     @PreDestroy
     public void destroy() {
         logger.info("release the job database client.");
@@ -94,47 +104,31 @@ public class FlowJobService {
             span.finish();
         }
 
-        Map<String, Flow> flowMap = new HashMap<>();
-        flows.forEach(flow -> flowMap.put(flow.getName(), flow));
+        Map<String, FlowJobs> mapJobsByFlow = new HashMap<>();
+        List<Flow> uncachedFlows = new ArrayList<>();
+        for (Flow flow : flows) {
+            FlowJobs flowJobs = getCachedJobs(flow.getName());
+            if (flowJobs != null) {
+                mapJobsByFlow.put(flow.getName(), flowJobs);
+            } else {
+                uncachedFlows.add(flow);
+            }
+        }
+        if (uncachedFlows.isEmpty()) {
+            return mapJobsByFlow;
+        }
 
-        JsonNode jsonNode;
         Span span2 = JaegerConfig.buildSpanFromMethod(new Object() {}, parentSpan)
-            .withTag("getAllJobsCall", true)
+            .withTag("getLatestJobsCall", true)
+            .withTag("flowCount", uncachedFlows.size())
             .start();
         try (Scope ignored = JaegerConfig.activate(span2)) {
-            List<String> names = new ArrayList<>();
-            for (Flow flow : flows) {
-                names.add(flow.getName());
-            }
-            jsonNode = jobDocManager.getJobDocumentsForFlows(names);
-            if (jsonNode == null) {
-                throw new RuntimeException("Failed to get jobs for flows!");
-            }
+            Map<String, FlowJobs> retrieved = retrieveJobsByFlows(uncachedFlows);
+            cachedJobsByFlowName.putAll(retrieved);
+            mapJobsByFlow.putAll(retrieved);
         } finally {
             span2.finish();
         }
-
-        Map<String, FlowJobs> mapJobsByFlow = new HashMap<>();
-        Iterator<String> fields = jsonNode.fieldNames();
-        List<String> staleStateJobIds = new ArrayList<>();
-        while (fields.hasNext()) {
-            String flowName = fields.next();
-            JsonNode flowData =jsonNode.get(flowName);
-            List<String> jobIds = new ArrayList<>();
-            if (flowData.get("jobIds") != null && flowData.get("jobIds").isArray()) {
-                flowData.get("jobIds").forEach(id -> jobIds.add(id.asText()));
-            }
-
-            LatestJob latestJob = new LatestJob();
-            if (flowData.get("latestJob") != null && flowData.get("latestJob").has("job")) {
-                convertJsonToLatestJob(latestJob, flowData.get("latestJob").get("job"), flowMap.get(flowName), staleStateJobIds);
-            }
-
-            mapJobsByFlow.put(flowName, new FlowJobs(jobIds, latestJob));
-        }
-        if (!staleStateJobIds.isEmpty()) {
-            updateJobStaleStates(staleStateJobIds);
-        }
         return mapJobsByFlow;
     }
 
@@ -157,7 +151,8 @@ public class FlowJobService {
             .start();
 
         try (Scope ignored = JaegerConfig.activate(span)) {
-            return cachedJobsByFlowName.get(flowName, () -> retrieveJobsByFlowName(flow));
+            FlowJobs flowJobs = getCachedJobs(flowName);
+            return flowJobs != null ? flowJobs : cachedJobsByFlowName.get(flowName, () -> retrieveJobsByFlowName(flow));
         } catch (Exception e) {
             logger.error(e.getMessage());
         } finally {
@@ -243,69 +238,87 @@ public class FlowJobService {
     }
 
     private FlowJobs retrieveJobsByFlowName(Flow flow) {
-        String flowName = flow.getName();
+        FlowJobs flowJobs = retrieveJobsByFlows(Collections.singletonList(flow)).get(flow.getName());
+        if (flowJobs == null) {
+            throw new RuntimeException("Failed to get jobs for one flow: " + flow.getName());
+        }
+        return flowJobs;
+    }
+
+    /**
+     * The latest job of each flow is found by the server, and the flows are read from the response one at a time, so
+     * neither the flows' other job documents nor their start times are ever transferred.
+     */
+    private Map<String, FlowJobs> retrieveJobsByFlows(List<Flow> flows) {
         if (client == null) {
             setupClient();
         }
 
-        JsonNode jsonNode = jobDocManager.getJobDocumentsForFlow(flowName);
-        if (jsonNode == null) {
-            throw new RuntimeException("Failed to get jobs for one flow: " + flowName);
-        }
+        Map<String, Flow> flowMap = new LinkedHashMap<>();
+        flows.forEach(flow -> flowMap.put(flow.getName(), flow));
 
-        return retrieveJobsByFlowName(flow, jsonNode);
-    }
+        Map<String, FlowJobs> mapJobsByFlow = new HashMap<>();
+        List<String> staleStateJobIds = new ArrayList<>();
+        jobDocManager.getLatestJobsForFlows(new ArrayList<>(flowMap.keySet()), flowData -> {
+            String flowName = flowData.path("flow").asText();
+            Flow flow = flowMap.get(flowName);
+            if (flow == null) {
+                return;
+            }
+            List<String> jobIds = new ArrayList<>();
+            if (flowData.get("jobIds") != null && flowData.get("jobIds").isArray()) {
+                flowData.get("jobIds").forEach(id -> jobIds.add(id.asText()));
+            }
 
-    private FlowJobs retrieveJobsByFlowName(Flow flow, JsonNode jsonNode) {
-        LatestJob latestJob = new LatestJob();
-        List<String> jobs = new ArrayList<>();
-        FlowJobs flowJobs = new FlowJobs(jobs, latestJob);
-
-        final JsonNode[] lastJob = {null};
-        final String[] lastTime = {null, null}; //store last start and end time
-        if (jsonNode.isArray()) {
-            jsonNode.forEach(job -> {
-                JSONObject jobJson = new JSONObject(job.get("job"));
-                String jobId = jobJson.getString("jobId");
-                jobs.add(jobId);
-                String currStartTime = jobJson.getString("timeStarted", "");
-                String currEndTime = jobJson.getString("timeEnded", "");
-
-                if (StringUtils.isEmpty(lastTime[0])) {
-                    lastTime[0] = currStartTime;
-                    lastTime[1] = currEndTime;
-                    lastJob[0] = jobJson.jsonNode();
-                } else {
-                    try {
-                        int cmp = DatatypeConverter.parseDateTime(lastTime[0]).getTime().compareTo(DatatypeConverter.parseDateTime(currStartTime).getTime());
-                        if (cmp < 0) {
-                            lastTime[0] = currStartTime;
-                            lastTime[1] = currEndTime;
-                            //lastJobId[0] = jobId;
-                            lastJob[0] = jobJson.jsonNode();
-                        } else if (cmp == 0) { //compare end time just in case
-                            if (DatatypeConverter.parseDateTime(lastTime[1]).getTime().compareTo(DatatypeConverter.parseDateTime(currEndTime).getTime()) < 0) {
-                                lastTime[0] = currStartTime;
-                                lastTime[1] = currEndTime;
-                                lastJob[0] = jobJson.jsonNode();
-                            }
-                        }
-                    } catch (Exception e) {
-                        logger.error(e.getMessage());
-                    }
-                }
-            });
+            LatestJob latestJob = new LatestJob();
+            if (flowData.get("latestJob") != null && flowData.get("latestJob").has("job")) {
+                convertJsonToLatestJob(latestJob, flowData.get("latestJob").get("job"), flow, staleStateJobIds);
+            }
+            mapJobsByFlow.put(flowName, new FlowJobs(jobIds, latestJob));
+        });
+        if (!staleStateJobIds.isEmpty()) {
+            updateJobStaleStates(staleStateJobIds);
         }
+        return mapJobsByFlow;
+    }
 
-        if (jobs.isEmpty() || lastJob[0] == null) {
-            return flowJobs;
+    /**
+     * A cached latest job that is still running isn't used, as its counts of successful and failed events change while
+     * it runs, and it may finish without an event being seen; the flow's jobs are retrieved again instead.
+     */
+    private FlowJobs getCachedJobs(String flowName) {
+        FlowJobs flowJobs = cachedJobsByFlowName.getIfPresent(flowName);
+        if (flowJobs != null && flowJobs.latestJob != null && flowJobs.latestJob.status != null
+            && flowJobs.latestJob.status.startsWith(RUNNING_PREFIX)) {
+            cachedJobsByFlowName.invalidate(flowName);
+            return null;
         }
-
-        JSONObject jobJson = new JSONObject(lastJob[0]);
-        setLastestJob(latestJob, flow, jobJson);
         return flowJobs;
     }
 
+    /**
+     * Invalidates the cached jobs of the job's flow when the job has just started, as its ID isn't among the cached job
+     * IDs yet, and whenever it is no longer running, e.g. when a step or the job finished or failed.
+     */
+    private void onJobStatusChanged(String jobId, String jobStatus) {
+        try {
+            RunFlowResponse response = flowRunner.getJobResponseById(jobId);
+            if (response == null || response.getFlowName() == null) {
+                cachedJobsByFlowName.invalidateAll();
+                return;
+            }
+            String flowName = response.getFlowName();
+            FlowJobs flowJobs = cachedJobsByFlowName.getIfPresent(flowName);
+            if (flowJobs != null && (jobStatus == null || !jobStatus.startsWith(RUNNING_PREFIX)
+                || flowJobs.jobIds == null || !flowJobs.jobIds.contains(jobId))) {
+                cachedJobsByFlowName.invalidate(flowName);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to invalidate cached jobs for job " + jobId + ": " + e.getMessage());
+            cachedJobsByFlowName.invalidateAll();
+        }
+    }
+
     private void release() {
         if (client != null) {
             try {
@@ -80,7 +80,7 @@ public class FlowManagerService {
     private CustomStepValidator customStepValidator = null;
 
     public List<FlowStepModel> getFlows() {
-        return asyncFlowService.getFlows(true);
+        return asyncFlowService.getFlows();
     }
 
     public FlowStepModel createFlow(String flowJson, boolean checkExists) throws IOException {
@@ -24,6 +24,8 @@ import com.marklogic.client.query.QueryManager;
 import com.marklogic.client.query.RawCombinedQueryDefinition;
 import com.marklogic.client.query.StructuredQueryBuilder;
 import com.marklogic.client.query.StructuredQueryDefinition;
+import com.marklogic.hub.job.JobPurgeResponse;
+import com.marklogic.hub.job.JobPurger;
 import com.marklogic.hub.legacy.job.JobDeleteResponse;
 import com.marklogic.hub.legacy.job.JobExportResponse;
 import com.marklogic.hub.legacy.job.LegacyJobManager;
@@ -39,12 +41,15 @@ public class JobService extends SearchableService {
 
     private static final String SEARCH_OPTIONS_NAME = "jobs";
 
+    private DatabaseClient jobClient;
+
     private QueryManager queryMgr;
 
     private LegacyJobManager jobMgr;
 
 
     public JobService(DatabaseClient jobClient) {
+        this.jobClient = jobClient;
         this.queryMgr = jobClient.newQueryManager();
         this.jobMgr = LegacyJobManager.create(jobClient);
     }
@@ -96,6 +101,13 @@ public class JobService extends SearchableService {
         return this.jobMgr.deleteJobs(jobIds);
     }
 
+    public JobPurgeResponse purgeJobs(Integer retainDays, Integer retainJobsPerFlow) {
+        return new JobPurger(this.jobClient)
+            .withRetainDays(retainDays)
+            .withJobsToKeepPerFlow(retainJobsPerFlow)
+            .purge();
+    }
+
     public File exportJobs(String[] jobIds) throws IOException {
         Path exportPath = Files.createTempFile("jobexport", ".zip");
         JobExportResponse jobExportResponse = this.jobMgr.exportJobs(exportPath, jobIds);
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.marklogic.hub.web.service;
+
+import com.marklogic.hub.HubConfig;
+
+/**
+ * Notified by the FileSystemWatcherService of the project files that changed, so that only the affected artifacts or
+ * modules need to be reloaded.
+ */
+public interface ProjectChangeListener {
+
+    /**
+     * @param hubConfig the HubConfig of the watched project; this is called on the watcher's own thread, without access
+     *                  to the current Spring Boot context
+     * @param changes   the files that changed since the previous call; never empty
+     */
+    void onProjectChange(HubConfig hubConfig, ProjectChangeSet changes);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012-2019 MarkLogic Corporation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package com.marklogic.hub.web.service;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The project files that changed while the FileSystemWatcherService waited for changes to settle, with the kind of
+ * change and the kind of artifact of each file. If the file system reported that events were lost, the change set is
+ * incomplete, and any file may have changed.
+ */
+public class ProjectChangeSet {
+
+    public enum ArtifactType {
+        ENTITY, FLOW, MAPPING, STEP_DEFINITION, MODULE
+    }
+
+    public enum ChangeKind {
+        CREATED, MODIFIED, DELETED
+    }
+
+    private final Map<Path, ChangeKind> changes;
+    private final Map<Path, ArtifactType> artifactTypes;
+    private final boolean incomplete;
+
+    private ProjectChangeSet(Map<Path, ChangeKind> changes, Map<Path, ArtifactType> artifactTypes, boolean incomplete) {
+        this.changes = Collections.unmodifiableMap(changes);
+        this.artifactTypes = Collections.unmodifiableMap(artifactTypes);
+        this.incomplete = incomplete;
+    }
+
+    /**
+     * @return the kind of change of each changed file, in the order in which they first changed
+     */
+    public Map<Path, ChangeKind> getChanges() {
+        return changes;
+    }
+
+    public ArtifactType getArtifactType(Path path) {
+        return artifactTypes.get(path);
+    }
+
+    /**
+     * @return the changed files of the given type
+     */
+    public Set<Path> getPaths(ArtifactType type) {
+        Set<Path> paths = new LinkedHashSet<>();
+        for (Path path : changes.keySet()) {
+            if (artifactTypes.get(path) == type) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return true if a file of the given type changed, or if the change set is incomplete
+     */
+    public boolean contains(ArtifactType type) {
+        return incomplete || artifactTypes.containsValue(type);
+    }
+
+    /**
+     * @return true if the file system lost events, in which case any project file may have changed
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    public boolean isEmpty() {
+        return !incomplete && changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        Map<ArtifactType, Integer> counts = new EnumMap<>(ArtifactType.class);
+        for (Path path : changes.keySet()) {
+            counts.merge(artifactTypes.get(path), 1, Integer::sum);
+        }
+        return (incomplete ? "incomplete " : "") + "changes: " + counts;
+    }
+
+    /**
+     * Accumulates the events of the files under a set of directories. A file belongs to the type of the deepest
+     * directory that it is under; files under none of the directories are ignored.
+     */
+    public static class Builder {
+
+        private final Map<Path, ArtifactType> directoryTypes = new LinkedHashMap<>();
+        private final Map<Path, ChangeKind> changes = new LinkedHashMap<>();
+        private final Map<Path, ArtifactType> artifactTypes = new LinkedHashMap<>();
+        private boolean incomplete;
+
+        /**
+         * @param dir  a directory whose files are to be recorded
+         * @param type the type of the artifacts in the directory
+         */
+        public synchronized Builder addDirectory(Path dir, ArtifactType type) {
+            directoryTypes.put(dir.toAbsolutePath().normalize(), type);
+            return this;
+        }
+
+        public synchronized void removeDirectory(Path dir) {
+            directoryTypes.remove(dir.toAbsolutePath().normalize());
+        }
+
+        /**
+         * Records an event, combined with the earlier events of the same file; a file that was created and then
+         * deleted again is left out, and a file that was deleted and then created again was modified.
+         *
+         * @return true if the file is under one of the directories
+         */
+        public synchronized boolean add(Path path, ChangeKind kind) {
+            path = path.toAbsolutePath().normalize();
+            ArtifactType type = getArtifactType(path);
+            if (type == null) {
+                return false;
+            }
+            ChangeKind previous = changes.get(path);
+            ChangeKind combined = kind;
+            if (previous == ChangeKind.CREATED) {
+                combined = kind == ChangeKind.DELETED ? null : ChangeKind.CREATED;
+            } else if (previous == ChangeKind.DELETED && kind == ChangeKind.CREATED) {
+                combined = ChangeKind.MODIFIED;
+            } else if (previous == ChangeKind.MODIFIED && kind == ChangeKind.CREATED) {
+                combined = ChangeKind.MODIFIED;
+            }
+            if (combined == null) {
+                changes.remove(path);
+                artifactTypes.remove(path);
+            } else {
+                changes.put(path, combined);
+                artifactTypes.put(path, type);
+            }
+            return true;
+        }
+
+        /**
+         * Records that the file system lost events.
+         */
+        public synchronized void setIncomplete() {
+            incomplete = true;
+        }
+
+        /**
+         * @return the changes recorded so far, which are then cleared so that the next changes are recorded separately
+         */
+        public synchronized ProjectChangeSet build() {
+            ProjectChangeSet changeSet = new ProjectChangeSet(new LinkedHashMap<>(changes), new LinkedHashMap<>(artifactTypes), incomplete);
+            changes.clear();
+            artifactTypes.clear();
+            incomplete = false;
+            return changeSet;
+        }
+
+        private ArtifactType getArtifactType(Path path) {
+            Path deepest = null;
+            for (Path dir : directoryTypes.keySet()) {
+                if (path.startsWith(dir) && (deepest == null || dir.getNameCount() > deepest.getNameCount())) {
+                    deepest = dir;
+                }
+            }
+            return deepest != null ? directoryTypes.get(deepest) : null;
+        }
+    }
+}
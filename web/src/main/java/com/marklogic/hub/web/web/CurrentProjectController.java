@@ -62,7 +62,7 @@ import java.util.HashMap;
 @Controller
 @RequestMapping(value = "/api/current-project")
 @Scope(proxyMode= ScopedProxyMode.TARGET_CLASS, value="request")
-public class CurrentProjectController implements FileSystemEventListener, ValidateListener, DeployUserModulesListener, AuthenticationSuccessHandler, LogoutSuccessHandler {
+public class CurrentProjectController implements ProjectChangeListener, ValidateListener, DeployUserModulesListener, AuthenticationSuccessHandler, LogoutSuccessHandler {
 
     @Autowired
     private DataHubService dataHubService;
@@ -222,7 +222,7 @@ public class CurrentProjectController implements FileSystemEventListener, Valida
         File stepDefinitionsDir = hubConfig.getStepDefinitionsDir().toFile();
         File entitiesDir = hubConfig.getHubEntitiesDir().toFile();
         File mappingsDir = hubConfig.getHubMappingsDir().toFile();
-        if (!watcherService.hasListener(this)) {
+        if (!watcherService.hasChangeListener(this)) {
             enableWatcherService(flowsDir);
             enableWatcherService(stepDefinitionsDir);
             enableWatcherService(entitiesDir);
@@ -231,7 +231,7 @@ public class CurrentProjectController implements FileSystemEventListener, Valida
             for (StepDefinition.StepDefinitionType stepType : StepDefinition.StepDefinitionType.values()) {
                 enableWatcherService(hubProject.getCustomModulesDir().resolve(stepType.toString().toLowerCase()).toFile());
             }
-            watcherService.addListener(this);
+            watcherService.addChangeListener(this);
         }
     }
 
@@ -254,13 +254,14 @@ public class CurrentProjectController implements FileSystemEventListener, Valida
     }
 
     /**
-     * Called when the filesystem watcher detects a file change. We then install the user modules
+     * Called when the filesystem watcher detects file changes. We then install the user modules or artifacts that changed
      * @param hubConfig - must pass the hub config because this runs in a separate thread and doesn't
      *                  have access to the current spring boot context
+     * @param changes - the files that changed
      */
     @Override
-    public void onWatchEvent(HubConfig hubConfig) {
-        installUserModules(hubConfig, false);
+    public void onProjectChange(HubConfig hubConfig, ProjectChangeSet changes) {
+        dataHubService.installUserModulesAsync(hubConfig, changes, this, this);
     }
 
     @Override
@@ -307,7 +308,7 @@ public class CurrentProjectController implements FileSystemEventListener, Valida
         disableWatcherService(hubConfig.getFlowsDir().toFile());
         disableWatcherService(hubConfig.getStepDefinitionsDir().toFile());
         disableWatcherService(hubProject.getCustomModulesDir().toFile());
-        watcherService.removeListener(this);
+        watcherService.removeChangeListener(this);
         mappingManagerService.unsetMappingValidators();
     }
 
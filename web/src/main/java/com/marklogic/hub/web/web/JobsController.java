@@ -17,9 +17,12 @@
 package com.marklogic.hub.web.web;
 
 import com.marklogic.hub.impl.HubConfigImpl;
+import com.marklogic.hub.job.JobPurgeResponse;
 import com.marklogic.hub.legacy.job.JobDeleteResponse;
+import com.marklogic.hub.web.exception.BadRequestException;
 import com.marklogic.hub.web.exception.DataHubException;
 import com.marklogic.hub.web.model.JobExport;
+import com.marklogic.hub.web.model.JobPurge;
 import com.marklogic.hub.web.model.JobQuery;
 import com.marklogic.hub.web.service.JobService;
 import org.apache.commons.io.IOUtils;
@@ -64,6 +67,18 @@ public class JobsController {
         return jobService.deleteJobs(jobIds);
     }
 
+    @RequestMapping(value = "/purge", method = RequestMethod.POST)
+    @ResponseBody
+    public JobPurgeResponse purgeJobs(@RequestBody JobPurge jobPurge) {
+        if (jobPurge.retainDays == null && jobPurge.retainJobsPerFlow == null) {
+            throw new BadRequestException("Either retainDays or retainJobsPerFlow is required");
+        }
+        if ((jobPurge.retainDays != null && jobPurge.retainDays < 0) || (jobPurge.retainJobsPerFlow != null && jobPurge.retainJobsPerFlow < 0)) {
+            throw new BadRequestException("retainDays and retainJobsPerFlow must not be negative");
+        }
+        return jobService.purgeJobs(jobPurge.retainDays, jobPurge.retainJobsPerFlow);
+    }
+
     @RequestMapping(value = "/export", method = RequestMethod.POST)
     @ResponseBody
     public byte[] exportJobs(@RequestBody JobExport jobExport) {
@@ -0,0 +1,85 @@
+package com.marklogic.hub.web.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProjectChangeSetTest {
+
+    private Path projectDir = Paths.get("build", "test-project").toAbsolutePath();
+    private Path mappingsDir = projectDir.resolve("mappings");
+    private Path modulesDir = projectDir.resolve("src/main/ml-modules/root/custom-modules");
+    private Path mappingFunctionsDir = modulesDir.resolve("mapping-functions");
+
+    private ProjectChangeSet.Builder builder = new ProjectChangeSet.Builder()
+        .addDirectory(projectDir.resolve("entities"), ProjectChangeSet.ArtifactType.ENTITY)
+        .addDirectory(mappingsDir, ProjectChangeSet.ArtifactType.MAPPING)
+        .addDirectory(modulesDir, ProjectChangeSet.ArtifactType.MODULE);
+
+    @Test
+    void filesAreClassifiedByDirectory() {
+        Path mapping = mappingsDir.resolve("customer/customer-1.mapping.json");
+        Path module = modulesDir.resolve("mapping/customer/main.sjs");
+        assertTrue(builder.add(mapping, ProjectChangeSet.ChangeKind.MODIFIED));
+        assertTrue(builder.add(module, ProjectChangeSet.ChangeKind.CREATED));
+        assertFalse(builder.add(projectDir.resolve("gradle.properties"), ProjectChangeSet.ChangeKind.MODIFIED));
+
+        ProjectChangeSet changes = builder.build();
+        assertEquals(2, changes.getChanges().size());
+        assertEquals(Collections.singleton(mapping), changes.getPaths(ProjectChangeSet.ArtifactType.MAPPING));
+        assertEquals(ProjectChangeSet.ArtifactType.MODULE, changes.getArtifactType(module));
+        assertTrue(changes.contains(ProjectChangeSet.ArtifactType.MODULE));
+        assertFalse(changes.contains(ProjectChangeSet.ArtifactType.ENTITY));
+    }
+
+    @Test
+    void deepestDirectoryDeterminesType() {
+        builder.addDirectory(mappingFunctionsDir, ProjectChangeSet.ArtifactType.MAPPING);
+        Path function = mappingFunctionsDir.resolve("functions.sjs");
+        builder.add(function, ProjectChangeSet.ChangeKind.MODIFIED);
+        assertEquals(ProjectChangeSet.ArtifactType.MAPPING, builder.build().getArtifactType(function));
+
+        builder.removeDirectory(mappingFunctionsDir);
+        builder.add(function, ProjectChangeSet.ChangeKind.MODIFIED);
+        assertEquals(ProjectChangeSet.ArtifactType.MODULE, builder.build().getArtifactType(function));
+    }
+
+    @Test
+    void eventsOfSameFileAreCombined() {
+        Path created = mappingsDir.resolve("customer/customer-1.mapping.json");
+        builder.add(created, ProjectChangeSet.ChangeKind.CREATED);
+        builder.add(created, ProjectChangeSet.ChangeKind.MODIFIED);
+
+        Path replaced = mappingsDir.resolve("customer/customer-0.mapping.json");
+        builder.add(replaced, ProjectChangeSet.ChangeKind.DELETED);
+        builder.add(replaced, ProjectChangeSet.ChangeKind.CREATED);
+
+        Path temporary = mappingsDir.resolve("customer/customer-1.mapping.json.tmp");
+        builder.add(temporary, ProjectChangeSet.ChangeKind.CREATED);
+        builder.add(temporary, ProjectChangeSet.ChangeKind.DELETED);
+
+        ProjectChangeSet changes = builder.build();
+        assertEquals(ProjectChangeSet.ChangeKind.CREATED, changes.getChanges().get(created));
+        assertEquals(ProjectChangeSet.ChangeKind.MODIFIED, changes.getChanges().get(replaced));
+        assertFalse(changes.getChanges().containsKey(temporary), "A file that no longer exists and didn't before has not changed");
+    }
+
+    @Test
+    void buildStartsNewChangeSet() {
+        builder.add(mappingsDir.resolve("customer/customer-1.mapping.json"), ProjectChangeSet.ChangeKind.MODIFIED);
+        builder.setIncomplete();
+        ProjectChangeSet changes = builder.build();
+        assertTrue(changes.isIncomplete());
+        assertTrue(changes.contains(ProjectChangeSet.ArtifactType.FLOW), "Any file may have changed when events were lost");
+
+        ProjectChangeSet next = builder.build();
+        assertTrue(next.isEmpty());
+        assertFalse(next.isIncomplete());
+    }
+}